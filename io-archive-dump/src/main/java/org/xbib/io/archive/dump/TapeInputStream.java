@@ -1,6 +1,8 @@
 
 package org.xbib.io.archive.dump;
 
+import org.xbib.io.archive.util.InflaterPool;
+
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -271,18 +273,19 @@ public class TapeInputStream extends FilterInputStream {
                             0x03)) {
                         case ZLIB:
 
+                            InflaterPool pool = InflaterPool.getInstance(false);
+                            Inflater inflator = pool.acquire();
                             try {
-                                Inflater inflator = new Inflater();
                                 inflator.setInput(compBuffer, 0, compBuffer.length);
                                 length = inflator.inflate(blockBuffer);
 
                                 if (length != blockSize) {
                                     throw new ShortFileException();
                                 }
-
-                                inflator.end();
                             } catch (DataFormatException e) {
                                 throw new DumpArchiveException("bad data", e);
+                            } finally {
+                                pool.release(inflator);
                             }
 
                             break;
@@ -110,6 +110,11 @@ public class TarArchiveEntry implements TarConstants, ArchiveEntry {
 
     private boolean isDir;
 
+    /**
+     * Offset of the first header record of the member, if the entry was read by a {@link TarFile}.
+     */
+    private long headerOffset = -1L;
+
     /**
      * Construct an empty entry and prepares the header values.
      */
@@ -462,6 +467,19 @@ public class TarArchiveEntry implements TarConstants, ArchiveEntry {
         return realSize;
     }
 
+    void setHeaderOffset(long headerOffset) {
+        this.headerOffset = headerOffset;
+    }
+
+    /**
+     * Get the offset of the first header record of the member in the archive.
+     *
+     * @return the offset, or -1 if the entry was not read by a {@link TarFile}
+     */
+    long getHeaderOffset() {
+        return headerOffset;
+    }
+
     /**
      * Indicate if this entry is a GNU sparse block
      *
@@ -24,11 +24,15 @@ public class TarArchiveInputStream extends ArchiveInputStream<TarArchiveEntry> i
 
     private final int recordSize;
 
-    private final int recsPerBlock;
-
     private final byte[] blockBuffer;
 
-    private byte[] readBuf;
+    private final byte[] headerBuf;
+
+    private int blockOffset;
+
+    private int blockLength;
+
+    private long streamPosition;
 
     private boolean hasHitEOF;
 
@@ -38,23 +42,26 @@ public class TarArchiveInputStream extends ArchiveInputStream<TarArchiveEntry> i
 
     private TarArchiveEntry entry;
 
-    private int currRecIdx;
-
     /**
      * Constructor for TarInputStream.
      *
+     * Entry data is served from the block buffer, or read directly into the caller's buffer for
+     * large reads, so reading does not allocate per record. Skipping entry data and unread entries
+     * uses {@link InputStream#skip(long)} of the underlying stream, which seeks on file streams,
+     * so listing an archive costs only the header I/O.
+     *
      * @param is the input stream to use
      */
     public TarArchiveInputStream(InputStream is) {
         this.encoding = ArchiveEntryEncodingHelper.getEncoding(null);
-        this.readBuf = null;
         this.hasHitEOF = false;
         this.inStream = is;
         this.blockSize = DEFAULT_BLOCK_SIZE;
         this.recordSize = DEFAULT_RECORD_SIZE;
-        this.recsPerBlock = this.blockSize / this.recordSize;
         this.blockBuffer = new byte[this.blockSize];
-        this.currRecIdx = this.recsPerBlock;
+        this.headerBuf = new byte[this.recordSize];
+        this.blockOffset = 0;
+        this.blockLength = 0;
     }
 
     /**
@@ -100,6 +107,16 @@ public class TarArchiveInputStream extends ArchiveInputStream<TarArchiveEntry> i
         return (int) (entrySize - entryOffset);
     }
 
+    /**
+     * Returns the position in the archive, that is the number of bytes consumed from
+     * the underlying stream that have been handed out or skipped.
+     *
+     * @return the position in the archive
+     */
+    long getPosition() {
+        return streamPosition - (blockLength - blockOffset);
+    }
+
     /**
      * Skip bytes in the input buffer. This skips bytes in the
      * current entry's data, not the entire archive, and will
@@ -112,21 +129,13 @@ public class TarArchiveInputStream extends ArchiveInputStream<TarArchiveEntry> i
      */
     @Override
     public long skip(long numToSkip) throws IOException {
-        // REVIEW
-        // This is horribly inefficient, but it ensures that we
-        // properly skip over bytes
-        //
-        byte[] skipBuf = new byte[1024];
-        long skip = numToSkip;
-        while (skip > 0) {
-            int realSkip = (int) (skip > skipBuf.length ? skipBuf.length : skip);
-            int numRead = read(skipBuf, 0, realSkip);
-            if (numRead == -1) {
-                break;
-            }
-            skip -= numRead;
+        long skip = Math.min(numToSkip, entrySize - entryOffset);
+        if (skip <= 0) {
+            return 0;
         }
-        return (numToSkip - skip);
+        skipBytes(skip);
+        entryOffset += skip;
+        return skip;
     }
 
     /**
@@ -154,17 +163,12 @@ public class TarArchiveInputStream extends ArchiveInputStream<TarArchiveEntry> i
             return null;
         }
         if (entry != null) {
-            long numToSkip = entrySize - entryOffset;
-            while (numToSkip > 0) {
-                long skipped = skip(numToSkip);
-                if (skipped <= 0) {
-                    throw new RuntimeException("failed to skip current tar entry");
-                }
-                numToSkip -= skipped;
-            }
-            readBuf = null;
+            // skip the rest of the entry data and the padding of the last record
+            long padding = (recordSize - entrySize % recordSize) % recordSize;
+            skipBytes(entrySize - entryOffset + padding);
+            entryOffset = entrySize;
         }
-        byte[] headerBuf = getRecord();
+        getRecord();
         if (hasHitEOF) {
             entry = null;
             return null;
@@ -194,6 +198,8 @@ public class TarArchiveInputStream extends ArchiveInputStream<TarArchiveEntry> i
         }
         if (entry.isPaxHeader()) {
             paxHeaders();
+            // the size may have been overridden by the PAX headers
+            this.entrySize = entry.getEntrySize();
         }
         return entry;
     }
@@ -214,8 +220,7 @@ public class TarArchiveInputStream extends ArchiveInputStream<TarArchiveEntry> i
         if (hasHitEOF) {
             return null;
         }
-        byte[] headerBuf = readRecord();
-        if (headerBuf == null) {
+        if (!readRecord(headerBuf)) {
             hasHitEOF = true;
         } else if (isEOFRecord(headerBuf)) {
             hasHitEOF = true;
@@ -224,38 +229,78 @@ public class TarArchiveInputStream extends ArchiveInputStream<TarArchiveEntry> i
     }
 
     /**
-     * Read a record from the input stream and return the data.
+     * Read a record from the input stream into the given buffer.
+     * A truncated last record is filled up with zeros.
      *
-     * @return The record data.
+     * @param record the buffer for the record data
+     * @return false if there are no more records
      * @throws IOException on error
      */
-    private byte[] readRecord() throws IOException {
-        if (currRecIdx >= recsPerBlock && !readBlock()) {
-            return null;
+    private boolean readRecord(byte[] record) throws IOException {
+        int n = 0;
+        while (n < recordSize) {
+            if (blockOffset == blockLength && !readBlock()) {
+                if (n == 0) {
+                    return false;
+                }
+                Arrays.fill(record, n, recordSize, (byte) 0);
+                break;
+            }
+            int len = Math.min(recordSize - n, blockLength - blockOffset);
+            System.arraycopy(blockBuffer, blockOffset, record, n, len);
+            blockOffset += len;
+            n += len;
         }
-        byte[] result = new byte[recordSize];
-        System.arraycopy(blockBuffer, (currRecIdx * recordSize), result, 0, recordSize);
-        currRecIdx++;
-        return result;
+        return true;
     }
 
+    /**
+     * Refills the block buffer from the input stream.
+     *
+     * @return false at the end of the input stream
+     * @throws IOException on error
+     */
     private boolean readBlock() throws IOException {
-        currRecIdx = 0;
-        int offset = 0;
-        int bytesNeeded = blockSize;
-        while (bytesNeeded > 0) {
-            long numBytes = inStream.read(blockBuffer, offset, bytesNeeded);
-            if (numBytes == -1) {
-                if (offset == 0) {
-                    return false;
+        blockOffset = 0;
+        blockLength = 0;
+        int numBytes;
+        do {
+            numBytes = inStream.read(blockBuffer, 0, blockSize);
+        } while (numBytes == 0);
+        if (numBytes == -1) {
+            return false;
+        }
+        blockLength = numBytes;
+        streamPosition += numBytes;
+        return true;
+    }
+
+    /**
+     * Skips bytes of the archive, first in the block buffer, then in the input stream.
+     * The last byte is always read, because skipping on a file stream seeks past the end of
+     * a truncated archive without an error, which would then look like a regular end of archive.
+     *
+     * @param numToSkip the number of bytes to skip
+     * @throws IOException on error
+     */
+    private void skipBytes(long numToSkip) throws IOException {
+        int inBuffer = (int) Math.min(numToSkip, blockLength - blockOffset);
+        blockOffset += inBuffer;
+        long skip = numToSkip - inBuffer;
+        while (skip > 0) {
+            long skipped = skip > 1 ? inStream.skip(skip - 1) : 0;
+            if (skipped > 0) {
+                skip -= skipped;
+                streamPosition += skipped;
+            } else {
+                // the input stream can not skip, read through the block buffer
+                if (!readBlock()) {
+                    throw new IOException("unexpected EOF with " + skip + " bytes unskipped");
                 }
-                Arrays.fill(blockBuffer, offset, offset + bytesNeeded, (byte) 0);
-                break;
+                blockOffset = (int) Math.min(skip, blockLength);
+                skip -= blockOffset;
             }
-            offset += numBytes;
-            bytesNeeded -= numBytes;
         }
-        return true;
     }
 
     /**
@@ -372,6 +417,24 @@ public class TarArchiveInputStream extends ArchiveInputStream<TarArchiveEntry> i
         return getNextTarEntry();
     }
 
+    /**
+     * Reads a byte from the current tar archive entry.
+     *
+     * @return the byte read, or -1 at EOF
+     * @throws IOException on error
+     */
+    @Override
+    public int read() throws IOException {
+        if (entryOffset >= entrySize) {
+            return -1;
+        }
+        if (blockOffset == blockLength && !readBlock()) {
+            throw new IOException("unexpected EOF with 1 bytes unread");
+        }
+        entryOffset++;
+        return blockBuffer[blockOffset++] & 0xff;
+    }
+
     /**
      * Reads bytes from the current tar archive entry.
      * This method is aware of the boundaries of the current
@@ -393,35 +456,23 @@ public class TarArchiveInputStream extends ArchiveInputStream<TarArchiveEntry> i
         if ((numToRead + entryOffset) > entrySize) {
             numToRead = (int) (entrySize - entryOffset);
         }
-        if (readBuf != null) {
-            int sz = (numToRead > readBuf.length) ? readBuf.length : numToRead;
-            System.arraycopy(readBuf, 0, buf, offset, sz);
-            if (sz >= readBuf.length) {
-                readBuf = null;
-            } else {
-                int newLen = readBuf.length - sz;
-                byte[] newBuf = new byte[newLen];
-                System.arraycopy(readBuf, sz, newBuf, 0, newLen);
-                readBuf = newBuf;
-            }
-            totalRead += sz;
-            numToRead -= sz;
-            offset += sz;
-        }
         while (numToRead > 0) {
-            byte[] rec = readRecord();
-            if (rec == null) {
-                throw new IOException("unexpected EOF with " + numToRead + " bytes unread");
-            }
-            int sz = numToRead;
-            int recLen = rec.length;
-            if (recLen > sz) {
-                System.arraycopy(rec, 0, buf, offset, sz);
-                readBuf = new byte[recLen - sz];
-                System.arraycopy(rec, sz, readBuf, 0, recLen - sz);
+            int sz;
+            if (blockOffset < blockLength) {
+                sz = Math.min(numToRead, blockLength - blockOffset);
+                System.arraycopy(blockBuffer, blockOffset, buf, offset, sz);
+                blockOffset += sz;
+            } else if (numToRead >= blockSize) {
+                // large reads bypass the block buffer
+                sz = inStream.read(buf, offset, numToRead);
+                if (sz == -1) {
+                    throw new IOException("unexpected EOF with " + numToRead + " bytes unread");
+                }
+                streamPosition += sz;
+            } else if (readBlock()) {
+                continue;
             } else {
-                sz = recLen;
-                System.arraycopy(rec, 0, buf, offset, recLen);
+                throw new IOException("unexpected EOF with " + numToRead + " bytes unread");
             }
             totalRead += sz;
             numToRead -= sz;
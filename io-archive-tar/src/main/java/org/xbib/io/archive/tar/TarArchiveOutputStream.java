@@ -4,10 +4,15 @@ import org.xbib.io.archive.stream.ArchiveOutputStream;
 import org.xbib.io.archive.entry.ArchiveEntryEncoding;
 import org.xbib.io.archive.entry.ArchiveEntryEncodingHelper;
 
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.StringWriter;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
@@ -19,6 +24,8 @@ public class TarArchiveOutputStream extends ArchiveOutputStream<TarArchiveEntry>
 
     private static final ArchiveEntryEncoding ASCII = ArchiveEntryEncodingHelper.getEncoding("ASCII");
 
+    private static final int TRANSFER_BUFFER_SIZE = 1024 * 1024;
+
     private final ArchiveEntryEncoding encoding;
 
     private final OutputStream outStream;
@@ -37,6 +44,12 @@ public class TarArchiveOutputStream extends ArchiveOutputStream<TarArchiveEntry>
 
     private int currRecIdx;
 
+    /**
+     * The offset in the block buffer up to which the block has already been written,
+     * after entry data has been written directly to the output stream.
+     */
+    private int blockStart;
+
     private long currSize;
 
     private String currName;
@@ -133,6 +146,7 @@ public class TarArchiveOutputStream extends ArchiveOutputStream<TarArchiveEntry>
         this.recsPerBlock = (this.blockSize / this.recordSize);
         this.blockBuffer = new byte[this.blockSize];
         this.currRecIdx = 0;
+        this.blockStart = 0;
     }
 
     /**
@@ -222,9 +236,33 @@ public class TarArchiveOutputStream extends ArchiveOutputStream<TarArchiveEntry>
         if (outStream == null) {
             throw new IOException("writing to an input buffer");
         }
-        outStream.write(blockBuffer, 0, blockSize);
+        outStream.write(blockBuffer, blockStart, blockSize - blockStart);
         outStream.flush();
         currRecIdx = 0;
+        blockStart = 0;
+        Arrays.fill(blockBuffer, (byte) 0);
+    }
+
+    /**
+     * Writes the records in the block buffer without padding the block.
+     */
+    private void writeRecords() throws IOException {
+        int end = currRecIdx * recordSize;
+        if (end > blockStart) {
+            outStream.write(blockBuffer, blockStart, end - blockStart);
+            blockStart = end;
+        }
+    }
+
+    /**
+     * Moves the block position behind data that has been written directly to the output stream.
+     *
+     * @param length the number of bytes written, a multiple of the record size
+     */
+    private void skipRecords(long length) {
+        int pos = (int) ((blockStart + length) % blockSize);
+        currRecIdx = pos / recordSize;
+        blockStart = pos;
         Arrays.fill(blockBuffer, (byte) 0);
     }
 
@@ -432,6 +470,70 @@ public class TarArchiveOutputStream extends ArchiveOutputStream<TarArchiveEntry>
         }
     }
 
+    /**
+     * Put an entry with the contents of the given file on the output stream and close it.
+     * The entry size is set to the size of the file.
+     *
+     * The file contents do not go through the record buffers. If the output stream is a
+     * {@link FileOutputStream}, the contents are transferred with
+     * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+     * which lets the operating system copy the data. Otherwise, the contents are copied
+     * in large chunks straight to the output stream.
+     *
+     * @param archiveEntry the TarEntry to be written to the archive
+     * @param file         the file with the entry contents
+     * @throws IOException on error, or if the file is shorter than its size at the start
+     */
+    public void putFile(TarArchiveEntry archiveEntry, Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            throw new IOException("not a regular file: " + file);
+        }
+        long size = Files.size(file);
+        archiveEntry.setEntrySize(size);
+        putArchiveEntry(archiveEntry);
+        if (outStream == null) {
+            throw new IOException("Output buffer is closed");
+        }
+        writeRecords();
+        long transferred = 0L;
+        if (outStream instanceof FileOutputStream) {
+            FileChannel target = ((FileOutputStream) outStream).getChannel();
+            try (FileChannel source = FileChannel.open(file)) {
+                while (transferred < size) {
+                    long n = source.transferTo(transferred, size - transferred, target);
+                    if (n <= 0) {
+                        break;
+                    }
+                    transferred += n;
+                }
+            }
+        } else {
+            try (InputStream source = Files.newInputStream(file)) {
+                byte[] buffer = new byte[(int) Math.min(size, TRANSFER_BUFFER_SIZE)];
+                while (transferred < size) {
+                    int n = source.read(buffer, 0, (int) Math.min(buffer.length, size - transferred));
+                    if (n < 0) {
+                        break;
+                    }
+                    outStream.write(buffer, 0, n);
+                    transferred += n;
+                }
+            }
+        }
+        if (transferred < size) {
+            throw new IOException("file '" + file + "' ended at '" + transferred
+                    + "' before the '" + size + "' bytes specified in the header were written");
+        }
+        int padding = (int) ((recordSize - size % recordSize) % recordSize);
+        if (padding > 0) {
+            Arrays.fill(recordBuf, (byte) 0);
+            outStream.write(recordBuf, 0, padding);
+        }
+        skipRecords(size + padding);
+        currBytes = size;
+        closeArchiveEntry();
+    }
+
     /**
      * Writes a PAX extended header with the given map as contents.
      */
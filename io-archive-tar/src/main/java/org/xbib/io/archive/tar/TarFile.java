@@ -0,0 +1,317 @@
+package org.xbib.io.archive.tar;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+
+/**
+ * Random access to the members of a tar archive in a file.
+ *
+ * A tar archive has no central directory, so this class builds an index of all members
+ * in one pass over the headers, which skips the entry data by positioning the file channel.
+ * GNU long names and PAX extended headers are handled like in
+ * {@link TarArchiveInputStream#getNextTarEntry()}. The index can be persisted as a compact
+ * sidecar file and loaded instead of scanning the archive again. Entry data is read with
+ * positional reads on the file channel, so {@link #getInputStream(TarArchiveEntry)} goes
+ * straight to the member, and many threads can read different members at the same time.
+ *
+ * {@link TarArchiveEntry} instances are created on demand by parsing the headers of the
+ * member again, every call creates a new instance.
+ */
+public class TarFile {
+
+    private final String archiveName;
+
+    private final RandomAccessFile archive;
+
+    private final FileChannel channel;
+
+    private final TarIndex index;
+
+    private final long archiveLength;
+
+    private final long archiveLastModified;
+
+    /**
+     * Opens the given file for reading and builds the index.
+     *
+     * @param f the archive
+     * @throws IOException if an error occurs while reading the file
+     */
+    public TarFile(File f) throws IOException {
+        this(f, null);
+    }
+
+    /**
+     * Opens the given file for reading. If the index file exists and was written for this
+     * archive, the index is loaded from it. Otherwise, the index is built and written to
+     * the index file.
+     *
+     * @param f         the archive
+     * @param indexFile the sidecar file for the index, or null
+     * @throws IOException if an error occurs while reading the file, or if the index file
+     *                     is not a tar index
+     */
+    public TarFile(File f, File indexFile) throws IOException {
+        this.archiveName = f.getAbsolutePath();
+        this.archive = new RandomAccessFile(f, "r");
+        this.channel = archive.getChannel();
+        boolean success = false;
+        try {
+            this.archiveLength = channel.size();
+            this.archiveLastModified = f.lastModified();
+            TarIndex tarIndex = null;
+            if (indexFile != null && indexFile.exists()) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+                    tarIndex = TarIndex.read(in, archiveLength, archiveLastModified);
+                }
+            }
+            if (tarIndex == null) {
+                tarIndex = buildIndex();
+                this.index = tarIndex;
+                if (indexFile != null) {
+                    writeIndex(indexFile);
+                }
+            } else {
+                this.index = tarIndex;
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                try {
+                    archive.close();
+                } catch (IOException e2) {
+                    // swallow, throw the original exception instead
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the archive.
+     *
+     * @throws IOException if an error occurs closing the archive.
+     */
+    public void close() throws IOException {
+        archive.close();
+    }
+
+    /**
+     * close a tarfile quietly; throw no io fault, do nothing
+     * on a null parameter
+     *
+     * @param tarfile file to close, can be null
+     */
+    public static void closeQuietly(TarFile tarfile) {
+        if (tarfile != null) {
+            try {
+                tarfile.close();
+            } catch (IOException e) { // NOPMD
+                //ignore, that's why the method is called "quietly"
+            }
+        }
+    }
+
+    /**
+     * Writes the index to a sidecar file.
+     *
+     * @param indexFile the index file
+     * @throws IOException if an error occurs while writing the file
+     */
+    public void writeIndex(File indexFile) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+            index.write(out, archiveLength, archiveLastModified);
+        }
+    }
+
+    /**
+     * Returns the number of members in the archive.
+     *
+     * @return the number of members
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Returns all entries in the order of the archive.
+     *
+     * @return all entries as {@link TarArchiveEntry} instances
+     * @throws UncheckedIOException from {@link Enumeration#nextElement()} if the header of
+     *                              an entry can not be read
+     */
+    public Enumeration<TarArchiveEntry> getEntries() {
+        return new Enumeration<TarArchiveEntry>() {
+            private int i = 0;
+
+            @Override
+            public boolean hasMoreElements() {
+                return i < index.size();
+            }
+
+            @Override
+            public TarArchiveEntry nextElement() {
+                if (i >= index.size()) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    return readEntry(i++);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns a named entry, or null if no entry by that name exists.
+     * If the name occurs more than once, the last member is returned.
+     *
+     * @param name name of the entry
+     * @return the TarArchiveEntry corresponding to the given name, or null
+     * @throws IOException if the header of the entry can not be read
+     */
+    public TarArchiveEntry getEntry(String name) throws IOException {
+        int i = index.lookup(name);
+        return i >= 0 ? readEntry(i) : null;
+    }
+
+    /**
+     * Returns an InputStream for reading the contents of the given entry. An entry of this
+     * archive is resolved to its own member, even if the name occurs more than once. Any
+     * other entry is looked up by name, like {@link #getEntry(String)}.
+     *
+     * @param entry the entry to get the stream for
+     * @return a stream to read the entry from, or null if the archive has no entry of this name
+     */
+    public InputStream getInputStream(TarArchiveEntry entry) {
+        int i = index.lookup(entry.getHeaderOffset());
+        if (i < 0 || !index.getName(i).equals(entry.getName())) {
+            i = index.lookup(entry.getName());
+        }
+        if (i < 0) {
+            return null;
+        }
+        return new BoundedInputStream(index.getDataOffset(i), index.getSize(i));
+    }
+
+    @Override
+    public String toString() {
+        return archiveName;
+    }
+
+    /**
+     * Reads the headers of the archive and skips the entry data.
+     */
+    private TarIndex buildIndex() throws IOException {
+        TarIndex tarIndex = new TarIndex();
+        TarArchiveInputStream in = new TarArchiveInputStream(new BoundedInputStream(0L, archiveLength));
+        int recordSize = in.getRecordSize();
+        long headerOffset = 0L;
+        TarArchiveEntry entry;
+        while ((entry = in.getNextTarEntry()) != null) {
+            long dataOffset = in.getPosition();
+            long size = entry.getEntrySize();
+            tarIndex.add(entry.getName(), headerOffset, dataOffset, size);
+            headerOffset = dataOffset + (size + recordSize - 1) / recordSize * recordSize;
+        }
+        return tarIndex;
+    }
+
+    /**
+     * Parses the headers of a member again.
+     */
+    private TarArchiveEntry readEntry(int i) throws IOException {
+        long headerOffset = index.getHeaderOffset(i);
+        TarArchiveInputStream in = new TarArchiveInputStream(
+                new BoundedInputStream(headerOffset, index.getDataOffset(i) - headerOffset));
+        TarArchiveEntry entry = in.getNextTarEntry();
+        if (entry == null) {
+            throw new IOException("no tar header at offset " + headerOffset + " in " + archiveName);
+        }
+        entry.setHeaderOffset(headerOffset);
+        return entry;
+    }
+
+    /**
+     * InputStream that delegates requests to the underlying
+     * FileChannel, making sure that only bytes from a certain
+     * range can be read. Skipping only moves the position.
+     */
+    private class BoundedInputStream extends InputStream {
+        private long remaining;
+        private long loc;
+        private ByteBuffer singleByteBuffer;
+
+        BoundedInputStream(long start, long remaining) {
+            this.remaining = remaining;
+            loc = start;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            if (singleByteBuffer == null) {
+                singleByteBuffer = ByteBuffer.allocate(1);
+            } else {
+                singleByteBuffer.rewind();
+            }
+            int ret = channel.read(singleByteBuffer, loc);
+            if (ret <= 0) {
+                return -1;
+            }
+            loc++;
+            remaining--;
+            return singleByteBuffer.get(0) & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            if (len <= 0) {
+                return 0;
+            }
+            if (len > remaining) {
+                len = (int) remaining;
+            }
+            int ret = channel.read(ByteBuffer.wrap(b, off, len), loc);
+            if (ret > 0) {
+                loc += ret;
+                remaining -= ret;
+            }
+            return ret;
+        }
+
+        @Override
+        public long skip(long n) {
+            if (n <= 0 || remaining <= 0) {
+                return 0;
+            }
+            long skipped = Math.min(n, remaining);
+            loc += skipped;
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(remaining, Integer.MAX_VALUE);
+        }
+    }
+}
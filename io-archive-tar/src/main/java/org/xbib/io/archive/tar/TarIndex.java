@@ -0,0 +1,169 @@
+package org.xbib.io.archive.tar;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An index of the members of a tar archive. For every member, the index keeps the
+ * name, the offset of the first header record (including GNU long name and PAX
+ * extended headers), the offset of the data and the data size, in primitive arrays.
+ * If a name occurs more than once, the lookup finds the last member, like extracting
+ * the archive would.
+ *
+ * The index can be written to and read from a compact sidecar. The offsets are
+ * stored as variable length deltas, so a member costs its name and a few bytes.
+ */
+final class TarIndex {
+
+    private static final int MAGIC = 0x54494458; // "TIDX"
+
+    private static final int VERSION = 1;
+
+    private String[] names;
+    private long[] headerOffsets;
+    private long[] dataOffsets;
+    private long[] sizes;
+    private int size;
+    private final Map<String, Integer> lookup;
+
+    TarIndex() {
+        this.names = new String[16];
+        this.headerOffsets = new long[16];
+        this.dataOffsets = new long[16];
+        this.sizes = new long[16];
+        this.size = 0;
+        this.lookup = new HashMap<>();
+    }
+
+    void add(String name, long headerOffset, long dataOffset, long entrySize) {
+        if (size == names.length) {
+            int capacity = size * 2;
+            names = Arrays.copyOf(names, capacity);
+            headerOffsets = Arrays.copyOf(headerOffsets, capacity);
+            dataOffsets = Arrays.copyOf(dataOffsets, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+        }
+        names[size] = name;
+        headerOffsets[size] = headerOffset;
+        dataOffsets[size] = dataOffset;
+        sizes[size] = entrySize;
+        lookup.put(name, size);
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of the last member with the given name, or -1.
+     */
+    int lookup(String name) {
+        Integer i = lookup.get(name);
+        return i != null ? i : -1;
+    }
+
+    /**
+     * Returns the number of the member whose headers start at the given offset, or -1.
+     */
+    int lookup(long headerOffset) {
+        int i = Arrays.binarySearch(headerOffsets, 0, size, headerOffset);
+        return i >= 0 ? i : -1;
+    }
+
+    String getName(int i) {
+        return names[i];
+    }
+
+    long getHeaderOffset(int i) {
+        return headerOffsets[i];
+    }
+
+    long getDataOffset(int i) {
+        return dataOffsets[i];
+    }
+
+    long getSize(int i) {
+        return sizes[i];
+    }
+
+    /**
+     * Writes the index. The length and the modification time of the archive are
+     * recorded, so a stale sidecar can be detected.
+     */
+    void write(DataOutput out, long archiveLength, long archiveLastModified) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(archiveLength);
+        out.writeLong(archiveLastModified);
+        writeVarLong(out, size);
+        long end = 0L;
+        for (int i = 0; i < size; i++) {
+            byte[] name = names[i].getBytes(StandardCharsets.UTF_8);
+            writeVarLong(out, name.length);
+            out.write(name);
+            writeVarLong(out, headerOffsets[i] - end);
+            writeVarLong(out, dataOffsets[i] - headerOffsets[i]);
+            writeVarLong(out, sizes[i]);
+            end = dataOffsets[i] + sizes[i];
+        }
+    }
+
+    /**
+     * Reads an index, or returns null if it was written for an archive with a different
+     * length or modification time.
+     */
+    static TarIndex read(DataInput in, long archiveLength, long archiveLastModified) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a tar index");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported tar index version " + version);
+        }
+        if (in.readLong() != archiveLength || in.readLong() != archiveLastModified) {
+            return null;
+        }
+        long count = readVarLong(in);
+        TarIndex index = new TarIndex();
+        long end = 0L;
+        for (long i = 0; i < count; i++) {
+            byte[] name = new byte[(int) readVarLong(in)];
+            in.readFully(name);
+            long headerOffset = end + readVarLong(in);
+            long dataOffset = headerOffset + readVarLong(in);
+            long entrySize = readVarLong(in);
+            index.add(new String(name, StandardCharsets.UTF_8), headerOffset, dataOffset, entrySize);
+            end = dataOffset + entrySize;
+        }
+        return index;
+    }
+
+    private static void writeVarLong(DataOutput out, long value) throws IOException {
+        if (value < 0) {
+            throw new IOException("negative value in tar index: " + value);
+        }
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInput in) throws IOException {
+        long value = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed tar index");
+    }
+}
@@ -1,8 +1,23 @@
 package org.xbib.io.archive.tar;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.Random;
 
 import org.junit.jupiter.api.Test;
 
@@ -23,4 +38,216 @@ public class TarTest {
         assertEquals(1889L, total);
         tarArchiveInputStream.close();
     }
+
+    @Test
+    public void testSkipTar() throws IOException {
+        InputStream in = getClass().getResourceAsStream("test.tar");
+        TarArchiveInputStream tarArchiveInputStream = new TarArchiveInputStream(in);
+        ByteArrayOutputStream full = new ByteArrayOutputStream();
+        int entries = 0;
+        while (tarArchiveInputStream.getNextEntry() != null) {
+            entries++;
+            int b;
+            while ((b = tarArchiveInputStream.read()) != -1) {
+                full.write(b);
+            }
+        }
+        tarArchiveInputStream.close();
+        in = getClass().getResourceAsStream("test.tar");
+        tarArchiveInputStream = new TarArchiveInputStream(in);
+        long total = 0L;
+        int count = 0;
+        while (tarArchiveInputStream.getNextEntry() != null) {
+            count++;
+            long size = tarArchiveInputStream.available();
+            if (count % 2 == 0) {
+                // leave the entry unread
+                continue;
+            }
+            assertEquals(Math.min(size, 10L), tarArchiveInputStream.skip(10L));
+            total += Math.min(size, 10L);
+            byte[] buffer = new byte[7];
+            int len;
+            while ((len = tarArchiveInputStream.read(buffer)) > 0) {
+                total += len;
+            }
+            assertEquals(size, total);
+            total = 0L;
+        }
+        tarArchiveInputStream.close();
+        assertEquals(entries, count);
+        assertEquals(1889L, full.size());
+    }
+
+    @Test
+    public void testSkipTruncatedTar() throws IOException {
+        Path path = Files.createTempFile("truncated", ".tar");
+        try {
+            try (TarArchiveOutputStream out = new TarArchiveOutputStream(Files.newOutputStream(path))) {
+                for (int i = 0; i < 2; i++) {
+                    TarArchiveEntry entry = new TarArchiveEntry("entry" + i);
+                    entry.setEntrySize(100000);
+                    out.putArchiveEntry(entry);
+                    out.write(new byte[100000]);
+                    out.closeArchiveEntry();
+                }
+            }
+            byte[] b = Files.readAllBytes(path);
+            // cut off within the data of the second entry, skip() of a file stream seeks past the end
+            Files.write(path, Arrays.copyOf(b, 150000));
+            try (TarArchiveInputStream in = new TarArchiveInputStream(new FileInputStream(path.toFile()))) {
+                assertEquals("entry0", in.getNextEntry().getName());
+                assertEquals("entry1", in.getNextEntry().getName());
+                IOException e = assertThrows(IOException.class, in::getNextEntry);
+                assertTrue(e.getMessage().startsWith("unexpected EOF"), e.getMessage());
+            }
+            try (TarArchiveInputStream in = new TarArchiveInputStream(new FileInputStream(path.toFile()))) {
+                in.getNextEntry();
+                in.getNextEntry();
+                IOException e = assertThrows(IOException.class, () -> in.skip(100000L));
+                assertTrue(e.getMessage().startsWith("unexpected EOF"), e.getMessage());
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testPutFile() throws IOException {
+        Path dir = Files.createTempDirectory("tartest");
+        Path file = dir.resolve("data");
+        byte[] data = new byte[100001];
+        new Random(42L).nextBytes(data);
+        Files.write(file, data);
+        Date date = new Date(1500000000000L);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        TarArchiveOutputStream tarArchiveOutputStream = new TarArchiveOutputStream(expected);
+        for (int i = 0; i < 3; i++) {
+            tarArchiveOutputStream.putArchiveEntry(createEntry("small" + i, 100, date));
+            tarArchiveOutputStream.write(new byte[100]);
+            tarArchiveOutputStream.closeArchiveEntry();
+            TarArchiveEntry entry = createEntry("data" + i, data.length, date);
+            tarArchiveOutputStream.putArchiveEntry(entry);
+            tarArchiveOutputStream.write(data);
+            tarArchiveOutputStream.closeArchiveEntry();
+        }
+        tarArchiveOutputStream.close();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeWithPutFile(out, file, date);
+        assertArrayEquals(expected.toByteArray(), out.toByteArray());
+        Path tar = dir.resolve("test.tar");
+        writeWithPutFile(new FileOutputStream(tar.toFile()), file, date);
+        assertArrayEquals(expected.toByteArray(), Files.readAllBytes(tar));
+        Files.delete(tar);
+        Files.delete(file);
+        Files.delete(dir);
+    }
+
+    private static void writeWithPutFile(OutputStream out, Path file, Date date) throws IOException {
+        TarArchiveOutputStream tarArchiveOutputStream = new TarArchiveOutputStream(out);
+        for (int i = 0; i < 3; i++) {
+            tarArchiveOutputStream.putArchiveEntry(createEntry("small" + i, 100, date));
+            tarArchiveOutputStream.write(new byte[100]);
+            tarArchiveOutputStream.closeArchiveEntry();
+            tarArchiveOutputStream.putFile(createEntry("data" + i, 0, date), file);
+        }
+        tarArchiveOutputStream.close();
+    }
+
+    private static TarArchiveEntry createEntry(String name, long size, Date date) {
+        TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setEntrySize(size);
+        entry.setLastModified(date);
+        return entry;
+    }
+
+    @Test
+    public void testTarFile() throws IOException {
+        Path dir = Files.createTempDirectory("tartest");
+        Path tar = dir.resolve("test.tar");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 30; i++) {
+            sb.append("directory/");
+        }
+        String longName = sb.toString() + "file";
+        Random random = new Random(42L);
+        byte[][] data = new byte[4][];
+        TarArchiveOutputStream tarArchiveOutputStream = new TarArchiveOutputStream(new FileOutputStream(tar.toFile()));
+        for (int i = 0; i < data.length; i++) {
+            data[i] = new byte[random.nextInt(20000)];
+            random.nextBytes(data[i]);
+            tarArchiveOutputStream.setLongFileMode(i % 2 == 0 ? TarConstants.LONGFILE_GNU : TarConstants.LONGFILE_POSIX);
+            TarArchiveEntry entry = new TarArchiveEntry(longName + i);
+            entry.setEntrySize(data[i].length);
+            tarArchiveOutputStream.putArchiveEntry(entry);
+            tarArchiveOutputStream.write(data[i]);
+            tarArchiveOutputStream.closeArchiveEntry();
+        }
+        tarArchiveOutputStream.close();
+        File indexFile = dir.resolve("test.tar.idx").toFile();
+        for (int round = 0; round < 2; round++) {
+            // the first round builds the index file, the second round loads it
+            TarFile tarFile = new TarFile(tar.toFile(), indexFile);
+            assertEquals(data.length, tarFile.size());
+            Enumeration<TarArchiveEntry> entries = tarFile.getEntries();
+            int i = 0;
+            while (entries.hasMoreElements()) {
+                assertEquals(longName + i, entries.nextElement().getName());
+                i++;
+            }
+            assertEquals(data.length, i);
+            for (i = data.length - 1; i >= 0; i--) {
+                TarArchiveEntry entry = tarFile.getEntry(longName + i);
+                assertEquals(data[i].length, entry.getEntrySize());
+                InputStream in = tarFile.getInputStream(entry);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[1024];
+                int len;
+                while ((len = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, len);
+                }
+                assertArrayEquals(data[i], out.toByteArray());
+            }
+            assertNull(tarFile.getEntry("missing"));
+            tarFile.close();
+        }
+        Files.delete(indexFile.toPath());
+        Files.delete(tar);
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testTarFileDuplicateNames() throws IOException {
+        Path dir = Files.createTempDirectory("tartest");
+        Path tar = dir.resolve("test.tar");
+        String[] names = {"a", "b", "a"};
+        byte[][] data = new byte[names.length][];
+        TarArchiveOutputStream tarArchiveOutputStream = new TarArchiveOutputStream(new FileOutputStream(tar.toFile()));
+        for (int i = 0; i < names.length; i++) {
+            data[i] = new byte[1000 + i];
+            Arrays.fill(data[i], (byte) i);
+            TarArchiveEntry entry = new TarArchiveEntry(names[i]);
+            entry.setEntrySize(data[i].length);
+            tarArchiveOutputStream.putArchiveEntry(entry);
+            tarArchiveOutputStream.write(data[i]);
+            tarArchiveOutputStream.closeArchiveEntry();
+        }
+        tarArchiveOutputStream.close();
+        TarFile tarFile = new TarFile(tar.toFile());
+        Enumeration<TarArchiveEntry> entries = tarFile.getEntries();
+        int i = 0;
+        while (entries.hasMoreElements()) {
+            TarArchiveEntry entry = entries.nextElement();
+            assertEquals(names[i], entry.getName());
+            assertArrayEquals(data[i], tarFile.getInputStream(entry).readAllBytes());
+            i++;
+        }
+        assertEquals(names.length, i);
+        // a lookup by name finds the last member of that name
+        assertArrayEquals(data[2], tarFile.getInputStream(tarFile.getEntry("a")).readAllBytes());
+        assertArrayEquals(data[2], tarFile.getInputStream(new TarArchiveEntry("a")).readAllBytes());
+        tarFile.close();
+        Files.delete(tar);
+        Files.delete(dir);
+    }
 }
@@ -0,0 +1,392 @@
+package org.xbib.io.archive.zip;
+
+import org.xbib.io.archive.entry.ArchiveEntryEncoding;
+import org.xbib.io.archive.entry.ArchiveEntryEncodingHelper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.CRC32;
+
+import static org.xbib.io.archive.zip.ZipConstants.SHORT;
+import static org.xbib.io.archive.zip.ZipConstants.WORD;
+import static org.xbib.io.archive.zip.ZipConstants.ZIP64_MAGIC;
+
+/**
+ * A compact index over the raw bytes of a central directory.
+ * The index keeps the central directory as one byte array and a few
+ * primitive arrays: the offset of every record, the offset of every
+ * local file header, and an open addressing hash table that maps the
+ * hash of the raw name bytes to the record. No
+ * {@link ZipArchiveEntry} is created while the index is built.
+ * Names that are taken from Unicode extra fields are kept in a
+ * separate map, because their raw bytes do not match the name.
+ */
+final class CentralDirectoryIndex {
+
+    /**
+     * Offsets inside a central directory record, relative to the end
+     * of the record signature.
+     */
+    static final int CFH_GPB_OFFSET = 4;
+    static final int CFH_COMPRESSED_SIZE_OFFSET = 16;
+    static final int CFH_SIZE_OFFSET = 20;
+    static final int CFH_FILENAME_LENGTH_OFFSET = 24;
+    static final int CFH_EXTRA_LENGTH_OFFSET = 26;
+    static final int CFH_COMMENT_LENGTH_OFFSET = 28;
+    static final int CFH_DISK_START_OFFSET = 30;
+    static final int CFH_LFH_OFFSET = 38;
+    /**
+     * Length of a central directory record without signature, file
+     * name, extra fields or comment.
+     */
+    static final int CFH_LEN = 42;
+
+    private static final int UTF8_FLAG = 1 << 11;
+    private static final int ZIP64_HEADER_ID = 0x0001;
+    private static final int UPATH_HEADER_ID = 0x7075;
+    private static final long CFH_SIG = ZipLong.getValue(ZipArchiveOutputStream.CFH_SIG);
+
+    private final byte[] centralDirectory;
+    private final int size;
+    private final int[] recordOffsets;
+    private final long[] headerOffsets;
+    private final AtomicLongArray dataOffsets;
+    private final int[] table;
+    private final Map<String, Integer> unicodeNames;
+    private final ArchiveEntryEncoding archiveEntryEncoding;
+    private final boolean utf8Archive;
+    private volatile int[] headerOrder;
+
+    private CentralDirectoryIndex(byte[] centralDirectory, int size, int[] recordOffsets, long[] headerOffsets,
+                                  Map<String, Integer> unicodeNames, ArchiveEntryEncoding archiveEntryEncoding,
+                                  boolean utf8Archive) {
+        this.centralDirectory = centralDirectory;
+        this.size = size;
+        this.recordOffsets = recordOffsets;
+        this.headerOffsets = headerOffsets;
+        this.dataOffsets = new AtomicLongArray(size);
+        this.unicodeNames = unicodeNames;
+        this.archiveEntryEncoding = archiveEntryEncoding;
+        this.utf8Archive = utf8Archive;
+        int tableSize = 16;
+        while (tableSize < 2 * size) {
+            tableSize <<= 1;
+        }
+        this.table = new int[tableSize];
+        BitSet unicodeNamed = new BitSet(size);
+        for (Integer i : unicodeNames.values()) {
+            unicodeNamed.set(i);
+        }
+        for (int i = 0; i < size; i++) {
+            dataOffsets.set(i, -1L);
+            if (!unicodeNamed.get(i)) {
+                insert(i);
+            }
+        }
+    }
+
+    /**
+     * Builds the index from the raw central directory.
+     *
+     * @param centralDirectory      the central directory, starting with the
+     *                              signature of the first record
+     * @param encoding              the encoding of names without the language
+     *                              encoding flag
+     * @param useUnicodeExtraFields whether to use InfoZIP Unicode Extra
+     *                              Fields (if present) to set the file names
+     * @return the index
+     * @throws IOException if a record is truncated
+     */
+    static CentralDirectoryIndex build(byte[] centralDirectory, String encoding, boolean useUnicodeExtraFields)
+            throws IOException {
+        int[] recordOffsets = new int[64];
+        long[] headerOffsets = new long[64];
+        Map<String, Integer> unicodeNames = null;
+        int count = 0;
+        int pos = 0;
+        while (pos + WORD + CFH_LEN <= centralDirectory.length
+                && ZipLong.getValue(centralDirectory, pos) == CFH_SIG) {
+            int off = pos + WORD;
+            int fileNameLen = ZipShort.getValue(centralDirectory, off + CFH_FILENAME_LENGTH_OFFSET);
+            int extraLen = ZipShort.getValue(centralDirectory, off + CFH_EXTRA_LENGTH_OFFSET);
+            int commentLen = ZipShort.getValue(centralDirectory, off + CFH_COMMENT_LENGTH_OFFSET);
+            int end = off + CFH_LEN + fileNameLen + extraLen + commentLen;
+            if (end > centralDirectory.length) {
+                throw new IOException("truncated central directory record at " + pos);
+            }
+            if (count == recordOffsets.length) {
+                recordOffsets = Arrays.copyOf(recordOffsets, count * 2);
+                headerOffsets = Arrays.copyOf(headerOffsets, count * 2);
+            }
+            recordOffsets[count] = off;
+            headerOffsets[count] = headerOffset(centralDirectory, off, fileNameLen, extraLen);
+            if (useUnicodeExtraFields && !hasUTF8Flag(centralDirectory, off)) {
+                String unicodeName = unicodeName(centralDirectory, off, fileNameLen, extraLen);
+                if (unicodeName != null) {
+                    if (unicodeNames == null) {
+                        unicodeNames = new HashMap<>();
+                    }
+                    unicodeNames.put(unicodeName, count);
+                }
+            }
+            count++;
+            pos = end;
+        }
+        return new CentralDirectoryIndex(centralDirectory, count,
+                Arrays.copyOf(recordOffsets, count), Arrays.copyOf(headerOffsets, count),
+                unicodeNames != null ? unicodeNames : Collections.emptyMap(),
+                ArchiveEntryEncodingHelper.getEncoding(encoding),
+                ArchiveEntryEncodingHelper.isUTF8(encoding));
+    }
+
+    /**
+     * @return the number of entries
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the raw central directory
+     */
+    byte[] getCentralDirectory() {
+        return centralDirectory;
+    }
+
+    /**
+     * @param i the entry number
+     * @return the offset of the record of the entry in the central
+     * directory, right after the record signature
+     */
+    int getRecordOffset(int i) {
+        return recordOffsets[i];
+    }
+
+    /**
+     * @param i the entry number
+     * @return the offset of the local file header of the entry
+     */
+    long getHeaderOffset(int i) {
+        return headerOffsets[i];
+    }
+
+    /**
+     * @param i the entry number
+     * @return the offset of the entry data, or -1 if not resolved yet
+     */
+    long getDataOffset(int i) {
+        return dataOffsets.get(i);
+    }
+
+    void setDataOffset(int i, long dataOffset) {
+        dataOffsets.set(i, dataOffset);
+    }
+
+    /**
+     * Finds the entry with the given name. If more than one entry has
+     * the name, the last one in the central directory is found.
+     *
+     * @param name the entry name
+     * @return the entry number, or -1 if there is no such entry
+     * @throws IOException if the name can not be encoded
+     */
+    int lookup(String name) throws IOException {
+        Integer i = unicodeNames.get(name);
+        if (i != null) {
+            return i;
+        }
+        ByteBuffer utf8 = ArchiveEntryEncodingHelper.UTF8_ENCODING.encode(name);
+        if (utf8Archive) {
+            return probe(utf8.array(), utf8.arrayOffset() + utf8.position(), utf8.remaining(), null);
+        }
+        int found = probe(utf8.array(), utf8.arrayOffset() + utf8.position(), utf8.remaining(), Boolean.TRUE);
+        if (found >= 0) {
+            return found;
+        }
+        ByteBuffer encoded = archiveEntryEncoding.encode(name);
+        return probe(encoded.array(), encoded.arrayOffset() + encoded.position(), encoded.remaining(), Boolean.FALSE);
+    }
+
+    /**
+     * Finds the entry whose local file header starts at the given offset.
+     * The entries sorted by header offset are computed on first use.
+     *
+     * @param headerOffset the offset of the local file header
+     * @return the entry number, or -1 if there is no such entry
+     */
+    int lookup(long headerOffset) {
+        int[] order = headerOrder;
+        if (order == null) {
+            Integer[] sorted = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                sorted[i] = i;
+            }
+            Arrays.sort(sorted, (i1, i2) -> Long.compare(headerOffsets[i1], headerOffsets[i2]));
+            order = new int[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = sorted[i];
+            }
+            headerOrder = order;
+        }
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long offset = headerOffsets[order[mid]];
+            if (offset < headerOffset) {
+                low = mid + 1;
+            } else if (offset > headerOffset) {
+                high = mid - 1;
+            } else {
+                return order[mid];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param i an entry number
+     * @param j another entry number
+     * @return true if the records of both entries hold the same raw name
+     * with the same language encoding flag
+     */
+    boolean hasSameName(int i, int j) {
+        int off = recordOffsets[j];
+        return hasSameName(i, centralDirectory, off + CFH_LEN,
+                ZipShort.getValue(centralDirectory, off + CFH_FILENAME_LENGTH_OFFSET))
+                && hasUTF8Flag(centralDirectory, recordOffsets[i]) == hasUTF8Flag(centralDirectory, off);
+    }
+
+    private void insert(int i) {
+        int off = recordOffsets[i];
+        int nameOff = off + CFH_LEN;
+        int nameLen = ZipShort.getValue(centralDirectory, off + CFH_FILENAME_LENGTH_OFFSET);
+        int mask = table.length - 1;
+        int slot = hash(centralDirectory, nameOff, nameLen) & mask;
+        while (table[slot] != 0) {
+            int other = table[slot] - 1;
+            if (hasSameName(other, centralDirectory, nameOff, nameLen)
+                    && (utf8Archive || hasUTF8Flag(centralDirectory, off)
+                    == hasUTF8Flag(centralDirectory, recordOffsets[other]))) {
+                // last entry wins, like in the name map of the eager mode
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = i + 1;
+    }
+
+    private int probe(byte[] name, int nameOff, int nameLen, Boolean utf8Flag) {
+        int mask = table.length - 1;
+        int slot = hash(name, nameOff, nameLen) & mask;
+        while (table[slot] != 0) {
+            int i = table[slot] - 1;
+            if (hasSameName(i, name, nameOff, nameLen)
+                    && (utf8Flag == null || utf8Flag == hasUTF8Flag(centralDirectory, recordOffsets[i]))) {
+                return i;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private boolean hasSameName(int i, byte[] name, int nameOff, int nameLen) {
+        int off = recordOffsets[i];
+        if (ZipShort.getValue(centralDirectory, off + CFH_FILENAME_LENGTH_OFFSET) != nameLen) {
+            return false;
+        }
+        int p = off + CFH_LEN;
+        for (int j = 0; j < nameLen; j++) {
+            if (centralDirectory[p + j] != name[nameOff + j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(byte[] b, int off, int len) {
+        int h = 0;
+        for (int i = off; i < off + len; i++) {
+            h = 31 * h + b[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean hasUTF8Flag(byte[] cd, int off) {
+        return (ZipShort.getValue(cd, off + CFH_GPB_OFFSET) & UTF8_FLAG) != 0;
+    }
+
+    /**
+     * Reads the offset of the local file header, from the Zip64
+     * extended information extra field if required.
+     */
+    private static long headerOffset(byte[] cd, int off, int fileNameLen, int extraLen) {
+        long headerOffset = ZipLong.getValue(cd, off + CFH_LFH_OFFSET);
+        if (headerOffset != ZIP64_MAGIC) {
+            return headerOffset;
+        }
+        int field = findExtraField(cd, off + CFH_LEN + fileNameLen, extraLen, ZIP64_HEADER_ID);
+        if (field < 0) {
+            return headerOffset;
+        }
+        int dataLen = ZipShort.getValue(cd, field + SHORT);
+        int pos = field + WORD;
+        if (ZipLong.getValue(cd, off + CFH_SIZE_OFFSET) == ZIP64_MAGIC) {
+            pos += ZipConstants.DWORD;
+        }
+        if (ZipLong.getValue(cd, off + CFH_COMPRESSED_SIZE_OFFSET) == ZIP64_MAGIC) {
+            pos += ZipConstants.DWORD;
+        }
+        if (pos + ZipConstants.DWORD > field + WORD + dataLen) {
+            return headerOffset;
+        }
+        return ZipEightByteInteger.getLongValue(cd, pos);
+    }
+
+    /**
+     * Returns the name of an InfoZIP Unicode Path Extra Field if the
+     * CRC of the raw name matches, null otherwise.
+     */
+    private static String unicodeName(byte[] cd, int off, int fileNameLen, int extraLen) throws IOException {
+        int nameOff = off + CFH_LEN;
+        int field = findExtraField(cd, nameOff + fileNameLen, extraLen, UPATH_HEADER_ID);
+        if (field < 0) {
+            return null;
+        }
+        int dataLen = ZipShort.getValue(cd, field + SHORT);
+        // version (1 byte) and CRC of the original name (4 bytes)
+        if (dataLen < 5) {
+            return null;
+        }
+        CRC32 crc32 = new CRC32();
+        crc32.update(cd, nameOff, fileNameLen);
+        if (crc32.getValue() != ZipLong.getValue(cd, field + WORD + 1)) {
+            return null;
+        }
+        return ArchiveEntryEncodingHelper.UTF8_ENCODING.decode(
+                Arrays.copyOfRange(cd, field + WORD + 5, field + WORD + dataLen));
+    }
+
+    private static int findExtraField(byte[] cd, int start, int len, int headerId) {
+        int pos = start;
+        int end = start + len;
+        while (pos + WORD <= end) {
+            int id = ZipShort.getValue(cd, pos);
+            int dataLen = ZipShort.getValue(cd, pos + SHORT);
+            if (pos + WORD + dataLen > end) {
+                return -1;
+            }
+            if (id == headerId) {
+                return pos;
+            }
+            pos += WORD + dataLen;
+        }
+        return -1;
+    }
+}
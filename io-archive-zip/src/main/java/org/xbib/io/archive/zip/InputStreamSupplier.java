@@ -0,0 +1,20 @@
+package org.xbib.io.archive.zip;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Supplies the content of an entry for {@link ParallelScatterZipCreator}. The stream is
+ * opened on the thread that compresses the entry, and closed after it is read.
+ */
+@FunctionalInterface
+public interface InputStreamSupplier {
+
+    /**
+     * Opens the content.
+     *
+     * @return the content of the entry
+     * @throws IOException if the content can not be opened
+     */
+    InputStream get() throws IOException;
+}
@@ -0,0 +1,285 @@
+package org.xbib.io.archive.zip;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Creates a zip archive with the entries compressed in parallel.
+ *
+ * {@link #addArchiveEntry(ZipArchiveEntry, InputStreamSupplier)} hands an entry to the
+ * executor. A worker opens the content, takes an idle store of this creator, or creates one,
+ * compresses the content into the store and sets the CRC and the sizes of the entry. There
+ * are never more stores than concurrently running workers. Each store keeps the compressed
+ * data in memory up to <code>memoryThreshold</code> bytes and spills to a temporary file beyond.
+ * {@link #writeTo(ZipArchiveOutputStream)} waits for the workers and copies the compressed
+ * data into the archive in the order in which the entries were added, so the archive does
+ * not depend on the scheduling of the workers. The local file headers carry CRC and sizes,
+ * no data descriptors are written. The Zip64 handling of the {@link ZipArchiveOutputStream}
+ * applies unchanged.
+ *
+ * Entries must use {@link ZipArchiveOutputStream#DEFLATED} or {@link ZipArchiveOutputStream#STORED},
+ * an entry without method is deflated. This class is not thread safe, entries are added
+ * from one thread.
+ *
+ * @param <E> the zip entry type
+ */
+public class ParallelScatterZipCreator<E extends ZipArchiveEntry> implements Closeable {
+
+    /**
+     * Default amount of compressed data that a store keeps in memory, 8 MiB.
+     */
+    public static final int DEFAULT_MEMORY_THRESHOLD = 8 * 1024 * 1024;
+
+    private static final AtomicInteger poolCounter = new AtomicInteger();
+
+    private final ExecutorService executor;
+
+    private final boolean shutdownExecutor;
+
+    private final int memoryThreshold;
+
+    private final Path directory;
+
+    private final Queue<ScatterZipStore> stores = new ConcurrentLinkedQueue<>();
+
+    private final Queue<ScatterZipStore> idleStores = new ConcurrentLinkedQueue<>();
+
+    private final ArrayDeque<Future<ScatterEntry<E>>> futures = new ArrayDeque<>();
+
+    private int level = Deflater.DEFAULT_COMPRESSION;
+
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a parallel zip creator with one worker per available processor.
+     */
+    public ParallelScatterZipCreator() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a parallel zip creator with its own pool of worker threads.
+     *
+     * @param threads number of worker threads
+     */
+    public ParallelScatterZipCreator(int threads) {
+        this(createExecutor(threads), true, DEFAULT_MEMORY_THRESHOLD, null);
+    }
+
+    /**
+     * Creates a parallel zip creator with workers from a shared executor. The executor is
+     * not shut down on close.
+     *
+     * @param executor the executor for the workers
+     */
+    public ParallelScatterZipCreator(ExecutorService executor) {
+        this(executor, DEFAULT_MEMORY_THRESHOLD, null);
+    }
+
+    /**
+     * Creates a parallel zip creator with workers from a shared executor. The executor is
+     * not shut down on close.
+     *
+     * @param executor        the executor for the workers
+     * @param memoryThreshold the amount of compressed data that a store keeps in memory
+     * @param directory       the directory for temporary files, or null for the default
+     *                        temporary directory
+     */
+    public ParallelScatterZipCreator(ExecutorService executor, int memoryThreshold, Path directory) {
+        this(executor, false, memoryThreshold, directory);
+    }
+
+    private ParallelScatterZipCreator(ExecutorService executor, boolean shutdownExecutor,
+                                      int memoryThreshold, Path directory) {
+        if (memoryThreshold < 0) {
+            throw new IllegalArgumentException("memoryThreshold must not be negative: " + memoryThreshold);
+        }
+        this.executor = executor;
+        this.shutdownExecutor = shutdownExecutor;
+        this.memoryThreshold = memoryThreshold;
+        this.directory = directory;
+    }
+
+    /**
+     * Sets the compression level for subsequent entries.
+     * Default is Deflater.DEFAULT_COMPRESSION.
+     *
+     * @param level the compression level.
+     * @throws IllegalArgumentException if an invalid compression
+     *                                  level is specified.
+     */
+    public void setLevel(int level) {
+        if (level < Deflater.DEFAULT_COMPRESSION
+                || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: "
+                    + level);
+        }
+        this.level = level;
+    }
+
+    /**
+     * Adds an entry. The content is read and compressed by a worker.
+     *
+     * @param entry  the entry, its CRC and sizes are set by the worker
+     * @param source the content of the entry
+     * @throws ZipException if the compression method of the entry is not supported
+     */
+    public void addArchiveEntry(E entry, InputStreamSupplier source) throws ZipException {
+        if (closed) {
+            throw new IllegalStateException("closed");
+        }
+        if (entry.getMethod() == -1) {
+            entry.setMethod(ZipArchiveOutputStream.DEFLATED);
+        }
+        if (entry.getMethod() != ZipArchiveOutputStream.DEFLATED
+                && entry.getMethod() != ZipArchiveOutputStream.STORED) {
+            throw new ZipException("unsupported compression method " + entry.getMethod()
+                    + " for entry " + entry.getName());
+        }
+        final int entryLevel = level;
+        futures.add(executor.submit(() -> {
+            ScatterZipStore s = acquireStore();
+            try (InputStream in = source.get()) {
+                return new ScatterEntry<>(entry, s, s.add(entry, in, entryLevel));
+            } finally {
+                idleStores.add(s);
+            }
+        }));
+    }
+
+    /**
+     * Waits for all entries to be compressed and writes them to the archive, in the order in
+     * which they were added. Closes this creator, but not the archive, so more entries can be
+     * written to the archive afterwards.
+     *
+     * @param out the archive
+     * @throws IOException if an entry can not be read or compressed, or the archive can not
+     *                     be written
+     */
+    public void writeTo(ZipArchiveOutputStream<E> out) throws IOException {
+        try {
+            while (!futures.isEmpty()) {
+                ScatterEntry<E> scatterEntry = waitFor(futures.peek());
+                futures.remove();
+                try (InputStream in = scatterEntry.store.open(scatterEntry.offset,
+                        scatterEntry.entry.getCompressedSize())) {
+                    out.addRawArchiveEntry(scatterEntry.entry, in);
+                }
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Cancels the entries that are not written yet and deletes the temporary files.
+     *
+     * @throws IOException if a temporary file can not be deleted
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Future<ScatterEntry<E>> future : futures) {
+            future.cancel(true);
+        }
+        futures.clear();
+        if (shutdownExecutor) {
+            executor.shutdown();
+        }
+        IOException exception = null;
+        ScatterZipStore s;
+        idleStores.clear();
+        while ((s = stores.poll()) != null) {
+            try {
+                // a worker that is still compressing into the store fails
+                s.close();
+            } catch (IOException e) {
+                if (exception == null) {
+                    exception = e;
+                }
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    /**
+     * Takes an idle store, or creates a store. A store that is created after close()
+     * has drained the stores is closed right away.
+     */
+    private ScatterZipStore acquireStore() throws IOException {
+        ScatterZipStore s = idleStores.poll();
+        if (s == null) {
+            s = new ScatterZipStore(memoryThreshold, directory);
+            stores.add(s);
+            if (closed) {
+                s.close();
+                throw new IOException("closed");
+            }
+        }
+        return s;
+    }
+
+    private static <E extends ZipArchiveEntry> ScatterEntry<E> waitFor(Future<ScatterEntry<E>> future)
+            throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for compression");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static ExecutorService createExecutor(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        final int pool = poolCounter.incrementAndGet();
+        final AtomicInteger threadCounter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "zip-deflate-" + pool + "-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static class ScatterEntry<E extends ZipArchiveEntry> {
+
+        private final E entry;
+
+        private final ScatterZipStore store;
+
+        private final long offset;
+
+        private ScatterEntry(E entry, ScatterZipStore store, long offset) {
+            this.entry = entry;
+            this.store = store;
+            this.offset = offset;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package org.xbib.io.archive.zip;
+
+import org.xbib.io.archive.util.DeflaterPool;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * The compressed data of the entries that one thread of a {@link ParallelScatterZipCreator}
+ * has compressed. The data is kept in memory up to a threshold. If the threshold is exceeded,
+ * the data is moved to a temporary file, and all further data goes to the file.
+ *
+ * A store is used by one worker at a time, but the compressed data of an entry may be
+ * read while a worker adds later entries. Appending, spilling and opening synchronize on
+ * the store, and the temporary file is only used for reading after the data in memory
+ * has been copied to it. Closing the store makes an entry that is being added fail.
+ */
+final class ScatterZipStore implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int memoryThreshold;
+
+    private final Path directory;
+
+    private final byte[] inputBuffer = new byte[BUFFER_SIZE];
+
+    private final byte[] outputBuffer = new byte[BUFFER_SIZE];
+
+    private final CRC32 crc = new CRC32();
+
+    private byte[] memory;
+
+    private int memoryLength;
+
+    private Path file;
+
+    private FileChannel channel;
+
+    private long fileLength;
+
+    private boolean closed;
+
+    ScatterZipStore(int memoryThreshold, Path directory) {
+        this.memoryThreshold = memoryThreshold;
+        this.directory = directory;
+        this.memory = new byte[0];
+    }
+
+    /**
+     * Compresses the content of an entry into the store and sets the CRC and the sizes
+     * of the entry. Must not be called by two threads at the same time.
+     *
+     * @return the offset of the compressed data in the store
+     */
+    long add(ZipArchiveEntry entry, InputStream in, int level) throws IOException {
+        long offset = length();
+        long size = 0L;
+        crc.reset();
+        if (entry.getMethod() == ZipEntry.DEFLATED) {
+            DeflaterPool pool = DeflaterPool.getInstance(level, true);
+            Deflater deflater = pool.acquire();
+            try {
+                int len;
+                while ((len = in.read(inputBuffer)) != -1) {
+                    crc.update(inputBuffer, 0, len);
+                    size += len;
+                    deflater.setInput(inputBuffer, 0, len);
+                    while (!deflater.needsInput()) {
+                        deflate(deflater);
+                    }
+                }
+                deflater.finish();
+                while (!deflater.finished()) {
+                    deflate(deflater);
+                }
+            } finally {
+                pool.release(deflater);
+            }
+        } else {
+            int len;
+            while ((len = in.read(inputBuffer)) != -1) {
+                crc.update(inputBuffer, 0, len);
+                size += len;
+                append(inputBuffer, 0, len);
+            }
+        }
+        entry.setSize(size);
+        entry.setCompressedSize(length() - offset);
+        entry.setCrc(crc.getValue());
+        return offset;
+    }
+
+    /**
+     * Returns a stream over compressed data in the store.
+     */
+    synchronized InputStream open(long offset, long length) throws IOException {
+        if (closed) {
+            throw new IOException("store closed");
+        }
+        if (channel == null) {
+            return new ByteArrayInputStream(memory, (int) offset, (int) length);
+        }
+        return new ChannelInputStream(channel, offset, length);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        memory = null;
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        if (file != null) {
+            Files.deleteIfExists(file);
+            file = null;
+        }
+    }
+
+    private synchronized long length() throws IOException {
+        if (closed) {
+            throw new IOException("store closed");
+        }
+        return channel == null ? memoryLength : fileLength;
+    }
+
+    private void deflate(Deflater deflater) throws IOException {
+        int len = deflater.deflate(outputBuffer, 0, outputBuffer.length);
+        if (len > 0) {
+            append(outputBuffer, 0, len);
+        }
+    }
+
+    private synchronized void append(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("store closed");
+        }
+        if (channel == null) {
+            if ((long) memoryLength + len <= memoryThreshold) {
+                if (memoryLength + len > memory.length) {
+                    int capacity = (int) Math.min(memoryThreshold,
+                            Math.max((long) memoryLength + len, Math.max(BUFFER_SIZE, 2L * memory.length)));
+                    memory = Arrays.copyOf(memory, capacity);
+                }
+                System.arraycopy(b, off, memory, memoryLength, len);
+                memoryLength += len;
+                return;
+            }
+            spill();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+        while (buffer.hasRemaining()) {
+            fileLength += channel.write(buffer, fileLength);
+        }
+    }
+
+    /**
+     * Moves the data from memory to a temporary file. The file replaces the memory
+     * only after the data is copied.
+     */
+    private void spill() throws IOException {
+        file = directory != null ?
+                Files.createTempFile(directory, "zip-scatter", ".tmp") :
+                Files.createTempFile("zip-scatter", ".tmp");
+        FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long written = 0L;
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(memory, 0, memoryLength);
+            while (buffer.hasRemaining()) {
+                written += fileChannel.write(buffer, written);
+            }
+        } catch (IOException e) {
+            fileChannel.close();
+            throw e;
+        }
+        fileLength = written;
+        channel = fileChannel;
+        memory = null;
+        memoryLength = 0;
+    }
+
+    /**
+     * Reads a range of the temporary file with positional reads.
+     */
+    private static class ChannelInputStream extends InputStream {
+
+        private final FileChannel channel;
+
+        private long position;
+
+        private long remaining;
+
+        ChannelInputStream(FileChannel channel, long position, long remaining) {
+            this.channel = channel;
+            this.position = position;
+            this.remaining = remaining;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)), position);
+            if (n < 0) {
+                return -1;
+            }
+            position += n;
+            remaining -= n;
+            return n;
+        }
+    }
+}
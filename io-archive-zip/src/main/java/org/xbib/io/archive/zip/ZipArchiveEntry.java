@@ -68,6 +68,11 @@ public class ZipArchiveEntry extends java.util.zip.ZipEntry implements ArchiveEn
 
     private GeneralPurposeBit gpb = new GeneralPurposeBit();
 
+    /**
+     * Offset of the local file header, if the entry was created by a {@link ZipFile} in lazy mode.
+     */
+    private long localHeaderOffset = -1L;
+
     public ZipArchiveEntry() {
         this("");
     }
@@ -554,6 +559,19 @@ public class ZipArchiveEntry extends java.util.zip.ZipEntry implements ArchiveEn
         return null;
     }
 
+    void setLocalHeaderOffset(long localHeaderOffset) {
+        this.localHeaderOffset = localHeaderOffset;
+    }
+
+    /**
+     * Get the offset of the local file header of the entry in the archive.
+     *
+     * @return the offset, or -1 if the entry was not created by a {@link ZipFile} in lazy mode
+     */
+    long getLocalHeaderOffset() {
+        return localHeaderOffset;
+    }
+
     /**
      * Get the hashCode of the entry.
      * This uses the name as the hashcode.
@@ -3,6 +3,7 @@ package org.xbib.io.archive.zip;
 import org.xbib.io.archive.stream.ArchiveInputStream;
 import org.xbib.io.archive.entry.ArchiveEntryEncoding;
 import org.xbib.io.archive.entry.ArchiveEntryEncodingHelper;
+import org.xbib.io.archive.util.InflaterPool;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -53,7 +54,7 @@ public class ZipArchiveInputStream<E extends ZipArchiveEntry> extends ArchiveInp
     /**
      * Inflater used for all deflated entries.
      */
-    private final Inflater inf = new Inflater(true);
+    private final Inflater inf = InflaterPool.getInstance(true).acquire();
 
     /**
      * Calculates checkusms for all entries.
@@ -357,8 +358,11 @@ public class ZipArchiveInputStream<E extends ZipArchiveEntry> extends ArchiveInp
     public void close() throws IOException {
         if (!closed) {
             closed = true;
-            in.close();
-            inf.end();
+            try {
+                in.close();
+            } finally {
+                InflaterPool.getInstance(true).release(inf);
+            }
         }
     }
 
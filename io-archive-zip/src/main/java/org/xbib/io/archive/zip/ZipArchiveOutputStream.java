@@ -7,13 +7,17 @@ import org.xbib.io.archive.entry.ArchiveEntryEncodingHelper;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.zip.CRC32;
 import java.util.zip.Deflater;
 import java.util.zip.ZipException;
@@ -54,6 +58,8 @@ public class ZipArchiveOutputStream<E extends ZipArchiveEntry> extends ArchiveOu
 
     static final int BUFFER_SIZE = 512;
 
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
     /**
      * indicates if this archive is finished. protected for use in Jar implementation
      */
@@ -181,6 +187,12 @@ public class ZipArchiveOutputStream<E extends ZipArchiveEntry> extends ArchiveOu
     private final Map<ZipArchiveEntry, Long> offsets =
             new HashMap<ZipArchiveEntry, Long>();
 
+    /**
+     * Entries that were added with their compressed data and without data descriptor.
+     */
+    private final Set<ZipArchiveEntry> rawEntries =
+            new HashSet<ZipArchiveEntry>();
+
     /**
      * The encoding to use for filenames and the file comment.
      * <p/>
@@ -209,6 +221,16 @@ public class ZipArchiveOutputStream<E extends ZipArchiveEntry> extends ArchiveOu
      */
     private final byte[] buf = new byte[BUFFER_SIZE];
 
+    /**
+     * Buffer for copying compressed data, created on first use.
+     */
+    private byte[] copyBuffer;
+
+    /**
+     * Set while {@link #addRawArchiveEntry} puts its entry.
+     */
+    private boolean addingRawEntry = false;
+
     /**
      * Optional random access output.
      */
@@ -404,6 +426,7 @@ public class ZipArchiveOutputStream<E extends ZipArchiveEntry> extends ArchiveOu
         writeZip64CentralDirectory();
         writeCentralDirectoryEnd();
         offsets.clear();
+        rawEntries.clear();
         entries.clear();
         def.end();
         finished = true;
@@ -427,7 +450,7 @@ public class ZipArchiveOutputStream<E extends ZipArchiveEntry> extends ArchiveOu
             throw new IOException("No current entry to close");
         }
 
-        if (!entry.hasWritten) {
+        if (!entry.hasWritten && !entry.raw) {
             write(new byte[0], 0, 0);
         }
 
@@ -441,7 +464,7 @@ public class ZipArchiveOutputStream<E extends ZipArchiveEntry> extends ArchiveOu
         final boolean actuallyNeedsZip64 =
                 handleSizesAndCrc(bytesWritten, realCrc, effectiveMode);
 
-        if (raf != null) {
+        if (raf != null && !entry.raw) {
             rewriteSizesAndCrc(actuallyNeedsZip64);
         }
 
@@ -453,7 +476,7 @@ public class ZipArchiveOutputStream<E extends ZipArchiveEntry> extends ArchiveOu
      * Ensures all bytes sent to the deflater are written to the stream.
      */
     private void flushDeflater() throws IOException {
-        if (entry.entry.getMethod() == DEFLATED) {
+        if (entry.entry.getMethod() == DEFLATED && !entry.raw) {
             def.finish();
             while (!def.finished()) {
                 deflate();
@@ -470,7 +493,15 @@ public class ZipArchiveOutputStream<E extends ZipArchiveEntry> extends ArchiveOu
     private boolean handleSizesAndCrc(long bytesWritten, long crc,
                                       Zip64Mode effectiveMode)
             throws ZipException {
-        if (entry.entry.getMethod() == DEFLATED) {
+        if (entry.raw) {
+            if (entry.entry.getCompressedSize() != bytesWritten) {
+                throw new ZipException("bad compressed size for entry "
+                        + entry.entry.getName() + ": "
+                        + entry.entry.getCompressedSize()
+                        + " instead of "
+                        + bytesWritten);
+            }
+        } else if (entry.entry.getMethod() == DEFLATED) {
             /* It turns out def.getBytesRead() returns wrong values if
              * the size exceeds 4 GB on Java < Java7
             entry.entry.setSize(def.getBytesRead());
@@ -587,27 +618,38 @@ public class ZipArchiveOutputStream<E extends ZipArchiveEntry> extends ArchiveOu
         }
 
         entry = new CurrentEntry((ZipArchiveEntry) archiveEntry);
+        entry.raw = addingRawEntry;
         entries.add(entry.entry);
+        if (entry.raw) {
+            rawEntries.add(entry.entry);
+        }
 
         setDefaults(entry.entry);
 
         final Zip64Mode effectiveMode = getEffectiveZip64Mode(entry.entry);
         validateSizeInformation(effectiveMode);
 
-        if (shouldAddZip64Extra(entry.entry, effectiveMode)) {
+        if (shouldAddZip64Extra(entry.entry, effectiveMode)
+                || (entry.raw && hasZip64Extra(entry.entry))) {
 
             Zip64ExtendedInformationExtraField z64 = getZip64Extra(entry.entry);
 
             // just a placeholder, real data will be in data
             // descriptor or inserted later via RandomAccessFile
             ZipEightByteInteger size = ZipEightByteInteger.ZERO;
-            if (entry.entry.getMethod() == STORED
+            ZipEightByteInteger compressedSize = ZipEightByteInteger.ZERO;
+            if (entry.raw) {
+                // raw entries come with their sizes
+                size = new ZipEightByteInteger(entry.entry.getSize());
+                compressedSize = new ZipEightByteInteger(entry.entry.getCompressedSize());
+            } else if (entry.entry.getMethod() == STORED
                     && entry.entry.getSize() != ZipArchiveEntry.SIZE_UNKNOWN) {
                 // actually, we already know the sizes
                 size = new ZipEightByteInteger(entry.entry.getSize());
+                compressedSize = size;
             }
             z64.setSize(size);
-            z64.setCompressedSize(size);
+            z64.setCompressedSize(compressedSize);
             entry.entry.setExtra();
         }
 
@@ -618,6 +660,60 @@ public class ZipArchiveOutputStream<E extends ZipArchiveEntry> extends ArchiveOu
         writeLocalFileHeader(entry.entry);
     }
 
+    /**
+     * Adds an entry together with its compressed data, which is copied as is,
+     * for example from {@link ZipFile#getRawInputStream(ZipArchiveEntry)}.
+     * The method, the CRC, the size and the compressed size of the entry must be
+     * set. The local file header is written with the CRC and the sizes, so no
+     * data descriptor is needed.
+     * If the data comes from a {@link ZipFile} and this archive is written to a
+     * file, the data is transferred from channel to channel.
+     *
+     * @param archiveEntry the entry
+     * @param rawStream    the compressed data of the entry
+     * @throws java.io.IOException    on error, or if the stream does not contain the
+     *                                compressed size of the entry
+     * @throws Zip64RequiredException if the entry's uncompressed or
+     *                                compressed size exceeds 4 GByte and {@link #setUseZip64}
+     *                                is {@link Zip64Mode#Never}.
+     */
+    public void addRawArchiveEntry(E archiveEntry, InputStream rawStream) throws IOException {
+        if (archiveEntry.getMethod() == -1
+                || archiveEntry.getCrc() == -1
+                || archiveEntry.getSize() == ZipArchiveEntry.SIZE_UNKNOWN
+                || archiveEntry.getCompressedSize() == ZipArchiveEntry.SIZE_UNKNOWN) {
+            throw new ZipException("method, CRC and sizes are required for raw entry "
+                    + archiveEntry.getName());
+        }
+        if (archiveEntry.getGeneralPurposeBit().usesEncryption()) {
+            // the encryption flag is not written to the local file header
+            throw new UnsupportedZipFeatureException(
+                    UnsupportedZipFeatureException.Feature.ENCRYPTION, archiveEntry);
+        }
+        addingRawEntry = true;
+        try {
+            putArchiveEntry(archiveEntry);
+        } finally {
+            addingRawEntry = false;
+        }
+        entry.hasWritten = true;
+        FileChannel target = raf != null ? raf.getChannel()
+                : out instanceof FileOutputStream ? ((FileOutputStream) out).getChannel() : null;
+        if (target != null && rawStream instanceof ZipFile.BoundedInputStream) {
+            written += ((ZipFile.BoundedInputStream) rawStream).copyTo(target);
+        } else {
+            if (copyBuffer == null) {
+                copyBuffer = new byte[COPY_BUFFER_SIZE];
+            }
+            int len;
+            while ((len = rawStream.read(copyBuffer)) != -1) {
+                writeOut(copyBuffer, 0, len);
+                written += len;
+            }
+        }
+        closeArchiveEntry();
+    }
+
     /**
      * Provides default values for compression method and last
      * modification time.
@@ -836,7 +932,7 @@ public class ZipArchiveOutputStream<E extends ZipArchiveEntry> extends ArchiveOu
         writeVersionNeededToExtractAndGeneralPurposeBits(zipMethod,
                 !encodable
                         && fallbackToUTF8,
-                hasZip64Extra(ze));
+                hasZip64Extra(ze), usesDataDescriptor(ze));
         written += WORD;
 
         // compression method
@@ -851,7 +947,7 @@ public class ZipArchiveOutputStream<E extends ZipArchiveEntry> extends ArchiveOu
         // compressed length
         // uncompressed length
         entry.localDataStart = written;
-        if (zipMethod == DEFLATED || raf != null) {
+        if (!entry.raw && (zipMethod == DEFLATED || raf != null)) {
             writeOut(LZERO);
             if (hasZip64Extra(entry.entry)) {
                 // point to ZIP64 extended information extra field for
@@ -865,12 +961,13 @@ public class ZipArchiveOutputStream<E extends ZipArchiveEntry> extends ArchiveOu
             }
         } else {
             writeOut(ZipLong.getBytes(ze.getCrc()));
-            byte[] size = ZipLong.ZIP64_MAGIC.getBytes();
-            if (!hasZip64Extra(ze)) {
-                size = ZipLong.getBytes(ze.getSize());
+            if (hasZip64Extra(ze)) {
+                writeOut(ZipLong.ZIP64_MAGIC.getBytes());
+                writeOut(ZipLong.ZIP64_MAGIC.getBytes());
+            } else {
+                writeOut(ZipLong.getBytes(ze.getCompressedSize()));
+                writeOut(ZipLong.getBytes(ze.getSize()));
             }
-            writeOut(size);
-            writeOut(size);
         }
         // CheckStyle:MagicNumber OFF
         written += 12;
@@ -936,7 +1033,7 @@ public class ZipArchiveOutputStream<E extends ZipArchiveEntry> extends ArchiveOu
      * @throws java.io.IOException on error
      */
     protected void writeDataDescriptor(ZipArchiveEntry ze) throws IOException {
-        if (ze.getMethod() != DEFLATED || raf != null) {
+        if (!usesDataDescriptor(ze)) {
             return;
         }
         writeOut(DD_SIG);
@@ -994,7 +1091,7 @@ public class ZipArchiveOutputStream<E extends ZipArchiveEntry> extends ArchiveOu
         writeVersionNeededToExtractAndGeneralPurposeBits(zipMethod,
                 !encodable
                         && fallbackToUTF8,
-                needsZip64Extra);
+                needsZip64Extra, usesDataDescriptor(ze));
         written += WORD;
 
         // compression method
@@ -1245,14 +1342,16 @@ public class ZipArchiveOutputStream<E extends ZipArchiveEntry> extends ArchiveOu
                                                                   final boolean
                                                                           utfFallback,
                                                                   final boolean
-                                                                          zip64)
+                                                                          zip64,
+                                                                  final boolean
+                                                                          dataDescriptor)
             throws IOException {
 
         // CheckStyle:MagicNumber OFF
         int versionNeededToExtract = INITIAL_VERSION;
         GeneralPurposeBit b = new GeneralPurposeBit();
         b.useUTF8ForNames(useUTF8Flag || utfFallback);
-        if (zipMethod == DEFLATED && raf == null) {
+        if (dataDescriptor) {
             // requires version 2 as we are going to store length info
             // in the data descriptor
             versionNeededToExtract = DATA_DESCRIPTOR_MIN_VERSION;
@@ -1293,6 +1392,14 @@ public class ZipArchiveOutputStream<E extends ZipArchiveEntry> extends ArchiveOu
         return z64;
     }
 
+    /**
+     * Are CRC and sizes of the entry written to a data descriptor?
+     */
+    private boolean usesDataDescriptor(ZipArchiveEntry ze) {
+        return ze.getMethod() == DEFLATED && raf == null
+                && !rawEntries.contains(ze);
+    }
+
     /**
      * Is there a ZIP64 extended information extra field for the
      * entry?
@@ -1401,6 +1508,10 @@ public class ZipArchiveOutputStream<E extends ZipArchiveEntry> extends ArchiveOu
          * Deflater#getBytesRead) when using DEFLATED.
          */
         private long bytesRead = 0;
+        /**
+         * Whether the compressed data of the entry is copied as is.
+         */
+        private boolean raw = false;
         /**
          * Whether current entry was the first one using ZIP64 features.
          */
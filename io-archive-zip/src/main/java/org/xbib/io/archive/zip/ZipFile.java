@@ -2,12 +2,16 @@ package org.xbib.io.archive.zip;
 
 import org.xbib.io.archive.entry.ArchiveEntryEncoding;
 import org.xbib.io.archive.entry.ArchiveEntryEncodingHelper;
+import org.xbib.io.archive.util.InflaterPool;
 
 import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
@@ -15,6 +19,7 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 import java.util.zip.ZipEntry;
@@ -37,7 +42,11 @@ import static org.xbib.io.archive.zip.ZipConstants.ZIP64_MAGIC_SHORT;
  * It doesn't extend <code>java.util.zip.ZipFile</code> as it would
  * have to reimplement all methods anyway.  Like
  * <code>java.util.ZipFile</code>, it uses RandomAccessFile under the
- * covers and supports compressed and uncompressed entries. This code
+ * covers and supports compressed and uncompressed entries. Entry data
+ * is read with positional reads on the file channel, so many threads
+ * can read different entries at the same time without locking. Note
+ * that interrupting a thread while it reads entry data closes the
+ * channel for all readers. This code
  * also transparently supports Zip64
  * extensions and thus individual entries and archives larger than 4
  * GB or with more than 65536 entries.
@@ -51,6 +60,12 @@ import static org.xbib.io.archive.zip.ZipConstants.ZIP64_MAGIC_SHORT;
  * instances.</li>
  * <li>close is allowed to throw IOException.</li>
  * </ul>
+ * In lazy mode, the central directory is kept as raw bytes in a
+ * compact index, and {@link ZipArchiveEntry} instances are only
+ * created on demand. Opening a large archive then only costs reading
+ * the central directory. Entries created in lazy mode carry the extra
+ * fields of the central directory, but not those of the local file
+ * header, and every call creates a new instance.
  */
 public class ZipFile {
     private static final int HASH_SIZE = 509;
@@ -60,6 +75,7 @@ public class ZipFile {
     private static final int POS_1 = 1;
     private static final int POS_2 = 2;
     private static final int POS_3 = 3;
+    private static final int BUFFER_SIZE = 8192;
 
     /**
      * Maps ZipArchiveEntrys to two longs, recording the offsets of
@@ -103,11 +119,21 @@ public class ZipFile {
      */
     private final RandomAccessFile archive;
 
+    /**
+     * The channel of the data source, for positional reads of entry data.
+     */
+    private final FileChannel channel;
+
     /**
      * Whether to look for and use Unicode extra fields.
      */
     private final boolean useUnicodeExtraFields;
 
+    /**
+     * The central directory index in lazy mode, null otherwise.
+     */
+    private final CentralDirectoryIndex index;
+
     /**
      * Whether the file is closed.
      */
@@ -172,15 +198,39 @@ public class ZipFile {
      */
     public ZipFile(File f, String encoding, boolean useUnicodeExtraFields)
             throws IOException {
+        this(f, encoding, useUnicodeExtraFields, false);
+    }
+
+    /**
+     * Opens the given file for reading, assuming the specified
+     * encoding for file names.
+     *
+     * @param f                     the archive.
+     * @param encoding              the encoding to use for file names, use null
+     *                              for the platform's default encoding
+     * @param useUnicodeExtraFields whether to use InfoZIP Unicode
+     *                              Extra Fields (if present) to set the file names.
+     * @param lazy                  whether to keep the central directory as a
+     *                              compact index and create entries on demand
+     * @throws java.io.IOException if an error occurs while reading the file.
+     */
+    public ZipFile(File f, String encoding, boolean useUnicodeExtraFields, boolean lazy)
+            throws IOException {
         this.archiveName = f.getAbsolutePath();
         this.encoding = encoding;
         this.archiveEntryEncoding = ArchiveEntryEncodingHelper.getEncoding(encoding);
         this.useUnicodeExtraFields = useUnicodeExtraFields;
         archive = new RandomAccessFile(f, "r");
+        channel = archive.getChannel();
         boolean success = false;
+        CentralDirectoryIndex centralDirectoryIndex = null;
         try {
-            Map<ZipArchiveEntry, NameAndComment> entriesWithoutUTF8Flag = populateFromCentralDirectory();
-            resolveLocalFileHeaderData(entriesWithoutUTF8Flag);
+            if (lazy) {
+                centralDirectoryIndex = readCentralDirectoryIndex();
+            } else {
+                Map<ZipArchiveEntry, NameAndComment> entriesWithoutUTF8Flag = populateFromCentralDirectory();
+                resolveLocalFileHeaderData(entriesWithoutUTF8Flag);
+            }
             success = true;
         } finally {
             if (!success) {
@@ -192,6 +242,7 @@ public class ZipFile {
                 }
             }
         }
+        this.index = centralDirectoryIndex;
     }
 
     /**
@@ -241,6 +292,13 @@ public class ZipFile {
      * @return all entries as {@link ZipArchiveEntry} instances
      */
     public Enumeration<ZipArchiveEntry> getEntries() {
+        if (index != null) {
+            int[] order = new int[index.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            return new IndexedEntryEnumeration(order);
+        }
         return Collections.enumeration(entries.keySet());
     }
 
@@ -252,6 +310,22 @@ public class ZipFile {
      * @return all entries as {@link ZipArchiveEntry} instances
      */
     public Enumeration<ZipArchiveEntry> getEntriesInPhysicalOrder() {
+        if (index != null) {
+            long[] keys = new long[index.size()];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = index.getHeaderOffset(i);
+            }
+            Integer[] sorted = new Integer[keys.length];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = i;
+            }
+            Arrays.sort(sorted, (i1, i2) -> Long.compare(keys[i1], keys[i2]));
+            int[] order = new int[sorted.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = sorted[i];
+            }
+            return new IndexedEntryEnumeration(order);
+        }
         ZipArchiveEntry[] allEntries =
                 entries.keySet().toArray(new ZipArchiveEntry[0]);
         Arrays.sort(allEntries, OFFSET_COMPARATOR);
@@ -265,8 +339,19 @@ public class ZipFile {
      * @param name name of the entry.
      * @return the ZipArchiveEntry corresponding to the given name - or
      * {@code null} if not present.
+     * @throws UncheckedIOException if the entry of a lazily indexed archive
+     *                              can not be read from the central directory
      */
     public ZipArchiveEntry getEntry(String name) {
+        if (index != null) {
+            try {
+                int i = index.lookup(name);
+                return i >= 0 ? createIndexedEntry(i) : null;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error reading central directory entry: "
+                        + name + " - " + e.getMessage(), e);
+            }
+        }
         return nameMap.get(name);
     }
 
@@ -289,12 +374,11 @@ public class ZipFile {
      */
     public InputStream getInputStream(ZipArchiveEntry ze)
             throws IOException, ZipException {
-        OffsetEntry offsetEntry = entries.get(ze);
-        if (offsetEntry == null) {
+        long start = getDataOffset(ze);
+        if (start < 0) {
             return null;
         }
         ZipUtil.checkRequestedFeatures(ze);
-        long start = offsetEntry.dataOffset;
         BoundedInputStream bis =
                 new BoundedInputStream(start, ze.getCompressedSize());
         switch (ze.getMethod()) {
@@ -302,12 +386,21 @@ public class ZipFile {
                 return bis;
             case ZipEntry.DEFLATED:
                 bis.addDummy();
-                final Inflater inflater = new Inflater(true);
-                return new InflaterInputStream(bis, inflater) {
+                final InflaterPool pool = InflaterPool.getInstance(true);
+                final Inflater inflater = pool.acquire();
+                return new InflaterInputStream(bis, inflater, BUFFER_SIZE) {
+                    private boolean released;
+
                     @Override
                     public void close() throws IOException {
-                        super.close();
-                        inflater.end();
+                        try {
+                            super.close();
+                        } finally {
+                            if (!released) {
+                                released = true;
+                                pool.release(inflater);
+                            }
+                        }
                     }
                 };
             default:
@@ -316,6 +409,47 @@ public class ZipFile {
         }
     }
 
+    /**
+     * Returns an InputStream for reading the compressed data of the given entry,
+     * as it is stored in the archive. Together with the entry, the data can be
+     * copied to another archive without decompressing and compressing it again,
+     * see {@link ZipArchiveOutputStream#addRawArchiveEntry}.
+     *
+     * @param ze the entry to get the stream for.
+     * @return a stream to read the compressed data from, or null if the entry is
+     * not in this archive.
+     * @throws java.io.IOException if the entry can not be located
+     */
+    public InputStream getRawInputStream(ZipArchiveEntry ze) throws IOException {
+        long start = getDataOffset(ze);
+        if (start < 0) {
+            return null;
+        }
+        return new BoundedInputStream(start, ze.getCompressedSize());
+    }
+
+    /**
+     * Returns the offset of the data of the entry, or -1 if the entry is not in
+     * this archive. In lazy mode, an entry of this archive is resolved by the
+     * offset of its local file header, so it finds its own data even if the
+     * name occurs more than once. Any other entry is looked up by name, like
+     * {@link #getEntry(String)}.
+     */
+    private long getDataOffset(ZipArchiveEntry ze) throws IOException {
+        if (index != null) {
+            int i = index.lookup(ze.getName());
+            if (i >= 0 && ze.getLocalHeaderOffset() >= 0) {
+                int own = index.lookup(ze.getLocalHeaderOffset());
+                if (own >= 0 && own != i && index.hasSameName(own, i)) {
+                    i = own;
+                }
+            }
+            return i >= 0 ? getIndexedDataOffset(i) : -1L;
+        }
+        OffsetEntry offsetEntry = entries.get(ze);
+        return offsetEntry != null ? offsetEntry.dataOffset : -1L;
+    }
+
     /**
      * Length of a "central directory" entry structure without file
      * name, extra fields or comment.
@@ -389,7 +523,51 @@ public class ZipFile {
         byte[] cfh = new byte[CFH_LEN];
 
         archive.readFully(cfh);
-        int off = 0;
+        ZipArchiveEntry ze = createEntryFromCentralDirectoryHeader(cfh, 0);
+        final boolean hasUTF8Flag = ze.getGeneralPurposeBit().usesUTF8ForNames();
+        final ArchiveEntryEncoding entryEncoding =
+                hasUTF8Flag ? ArchiveEntryEncodingHelper.UTF8_ENCODING : archiveEntryEncoding;
+        int fileNameLen = ZipShort.getValue(cfh, CentralDirectoryIndex.CFH_FILENAME_LENGTH_OFFSET);
+        int extraLen = ZipShort.getValue(cfh, CentralDirectoryIndex.CFH_EXTRA_LENGTH_OFFSET);
+        int commentLen = ZipShort.getValue(cfh, CentralDirectoryIndex.CFH_COMMENT_LENGTH_OFFSET);
+        int diskStart = ZipShort.getValue(cfh, CentralDirectoryIndex.CFH_DISK_START_OFFSET);
+
+        byte[] fileName = new byte[fileNameLen];
+        archive.readFully(fileName);
+        ze.setName(entryEncoding.decode(fileName), fileName);
+
+        // LFH offset,
+        OffsetEntry offset = new OffsetEntry();
+        offset.headerOffset = ZipLong.getValue(cfh, CentralDirectoryIndex.CFH_LFH_OFFSET);
+        // data offset will be filled later
+        entries.put(ze, offset);
+
+        nameMap.put(ze.getName(), ze);
+
+        byte[] cdExtraData = new byte[extraLen];
+        archive.readFully(cdExtraData);
+        ze.setCentralDirectoryExtra(cdExtraData);
+
+        setSizesAndOffsetFromZip64Extra(ze, offset, diskStart);
+
+        byte[] comment = new byte[commentLen];
+        archive.readFully(comment);
+        ze.setComment(entryEncoding.decode(comment));
+
+        if (!hasUTF8Flag && useUnicodeExtraFields) {
+            noUTF8Flag.put(ze, new NameAndComment(fileName, comment));
+        }
+    }
+
+    /**
+     * Creates a ZipArchiveEntry from the fixed length part of a
+     * central directory record, without name, extra fields and comment.
+     *
+     * @param cfh the central directory record
+     * @param off the offset of the record, right after the signature
+     * @return the entry
+     */
+    private ZipArchiveEntry createEntryFromCentralDirectoryHeader(byte[] cfh, int off) {
         ZipArchiveEntry ze = new ZipArchiveEntry();
 
         int versionMadeBy = ZipShort.getValue(cfh, off);
@@ -399,9 +577,6 @@ public class ZipFile {
         off += SHORT; // skip version info
 
         final GeneralPurposeBit gpFlag = GeneralPurposeBit.parse(cfh, off);
-        final boolean hasUTF8Flag = gpFlag.usesUTF8ForNames();
-        final ArchiveEntryEncoding entryEncoding =
-                hasUTF8Flag ? ArchiveEntryEncodingHelper.UTF8_ENCODING : archiveEntryEncoding;
         ze.setGeneralPurposeBit(gpFlag);
 
         off += SHORT;
@@ -422,48 +597,124 @@ public class ZipFile {
         ze.setSize(ZipLong.getValue(cfh, off));
         off += WORD;
 
-        int fileNameLen = ZipShort.getValue(cfh, off);
-        off += SHORT;
-
-        int extraLen = ZipShort.getValue(cfh, off);
-        off += SHORT;
-
-        int commentLen = ZipShort.getValue(cfh, off);
-        off += SHORT;
-
-        int diskStart = ZipShort.getValue(cfh, off);
-        off += SHORT;
+        off += SHORT; // skip filename length
+        off += SHORT; // skip extra field length
+        off += SHORT; // skip file comment length
+        off += SHORT; // skip disk number start
 
         ze.setInternalAttributes(ZipShort.getValue(cfh, off));
         off += SHORT;
 
         ze.setExternalAttributes(ZipLong.getValue(cfh, off));
-        off += WORD;
+        return ze;
+    }
 
-        byte[] fileName = new byte[fileNameLen];
-        archive.readFully(fileName);
-        ze.setName(entryEncoding.decode(fileName), fileName);
+    /**
+     * Reads the whole central directory into memory and builds the
+     * index of lazy mode.
+     */
+    private CentralDirectoryIndex readCentralDirectoryIndex() throws IOException {
+        long size = positionAtCentralDirectory();
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new ZipException("central directory is too large for lazy mode: " + size);
+        }
+        byte[] centralDirectory = new byte[(int) size];
+        archive.readFully(centralDirectory);
+        if ((centralDirectory.length < WORD || ZipLong.getValue(centralDirectory) != CFH_SIG)
+                && startsWithLocalFileHeader()) {
+            throw new IOException("central directory is empty, can't expand"
+                    + " corrupt archive.");
+        }
+        return CentralDirectoryIndex.build(centralDirectory, encoding, useUnicodeExtraFields);
+    }
 
-        // LFH offset,
+    /**
+     * Creates the ZipArchiveEntry of the given index entry from the
+     * central directory record alone.
+     */
+    private ZipArchiveEntry createIndexedEntry(int i) throws IOException {
+        byte[] cd = index.getCentralDirectory();
+        int off = index.getRecordOffset(i);
+        ZipArchiveEntry ze = createEntryFromCentralDirectoryHeader(cd, off);
+        final boolean hasUTF8Flag = ze.getGeneralPurposeBit().usesUTF8ForNames();
+        final ArchiveEntryEncoding entryEncoding =
+                hasUTF8Flag ? ArchiveEntryEncodingHelper.UTF8_ENCODING : archiveEntryEncoding;
+        int fileNameLen = ZipShort.getValue(cd, off + CentralDirectoryIndex.CFH_FILENAME_LENGTH_OFFSET);
+        int extraLen = ZipShort.getValue(cd, off + CentralDirectoryIndex.CFH_EXTRA_LENGTH_OFFSET);
+        int commentLen = ZipShort.getValue(cd, off + CentralDirectoryIndex.CFH_COMMENT_LENGTH_OFFSET);
+        int diskStart = ZipShort.getValue(cd, off + CentralDirectoryIndex.CFH_DISK_START_OFFSET);
+        int pos = off + CentralDirectoryIndex.CFH_LEN;
+        byte[] fileName = Arrays.copyOfRange(cd, pos, pos + fileNameLen);
+        ze.setName(entryEncoding.decode(fileName), fileName);
+        pos += fileNameLen;
+        ze.setCentralDirectoryExtra(Arrays.copyOfRange(cd, pos, pos + extraLen));
         OffsetEntry offset = new OffsetEntry();
-        offset.headerOffset = ZipLong.getValue(cfh, off);
-        // data offset will be filled later
-        entries.put(ze, offset);
+        offset.headerOffset = ZipLong.getValue(cd, off + CentralDirectoryIndex.CFH_LFH_OFFSET);
+        setSizesAndOffsetFromZip64Extra(ze, offset, diskStart);
+        ze.setLocalHeaderOffset(offset.headerOffset);
+        pos += extraLen;
+        byte[] comment = Arrays.copyOfRange(cd, pos, pos + commentLen);
+        ze.setComment(entryEncoding.decode(comment));
+        if (!hasUTF8Flag && useUnicodeExtraFields) {
+            ZipUtil.setNameAndCommentFromExtraFields(ze, fileName, comment);
+        }
+        return ze;
+    }
 
-        nameMap.put(ze.getName(), ze);
+    /**
+     * Returns the offset of the data of the given index entry, reads
+     * the lengths of file name and extra field from the local file
+     * header on first access.
+     */
+    private long getIndexedDataOffset(int i) throws IOException {
+        long dataOffset = index.getDataOffset(i);
+        if (dataOffset < 0) {
+            long headerOffset = index.getHeaderOffset(i);
+            ByteBuffer b = ByteBuffer.allocate(SHORT + SHORT);
+            long pos = headerOffset + LFH_OFFSET_FOR_FILENAME_LENGTH;
+            while (b.hasRemaining()) {
+                int n = channel.read(b, pos + b.position());
+                if (n < 0) {
+                    throw new EOFException();
+                }
+            }
+            int fileNameLen = ZipShort.getValue(b.array(), 0);
+            int extraFieldLen = ZipShort.getValue(b.array(), SHORT);
+            dataOffset = pos + SHORT + SHORT + fileNameLen + extraFieldLen;
+            index.setDataOffset(i, dataOffset);
+        }
+        return dataOffset;
+    }
 
-        byte[] cdExtraData = new byte[extraLen];
-        archive.readFully(cdExtraData);
-        ze.setCentralDirectoryExtra(cdExtraData);
+    /**
+     * Enumerates the entries of the index in the given order, creating
+     * each entry when it is requested.
+     */
+    private class IndexedEntryEnumeration implements Enumeration<ZipArchiveEntry> {
+        private final int[] order;
+        private int next;
 
-        setSizesAndOffsetFromZip64Extra(ze, offset, diskStart);
+        IndexedEntryEnumeration(int[] order) {
+            this.order = order;
+        }
 
-        byte[] comment = new byte[commentLen];
-        archive.readFully(comment);
-        ze.setComment(entryEncoding.decode(comment));
+        @Override
+        public boolean hasMoreElements() {
+            return next < order.length;
+        }
 
-        if (!hasUTF8Flag && useUnicodeExtraFields) {
-            noUTF8Flag.put(ze, new NameAndComment(fileName, comment));
+        @Override
+        public ZipArchiveEntry nextElement() {
+            if (next >= order.length) {
+                throw new NoSuchElementException();
+            }
+            int i = order[next++];
+            try {
+                return createIndexedEntry(i);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error reading central directory entry "
+                        + i + " - " + e.getMessage(), e);
+            }
         }
     }
 
@@ -612,8 +863,10 @@ public class ZipFile {
      * locator&quot; or the &quot;End of central dir record&quot;, parses
      * it and positions the stream at the first central directory
      * record.
+     *
+     * @return the size of the central directory
      */
-    private void positionAtCentralDirectory()
+    private long positionAtCentralDirectory()
             throws IOException {
         boolean found = tryToLocateSignature(MIN_EOCD_SIZE + ZIP64_EOCDL_LENGTH,
                 MAX_EOCD_SIZE + ZIP64_EOCDL_LENGTH,
@@ -621,9 +874,9 @@ public class ZipFile {
                         .ZIP64_EOCD_LOC_SIG);
         if (!found) {
             // not a ZIP64 archive
-            positionAtCentralDirectory32();
+            return positionAtCentralDirectory32();
         } else {
-            positionAtCentralDirectory64();
+            return positionAtCentralDirectory64();
         }
     }
 
@@ -633,7 +886,7 @@ public class ZipFile {
      * parsed information, parses that and positions the stream at the
      * first central directory record.
      */
-    private void positionAtCentralDirectory64()
+    private long positionAtCentralDirectory64()
             throws IOException {
         skipBytes(ZIP64_EOCDL_LOCATOR_OFFSET);
         byte[] zip64EocdOffset = new byte[DWORD];
@@ -650,10 +903,14 @@ public class ZipFile {
                     + "directory locator is corrupt.");
         }
         skipBytes(ZIP64_EOCD_CFD_LOCATOR_OFFSET
-                - WORD /* signature has already been read */);
+                - WORD /* signature has already been read */
+                - DWORD /* size of the central directory */);
+        byte[] cfdSize = new byte[DWORD];
+        archive.readFully(cfdSize);
         byte[] cfdOffset = new byte[DWORD];
         archive.readFully(cfdOffset);
         archive.seek(ZipEightByteInteger.getLongValue(cfdOffset));
+        return ZipEightByteInteger.getLongValue(cfdSize);
     }
 
     /**
@@ -661,17 +918,20 @@ public class ZipFile {
      * it and positions the stream at the first central directory
      * record.
      */
-    private void positionAtCentralDirectory32()
+    private long positionAtCentralDirectory32()
             throws IOException {
         boolean found = tryToLocateSignature(MIN_EOCD_SIZE, MAX_EOCD_SIZE,
                 ZipArchiveOutputStream.EOCD_SIG);
         if (!found) {
             throw new ZipException("archive is not a ZIP archive");
         }
-        skipBytes(CFD_LOCATOR_OFFSET);
+        skipBytes(CFD_LOCATOR_OFFSET - WORD /* size of the central directory */);
+        byte[] cfdSize = new byte[WORD];
+        archive.readFully(cfdSize);
         byte[] cfdOffset = new byte[WORD];
         archive.readFully(cfdOffset);
         archive.seek(ZipLong.getValue(cfdOffset));
+        return ZipLong.getValue(cfdSize);
     }
 
     /**
@@ -818,13 +1078,15 @@ public class ZipFile {
 
     /**
      * InputStream that delegates requests to the underlying
-     * RandomAccessFile, making sure that only bytes from a certain
-     * range can be read.
+     * FileChannel, making sure that only bytes from a certain
+     * range can be read. Positional reads leave the channel position
+     * untouched, so no lock on the archive is required.
      */
-    private class BoundedInputStream extends InputStream {
+    class BoundedInputStream extends InputStream {
         private long remaining;
         private long loc;
         private boolean addDummyByte = false;
+        private ByteBuffer singleByteBuffer;
 
         BoundedInputStream(long start, long remaining) {
             this.remaining = remaining;
@@ -833,17 +1095,25 @@ public class ZipFile {
 
         @Override
         public int read() throws IOException {
-            if (remaining-- <= 0) {
+            if (remaining <= 0) {
                 if (addDummyByte) {
                     addDummyByte = false;
                     return 0;
                 }
                 return -1;
             }
-            synchronized (archive) {
-                archive.seek(loc++);
-                return archive.read();
+            if (singleByteBuffer == null) {
+                singleByteBuffer = ByteBuffer.allocate(1);
+            } else {
+                singleByteBuffer.rewind();
+            }
+            int ret = channel.read(singleByteBuffer, loc);
+            if (ret <= 0) {
+                return -1;
             }
+            loc++;
+            remaining--;
+            return singleByteBuffer.get(0) & 0xff;
         }
 
         @Override
@@ -864,11 +1134,7 @@ public class ZipFile {
             if (len > remaining) {
                 len = (int) remaining;
             }
-            int ret = -1;
-            synchronized (archive) {
-                archive.seek(loc);
-                ret = archive.read(b, off, len);
-            }
+            int ret = channel.read(ByteBuffer.wrap(b, off, len), loc);
             if (ret > 0) {
                 loc += ret;
                 remaining -= ret;
@@ -876,6 +1142,38 @@ public class ZipFile {
             return ret;
         }
 
+        @Override
+        public long skip(long n) {
+            if (n <= 0 || remaining <= 0) {
+                return 0;
+            }
+            long skipped = Math.min(n, remaining);
+            loc += skipped;
+            remaining -= skipped;
+            return skipped;
+        }
+
+        /**
+         * Transfers the remaining bytes to the current position of
+         * the target channel.
+         *
+         * @return the number of bytes transferred
+         */
+        long copyTo(FileChannel target) throws IOException {
+            long transferred = 0L;
+            while (remaining > 0) {
+                long n = channel.transferTo(loc, remaining, target);
+                if (n <= 0) {
+                    // end of the archive file
+                    break;
+                }
+                loc += n;
+                remaining -= n;
+                transferred += n;
+            }
+            return transferred;
+        }
+
         /**
          * Inflater needs an extra dummy byte for nowrap - see
          * Inflater's javadocs.
@@ -1,8 +1,28 @@
 package org.xbib.io.archive.zip;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import org.junit.jupiter.api.Test;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 public class ZipTest {
 
@@ -21,4 +41,302 @@ public class ZipTest {
         assertEquals(1813L, total);
         z.close();
     }
+
+    @Test
+    public void testZipFileConcurrentRead() throws Exception {
+        File file = new File(getClass().getResource("test.zip").toURI());
+        ZipFile zipFile = new ZipFile(file);
+        List<ZipArchiveEntry> entries = Collections.list(zipFile.getEntries());
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        List<Future<Long>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            for (ZipArchiveEntry entry : entries) {
+                futures.add(executorService.submit(() -> {
+                    long total = 0L;
+                    try (InputStream in = zipFile.getInputStream(entry)) {
+                        byte[] buffer = new byte[64];
+                        int len;
+                        while ((len = in.read(buffer)) > 0) {
+                            total += len;
+                        }
+                    }
+                    return total;
+                }));
+            }
+        }
+        long total = 0L;
+        for (Future<Long> future : futures) {
+            total += future.get();
+        }
+        executorService.shutdown();
+        zipFile.close();
+        assertEquals(100 * 1813L, total);
+    }
+
+    @Test
+    public void testZipFileLazy() throws Exception {
+        File file = new File(getClass().getResource("test.zip").toURI());
+        ZipFile zipFile = new ZipFile(file);
+        ZipFile lazyZipFile = new ZipFile(file, null, true, true);
+        List<ZipArchiveEntry> entries = Collections.list(zipFile.getEntriesInPhysicalOrder());
+        List<ZipArchiveEntry> lazyEntries = Collections.list(lazyZipFile.getEntriesInPhysicalOrder());
+        assertEquals(entries.size(), lazyEntries.size());
+        long total = 0L;
+        for (int i = 0; i < entries.size(); i++) {
+            ZipArchiveEntry entry = entries.get(i);
+            ZipArchiveEntry lazyEntry = lazyZipFile.getEntry(entry.getName());
+            assertNotNull(lazyEntry);
+            assertEquals(entry.getName(), lazyEntries.get(i).getName());
+            assertEquals(entry.getSize(), lazyEntry.getSize());
+            assertEquals(entry.getCrc(), lazyEntry.getCrc());
+            try (InputStream in = lazyZipFile.getInputStream(lazyEntry)) {
+                byte[] buffer = new byte[1024];
+                int len;
+                while ((len = in.read(buffer)) > 0) {
+                    total += len;
+                }
+            }
+        }
+        assertNull(lazyZipFile.getEntry("does/not/exist"));
+        lazyZipFile.close();
+        zipFile.close();
+        assertEquals(1813L, total);
+    }
+
+    @Test
+    public void testZipFileLazyDuplicateNames() throws Exception {
+        File file = File.createTempFile("duplicates", ".zip");
+        try {
+            try (ZipArchiveOutputStream<ZipArchiveEntry> out =
+                         new ZipArchiveOutputStream<>(new FileOutputStream(file))) {
+                for (String content : new String[]{"first", "other", "second"}) {
+                    out.putArchiveEntry(new ZipArchiveEntry(content.equals("other") ? "other" : "dup"));
+                    out.write(content.getBytes());
+                    out.closeArchiveEntry();
+                }
+            }
+            ZipFile zipFile = new ZipFile(file, null, true, true);
+            List<String> contents = new ArrayList<>();
+            for (ZipArchiveEntry entry : Collections.list(zipFile.getEntries())) {
+                try (InputStream in = zipFile.getInputStream(entry)) {
+                    contents.add(new String(in.readAllBytes()));
+                }
+            }
+            assertEquals(List.of("first", "other", "second"), contents);
+            // an entry that was not created by this archive is looked up by name, the last one wins
+            ZipFile eagerZipFile = new ZipFile(file);
+            try (InputStream in = zipFile.getInputStream(eagerZipFile.getEntry("dup"))) {
+                assertEquals("second", new String(in.readAllBytes()));
+            }
+            eagerZipFile.close();
+            zipFile.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testZipFileReleaseInflaterOnClose() throws Exception {
+        File file = new File(getClass().getResource("test.zip").toURI());
+        ZipFile zipFile = new ZipFile(file);
+        List<ZipArchiveEntry> entries = Collections.list(zipFile.getEntries());
+        for (int i = 0; i < 10; i++) {
+            for (ZipArchiveEntry entry : entries) {
+                // abandon the entry in the middle, the inflater goes back to the pool unfinished
+                InputStream in = zipFile.getInputStream(entry);
+                in.read(new byte[16]);
+                in.close();
+                in.close();
+                CRC32 crc = new CRC32();
+                long size = 0L;
+                try (InputStream in2 = zipFile.getInputStream(entry)) {
+                    byte[] buffer = new byte[1024];
+                    int len;
+                    while ((len = in2.read(buffer)) > 0) {
+                        crc.update(buffer, 0, len);
+                        size += len;
+                    }
+                }
+                assertEquals(entry.getSize(), size);
+                assertEquals(entry.getCrc(), crc.getValue());
+            }
+        }
+        zipFile.close();
+    }
+
+    @Test
+    public void testParallelScatterZip() throws Exception {
+        Random random = new Random(17L);
+        List<byte[]> contents = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            byte[] b = new byte[random.nextInt(20000)];
+            for (int j = 0; j < b.length; j++) {
+                b[j] = (byte) ('a' + random.nextInt(i % 2 == 0 ? 4 : 26));
+            }
+            contents.add(b);
+        }
+        File file = File.createTempFile("scatter", ".zip");
+        file.deleteOnExit();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        // small thresholds, so the stores spill to temporary files while entries are added
+        for (int memoryThreshold : new int[] { 1000, 50000, ParallelScatterZipCreator.DEFAULT_MEMORY_THRESHOLD }) {
+            for (boolean seekable : new boolean[] { true, false }) {
+                ParallelScatterZipCreator<ZipArchiveEntry> creator =
+                        new ParallelScatterZipCreator<>(executorService, memoryThreshold, null);
+                for (int i = 0; i < contents.size(); i++) {
+                    ZipArchiveEntry entry = new ZipArchiveEntry("entry" + i);
+                    entry.setMethod(i % 3 == 0 ? ZipArchiveOutputStream.STORED : ZipArchiveOutputStream.DEFLATED);
+                    byte[] b = contents.get(i);
+                    creator.addArchiveEntry(entry, () -> new ByteArrayInputStream(b));
+                }
+                bytes.reset();
+                ZipArchiveOutputStream<ZipArchiveEntry> out = seekable ?
+                        new ZipArchiveOutputStream<>(file) : new ZipArchiveOutputStream<>(bytes);
+                creator.writeTo(out);
+                out.close();
+                if (!seekable) {
+                    Files.write(file.toPath(), bytes.toByteArray());
+                }
+                ZipFile zipFile = new ZipFile(file);
+                List<ZipArchiveEntry> entries = Collections.list(zipFile.getEntriesInPhysicalOrder());
+                assertEquals(contents.size(), entries.size());
+                for (int i = 0; i < entries.size(); i++) {
+                    ZipArchiveEntry entry = entries.get(i);
+                    assertEquals("entry" + i, entry.getName());
+                    try (InputStream in = zipFile.getInputStream(entry)) {
+                        assertEquals(new String(contents.get(i)), new String(in.readAllBytes()));
+                    }
+                }
+                zipFile.close();
+                try (ZipInputStream in = new ZipInputStream(new FileInputStream(file))) {
+                    int i = 0;
+                    ZipEntry entry;
+                    while ((entry = in.getNextEntry()) != null) {
+                        assertEquals("entry" + i, entry.getName());
+                        assertEquals(new String(contents.get(i)), new String(in.readAllBytes()));
+                        i++;
+                    }
+                    assertEquals(contents.size(), i);
+                }
+            }
+        }
+        executorService.shutdown();
+    }
+
+    @Test
+    public void testScatterZipStoreSpill() throws Exception {
+        byte[] first = new byte[500];
+        byte[] second = new byte[3000];
+        new Random(17L).nextBytes(first);
+        new Random(18L).nextBytes(second);
+        ScatterZipStore store = new ScatterZipStore(1000, null);
+        ZipArchiveEntry entry0 = new ZipArchiveEntry("entry0");
+        entry0.setMethod(ZipArchiveOutputStream.STORED);
+        long offset0 = store.add(entry0, new ByteArrayInputStream(first), 0);
+        // the second entry spills the store, then waits before it delivers the rest of its content
+        CountDownLatch spilled = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        InputStream slow = new InputStream() {
+            private int pos = 0;
+
+            @Override
+            public int read() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (pos == 1500) {
+                    spilled.countDown();
+                    try {
+                        resume.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                if (pos == second.length) {
+                    return -1;
+                }
+                int n = Math.min(len, (pos < 1500 ? 1500 : second.length) - pos);
+                System.arraycopy(second, pos, b, off, n);
+                pos += n;
+                return n;
+            }
+        };
+        ZipArchiveEntry entry1 = new ZipArchiveEntry("entry1");
+        entry1.setMethod(ZipArchiveOutputStream.STORED);
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        Future<Long> offset1 = executorService.submit(() -> store.add(entry1, slow, 0));
+        spilled.await();
+        try (InputStream in = store.open(offset0, entry0.getCompressedSize())) {
+            assertArrayEquals(first, in.readAllBytes());
+        }
+        resume.countDown();
+        try (InputStream in = store.open(offset1.get(), entry1.getCompressedSize())) {
+            assertArrayEquals(second, in.readAllBytes());
+        }
+        executorService.shutdown();
+        store.close();
+    }
+
+    @Test
+    public void testRawCopy() throws Exception {
+        File file = new File(getClass().getResource("test.zip").toURI());
+        ZipFile zipFile = new ZipFile(file);
+        List<ZipArchiveEntry> entries = Collections.list(zipFile.getEntriesInPhysicalOrder());
+        List<String> contents = new ArrayList<>();
+        for (ZipArchiveEntry entry : entries) {
+            try (InputStream in = zipFile.getInputStream(entry)) {
+                contents.add(new String(in.readAllBytes()));
+            }
+        }
+        File copy = File.createTempFile("rawcopy", ".zip");
+        copy.deleteOnExit();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        // random access file, file output stream and a stream that is not a file
+        for (int mode = 0; mode < 3; mode++) {
+            bytes.reset();
+            ZipArchiveOutputStream<ZipArchiveEntry> out = mode == 0 ? new ZipArchiveOutputStream<>(copy) :
+                    mode == 1 ? new ZipArchiveOutputStream<>(new FileOutputStream(copy)) :
+                            new ZipArchiveOutputStream<>(bytes);
+            // rename the first entry, drop the second, copy the others
+            for (int i = 0; i < entries.size(); i++) {
+                if (i == 1) {
+                    continue;
+                }
+                ZipArchiveEntry entry = entries.get(i);
+                if (i == 0) {
+                    entry = new ZipArchiveEntry(entry);
+                    entry.setName("renamed");
+                }
+                try (InputStream in = zipFile.getRawInputStream(entries.get(i))) {
+                    out.addRawArchiveEntry(entry, in);
+                }
+            }
+            out.putArchiveEntry(new ZipArchiveEntry("added"));
+            out.write("added".getBytes());
+            out.closeArchiveEntry();
+            out.close();
+            if (mode == 2) {
+                Files.write(copy.toPath(), bytes.toByteArray());
+            }
+            ZipFile copyFile = new ZipFile(copy);
+            List<ZipArchiveEntry> copied = Collections.list(copyFile.getEntriesInPhysicalOrder());
+            assertEquals(entries.size(), copied.size());
+            for (int i = 0; i < copied.size(); i++) {
+                ZipArchiveEntry entry = copied.get(i);
+                int source = i == 0 ? 0 : i + 1;
+                String expected = source < entries.size() ? contents.get(source) : "added";
+                String name = i == 0 ? "renamed" : source < entries.size() ? entries.get(source).getName() : "added";
+                assertEquals(name, entry.getName());
+                try (InputStream in = copyFile.getInputStream(entry)) {
+                    assertEquals(expected, new String(in.readAllBytes()));
+                }
+            }
+            copyFile.close();
+        }
+        assertNull(zipFile.getRawInputStream(new ZipArchiveEntry("does/not/exist")));
+        zipFile.close();
+    }
 }
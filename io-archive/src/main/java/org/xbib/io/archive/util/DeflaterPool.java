@@ -0,0 +1,93 @@
+package org.xbib.io.archive.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * A bounded pool of {@link Deflater} instances, one pool for every compression level and mode.
+ *
+ * Works like the {@link InflaterPool}. On release, the level and the strategy of the deflater
+ * are restored, so a deflater from the pool always has the level of its pool, even if it was
+ * changed while in use.
+ */
+public final class DeflaterPool {
+
+    private static final int MAX_POOLED = 32;
+
+    private static final DeflaterPool[] pools = new DeflaterPool[22];
+
+    static {
+        for (int level = Deflater.DEFAULT_COMPRESSION; level <= Deflater.BEST_COMPRESSION; level++) {
+            pools[index(level, false)] = new DeflaterPool(level, false);
+            pools[index(level, true)] = new DeflaterPool(level, true);
+        }
+    }
+
+    private final int level;
+
+    private final boolean nowrap;
+
+    private final Queue<Deflater> pool = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    private DeflaterPool(int level, boolean nowrap) {
+        this.level = level;
+        this.nowrap = nowrap;
+    }
+
+    /**
+     * Returns the pool for deflaters with the given level and mode.
+     *
+     * @param level  the compression level (-1 for the default level, or 0-9)
+     * @param nowrap if true, the deflaters write raw deflate data without zlib header and
+     *               checksum, as in ZIP and GZIP
+     * @return the pool
+     */
+    public static DeflaterPool getInstance(int level, boolean nowrap) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        return pools[index(level, nowrap)];
+    }
+
+    /**
+     * Returns a deflater that is ready for new input.
+     *
+     * @return the deflater
+     */
+    public Deflater acquire() {
+        Deflater deflater = pool.poll();
+        if (deflater != null) {
+            pooled.decrementAndGet();
+            return deflater;
+        }
+        return new Deflater(level, nowrap);
+    }
+
+    /**
+     * Returns a deflater to the pool.
+     *
+     * @param deflater the deflater, acquired from this pool, or null
+     */
+    public void release(Deflater deflater) {
+        if (deflater == null) {
+            return;
+        }
+        deflater.reset();
+        deflater.setLevel(level);
+        deflater.setStrategy(Deflater.DEFAULT_STRATEGY);
+        if (pooled.incrementAndGet() <= MAX_POOLED) {
+            pool.offer(deflater);
+        } else {
+            pooled.decrementAndGet();
+            deflater.end();
+        }
+    }
+
+    private static int index(int level, boolean nowrap) {
+        return (level + 1) * 2 + (nowrap ? 1 : 0);
+    }
+}
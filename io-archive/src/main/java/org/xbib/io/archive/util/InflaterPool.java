@@ -0,0 +1,81 @@
+package org.xbib.io.archive.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Inflater;
+
+/**
+ * A bounded pool of {@link Inflater} instances.
+ *
+ * Creating an inflater allocates native zlib state, which is expensive if an inflater is
+ * needed for every entry or every block. {@link #acquire()} returns an inflater from the
+ * pool, and creates a new one only if the pool is empty. {@link #release(Inflater)} resets
+ * the inflater and puts it back; if the pool is full, the inflater is ended. So at most
+ * 32 idle inflaters, and their native state, are kept per pool.
+ *
+ * An inflater that is never released is not lost for good, it is garbage collected and its
+ * native state is freed by the cleaner of the JDK, like an inflater that was never pooled.
+ * An inflater must not be released twice, and it must not be used or ended after release.
+ */
+public final class InflaterPool {
+
+    private static final int MAX_POOLED = 32;
+
+    private static final InflaterPool ZLIB = new InflaterPool(false);
+
+    private static final InflaterPool NOWRAP = new InflaterPool(true);
+
+    private final boolean nowrap;
+
+    private final Queue<Inflater> pool = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    private InflaterPool(boolean nowrap) {
+        this.nowrap = nowrap;
+    }
+
+    /**
+     * Returns the pool for inflaters with the given mode.
+     *
+     * @param nowrap if true, the inflaters expect raw deflate data without zlib header and
+     *               checksum, as in ZIP and GZIP
+     * @return the pool
+     */
+    public static InflaterPool getInstance(boolean nowrap) {
+        return nowrap ? NOWRAP : ZLIB;
+    }
+
+    /**
+     * Returns an inflater that is ready for new input.
+     *
+     * @return the inflater
+     */
+    public Inflater acquire() {
+        Inflater inflater = pool.poll();
+        if (inflater != null) {
+            pooled.decrementAndGet();
+            return inflater;
+        }
+        return new Inflater(nowrap);
+    }
+
+    /**
+     * Returns an inflater to the pool.
+     *
+     * @param inflater the inflater, acquired from this pool, or null
+     */
+    public void release(Inflater inflater) {
+        if (inflater == null) {
+            return;
+        }
+        inflater.reset();
+        if (pooled.incrementAndGet() <= MAX_POOLED) {
+            pool.offer(inflater);
+        } else {
+            pooled.decrementAndGet();
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package org.xbib.io.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xbib.io.archive.cpio.CpioArchiveEntry;
+import org.xbib.io.archive.cpio.CpioArchiveInputStream;
+import org.xbib.io.archive.cpio.CpioArchiveOutputStream;
+import org.xbib.io.archive.cpio.CpioConstants;
+import org.xbib.io.archive.entry.ArchiveEntry;
+import org.xbib.io.archive.stream.ArchiveInputStream;
+import org.xbib.io.archive.tar.TarArchiveEntry;
+import org.xbib.io.archive.tar.TarArchiveInputStream;
+import org.xbib.io.archive.tar.TarArchiveOutputStream;
+import org.xbib.io.archive.zip.ZipArchiveEntry;
+import org.xbib.io.archive.zip.ZipArchiveInputStream;
+import org.xbib.io.archive.zip.ZipArchiveOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing and reading archives of many small members, which measures the header handling
+ * and the per-entry overhead of the formats. The archive holds one corpus, split into
+ * members of <code>entrySize</code> bytes. Zip members are deflated.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class ArchiveBenchmark {
+
+    @Param({"tar", "zip", "cpio"})
+    public String format;
+
+    @Param({"TEXT"})
+    public Corpus corpus;
+
+    @Param({"4096", "65536"})
+    public int entrySize;
+
+    private byte[] data;
+
+    private byte[] archive;
+
+    private Sink sink;
+
+    private byte[] scratch;
+
+    @Setup
+    public void setup() throws IOException {
+        data = corpus.generate(Corpus.SIZE);
+        sink = new Sink(2 * Corpus.SIZE);
+        scratch = new byte[64 * 1024];
+        write(new ByteCounter());
+        archive = sink.toByteArray();
+    }
+
+    @Benchmark
+    public int write(ByteCounter counter) throws IOException {
+        counter.bytes += data.length;
+        sink.reset();
+        switch (format) {
+            case "tar":
+                try (TarArchiveOutputStream out = new TarArchiveOutputStream(sink)) {
+                    for (int i = 0, offset = 0; offset < data.length; i++, offset += entrySize) {
+                        int length = Math.min(entrySize, data.length - offset);
+                        TarArchiveEntry entry = new TarArchiveEntry(name(i));
+                        entry.setEntrySize(length);
+                        out.putArchiveEntry(entry);
+                        out.write(data, offset, length);
+                        out.closeArchiveEntry();
+                    }
+                }
+                break;
+            case "zip":
+                try (ZipArchiveOutputStream<ZipArchiveEntry> out = new ZipArchiveOutputStream<>(sink)) {
+                    for (int i = 0, offset = 0; offset < data.length; i++, offset += entrySize) {
+                        int length = Math.min(entrySize, data.length - offset);
+                        out.putArchiveEntry(new ZipArchiveEntry(name(i)));
+                        out.write(data, offset, length);
+                        out.closeArchiveEntry();
+                    }
+                }
+                break;
+            case "cpio":
+                try (CpioArchiveOutputStream out = new CpioArchiveOutputStream(sink)) {
+                    for (int i = 0, offset = 0; offset < data.length; i++, offset += entrySize) {
+                        int length = Math.min(entrySize, data.length - offset);
+                        CpioArchiveEntry entry = new CpioArchiveEntry(name(i), length);
+                        entry.setMode(CpioConstants.C_ISREG);
+                        out.putArchiveEntry(entry);
+                        out.write(data, offset, length);
+                        out.closeArchiveEntry();
+                    }
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("unknown format " + format);
+        }
+        return sink.size();
+    }
+
+    @Benchmark
+    public long read(ByteCounter counter) throws IOException {
+        counter.bytes += data.length;
+        InputStream in = new ByteArrayInputStream(archive);
+        switch (format) {
+            case "tar":
+                return read(new TarArchiveInputStream(in));
+            case "zip":
+                return read(new ZipArchiveInputStream<>(in));
+            case "cpio":
+                return read(new CpioArchiveInputStream(in));
+            default:
+                throw new IllegalArgumentException("unknown format " + format);
+        }
+    }
+
+    private long read(ArchiveInputStream<? extends ArchiveEntry> in) throws IOException {
+        long total = 0L;
+        try (in) {
+            while (in.getNextEntry() != null) {
+                total += Sink.drain(in, scratch);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Short names, the same for all formats.
+     */
+    private static String name(int i) {
+        return "m" + i;
+    }
+}
@@ -0,0 +1,67 @@
+package org.xbib.io.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xbib.io.compress.bgzf.BlockCompressedInputStream;
+import org.xbib.io.compress.bgzf.BlockCompressedOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BGZF, which deflates 64 KiB blocks with the JDK deflater.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class BgzfBenchmark {
+
+    @Param({"TEXT", "BINARY", "RANDOM", "COMPRESSIBLE"})
+    public Corpus corpus;
+
+    @Param({"1", "5", "9"})
+    public int level;
+
+    private byte[] data;
+
+    private byte[] compressed;
+
+    private Sink sink;
+
+    private byte[] scratch;
+
+    @Setup
+    public void setup() throws IOException {
+        data = corpus.generate(Corpus.SIZE);
+        sink = new Sink(2 * Corpus.SIZE);
+        scratch = new byte[64 * 1024];
+        compress(new ByteCounter());
+        compressed = sink.toByteArray();
+    }
+
+    @Benchmark
+    public int compress(ByteCounter counter) throws IOException {
+        counter.bytes += data.length;
+        sink.reset();
+        try (BlockCompressedOutputStream out = new BlockCompressedOutputStream(sink, (File) null, level)) {
+            out.write(data);
+        }
+        return sink.size();
+    }
+
+    @Benchmark
+    public long decompress(ByteCounter counter) throws IOException {
+        counter.bytes += data.length;
+        try (BlockCompressedInputStream in = new BlockCompressedInputStream(new ByteArrayInputStream(compressed))) {
+            return Sink.drain(in, scratch);
+        }
+    }
+}
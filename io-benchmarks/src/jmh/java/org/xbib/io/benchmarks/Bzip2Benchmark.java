@@ -0,0 +1,63 @@
+package org.xbib.io.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xbib.io.compress.bzip2.Bzip2InputStream;
+import org.xbib.io.compress.bzip2.Bzip2OutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * bzip2 compression, dominated by the block sort, and decompression.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class Bzip2Benchmark {
+
+    @Param({"TEXT", "BINARY", "RANDOM", "COMPRESSIBLE"})
+    public Corpus corpus;
+
+    private byte[] data;
+
+    private byte[] compressed;
+
+    private Sink sink;
+
+    private byte[] scratch;
+
+    @Setup
+    public void setup() throws IOException {
+        data = corpus.generate(Corpus.SIZE);
+        sink = new Sink(2 * Corpus.SIZE);
+        scratch = new byte[64 * 1024];
+        compress(new ByteCounter());
+        compressed = sink.toByteArray();
+    }
+
+    @Benchmark
+    public int compress(ByteCounter counter) throws IOException {
+        counter.bytes += data.length;
+        sink.reset();
+        try (Bzip2OutputStream out = new Bzip2OutputStream(sink)) {
+            out.write(data);
+        }
+        return sink.size();
+    }
+
+    @Benchmark
+    public long decompress(ByteCounter counter) throws IOException {
+        counter.bytes += data.length;
+        try (Bzip2InputStream in = new Bzip2InputStream(new ByteArrayInputStream(compressed))) {
+            return Sink.drain(in, scratch);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.xbib.io.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Deterministic benchmark input. Every corpus is generated from a fixed seed, so the
+ * results of different runs and machines compare without downloading test files.
+ */
+public enum Corpus {
+
+    /**
+     * English-like text, words of a small vocabulary in skewed frequencies with
+     * punctuation and line breaks.
+     */
+    TEXT {
+        @Override
+        void fill(Random random, byte[] b) {
+            String[] words = {
+                    "the", "of", "and", "to", "in", "a", "is", "that", "for", "it", "as", "was", "with",
+                    "be", "by", "on", "not", "he", "this", "are", "or", "his", "from", "at", "which",
+                    "archive", "stream", "compression", "block", "entry", "header", "buffer", "dictionary",
+                    "window", "literal", "distance", "length", "symbol", "huffman", "checksum", "record"
+            };
+            int i = 0;
+            int column = 0;
+            while (i < b.length) {
+                // squaring the uniform number favors the first words, like a Zipf distribution
+                double r = random.nextDouble();
+                String word = words[(int) (r * r * words.length)];
+                byte[] w = word.getBytes(StandardCharsets.US_ASCII);
+                for (int j = 0; j < w.length && i < b.length; j++) {
+                    b[i++] = w[j];
+                }
+                column += w.length + 1;
+                if (i < b.length) {
+                    b[i++] = column > 72 ? (byte) '\n' : random.nextInt(12) == 0 ? (byte) ',' : (byte) ' ';
+                    if (column > 72) {
+                        column = 0;
+                    }
+                }
+            }
+        }
+    },
+
+    /**
+     * Binary records with fields of different widths and slowly changing values,
+     * like tables or numeric data.
+     */
+    BINARY {
+        @Override
+        void fill(Random random, byte[] b) {
+            ByteBuffer buffer = ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN);
+            long id = 0L;
+            double value = 0.0d;
+            while (buffer.remaining() >= 24) {
+                id += 1 + random.nextInt(4);
+                value += random.nextGaussian();
+                buffer.putLong(id);
+                buffer.putInt(random.nextInt(1000));
+                buffer.putShort((short) random.nextInt(8));
+                buffer.putShort((short) 0);
+                buffer.putDouble(value);
+            }
+            while (buffer.hasRemaining()) {
+                buffer.put((byte) 0);
+            }
+        }
+    },
+
+    /**
+     * Uniformly random bytes, which do not compress.
+     */
+    RANDOM {
+        @Override
+        void fill(Random random, byte[] b) {
+            random.nextBytes(b);
+        }
+    },
+
+    /**
+     * Long runs and short repeated patterns, which compress very well.
+     */
+    COMPRESSIBLE {
+        @Override
+        void fill(Random random, byte[] b) {
+            int i = 0;
+            while (i < b.length) {
+                int length = Math.min(b.length - i, 64 + random.nextInt(4096));
+                if (random.nextBoolean()) {
+                    byte value = (byte) random.nextInt(4);
+                    for (int j = 0; j < length; j++) {
+                        b[i++] = value;
+                    }
+                } else {
+                    int period = 1 + random.nextInt(16);
+                    for (int j = 0; j < length; j++) {
+                        b[i++] = (byte) ('a' + j % period);
+                    }
+                }
+            }
+        }
+    };
+
+    /**
+     * The size of the corpora in the benchmarks. One benchmark operation processes one
+     * corpus, the throughput in bytes per second is reported by the {@link ByteCounter}.
+     */
+    public static final int SIZE = 1024 * 1024;
+
+    private static final long SEED = 0x5eedL;
+
+    abstract void fill(Random random, byte[] b);
+
+    /**
+     * Generates the corpus.
+     *
+     * @param size the number of bytes
+     * @return the corpus, the same for the same size on every call
+     */
+    public byte[] generate(int size) {
+        byte[] b = new byte[size];
+        fill(new Random(SEED + ordinal()), b);
+        return b;
+    }
+}
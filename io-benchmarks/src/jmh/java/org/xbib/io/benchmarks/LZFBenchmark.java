@@ -0,0 +1,84 @@
+package org.xbib.io.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xbib.io.compress.lzf.LZFDecoder;
+import org.xbib.io.compress.lzf.LZFEncoder;
+import org.xbib.io.compress.lzf.LZFEncodingMode;
+import org.xbib.io.compress.lzf.LZFInputStream;
+import org.xbib.io.compress.lzf.LZFOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LZF on byte arrays, which measures the chunk encoder and decoder, and with the streams,
+ * in both encoding modes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class LZFBenchmark {
+
+    @Param({"TEXT", "BINARY", "RANDOM", "COMPRESSIBLE"})
+    public Corpus corpus;
+
+    @Param({"FAST", "HIGH_COMPRESSION"})
+    public LZFEncodingMode mode;
+
+    private byte[] data;
+
+    private byte[] compressed;
+
+    private byte[] decoded;
+
+    private Sink sink;
+
+    private byte[] scratch;
+
+    @Setup
+    public void setup() throws IOException {
+        data = corpus.generate(Corpus.SIZE);
+        compressed = LZFEncoder.encode(data, 0, data.length, mode);
+        decoded = new byte[data.length];
+        sink = new Sink(2 * Corpus.SIZE);
+        scratch = new byte[64 * 1024];
+    }
+
+    @Benchmark
+    public byte[] encode(ByteCounter counter) throws IOException {
+        counter.bytes += data.length;
+        return LZFEncoder.encode(data, 0, data.length, mode);
+    }
+
+    @Benchmark
+    public int decode(ByteCounter counter) throws IOException {
+        counter.bytes += data.length;
+        return LZFDecoder.decode(compressed, decoded);
+    }
+
+    @Benchmark
+    public int compressStream(ByteCounter counter) throws IOException {
+        counter.bytes += data.length;
+        sink.reset();
+        try (LZFOutputStream out = new LZFOutputStream(sink, mode)) {
+            out.write(data);
+        }
+        return sink.size();
+    }
+
+    @Benchmark
+    public long decompressStream(ByteCounter counter) throws IOException {
+        counter.bytes += data.length;
+        try (LZFInputStream in = new LZFInputStream(new ByteArrayInputStream(compressed))) {
+            return Sink.drain(in, scratch);
+        }
+    }
+}
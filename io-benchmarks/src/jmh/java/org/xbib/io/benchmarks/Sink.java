@@ -0,0 +1,39 @@
+package org.xbib.io.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Output of the benchmarks. The buffer is kept between operations, so only the
+ * allocations of the code under test count, and closing is ignored, because the
+ * streams under test close their underlying stream.
+ */
+public class Sink extends ByteArrayOutputStream {
+
+    public Sink(int size) {
+        super(size);
+    }
+
+    @Override
+    public void close() {
+        // keep the buffer
+    }
+
+    /**
+     * Reads a stream to the end into a scratch buffer.
+     *
+     * @param in      the stream
+     * @param scratch the buffer
+     * @return the number of bytes read
+     * @throws IOException if the stream can not be read
+     */
+    public static long drain(InputStream in, byte[] scratch) throws IOException {
+        long total = 0L;
+        int n;
+        while ((n = in.read(scratch, 0, scratch.length)) != -1) {
+            total += n;
+        }
+        return total;
+    }
+}
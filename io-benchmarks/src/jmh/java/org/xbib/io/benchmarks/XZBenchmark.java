@@ -0,0 +1,71 @@
+package org.xbib.io.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xbib.io.compress.xz.LZMA2Options;
+import org.xbib.io.compress.xz.XZInputStream;
+import org.xbib.io.compress.xz.XZOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * XZ with the fast presets, which use the fast LZMA encoder, and the normal presets,
+ * which use the normal LZMA encoder.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class XZBenchmark {
+
+    @Param({"TEXT", "BINARY", "RANDOM", "COMPRESSIBLE"})
+    public Corpus corpus;
+
+    @Param({"0", "3", "6"})
+    public int preset;
+
+    private LZMA2Options options;
+
+    private byte[] data;
+
+    private byte[] compressed;
+
+    private Sink sink;
+
+    private byte[] scratch;
+
+    @Setup
+    public void setup() throws IOException {
+        options = new LZMA2Options(preset);
+        data = corpus.generate(Corpus.SIZE);
+        sink = new Sink(2 * Corpus.SIZE);
+        scratch = new byte[64 * 1024];
+        compress(new ByteCounter());
+        compressed = sink.toByteArray();
+    }
+
+    @Benchmark
+    public int compress(ByteCounter counter) throws IOException {
+        counter.bytes += data.length;
+        sink.reset();
+        try (XZOutputStream out = new XZOutputStream(sink, options)) {
+            out.write(data);
+        }
+        return sink.size();
+    }
+
+    @Benchmark
+    public long decompress(ByteCounter counter) throws IOException {
+        counter.bytes += data.length;
+        try (XZInputStream in = new XZInputStream(new ByteArrayInputStream(compressed))) {
+            return Sink.drain(in, scratch);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.xbib.io.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.xbib.io.compress.zlib.ZInputStream;
+import org.xbib.io.compress.zlib.ZOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The pure Java zlib against {@link Deflater} and {@link Inflater} of the JDK, on the
+ * same input and with the same level.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class ZlibBenchmark {
+
+    @Param({"TEXT", "BINARY", "RANDOM", "COMPRESSIBLE"})
+    public Corpus corpus;
+
+    @Param({"1", "6", "9"})
+    public int level;
+
+    private byte[] data;
+
+    private byte[] compressed;
+
+    private Sink sink;
+
+    private byte[] scratch;
+
+    private Deflater deflater;
+
+    private Inflater inflater;
+
+    @Setup
+    public void setup() throws IOException {
+        data = corpus.generate(Corpus.SIZE);
+        sink = new Sink(2 * Corpus.SIZE);
+        scratch = new byte[64 * 1024];
+        deflater = new Deflater(level);
+        inflater = new Inflater();
+        try (ZOutputStream out = new ZOutputStream(sink, level, false)) {
+            out.write(data);
+        }
+        compressed = sink.toByteArray();
+    }
+
+    @TearDown
+    public void tearDown() {
+        deflater.end();
+        inflater.end();
+    }
+
+    @Benchmark
+    public int zlibDeflate(ByteCounter counter) throws IOException {
+        counter.bytes += data.length;
+        sink.reset();
+        try (ZOutputStream out = new ZOutputStream(sink, level, false)) {
+            out.write(data);
+        }
+        return sink.size();
+    }
+
+    @Benchmark
+    public long zlibInflate(ByteCounter counter) throws IOException {
+        counter.bytes += data.length;
+        try (ZInputStream in = new ZInputStream(new ByteArrayInputStream(compressed))) {
+            return Sink.drain(in, scratch);
+        }
+    }
+
+    @Benchmark
+    public long jdkDeflate(ByteCounter counter) {
+        counter.bytes += data.length;
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        long total = 0L;
+        while (!deflater.finished()) {
+            total += deflater.deflate(scratch);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long jdkInflate(ByteCounter counter) throws DataFormatException {
+        counter.bytes += data.length;
+        inflater.reset();
+        inflater.setInput(compressed);
+        long total = 0L;
+        while (!inflater.finished()) {
+            total += inflater.inflate(scratch);
+        }
+        return total;
+    }
+}
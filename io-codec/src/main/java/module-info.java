@@ -1,5 +1,12 @@
 module org.xbib.io.codec {
     uses org.xbib.io.codec.StreamCodec;
+    provides org.xbib.io.codec.StreamCodec with
+            org.xbib.io.codec.bgzf.BzgfStreamCodec,
+            org.xbib.io.codec.bzip2.Bzip2StreamCodec,
+            org.xbib.io.codec.gzip.GzipStreamCodec,
+            org.xbib.io.codec.lzf.LZFStreamCodec,
+            org.xbib.io.codec.xz.XZStreamCodec,
+            org.xbib.io.codec.zlib.ZStreamCodec;
     exports org.xbib.io.codec;
     exports org.xbib.io.codec.ar;
     exports org.xbib.io.codec.bgzf;
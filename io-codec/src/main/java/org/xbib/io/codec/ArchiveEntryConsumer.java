@@ -0,0 +1,23 @@
+package org.xbib.io.codec;
+
+import org.xbib.io.archive.entry.ArchiveEntry;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Consumes the entries of an archive, see {@link ParallelArchiveReader}.
+ *
+ * @param <E> the archive entry type
+ */
+@FunctionalInterface
+public interface ArchiveEntryConsumer<E extends ArchiveEntry> {
+
+    /**
+     * Consumes an entry. The input stream is only valid during the call.
+     *
+     * @param entry the entry
+     * @param in    the contents of the entry
+     * @throws IOException if the entry can not be consumed
+     */
+    void accept(E entry, InputStream in) throws IOException;
+}
@@ -3,24 +3,46 @@ package org.xbib.io.codec;
 import org.xbib.io.archive.entry.ArchiveEntry;
 import org.xbib.io.archive.stream.ArchiveInputStream;
 import org.xbib.io.archive.stream.ArchiveOutputStream;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.util.Date;
-import java.util.Set;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Archive session.
+ *
+ * Besides the string packets of {@link Session}, an archive session reads and writes the entries
+ * as {@link StreamPacket}s, see {@link #readStream()} and {@link #writeStream(StreamPacket)}. These
+ * methods are not part of {@link Session}: its packet type is bound to {@link StringPacket}, and
+ * {@link org.xbib.io.codec.file.FileSession} reads and writes plain text, which has no entries
+ * with names and sizes.
+ *
+ * The contents of string packets are encoded in UTF-8, unless another charset is set with
+ * {@link #setCharset(Charset)}.
  */
 public abstract class ArchiveSession<E extends ArchiveEntry, I extends ArchiveInputStream<E>, O extends ArchiveOutputStream<E>>
         implements Session<StringPacket> {
 
     private final static int DEFAULT_INPUT_BUFSIZE = 65536;
 
+    private final static long DEFAULT_MAX_BUFFERED_ENTRY_SIZE = 8L * 1024 * 1024;
+
+    private final static int COPY_BUFFER_SIZE = 65536;
+
+    private final static int MAX_STRING_PACKET_SIZE = Integer.MAX_VALUE - 8;
+
     protected int bufferSize = DEFAULT_INPUT_BUFSIZE;
 
     private boolean isOpen;
@@ -29,6 +51,10 @@ public abstract class ArchiveSession<E extends ArchiveEntry, I extends ArchiveIn
 
     private OpenOption option;
 
+    private boolean pipelined;
+
+    private Charset charset = StandardCharsets.UTF_8;
+
     protected ArchiveSession() {
     }
 
@@ -41,6 +67,24 @@ public abstract class ArchiveSession<E extends ArchiveEntry, I extends ArchiveIn
         this.bufferSize = bufferSize;
     }
 
+    /**
+     * Whether to decompress the input on a separate thread, see {@link PipelinedInputStream}.
+     *
+     * @param pipelined true if the input should be decompressed on a separate thread
+     */
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    /**
+     * The charset of the contents of string packets.
+     *
+     * @param charset the charset, UTF-8 by default
+     */
+    public void setCharset(Charset charset) {
+        this.charset = charset;
+    }
+
     @Override
     public synchronized void open(Session.Mode mode) throws IOException {
         if (isOpen) {
@@ -48,7 +92,7 @@ public abstract class ArchiveSession<E extends ArchiveEntry, I extends ArchiveIn
         }
         switch (mode) {
             case READ: {
-                InputStream in = newInputStream(path, option);
+                InputStream in = newInputStream(path, option, pipelined);
                 open(in);
                 this.isOpen = getInputStream() != null;
                 break;
@@ -82,13 +126,99 @@ public abstract class ArchiveSession<E extends ArchiveEntry, I extends ArchiveIn
         StringPacket packet = newPacket();
         String name = entry.getName();
         packet.name(name);
-        int size = (int)entry.getEntrySize();
-        byte[] b = new byte[size];
-        getInputStream().read(b, 0, size);
-        packet.packet(new String(b));
+        long size = entry.getEntrySize();
+        if (size > MAX_STRING_PACKET_SIZE) {
+            throw new IOException("entry '" + name + "' is too large for a string packet: " + size
+                    + " bytes, use readStream()");
+        }
+        byte[] b = size < 0 ? readToEnd(name) : readFully(name, (int) size);
+        packet.packet(new String(b, charset));
         return packet;
     }
 
+    private byte[] readFully(String name, int size) throws IOException {
+        byte[] b = new byte[size];
+        int n = 0;
+        while (n < b.length) {
+            int len = getInputStream().read(b, n, b.length - n);
+            if (len < 0) {
+                throw new EOFException("unexpected end of entry '" + name + "' after " + n + " bytes");
+            }
+            n += len;
+        }
+        return b;
+    }
+
+    /**
+     * Reads an entry of unknown size, for example a zip entry with a data descriptor.
+     */
+    private byte[] readToEnd(String name) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        int len;
+        while ((len = getInputStream().read(buffer, 0, buffer.length)) >= 0) {
+            if (out.size() > MAX_STRING_PACKET_SIZE - len) {
+                throw new IOException("entry '" + name + "' is too large for a string packet, use readStream()");
+            }
+            out.write(buffer, 0, len);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads the next entry as a stream packet. The stream of the packet reads the contents of
+     * the entry directly from the archive, it ends at the end of the entry and is only valid
+     * until the next entry is read. Closing it does not close the archive.
+     *
+     * @return the stream packet, or null if there are no more entries
+     * @throws IOException if the next entry can not be read
+     */
+    public synchronized StreamPacket readStream() throws IOException {
+        if (!isOpen()) {
+            throw new IOException("not open");
+        }
+        if (getInputStream() == null) {
+            throw new IOException("no input stream found");
+        }
+        ArchiveEntry entry = getInputStream().getNextEntry();
+        if (entry == null) {
+            return null;
+        }
+        InputStream in = new FilterInputStream(getInputStream()) {
+            @Override
+            public void close() {
+                // the archive stream stays open for the next entry
+            }
+        };
+        return new StreamPacket()
+                .name(entry.getName())
+                .size(entry.getEntrySize())
+                .lastModified(entry.getLastModified())
+                .packet(in);
+    }
+
+    /**
+     * Reads all remaining entries and hands them to the consumer on the threads of the executor,
+     * see {@link ParallelArchiveReader}.
+     *
+     * @param consumer           the consumer
+     * @param executor           the executor for the consumer
+     * @param maxEntriesInFlight maximum number of entries that are waiting or being consumed
+     * @return the number of entries
+     * @throws IOException if the archive can not be read or an entry can not be consumed
+     */
+    public synchronized long read(ArchiveEntryConsumer<E> consumer, ExecutorService executor,
+                                  int maxEntriesInFlight) throws IOException {
+        if (!isOpen()) {
+            throw new IOException("not open");
+        }
+        if (getInputStream() == null) {
+            throw new IOException("no input stream found");
+        }
+        return new ParallelArchiveReader<E>(executor, maxEntriesInFlight, DEFAULT_MAX_BUFFERED_ENTRY_SIZE)
+                .read(getInputStream(), consumer);
+    }
+
     @Override
     public synchronized void write(StringPacket packet) throws IOException {
         if (!isOpen()) {
@@ -100,7 +230,7 @@ public abstract class ArchiveSession<E extends ArchiveEntry, I extends ArchiveIn
         if (packet == null || packet.toString() == null) {
             throw new IOException("no packet to write");
         }
-        byte[] buf = packet.toString().getBytes();
+        byte[] buf = packet.toString().getBytes(charset);
         if (buf.length > 0) {
             String name = packet.name();
             E entry = getOutputStream().newArchiveEntry();
@@ -113,6 +243,47 @@ public abstract class ArchiveSession<E extends ArchiveEntry, I extends ArchiveIn
         }
     }
 
+    /**
+     * Writes a stream packet as a new entry. The contents are copied from the stream of the
+     * packet with a fixed buffer. The size of the packet must be known, because archive
+     * headers are written before the contents.
+     *
+     * @param packet the stream packet
+     * @throws IOException if the entry can not be written, or if the stream of the packet
+     *                     does not have the given size
+     */
+    public synchronized void writeStream(StreamPacket packet) throws IOException {
+        if (!isOpen()) {
+            throw new IOException("not open");
+        }
+        if (getOutputStream() == null) {
+            throw new IOException("no output stream found");
+        }
+        if (packet == null || packet.packet() == null) {
+            throw new IOException("no packet to write");
+        }
+        if (packet.size() < 0) {
+            throw new IOException("size of packet '" + packet.name() + "' is unknown");
+        }
+        E entry = getOutputStream().newArchiveEntry();
+        entry.setName(packet.name());
+        entry.setLastModified(packet.lastModified() != null ? packet.lastModified() : new Date());
+        entry.setEntrySize(packet.size());
+        getOutputStream().putArchiveEntry(entry);
+        InputStream in = packet.packet();
+        byte[] buffer = new byte[(int) Math.min(COPY_BUFFER_SIZE, Math.max(packet.size(), 1L))];
+        long remaining = packet.size();
+        while (remaining > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (n < 0) {
+                throw new EOFException("packet '" + packet.name() + "' ended " + remaining + " bytes before its size");
+            }
+            getOutputStream().write(buffer, 0, n);
+            remaining -= n;
+        }
+        getOutputStream().closeArchiveEntry();
+    }
+
     @Override
     public synchronized void close() throws IOException {
         if (!isOpen) {
@@ -136,26 +307,39 @@ public abstract class ArchiveSession<E extends ArchiveEntry, I extends ArchiveIn
         return canOpen(uri, getSuffix(), true);
     }
 
+    /**
+     * Whether the URI has the archive suffix as its scheme, or names a file with the archive
+     * suffix, optionally followed by codec suffixes, for example <code>file:data.tar.gz</code>.
+     * The codec suffixes are resolved by the cached lookup of {@link StreamCodecService#getCodecChain(String)}.
+     * Suffixes are matched case-insensitively.
+     *
+     * @param uri        the URI
+     * @param suffix     the archive suffix
+     * @param withCodecs whether codec suffixes may follow the archive suffix
+     * @return true if the archive session can open the URI
+     */
     public static boolean canOpen(URI uri, String suffix, boolean withCodecs) {
         final String scheme = uri.getScheme();
         final String part = uri.getSchemeSpecificPart();
-        if (scheme.equals(suffix) ||
-                (scheme.equals("file") && part.endsWith("." + suffix.toLowerCase())) ||
-                (scheme.equals("file") && part.endsWith("." + suffix.toUpperCase()))) {
+        if (scheme.equals(suffix) || (scheme.equals("file") && endsWithSuffix(part, part.length(), suffix))) {
             return true;
         }
         if (withCodecs) {
-            Set<String> codecs = StreamCodecService.getCodecs();
-            for (String codec : codecs) {
-                String s = "." + suffix + "." + codec;
-                if (part.endsWith(s) || part.endsWith(s.toLowerCase()) || part.endsWith(s.toUpperCase())) {
-                    return true;
-                }
+            int n = StreamCodecService.getInstance().getCodecChain(part).size();
+            int end = part.length();
+            for (int i = 0; i < n; i++) {
+                end = part.lastIndexOf('.', end - 1);
             }
+            return n > 0 && endsWithSuffix(part, end, suffix);
         }
         return false;
     }
 
+    private static boolean endsWithSuffix(String s, int end, String suffix) {
+        int start = end - suffix.length() - 1;
+        return start >= 0 && s.charAt(start) == '.' && s.regionMatches(true, start + 1, suffix, 0, suffix.length());
+    }
+
     protected abstract String getSuffix();
 
     protected abstract void open(InputStream in) throws IOException;
@@ -174,20 +358,37 @@ public abstract class ArchiveSession<E extends ArchiveEntry, I extends ArchiveIn
      * @throws java.io.IOException if existence or access rights do not suffice
      */
     public static InputStream newInputStream(Path path, OpenOption option) throws IOException {
+        return newInputStream(path, option, false);
+    }
+
+    /**
+     * Helper method for creating the FileInputStream
+     *
+     * @param path      the path
+     * @param option    the open option
+     * @param pipelined whether compressed input is decompressed on a separate thread
+     * @return an InputStream
+     * @throws java.io.IOException if existence or access rights do not suffice
+     */
+    public static InputStream newInputStream(Path path, OpenOption option, boolean pipelined) throws IOException {
         if (path == null) {
             throw new IOException("no path given");
         }
         String part = path.toUri().getSchemeSpecificPart();
         if (Files.isReadable(path) && Files.isRegularFile(path)) {
             InputStream in = Files.newInputStream(path, option);
-            Set<String> codecs = StreamCodecService.getCodecs();
-            for (String codec : codecs) {
-                String s = "." + codec;
-                if (part.endsWith(s.toLowerCase()) || part.endsWith(s.toUpperCase())) {
-                    in = StreamCodecService.getInstance().getCodec(codec).decode(in);
-                }
+            List<StreamCodec<InputStream, OutputStream>> chain = StreamCodecService.getInstance().getCodecChain(part);
+            boolean decoded = !chain.isEmpty();
+            for (StreamCodec<InputStream, OutputStream> codec : chain) {
+                in = codec.decode(in);
             }
-            return in;
+            if (!decoded) {
+                // no codec suffix, look at the magic bytes
+                InputStream buffered = new BufferedInputStream(in);
+                in = StreamCodecService.getInstance().decode(buffered);
+                decoded = in != buffered;
+            }
+            return pipelined && decoded ? new PipelinedInputStream(in) : in;
         } else {
             throw new IOException("can't open for input, check existence or access rights: " + path);
         }
@@ -202,12 +403,8 @@ public abstract class ArchiveSession<E extends ArchiveEntry, I extends ArchiveIn
     public static OutputStream newOutputStream(Path path, OpenOption option) throws IOException {
         String part = path.toUri().getSchemeSpecificPart();
         OutputStream out = Files.newOutputStream(path, option);
-        Set<String> codecs = StreamCodecService.getCodecs();
-        for (String codec : codecs) {
-            String s = "." + codec;
-            if (part.endsWith(s.toLowerCase()) || part.endsWith(s.toUpperCase())) {
-                out = StreamCodecService.getInstance().getCodec(codec).encode(out);
-            }
+        for (StreamCodec<InputStream, OutputStream> codec : StreamCodecService.getInstance().getCodecChain(part)) {
+            out = codec.encode(out);
         }
         return out;
     }
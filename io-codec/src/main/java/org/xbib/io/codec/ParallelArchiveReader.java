@@ -0,0 +1,171 @@
+package org.xbib.io.codec;
+
+import org.xbib.io.archive.entry.ArchiveEntry;
+import org.xbib.io.archive.stream.ArchiveInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Reads the entries of an archive input stream and hands them to a consumer on the threads
+ * of an executor.
+ *
+ * The archive is read on the calling thread. The contents of an entry are read into memory,
+ * so the consumer can process the entry while the next entries are read. At most
+ * <code>maxEntriesInFlight</code> entries are buffered, waiting or being consumed; if all are
+ * in flight, reading waits before the contents of the next entry are read, which bounds the memory. Entries with unknown size or larger than
+ * <code>maxBufferedEntrySize</code> are consumed on the calling thread directly from the
+ * archive stream.
+ *
+ * Together with a {@link PipelinedInputStream} under the archive stream, decompression,
+ * header parsing and the consumers run in parallel.
+ *
+ * @param <E> the archive entry type
+ */
+public class ParallelArchiveReader<E extends ArchiveEntry> {
+
+    private final ExecutorService executor;
+
+    private final int maxEntriesInFlight;
+
+    private final long maxBufferedEntrySize;
+
+    /**
+     * Creates a parallel archive reader.
+     *
+     * @param executor             the executor for the consumers
+     * @param maxEntriesInFlight   maximum number of entries that are waiting or being consumed
+     * @param maxBufferedEntrySize maximum size of an entry that is read into memory
+     */
+    public ParallelArchiveReader(ExecutorService executor, int maxEntriesInFlight, long maxBufferedEntrySize) {
+        if (maxEntriesInFlight < 1) {
+            throw new IllegalArgumentException("maxEntriesInFlight must be positive: " + maxEntriesInFlight);
+        }
+        this.executor = executor;
+        this.maxEntriesInFlight = maxEntriesInFlight;
+        this.maxBufferedEntrySize = Math.min(maxBufferedEntrySize, Integer.MAX_VALUE - 8);
+    }
+
+    /**
+     * Reads all entries of the archive input stream and consumes them. Returns when all
+     * entries are consumed. If a consumer fails, no more entries are read and the
+     * exception is rethrown.
+     *
+     * @param in       the archive input stream
+     * @param consumer the consumer
+     * @return the number of entries
+     * @throws IOException if the archive can not be read or an entry can not be consumed
+     */
+    public long read(ArchiveInputStream<E> in, ArchiveEntryConsumer<E> consumer) throws IOException {
+        Semaphore permits = new Semaphore(maxEntriesInFlight);
+        ArrayDeque<Future<Void>> futures = new ArrayDeque<>();
+        InputStream entryStream = new FilterInputStream(in) {
+            @Override
+            public void close() {
+                // the archive stream stays open for the next entry
+            }
+        };
+        long count = 0L;
+        boolean success = false;
+        try {
+            E entry;
+            while ((entry = in.getNextEntry()) != null) {
+                count++;
+                checkCompleted(futures);
+                long size = entry.getEntrySize();
+                if (size < 0 || size > maxBufferedEntrySize) {
+                    consumer.accept(entry, entryStream);
+                    continue;
+                }
+                // take the permit before the entry is buffered, so no more than
+                // maxEntriesInFlight entries are held in memory
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while waiting for consumers");
+                }
+                boolean submitted = false;
+                try {
+                    byte[] data = readFully(in, (int) size);
+                    final E e = entry;
+                    futures.add(executor.submit(() -> {
+                        try {
+                            consumer.accept(e, new ByteArrayInputStream(data));
+                            return null;
+                        } finally {
+                            permits.release();
+                        }
+                    }));
+                    submitted = true;
+                } finally {
+                    if (!submitted) {
+                        permits.release();
+                    }
+                }
+            }
+            while (!futures.isEmpty()) {
+                waitFor(futures.peek());
+                futures.remove();
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                for (Future<Void> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+        return count;
+    }
+
+    private void checkCompleted(ArrayDeque<Future<Void>> futures) throws IOException {
+        Iterator<Future<Void>> it = futures.iterator();
+        while (it.hasNext()) {
+            Future<Void> future = it.next();
+            if (future.isDone()) {
+                waitFor(future);
+                it.remove();
+            }
+        }
+    }
+
+    private static void waitFor(Future<Void> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for consumers");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static byte[] readFully(InputStream in, int size) throws IOException {
+        byte[] data = new byte[size];
+        int n = 0;
+        while (n < size) {
+            int len = in.read(data, n, size - n);
+            if (len < 0) {
+                throw new EOFException("unexpected end of entry, expected " + size + " bytes, got " + n);
+            }
+            n += len;
+        }
+        return data;
+    }
+}
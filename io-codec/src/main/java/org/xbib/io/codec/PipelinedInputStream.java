@@ -0,0 +1,213 @@
+package org.xbib.io.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An input stream that reads its source on a separate thread. The source, usually a
+ * decompressing stream from a {@link StreamCodec}, is read into a ring of large buffers,
+ * and the buffers are handed out in order to the reader. Decompression and the processing
+ * of the decompressed data, for example the parsing of archive headers, run in parallel.
+ *
+ * The ring has a fixed number of buffers, so the decompressing thread waits if the reader
+ * is behind. Errors of the source are rethrown to the reader.
+ */
+public class PipelinedInputStream extends InputStream {
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    private static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    private static final int DEFAULT_BUFFER_COUNT = 4;
+
+    private static final Chunk END = new Chunk(null, -1, null);
+
+    private final InputStream in;
+
+    private final BlockingQueue<Chunk> filled;
+
+    private final BlockingQueue<byte[]> free;
+
+    private final Thread thread;
+
+    private volatile boolean closed;
+
+    private Chunk current;
+
+    private int pos;
+
+    private IOException exception;
+
+    /**
+     * Creates a pipelined input stream with four buffers of 1 MiB.
+     *
+     * @param in the source
+     */
+    public PipelinedInputStream(InputStream in) {
+        this(in, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT);
+    }
+
+    /**
+     * Creates a pipelined input stream.
+     *
+     * @param in          the source
+     * @param bufferSize  the size of the buffers
+     * @param bufferCount the number of buffers in the ring
+     */
+    public PipelinedInputStream(InputStream in, int bufferSize, int bufferCount) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("bufferSize must be positive: " + bufferSize);
+        }
+        if (bufferCount < 1) {
+            throw new IllegalArgumentException("bufferCount must be positive: " + bufferCount);
+        }
+        this.in = in;
+        // one more slot for the end or error marker, so putting it never blocks
+        this.filled = new ArrayBlockingQueue<>(bufferCount + 1);
+        this.free = new ArrayBlockingQueue<>(bufferCount);
+        for (int i = 0; i < bufferCount; i++) {
+            free.add(new byte[bufferSize]);
+        }
+        this.thread = new Thread(this::produce, "codec-pipeline-" + threadCounter.incrementAndGet());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureChunk()) {
+            return -1;
+        }
+        return current.buffer[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureChunk()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - pos);
+        System.arraycopy(current.buffer, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (closed) {
+            throw new IOException("stream closed");
+        }
+        return current != null && current != END ? current.length - pos : 0;
+    }
+
+    /**
+     * Stops the decompressing thread and closes the source. The thread may be in the middle
+     * of reading the source, so it is waited for before the source is closed. This takes at
+     * most the time to fill one buffer.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        thread.interrupt();
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        in.close();
+    }
+
+    /**
+     * Makes sure that the current chunk has unread data.
+     *
+     * @return false at the end of the source
+     */
+    private boolean ensureChunk() throws IOException {
+        if (closed) {
+            throw new IOException("stream closed");
+        }
+        if (exception != null) {
+            throw exception;
+        }
+        while (current == null || (current != END && pos == current.length)) {
+            if (current != null) {
+                free.offer(current.buffer);
+            }
+            try {
+                current = filled.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for input");
+            }
+            pos = 0;
+            if (current.exception != null) {
+                exception = current.exception;
+                throw exception;
+            }
+        }
+        return current != END;
+    }
+
+    /**
+     * Fills free buffers from the source until the end of the source or an error.
+     */
+    private void produce() {
+        try {
+            while (!closed) {
+                byte[] buffer = free.take();
+                int length = 0;
+                int n = 0;
+                while (length < buffer.length && (n = in.read(buffer, length, buffer.length - length)) != -1) {
+                    length += n;
+                }
+                if (length > 0) {
+                    filled.put(new Chunk(buffer, length, null));
+                }
+                if (n == -1) {
+                    filled.put(END);
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } catch (IOException e) {
+            filled.offer(new Chunk(null, -1, e));
+        } catch (RuntimeException e) {
+            filled.offer(new Chunk(null, -1, new IOException(e)));
+        }
+    }
+
+    private static class Chunk {
+
+        private final byte[] buffer;
+
+        private final int length;
+
+        private final IOException exception;
+
+        private Chunk(byte[] buffer, int length, IOException exception) {
+            this.buffer = buffer;
+            this.length = length;
+            this.exception = exception;
+        }
+    }
+}
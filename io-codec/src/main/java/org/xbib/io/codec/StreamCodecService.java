@@ -1,18 +1,47 @@
 package org.xbib.io.codec;
 
+import java.io.BufferedInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.ServiceLoader;
 import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 /**
+ * The registry of stream codecs. The codecs are found with a {@link ServiceLoader}, the
+ * codecs of this module are registered in the module descriptor.
  *
+ * The codecs for a file name are found by its suffixes, from right to left, so
+ * <code>data.tar.gz.xz</code> is decoded by the xz codec first and the gz codec second. The
+ * resolved chain is cached per suffix pattern. If the suffixes do not tell, the format can be
+ * detected from the magic bytes at the start of the stream, see {@link #detect(InputStream)}.
  */
 public class StreamCodecService {
 
-    private final static Map<String, StreamCodec<InputStream, OutputStream>> codecs = new WeakHashMap<>();
+    /**
+     * The number of bytes that are needed to detect all formats. The ustar magic of tar
+     * archives is at offset 257.
+     */
+    private static final int DETECT_LENGTH = 512;
+
+    private static final int MAX_CACHED_CHAINS = 1024;
+
+    private static final int MAX_CHAIN_LENGTH = 4;
+
+    private final static Map<String, StreamCodec<InputStream, OutputStream>> codecs = new LinkedHashMap<>();
+
+    private final static Map<String, StreamCodec<InputStream, OutputStream>> codecsBySuffix = new LinkedHashMap<>();
+
+    private final static Map<String, List<StreamCodec<InputStream, OutputStream>>> chains = new ConcurrentHashMap<>();
 
     private final static StreamCodecService instance = new StreamCodecService();
 
@@ -22,6 +51,7 @@ public class StreamCodecService {
         for (StreamCodec<InputStream, OutputStream> codec : loader) {
             if (!codecs.containsKey(codec.getName())) {
                 codecs.put(codec.getName(), codec);
+                codecsBySuffix.putIfAbsent(codec.getName().toLowerCase(Locale.ROOT), codec);
             }
         }
     }
@@ -40,4 +70,188 @@ public class StreamCodecService {
     public static Set<String> getCodecs() {
         return codecs.keySet();
     }
+
+    /**
+     * Returns the codecs for the suffixes of a file name, the codec of the last suffix first.
+     * Suffixes are matched case-insensitively.
+     *
+     * @param name the file name or path
+     * @return the codecs, empty if the name has no codec suffix
+     */
+    public List<StreamCodec<InputStream, OutputStream>> getCodecChain(String name) {
+        int start = name.length();
+        int count = 0;
+        while (count < MAX_CHAIN_LENGTH) {
+            int dot = name.lastIndexOf('.', start - 1);
+            if (dot < 0 || name.indexOf('/', dot) >= 0) {
+                break;
+            }
+            start = dot;
+            count++;
+        }
+        String pattern = name.substring(start).toLowerCase(Locale.ROOT);
+        List<StreamCodec<InputStream, OutputStream>> chain = chains.get(pattern);
+        if (chain == null) {
+            chain = resolveChain(pattern);
+            if (chains.size() >= MAX_CACHED_CHAINS) {
+                chains.clear();
+            }
+            chains.put(pattern, chain);
+        }
+        return chain;
+    }
+
+    private static List<StreamCodec<InputStream, OutputStream>> resolveChain(String pattern) {
+        List<StreamCodec<InputStream, OutputStream>> chain = new ArrayList<>();
+        String[] suffixes = pattern.split("\\.");
+        for (int i = suffixes.length - 1; i >= 0; i--) {
+            StreamCodec<InputStream, OutputStream> codec = codecsBySuffix.get(suffixes[i]);
+            if (codec == null) {
+                break;
+            }
+            chain.add(codec);
+        }
+        return Collections.unmodifiableList(chain);
+    }
+
+    /**
+     * Decodes a stream with the codecs that are detected from its magic bytes, until the
+     * stream is no longer in a registered compression format.
+     *
+     * @param in the input stream
+     * @return the decoded stream, which supports mark and reset
+     * @throws IOException if the stream can not be read or decoded
+     */
+    public InputStream decode(InputStream in) throws IOException {
+        InputStream result = in.markSupported() ? in : new BufferedInputStream(in);
+        for (int i = 0; i < MAX_CHAIN_LENGTH; i++) {
+            String format = detect(result);
+            StreamCodec<InputStream, OutputStream> codec = format != null ? codecs.get(format) : null;
+            if (codec == null) {
+                break;
+            }
+            result = new BufferedInputStream(codec.decode(result));
+        }
+        return result;
+    }
+
+    /**
+     * Detects the format of a stream from its magic bytes. The stream must support mark
+     * and reset, it is reset to the current position. Archive formats are checked before
+     * compression formats.
+     *
+     * @param in the input stream
+     * @return the name of the format, the same as the codec name for compression formats
+     * ("gz", "bgzf", "bz2", "xz", "lzf", "Z") or the archive suffix ("zip", "tar", "cpio",
+     * "ar", "dump"), or null if the format is unknown
+     * @throws IOException if the stream can not be read
+     */
+    public static String detect(InputStream in) throws IOException {
+        if (!in.markSupported()) {
+            throw new IOException("stream does not support mark");
+        }
+        byte[] b = new byte[DETECT_LENGTH];
+        in.mark(DETECT_LENGTH);
+        int n = 0;
+        try {
+            while (n < b.length) {
+                int len = in.read(b, n, b.length - n);
+                if (len < 0) {
+                    break;
+                }
+                n += len;
+            }
+        } finally {
+            in.reset();
+        }
+        return detect(b, n);
+    }
+
+    private static String detect(byte[] b, int n) {
+        if (n >= 4 && b[0] == 'P' && b[1] == 'K'
+                && ((b[2] == 3 && b[3] == 4) || (b[2] == 5 && b[3] == 6) || (b[2] == 7 && b[3] == 8))) {
+            return "zip";
+        }
+        if (n >= 262 && b[257] == 'u' && b[258] == 's' && b[259] == 't' && b[260] == 'a' && b[261] == 'r') {
+            return "tar";
+        }
+        if (n >= 8 && startsWith(b, "!<arch>\n")) {
+            return "ar";
+        }
+        if (n >= 6 && (startsWith(b, "070701") || startsWith(b, "070702") || startsWith(b, "070707"))) {
+            return "cpio";
+        }
+        if (n >= 2 && (((b[0] & 0xff) == 0xc7 && (b[1] & 0xff) == 0x71)
+                || ((b[0] & 0xff) == 0x71 && (b[1] & 0xff) == 0xc7))) {
+            return "cpio";
+        }
+        if (n >= 28 && isDumpMagic(b)) {
+            return "dump";
+        }
+        if (n >= 4 && (b[0] & 0xff) == 0x1f && (b[1] & 0xff) == 0x8b && b[2] == 8) {
+            // BGZF is gzip with an extra field with the subfield "BC"
+            if (n >= 14 && (b[3] & 4) != 0 && b[12] == 'B' && b[13] == 'C') {
+                return "bgzf";
+            }
+            return "gz";
+        }
+        if (n >= 4 && b[0] == 'B' && b[1] == 'Z' && b[2] == 'h' && b[3] >= '1' && b[3] <= '9') {
+            return "bz2";
+        }
+        if (n >= 6 && (b[0] & 0xff) == 0xfd && b[1] == '7' && b[2] == 'z' && b[3] == 'X' && b[4] == 'Z' && b[5] == 0) {
+            return "xz";
+        }
+        if (n >= 3 && b[0] == 'Z' && b[1] == 'V' && (b[2] == 0 || b[2] == 1)) {
+            return "lzf";
+        }
+        if (n >= 2 && (b[0] & 0x0f) == 8 && (b[0] & 0xff) >>> 4 <= 7 && (b[1] & 0x20) == 0
+                && (((b[0] & 0xff) << 8) | (b[1] & 0xff)) % 31 == 0 && inflates(b, n)) {
+            return "Z";
+        }
+        return null;
+    }
+
+    /**
+     * The zlib header is only two bytes with a checksum, which plain data like "x^" or "HK"
+     * matches as well, so the prefix must also inflate. A prefix that is shorter than
+     * {@link #DETECT_LENGTH} is the whole stream, which must then be complete with a valid
+     * Adler-32 checksum.
+     */
+    private static boolean inflates(byte[] b, int n) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(b, 0, n);
+            byte[] out = new byte[4096];
+            long total = 0L;
+            while (!inflater.finished() && !inflater.needsInput()) {
+                int len = inflater.inflate(out);
+                if (len == 0 && !inflater.finished() && !inflater.needsInput()) {
+                    // needs a dictionary
+                    return false;
+                }
+                total += len;
+            }
+            return inflater.finished() || (n == DETECT_LENGTH && total > 0);
+        } catch (DataFormatException e) {
+            return false;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static boolean isDumpMagic(byte[] b) {
+        // c_magic of the dump header at offset 24, NFS_MAGIC or OFS_MAGIC in either byte order
+        int le = (b[24] & 0xff) | (b[25] & 0xff) << 8 | (b[26] & 0xff) << 16 | (b[27] & 0xff) << 24;
+        int be = (b[27] & 0xff) | (b[26] & 0xff) << 8 | (b[25] & 0xff) << 16 | (b[24] & 0xff) << 24;
+        return le == 60012 || le == 60011 || be == 60012 || be == 60011;
+    }
+
+    private static boolean startsWith(byte[] b, String magic) {
+        for (int i = 0; i < magic.length(); i++) {
+            if (b[i] != magic.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
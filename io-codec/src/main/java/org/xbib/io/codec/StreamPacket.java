@@ -0,0 +1,77 @@
+package org.xbib.io.codec;
+
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Date;
+
+/**
+ * A packet that carries the contents of an archive entry as a stream, so entries of any
+ * size can pass through a session with constant memory. A packet read from a session is
+ * only valid until the next packet is read.
+ */
+public class StreamPacket implements Packet<InputStream> {
+
+    private String name;
+    private InputStream in;
+    private long size = -1L;
+    private Date lastModified;
+
+    public StreamPacket() {
+    }
+
+    public StreamPacket name(String name) {
+        this.name = name;
+        return this;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public StreamPacket packet(InputStream in) {
+        this.in = in;
+        return this;
+    }
+
+    public InputStream packet() {
+        return in;
+    }
+
+    /**
+     * Returns the contents as a channel.
+     *
+     * @return a channel over the contents
+     */
+    public ReadableByteChannel channel() {
+        return Channels.newChannel(in);
+    }
+
+    public StreamPacket size(long size) {
+        this.size = size;
+        return this;
+    }
+
+    /**
+     * Returns the size of the contents.
+     *
+     * @return the size, or -1 if unknown
+     */
+    public long size() {
+        return size;
+    }
+
+    public StreamPacket lastModified(Date lastModified) {
+        this.lastModified = lastModified;
+        return this;
+    }
+
+    public Date lastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -4,12 +4,17 @@ import org.xbib.io.codec.StreamCodec;
 import org.xbib.io.compress.bgzf.BlockCompressedInputStream;
 import org.xbib.io.compress.bgzf.BlockCompressedOutputStream;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
 public class BzgfStreamCodec implements StreamCodec<BlockCompressedInputStream, BlockCompressedOutputStream> {
 
+    private static final PooledInflaterFactory inflaterFactory = new PooledInflaterFactory();
+
+    private static final PooledDeflaterFactory deflaterFactory = new PooledDeflaterFactory();
+
     @Override
     public String getName() {
         return "bgzf";
@@ -17,21 +22,23 @@ public class BzgfStreamCodec implements StreamCodec<BlockCompressedInputStream,
 
     @Override
     public BlockCompressedInputStream decode(InputStream in) throws IOException {
-        return new BlockCompressedInputStream(in);
+        return new BlockCompressedInputStream(in, true, inflaterFactory);
     }
 
     @Override
     public BlockCompressedInputStream decode(InputStream in, int bufsize) throws IOException {
-        return new BlockCompressedInputStream(in);
+        return new BlockCompressedInputStream(in, true, inflaterFactory);
     }
 
     @Override
     public BlockCompressedOutputStream encode(OutputStream out) throws IOException {
-        return new BlockCompressedOutputStream(out);
+        return new BlockCompressedOutputStream(out, (File) null,
+                BlockCompressedOutputStream.getDefaultCompressionLevel(), deflaterFactory);
     }
 
     @Override
     public BlockCompressedOutputStream encode(OutputStream out, int bufsize) throws IOException {
-        return new BlockCompressedOutputStream(out);
+        return new BlockCompressedOutputStream(out, (File) null,
+                BlockCompressedOutputStream.getDefaultCompressionLevel(), deflaterFactory);
     }
 }
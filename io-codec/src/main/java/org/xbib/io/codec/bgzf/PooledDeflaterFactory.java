@@ -0,0 +1,50 @@
+package org.xbib.io.codec.bgzf;
+
+import org.xbib.io.archive.util.DeflaterPool;
+import org.xbib.io.compress.bgzf.DeflaterFactory;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.zip.Deflater;
+
+/**
+ * A {@link DeflaterFactory} that takes the deflaters from the {@link DeflaterPool}
+ * and hands them back when the BGZF stream is closed.
+ *
+ * A deflater goes back to the pool of the level and mode that it was taken from. The
+ * factory remembers the pool of each deflater that is in use; deflaters compare by
+ * identity, and a deflater that is never released is garbage collected as usual.
+ */
+public class PooledDeflaterFactory extends DeflaterFactory {
+
+    private final Map<Deflater, DeflaterPool> pools = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * Creates a factory for deflaters of all levels and modes.
+     */
+    public PooledDeflaterFactory() {
+    }
+
+    @Override
+    public Deflater makeDeflater(final int compressionLevel, final boolean gzipCompatible) {
+        DeflaterPool pool = DeflaterPool.getInstance(compressionLevel, gzipCompatible);
+        Deflater deflater = pool.acquire();
+        pools.put(deflater, pool);
+        return deflater;
+    }
+
+    /**
+     * Hands the deflater back to the pool that it was taken from. A deflater that was
+     * not made by this factory is ended.
+     */
+    @Override
+    public void releaseDeflater(final Deflater deflater) {
+        DeflaterPool pool = pools.remove(deflater);
+        if (pool != null) {
+            pool.release(deflater);
+        } else {
+            deflater.end();
+        }
+    }
+}
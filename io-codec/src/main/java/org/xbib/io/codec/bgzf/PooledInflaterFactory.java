@@ -0,0 +1,49 @@
+package org.xbib.io.codec.bgzf;
+
+import org.xbib.io.archive.util.InflaterPool;
+import org.xbib.io.compress.bgzf.InflaterFactory;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.zip.Inflater;
+
+/**
+ * An {@link InflaterFactory} that takes the inflaters from the {@link InflaterPool}
+ * and hands them back when the BGZF stream is closed.
+ *
+ * An inflater goes back to the pool of the mode that it was taken from, like the
+ * deflaters of the {@link PooledDeflaterFactory}.
+ */
+public class PooledInflaterFactory extends InflaterFactory {
+
+    private final Map<Inflater, InflaterPool> pools = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * Creates a factory for inflaters of both modes.
+     */
+    public PooledInflaterFactory() {
+    }
+
+    @Override
+    public Inflater makeInflater(final boolean gzipCompatible) {
+        InflaterPool pool = InflaterPool.getInstance(gzipCompatible);
+        Inflater inflater = pool.acquire();
+        pools.put(inflater, pool);
+        return inflater;
+    }
+
+    /**
+     * Hands the inflater back to the pool that it was taken from. An inflater that was
+     * not made by this factory is ended.
+     */
+    @Override
+    public void releaseInflater(final Inflater inflater) {
+        InflaterPool pool = pools.remove(inflater);
+        if (pool != null) {
+            pool.release(inflater);
+        } else {
+            inflater.end();
+        }
+    }
+}
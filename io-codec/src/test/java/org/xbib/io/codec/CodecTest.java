@@ -0,0 +1,523 @@
+package org.xbib.io.codec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.xbib.io.archive.tar.TarArchiveEntry;
+import org.xbib.io.archive.tar.TarArchiveInputStream;
+import org.xbib.io.archive.tar.TarArchiveOutputStream;
+import org.xbib.io.archive.util.DeflaterPool;
+import org.xbib.io.archive.zip.ZipArchiveEntry;
+import org.xbib.io.archive.zip.ZipArchiveInputStream;
+import org.xbib.io.archive.zip.ZipArchiveOutputStream;
+import org.xbib.io.archive.util.InflaterPool;
+import org.xbib.io.codec.bgzf.PooledDeflaterFactory;
+import org.xbib.io.codec.bgzf.PooledInflaterFactory;
+import org.xbib.io.codec.tar.TarSession;
+import org.xbib.io.codec.zip.ZipSession;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+public class CodecTest {
+
+    @Test
+    public void testPooledFactoriesReleaseToOriginPool() {
+        PooledDeflaterFactory deflaterFactory = new PooledDeflaterFactory();
+        Deflater deflater = deflaterFactory.makeDeflater(5, false);
+        deflaterFactory.releaseDeflater(deflater);
+        assertFalse(drain(DeflaterPool.getInstance(5, true), deflater));
+        assertTrue(drain(DeflaterPool.getInstance(5, false), deflater));
+        PooledInflaterFactory inflaterFactory = new PooledInflaterFactory();
+        Inflater inflater = inflaterFactory.makeInflater(false);
+        inflaterFactory.releaseInflater(inflater);
+        assertFalse(drain(InflaterPool.getInstance(true), inflater));
+        assertTrue(drain(InflaterPool.getInstance(false), inflater));
+    }
+
+    @Test
+    public void testDeflaterPoolIsBounded() {
+        DeflaterPool pool = DeflaterPool.getInstance(1, true);
+        List<Deflater> list = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            list.add(pool.acquire());
+        }
+        list.forEach(pool::release);
+        // the pool keeps at most 32 deflaters, the others are ended
+        int ended = 0;
+        for (Deflater deflater : list) {
+            try {
+                deflater.getTotalIn();
+            } catch (NullPointerException e) {
+                ended++;
+            }
+        }
+        assertTrue(ended >= 8);
+    }
+
+    @Test
+    public void testDetectZlib() throws IOException {
+        byte[] text = ("The quick brown fox jumps over the lazy dog. ").repeat(100).getBytes(StandardCharsets.US_ASCII);
+        assertEquals("Z", detect(deflate(text, Deflater.DEFAULT_COMPRESSION)));
+        assertEquals("Z", detect(deflate(text, Deflater.BEST_SPEED)));
+        assertEquals("Z", detect(deflate("a".getBytes(StandardCharsets.US_ASCII), Deflater.DEFAULT_COMPRESSION)));
+        byte[] random = new byte[10000];
+        new Random(1L).nextBytes(random);
+        assertEquals("Z", detect(deflate(random, Deflater.DEFAULT_COMPRESSION)));
+        ByteArrayOutputStream gz = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gz)) {
+            out.write(text);
+        }
+        assertEquals("gz", detect(gz.toByteArray()));
+    }
+
+    @Test
+    public void testDetectPlainDataWithZlibHeader() throws IOException {
+        // 0x785e and 0x484b are valid zlib headers
+        assertNull(detect("x^".getBytes(StandardCharsets.US_ASCII)));
+        assertNull(detect("HK".getBytes(StandardCharsets.US_ASCII)));
+        assertNull(detect("x^2 + y^2 = r^2\n".getBytes(StandardCharsets.US_ASCII)));
+        assertNull(detect("HKEY_LOCAL_MACHINE\\SOFTWARE\n".getBytes(StandardCharsets.US_ASCII)));
+        assertNull(detect(("x^" + "The quick brown fox jumps over the lazy dog. ".repeat(100))
+                .getBytes(StandardCharsets.US_ASCII)));
+        assertNull(detect(("HK" + "0123456789abcdef".repeat(100)).getBytes(StandardCharsets.US_ASCII)));
+        // a zlib header with a truncated stream
+        byte[] truncated = deflate("The quick brown fox jumps over the lazy dog. ".repeat(100)
+                .getBytes(StandardCharsets.US_ASCII), Deflater.DEFAULT_COMPRESSION);
+        assertNull(detect(Arrays.copyOf(truncated, 20)));
+        assertNull(detect(new byte[0]));
+        Random random = new Random(2L);
+        int detected = 0;
+        for (int i = 0; i < 10000; i++) {
+            byte[] b = new byte[600];
+            random.nextBytes(b);
+            // a random zlib header followed by random data
+            b[0] = 0x78;
+            b[1] = (byte) 0x9c;
+            if ("Z".equals(detect(b))) {
+                detected++;
+            }
+        }
+        assertEquals(0, detected);
+    }
+
+    @Test
+    public void testArchiveSessionCanOpen() {
+        assertTrue(ArchiveSession.canOpen(URI.create("tar:data"), "tar", false));
+        assertTrue(ArchiveSession.canOpen(URI.create("file:/data/test.tar"), "tar", false));
+        assertTrue(ArchiveSession.canOpen(URI.create("file:/data/TEST.TAR"), "tar", false));
+        assertTrue(ArchiveSession.canOpen(URI.create("file:/data/test.tar.gz"), "tar", true));
+        assertTrue(ArchiveSession.canOpen(URI.create("file:/data/test.TAR.GZ"), "tar", true));
+        assertTrue(ArchiveSession.canOpen(URI.create("file:/data/test.tar.gz.xz"), "tar", true));
+        assertFalse(ArchiveSession.canOpen(URI.create("file:/data/test.tar.gz"), "tar", false));
+        assertFalse(ArchiveSession.canOpen(URI.create("file:/data/test.zip.gz"), "tar", true));
+        assertFalse(ArchiveSession.canOpen(URI.create("file:/data/atar.gz"), "tar", true));
+        assertFalse(ArchiveSession.canOpen(URI.create("file:/data/test.gz"), "tar", true));
+    }
+
+    @Test
+    public void testPipelinedInputStream() throws IOException {
+        byte[] data = new byte[3 * 65536 + 17];
+        new Random(3L).nextBytes(data);
+        try (PipelinedInputStream in = new PipelinedInputStream(new ByteArrayInputStream(data), 65536, 2)) {
+            assertEquals(data[0] & 0xff, in.read());
+            assertArrayEquals(Arrays.copyOfRange(data, 1, data.length), in.readAllBytes());
+            assertEquals(-1, in.read());
+        }
+        InputStream failing = new InputStream() {
+            private int n;
+
+            @Override
+            public int read() throws IOException {
+                if (n++ >= 100000) {
+                    throw new IOException("broken");
+                }
+                return 'a';
+            }
+        };
+        try (PipelinedInputStream in = new PipelinedInputStream(failing, 65536, 2)) {
+            IOException e = assertThrows(IOException.class, in::readAllBytes);
+            assertEquals("broken", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testPipelinedInputStreamClosesSourceAfterReading() throws Exception {
+        CountDownLatch reading = new CountDownLatch(1);
+        AtomicBoolean closedWhileReading = new AtomicBoolean();
+        InputStream slow = new InputStream() {
+            private volatile boolean inRead;
+
+            private volatile boolean closed;
+
+            @Override
+            public int read() {
+                return -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                inRead = true;
+                reading.countDown();
+                long end = System.nanoTime() + 100_000_000L;
+                while (System.nanoTime() < end) {
+                    // reading is not interruptible, like a decompressing stream
+                    Thread.onSpinWait();
+                }
+                if (closed) {
+                    closedWhileReading.set(true);
+                }
+                inRead = false;
+                return len;
+            }
+
+            @Override
+            public void close() {
+                closed = true;
+                if (inRead) {
+                    closedWhileReading.set(true);
+                }
+            }
+        };
+        PipelinedInputStream in = new PipelinedInputStream(slow, 1024, 2);
+        reading.await();
+        in.close();
+        assertFalse(closedWhileReading.get());
+    }
+
+    @Test
+    public void testParallelArchiveReader() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream out = new TarArchiveOutputStream(bytes)) {
+            for (int i = 0; i < 400; i++) {
+                byte[] b = content(i);
+                TarArchiveEntry entry = out.newArchiveEntry();
+                entry.setName("entry" + i);
+                entry.setEntrySize(b.length);
+                out.putArchiveEntry(entry);
+                out.write(b);
+                out.closeArchiveEntry();
+            }
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Map<String, byte[]> entries = new ConcurrentHashMap<>();
+            // entries larger than 1000 bytes are consumed from the archive stream on this thread
+            ParallelArchiveReader<TarArchiveEntry> reader = new ParallelArchiveReader<>(executor, 4, 1000L);
+            long count = reader.read(new TarArchiveInputStream(new ByteArrayInputStream(bytes.toByteArray())),
+                    (entry, in) -> entries.put(entry.getName(), in.readAllBytes()));
+            assertEquals(400L, count);
+            assertEquals(400, entries.size());
+            for (int i = 0; i < 400; i++) {
+                assertArrayEquals(content(i), entries.get("entry" + i));
+            }
+            IOException e = assertThrows(IOException.class, () ->
+                    reader.read(new TarArchiveInputStream(new ByteArrayInputStream(bytes.toByteArray())),
+                            (entry, in) -> {
+                                if (entry.getName().equals("entry7")) {
+                                    throw new IOException("can not consume " + entry.getName());
+                                }
+                            }));
+            assertEquals("can not consume entry7", e.getMessage());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelArchiveReaderWaitsBeforeBuffering() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream out = new TarArchiveOutputStream(bytes)) {
+            for (int i = 0; i < 3; i++) {
+                TarArchiveEntry entry = out.newArchiveEntry();
+                entry.setName("entry" + i);
+                entry.setEntrySize(65536);
+                out.putArchiveEntry(entry);
+                out.write(new byte[65536]);
+                out.closeArchiveEntry();
+            }
+        }
+        AtomicLong consumed = new AtomicLong();
+        InputStream counting = new FilterInputStream(new ByteArrayInputStream(bytes.toByteArray())) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    consumed.addAndGet(n);
+                }
+                return n;
+            }
+        };
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            ParallelArchiveReader<TarArchiveEntry> reader = new ParallelArchiveReader<>(executor, 1, 1L << 20);
+            Thread thread = new Thread(() -> {
+                try {
+                    reader.read(new TarArchiveInputStream(counting), (entry, in) -> {
+                        started.countDown();
+                        try {
+                            done.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    });
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            thread.start();
+            started.await();
+            while (thread.getState() != Thread.State.WAITING) {
+                Thread.yield();
+            }
+            // the reader waits for the permit before the data of the second entry is read
+            assertTrue(consumed.get() < 2 * 65536, "read " + consumed.get() + " bytes");
+            done.countDown();
+            thread.join();
+        } finally {
+            done.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testArchiveSessionReadParallel() throws IOException {
+        Path dir = Files.createTempDirectory("codec");
+        Path path = dir.resolve("test.tar.gz");
+        Path unnamed = dir.resolve("test");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            TarSession session = new TarSession();
+            session.setPath(path, StandardOpenOption.CREATE);
+            session.open(Session.Mode.WRITE);
+            for (int i = 0; i < 400; i++) {
+                session.write(session.newPacket().name("entry" + i)
+                        .packet(new String(content(i), StandardCharsets.US_ASCII)));
+            }
+            session.close();
+            // the same file without suffix is detected from its magic bytes
+            Files.copy(path, unnamed);
+            for (Path p : Arrays.asList(path, unnamed)) {
+                TarSession reader = new TarSession();
+                reader.setPath(p, StandardOpenOption.READ);
+                reader.setPipelined(true);
+                reader.open(Session.Mode.READ);
+                Map<String, byte[]> entries = new ConcurrentHashMap<>();
+                try {
+                    assertEquals(400L, reader.read((entry, in) ->
+                            entries.put(entry.getName(), in.readAllBytes()), executor, 8));
+                } finally {
+                    reader.close();
+                }
+                for (int i = 0; i < 400; i++) {
+                    assertArrayEquals(content(i), entries.get("entry" + i));
+                }
+            }
+        } finally {
+            executor.shutdown();
+            Files.deleteIfExists(path);
+            Files.deleteIfExists(unnamed);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testArchiveSessionCharset() throws IOException {
+        Path dir = Files.createTempDirectory("codec");
+        Path path = dir.resolve("test.tar");
+        String text = "Grüße aus Köln";
+        try {
+            for (Charset charset : Arrays.asList(StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1)) {
+                TarSession session = new TarSession();
+                session.setCharset(charset);
+                session.setPath(path, StandardOpenOption.CREATE);
+                session.open(Session.Mode.WRITE);
+                session.write(session.newPacket().name("text").packet(text));
+                session.close();
+                TarSession reader = new TarSession();
+                reader.setCharset(charset);
+                reader.setPath(path, StandardOpenOption.READ);
+                reader.open(Session.Mode.READ);
+                try {
+                    StreamPacket packet = reader.readStream();
+                    assertEquals(text.getBytes(charset).length, packet.size());
+                } finally {
+                    reader.close();
+                }
+                reader = new TarSession();
+                reader.setCharset(charset);
+                reader.setPath(path, StandardOpenOption.READ);
+                reader.open(Session.Mode.READ);
+                try {
+                    assertEquals(text, reader.read().toString());
+                } finally {
+                    reader.close();
+                }
+            }
+        } finally {
+            Files.deleteIfExists(path);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testArchiveSessionReadEntriesOfUnknownSize() throws IOException {
+        Path dir = Files.createTempDirectory("codec");
+        Path path = dir.resolve("test.zip");
+        try {
+            // a zip stream has data descriptors, the sizes are not in the local headers
+            try (OutputStream file = Files.newOutputStream(path);
+                 ZipArchiveOutputStream<ZipArchiveEntry> out = new ZipArchiveOutputStream<>(file)) {
+                for (int i = 0; i < 3; i++) {
+                    ZipArchiveEntry entry = out.newArchiveEntry();
+                    entry.setName("entry" + i);
+                    out.putArchiveEntry(entry);
+                    out.write(content(i * 100));
+                    out.closeArchiveEntry();
+                }
+            }
+            try (ZipArchiveInputStream<ZipArchiveEntry> in = new ZipArchiveInputStream<>(Files.newInputStream(path))) {
+                assertEquals(-1L, in.getNextEntry().getEntrySize());
+            }
+            ZipSession session = new ZipSession();
+            session.setPath(path, StandardOpenOption.READ);
+            session.open(Session.Mode.READ);
+            try {
+                for (int i = 0; i < 3; i++) {
+                    StringPacket packet = session.read();
+                    assertEquals("entry" + i, packet.name());
+                    assertEquals(new String(content(i * 100), StandardCharsets.US_ASCII), packet.packet());
+                }
+                assertNull(session.read());
+            } finally {
+                session.close();
+            }
+        } finally {
+            Files.deleteIfExists(path);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testArchiveSessionStreamPackets() throws IOException {
+        Path dir = Files.createTempDirectory("codec");
+        Path path = dir.resolve("test.tar");
+        try {
+            TarSession session = new TarSession();
+            session.setPath(path, StandardOpenOption.CREATE);
+            session.open(Session.Mode.WRITE);
+            try {
+                for (int i = 0; i < 3; i++) {
+                    byte[] b = content(i * 1000);
+                    session.writeStream(new StreamPacket().name("entry" + i).size(b.length)
+                            .packet(new ByteArrayInputStream(b)));
+                }
+                assertThrows(IOException.class, () -> session.writeStream(new StreamPacket().name("unknown")
+                        .packet(new ByteArrayInputStream(new byte[10]))));
+            } finally {
+                session.close();
+            }
+            TarSession reader = new TarSession();
+            reader.setPath(path, StandardOpenOption.READ);
+            reader.open(Session.Mode.READ);
+            try {
+                for (int i = 0; i < 3; i++) {
+                    StreamPacket packet = reader.readStream();
+                    assertEquals("entry" + i, packet.name());
+                    assertEquals(content(i * 1000).length, packet.size());
+                    InputStream in = packet.packet();
+                    // the first entry is not read to its end
+                    if (i > 0) {
+                        assertArrayEquals(content(i * 1000), in.readAllBytes());
+                    }
+                    // closing the stream of a packet does not close the archive
+                    in.close();
+                }
+            } finally {
+                reader.close();
+            }
+        } finally {
+            Files.deleteIfExists(path);
+            Files.delete(dir);
+        }
+    }
+
+    private static byte[] content(int i) {
+        return ("entry " + i + "\n").repeat(i * 3 + 1).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static String detect(byte[] b) throws IOException {
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream(b));
+        String format = StreamCodecService.detect(in);
+        // the stream is reset
+        assertEquals(b.length > 0 ? b[0] & 0xff : -1, in.read());
+        return format;
+    }
+
+    private static byte[] deflate(byte[] b, int level) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(level);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater)) {
+            out.write(b);
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Takes more deflaters from the pool than it can hold, and puts them back.
+     *
+     * @return true if one of them is the given deflater
+     */
+    private static boolean drain(DeflaterPool pool, Deflater deflater) {
+        List<Deflater> list = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            list.add(pool.acquire());
+        }
+        boolean found = list.stream().anyMatch(d -> d == deflater);
+        list.forEach(pool::release);
+        return found;
+    }
+
+    private static boolean drain(InflaterPool pool, Inflater inflater) {
+        List<Inflater> list = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            list.add(pool.acquire());
+        }
+        boolean found = list.stream().anyMatch(i -> i == inflater);
+        list.forEach(pool::release);
+        return found;
+    }
+}
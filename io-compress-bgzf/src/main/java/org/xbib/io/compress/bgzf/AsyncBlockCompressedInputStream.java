@@ -0,0 +1,292 @@
+package org.xbib.io.compress.bgzf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stream class for reading BGZF block compressed files with read-ahead. While the caller reads the current block,
+ * the next blocks are decompressed in the background on a shared pool of worker threads.
+ *
+ * The compressed blocks are read from the underlying stream on the caller thread, up to <code>readAheadBlocks</code>
+ * blocks ahead of the current block, and each one is inflated by a worker with its own {@link java.util.zip.Inflater}.
+ * The decompressed blocks are handed out strictly in stream order. Buffers of consumed blocks are reused for the
+ * blocks that are decompressed next.
+ *
+ * A {@link #seek(long)} to another block discards the read-ahead blocks. Read-ahead blocks that are still
+ * being decompressed are cancelled, and their buffers are not reused.
+ *
+ * Note that this implementation is not synchronized. If multiple threads access an instance concurrently, it must be synchronized externally.
+ */
+public class AsyncBlockCompressedInputStream extends BlockCompressedInputStream {
+
+    public static final int DEFAULT_READ_AHEAD_BLOCKS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    private static final ExecutorService threadpool =
+            Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+                Thread thread = new Thread(r, "bgzf-inflate-" + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private final InflaterFactory inflaterFactory;
+    private final int readAheadBlocks;
+    private final ArrayDeque<Future<DecompressedBlock>> readAhead;
+    private final ArrayDeque<byte[]> freeBuffers;
+    private final ArrayDeque<byte[]> freeCompressedBuffers;
+    private final Queue<BlockGunzipper> gunzippers = new ConcurrentLinkedQueue<>();
+    private volatile boolean checkCrcs = false;
+    private volatile boolean closed = false;
+    private boolean endOfInput = false;
+
+    /**
+     * Note that seek() is not supported if this ctor is used.
+     * @param stream source of bytes
+     */
+    public AsyncBlockCompressedInputStream(final InputStream stream) {
+        this(stream, BlockGunzipper.getDefaultInflaterFactory(), DEFAULT_READ_AHEAD_BLOCKS);
+    }
+
+    /**
+     * Note that seek() is not supported if this ctor is used.
+     * @param stream source of bytes
+     * @param inflaterFactory {@link InflaterFactory} used by the {@link BlockGunzipper}s
+     * @param readAheadBlocks number of blocks to decompress ahead of the current block
+     */
+    public AsyncBlockCompressedInputStream(final InputStream stream, final InflaterFactory inflaterFactory,
+                                           final int readAheadBlocks) {
+        super(stream, inflaterFactory);
+        this.inflaterFactory = inflaterFactory;
+        this.readAheadBlocks = checkReadAheadBlocks(readAheadBlocks);
+        this.readAhead = new ArrayDeque<>(readAheadBlocks);
+        this.freeBuffers = new ArrayDeque<>(readAheadBlocks + 1);
+        this.freeCompressedBuffers = new ArrayDeque<>(readAheadBlocks);
+    }
+
+    /**
+     * Use this ctor if you wish to call seek()
+     * @param file source of bytes
+     * @throws IOException if the file can not be opened
+     */
+    public AsyncBlockCompressedInputStream(final File file) throws IOException {
+        this(file, BlockGunzipper.getDefaultInflaterFactory(), DEFAULT_READ_AHEAD_BLOCKS);
+    }
+
+    /**
+     * Use this ctor if you wish to call seek()
+     * @param file source of bytes
+     * @param inflaterFactory {@link InflaterFactory} used by the {@link BlockGunzipper}s
+     * @param readAheadBlocks number of blocks to decompress ahead of the current block
+     * @throws IOException if the file can not be opened
+     */
+    public AsyncBlockCompressedInputStream(final File file, final InflaterFactory inflaterFactory,
+                                           final int readAheadBlocks) throws IOException {
+        super(file, inflaterFactory);
+        this.inflaterFactory = inflaterFactory;
+        this.readAheadBlocks = checkReadAheadBlocks(readAheadBlocks);
+        this.readAhead = new ArrayDeque<>(readAheadBlocks);
+        this.freeBuffers = new ArrayDeque<>(readAheadBlocks + 1);
+        this.freeCompressedBuffers = new ArrayDeque<>(readAheadBlocks);
+    }
+
+    /**
+     * For providing some arbitrary data source.  No additional buffering is
+     * provided, so if the underlying source is not buffered, wrap it in a
+     * SeekableBufferedStream before passing to this ctor.
+     * @param strm source of bytes
+     */
+    public AsyncBlockCompressedInputStream(final SeekableStream strm) {
+        this(strm, BlockGunzipper.getDefaultInflaterFactory(), DEFAULT_READ_AHEAD_BLOCKS);
+    }
+
+    /**
+     * For providing some arbitrary data source.  No additional buffering is
+     * provided, so if the underlying source is not buffered, wrap it in a
+     * SeekableBufferedStream before passing to this ctor.
+     * @param strm source of bytes
+     * @param inflaterFactory {@link InflaterFactory} used by the {@link BlockGunzipper}s
+     * @param readAheadBlocks number of blocks to decompress ahead of the current block
+     */
+    public AsyncBlockCompressedInputStream(final SeekableStream strm, final InflaterFactory inflaterFactory,
+                                           final int readAheadBlocks) {
+        super(strm, inflaterFactory);
+        this.inflaterFactory = inflaterFactory;
+        this.readAheadBlocks = checkReadAheadBlocks(readAheadBlocks);
+        this.readAhead = new ArrayDeque<>(readAheadBlocks);
+        this.freeBuffers = new ArrayDeque<>(readAheadBlocks + 1);
+        this.freeCompressedBuffers = new ArrayDeque<>(readAheadBlocks);
+    }
+
+    @Override
+    public void setCheckCrcs(final boolean check) {
+        super.setCheckCrcs(check);
+        this.checkCrcs = check;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        cancelReadAhead();
+        endGunzippers();
+        super.close();
+    }
+
+    @Override
+    protected DecompressedBlock nextBlock(byte[] bufferAvailableForReuse) {
+        if (bufferAvailableForReuse != null && bufferAvailableForReuse.length > 0) {
+            freeBuffers.push(bufferAvailableForReuse);
+        }
+        fillReadAhead();
+        final Future<DecompressedBlock> future = readAhead.remove();
+        if (readAhead.isEmpty()) {
+            // the end of input or a broken block is handed out, try again on the next call,
+            // like the synchronous implementation does
+            endOfInput = false;
+        }
+        return getBlock(future);
+    }
+
+    @Override
+    protected void prepareForSeek() {
+        cancelReadAhead();
+        super.prepareForSeek();
+    }
+
+    /**
+     * Reads compressed blocks from the underlying stream until enough blocks are in flight, and submits them
+     * for decompression. The end of the input stream and a broken block end the read-ahead, they are queued
+     * as already completed blocks.
+     */
+    private void fillReadAhead() {
+        while (readAhead.size() < readAheadBlocks && !endOfInput) {
+            final long blockAddress = getStreamOffset();
+            final byte[] compressed = freeCompressedBuffers.isEmpty() ?
+                    new byte[BGZFStreamConstants.MAX_COMPRESSED_BLOCK_SIZE] : freeCompressedBuffers.pop();
+            final int blockLength;
+            try {
+                blockLength = readCompressedBlock(compressed);
+            } catch (IOException | BGZFException e) {
+                endOfInput = true;
+                readAhead.add(CompletableFuture.completedFuture(
+                        new DecompressedBlock(blockAddress, (int) (getStreamOffset() - blockAddress), e)));
+                break;
+            }
+            if (blockLength == 0) {
+                endOfInput = true;
+                readAhead.add(CompletableFuture.completedFuture(new DecompressedBlock(blockAddress, new byte[0], 0)));
+                break;
+            }
+            final byte[] buffer = freeBuffers.isEmpty() ? null : freeBuffers.pop();
+            readAhead.add(threadpool.submit(() -> inflate(blockAddress, compressed, blockLength, buffer)));
+        }
+    }
+
+    private DecompressedBlock inflate(final long blockAddress, final byte[] compressed, final int blockLength,
+                                      final byte[] bufferAvailableForReuse) {
+        BlockGunzipper gunzipper = gunzippers.poll();
+        if (gunzipper == null) {
+            gunzipper = new BlockGunzipper(inflaterFactory);
+        }
+        gunzipper.setCheckCrcs(checkCrcs);
+        try {
+            final byte[] decompressed = inflateBlock(gunzipper, compressed, blockLength, bufferAvailableForReuse);
+            return new CompressedBufferBlock(blockAddress, decompressed, blockLength, compressed);
+        } catch (IOException e) {
+            return new DecompressedBlock(blockAddress, 0, e);
+        } finally {
+            gunzippers.add(gunzipper);
+            if (closed) {
+                // a cancelled task that was already running returns its gunzipper after close
+                endGunzippers();
+            }
+        }
+    }
+
+    private void endGunzippers() {
+        BlockGunzipper gunzipper;
+        while ((gunzipper = gunzippers.poll()) != null) {
+            gunzipper.end();
+        }
+    }
+
+    private DecompressedBlock getBlock(final Future<DecompressedBlock> future) {
+        try {
+            final DecompressedBlock block = future.get();
+            if (block instanceof CompressedBufferBlock) {
+                freeCompressedBuffers.push(((CompressedBufferBlock) block).compressed);
+            }
+            return block;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new DecompressedBlock(getStreamOffset(), 0,
+                    new InterruptedIOException("interrupted while decompressing BGZF block"));
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            return new DecompressedBlock(getStreamOffset(), 0, new IOException(e.getCause()));
+        } catch (CancellationException e) {
+            return new DecompressedBlock(getStreamOffset(), 0, new IOException(e));
+        }
+    }
+
+    /**
+     * Cancels all read-ahead blocks. Blocks that are still being decompressed keep their buffers,
+     * so only the buffers of completed blocks are reused.
+     */
+    private void cancelReadAhead() {
+        for (Future<DecompressedBlock> future : readAhead) {
+            if (!future.cancel(false) && future.isDone()) {
+                try {
+                    final DecompressedBlock block = future.get();
+                    if (block instanceof CompressedBufferBlock) {
+                        freeCompressedBuffers.push(((CompressedBufferBlock) block).compressed);
+                        freeBuffers.push(((CompressedBufferBlock) block).decompressed);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException | CancellationException e) {
+                    // the block is discarded anyway
+                }
+            }
+        }
+        readAhead.clear();
+        endOfInput = false;
+    }
+
+    private static int checkReadAheadBlocks(final int readAheadBlocks) {
+        if (readAheadBlocks < 1) {
+            throw new IllegalArgumentException("readAheadBlocks must be positive: " + readAheadBlocks);
+        }
+        return readAheadBlocks;
+    }
+
+    /**
+     * A decompressed block that remembers its compressed buffer, so the buffer can be reused.
+     */
+    private static class CompressedBufferBlock extends DecompressedBlock {
+
+        private final byte[] decompressed;
+
+        private final byte[] compressed;
+
+        private CompressedBufferBlock(long blockAddress, byte[] block, int compressedSize, byte[] compressed) {
+            super(blockAddress, block, compressedSize);
+            this.decompressed = block;
+            this.compressed = compressed;
+        }
+    }
+}
@@ -173,6 +173,7 @@ public class BlockCompressedInputStream extends InputStream {
      */
     @Override
     public void close() throws IOException {
+        blockGunzipper.end();
         if (mFile != null) {
             mFile.close();
             mFile = null;
@@ -348,13 +349,14 @@ public class BlockCompressedInputStream extends InputStream {
     protected void prepareForSeek() {
     }
 
+    /**
+     * Decides from the address and the compressed size of the current block, not from the position of the
+     * underlying file, because a subclass may have read further ahead.
+     */
     private boolean eof() throws IOException {
-        if (mFile.eof()) {
-            return true;
-        }
+        final long remaining = mFile.length() - (mCurrentBlock.mBlockAddress + mCurrentBlock.mBlockCompressedSize);
         // If the last remaining block is the size of the EMPTY_GZIP_BLOCK, this is the same as being at EOF.
-        return (mFile.length() - (mCurrentBlock.mBlockAddress
-                + mCurrentBlock.mBlockCompressedSize) == BGZFStreamConstants.EMPTY_GZIP_BLOCK.length);
+        return remaining == 0 || remaining == BGZFStreamConstants.EMPTY_GZIP_BLOCK.length;
     }
 
     /**
@@ -460,37 +462,64 @@ public class BlockCompressedInputStream extends InputStream {
             mFileBuffer = new byte[BGZFStreamConstants.MAX_COMPRESSED_BLOCK_SIZE];
         }
         long blockAddress = mStreamOffset;
+        final int blockLength;
         try {
-            final int headerByteCount = readBytes(mFileBuffer, 0, BGZFStreamConstants.BLOCK_HEADER_LENGTH);
-            mStreamOffset += headerByteCount;
-            if (headerByteCount == 0) {
-                // Handle case where there is no empty gzip block at end.
-                return new DecompressedBlock(blockAddress, new byte[0], 0);
-            }
-            if (headerByteCount != BGZFStreamConstants.BLOCK_HEADER_LENGTH) {
-                return new DecompressedBlock(blockAddress, headerByteCount, new IOException(INCORRECT_HEADER_SIZE_MSG + getSource()));
-            }
-            final int blockLength = unpackInt16(mFileBuffer, BGZFStreamConstants.BLOCK_LENGTH_OFFSET) + 1;
-            if (blockLength < BGZFStreamConstants.BLOCK_HEADER_LENGTH || blockLength > mFileBuffer.length) {
-                return new DecompressedBlock(blockAddress, blockLength,
-                        new IOException(UNEXPECTED_BLOCK_LENGTH_MSG + blockLength + " for " + getSource()));
-            }
-            final int remaining = blockLength - BGZFStreamConstants.BLOCK_HEADER_LENGTH;
-            final int dataByteCount = readBytes(mFileBuffer, BGZFStreamConstants.BLOCK_HEADER_LENGTH,
-                    remaining);
-            mStreamOffset += dataByteCount;
-            if (dataByteCount != remaining) {
-                return new DecompressedBlock(blockAddress, blockLength,
-                        new BGZFException(PREMATURE_END_MSG + getSource()));
-            }
-            final byte[] decompressed = inflateBlock(mFileBuffer, blockLength, bufferAvailableForReuse);
+            blockLength = readCompressedBlock(mFileBuffer);
+        } catch (IOException | BGZFException e) {
+            return new DecompressedBlock(blockAddress, (int) (mStreamOffset - blockAddress), e);
+        }
+        if (blockLength == 0) {
+            // Handle case where there is no empty gzip block at end.
+            return new DecompressedBlock(blockAddress, new byte[0], 0);
+        }
+        try {
+            final byte[] decompressed = inflateBlock(blockGunzipper, mFileBuffer, blockLength, bufferAvailableForReuse);
             return new DecompressedBlock(blockAddress, decompressed, blockLength);
         } catch (IOException e) {
             return new DecompressedBlock(blockAddress, 0, e);
         }
     }
 
-    private byte[] inflateBlock(final byte[] compressedBlock, final int compressedLength,
+    /**
+     * Reads the next gzip block from the input stream without decompressing it.
+     * @param buffer buffer of at least {@link BGZFStreamConstants#MAX_COMPRESSED_BLOCK_SIZE} bytes
+     *               in which to place the compressed block
+     * @return the compressed size of the block, or 0 if the end of the input stream has been reached
+     * @throws IOException if the block header is invalid or the block is truncated
+     */
+    int readCompressedBlock(final byte[] buffer) throws IOException {
+        final int headerByteCount = readBytes(buffer, 0, BGZFStreamConstants.BLOCK_HEADER_LENGTH);
+        mStreamOffset += headerByteCount;
+        if (headerByteCount == 0) {
+            return 0;
+        }
+        if (headerByteCount != BGZFStreamConstants.BLOCK_HEADER_LENGTH) {
+            throw new IOException(INCORRECT_HEADER_SIZE_MSG + getSource());
+        }
+        final int blockLength = unpackInt16(buffer, BGZFStreamConstants.BLOCK_LENGTH_OFFSET) + 1;
+        if (blockLength < BGZFStreamConstants.BLOCK_HEADER_LENGTH || blockLength > buffer.length) {
+            throw new IOException(UNEXPECTED_BLOCK_LENGTH_MSG + blockLength + " for " + getSource());
+        }
+        final int remaining = blockLength - BGZFStreamConstants.BLOCK_HEADER_LENGTH;
+        final int dataByteCount = readBytes(buffer, BGZFStreamConstants.BLOCK_HEADER_LENGTH, remaining);
+        mStreamOffset += dataByteCount;
+        if (dataByteCount != remaining) {
+            throw new BGZFException(PREMATURE_END_MSG + getSource());
+        }
+        return blockLength;
+    }
+
+    /**
+     * Decompresses a gzip block. When using asynchronous IO, this will be called by the background thread,
+     * with a gunzipper owned by that thread.
+     * @param gunzipper the gunzipper to use
+     * @param compressedBlock the compressed block, starting at offset 0
+     * @param compressedLength the compressed size of the block
+     * @param bufferAvailableForReuse buffer in which to place decompressed block, may be null
+     * @return the decompressed block
+     * @throws IOException if the block is invalid
+     */
+    byte[] inflateBlock(final BlockGunzipper gunzipper, final byte[] compressedBlock, final int compressedLength,
             final byte[] bufferAvailableForReuse) throws IOException {
         final int uncompressedLength = unpackInt32(compressedBlock, compressedLength - 4);
         if (uncompressedLength < 0) {
@@ -501,11 +530,15 @@ public class BlockCompressedInputStream extends InputStream {
         	// can't reuse the buffer since the size is incorrect
             buffer = new byte[uncompressedLength];
         }
-        blockGunzipper.unzipBlock(buffer, compressedBlock, compressedLength);
+        gunzipper.unzipBlock(buffer, compressedBlock, compressedLength);
         return buffer;
     }
 
-    private String getSource() {
+    long getStreamOffset() {
+        return mStreamOffset;
+    }
+
+    String getSource() {
         return mFile == null ? "data stream" : mFile.getSource();
     }
 
@@ -6,7 +6,6 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.zip.CRC32;
 import java.util.zip.Deflater;
 
 /**
@@ -59,25 +58,8 @@ public class BlockCompressedOutputStream extends OutputStream {
     private final BinaryCodec codec;
     private final byte[] uncompressedBuffer = new byte[BGZFStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE];
     private int numUncompressedBytes = 0;
-    private final byte[] compressedBuffer =
-            new byte[BGZFStreamConstants.MAX_COMPRESSED_BLOCK_SIZE -
-                    BGZFStreamConstants.BLOCK_HEADER_LENGTH];
-    private final Deflater deflater;
-
-    // A second deflater is created for the very unlikely case where the regular deflation actually makes
-    // things bigger, and the compressed block is too big.  It should be possible to downshift the
-    // primary deflater to NO_COMPRESSION level, recompress, and then restore it to its original setting,
-    // but in practice that doesn't work.
-    // The motivation for deflating at NO_COMPRESSION level is that it will predictably produce compressed
-    // output that is 10 bytes larger than the input, and the threshold at which a block is generated is such that
-    // the size of tbe final gzip block will always be <= 64K.  This is preferred over the previous method,
-    // which would attempt to compress up to 64K bytes, and if the resulting compressed block was too large,
-    // try compressing fewer input bytes (aka "downshifting').  The problem with downshifting is that
-    // getFilePointer might return an inaccurate value.
-    // I assume (AW 29-Oct-2013) that there is no value in using hardware-assisted deflater for no-compression mode,
-    // so just use JDK standard.
-    private final Deflater noCompressionDeflater = new Deflater(Deflater.NO_COMPRESSION, true);
-    private final CRC32 crc32 = new CRC32();
+    private final byte[] compressedBuffer = new byte[BGZFStreamConstants.MAX_COMPRESSED_BLOCK_SIZE];
+    private final BlockCompressor compressor;
     private Path file = null;
     private long mBlockAddress = 0;
 
@@ -110,7 +92,7 @@ public class BlockCompressedOutputStream extends OutputStream {
     public BlockCompressedOutputStream(final File file, final int compressionLevel, final DeflaterFactory deflaterFactory) throws FileNotFoundException {
         this.file = file.toPath();
         codec = new BinaryCodec(file, true);
-        deflater = deflaterFactory.makeDeflater(compressionLevel, true);
+        compressor = new BlockCompressor(deflaterFactory, compressionLevel);
     }
 
     /**
@@ -173,7 +155,7 @@ public class BlockCompressedOutputStream extends OutputStream {
         if (file != null) {
             codec.setOutputFileName(file.toAbsolutePath().toUri().toString());
         }
-        deflater = deflaterFactory.makeDeflater(compressionLevel, true);
+        compressor = new BlockCompressor(deflaterFactory, compressionLevel);
     }
 
     /**
@@ -262,7 +244,11 @@ public class BlockCompressedOutputStream extends OutputStream {
         if (writeTerminatorBlock) {
             codec.writeBytes(BGZFStreamConstants.EMPTY_GZIP_BLOCK);
         }
-        codec.close();
+        try {
+            codec.close();
+        } finally {
+            compressor.end();
+        }
 
         // If a terminator block was written, ensure that it's there and valid
         if (writeTerminatorBlock) {
@@ -289,70 +275,17 @@ public class BlockCompressedOutputStream extends OutputStream {
 
     /**
      * Attempt to write the data in uncompressedBuffer to the underlying file in a gzip block.
-     * If the entire uncompressedBuffer does not fit in the maximum allowed size, reduce the amount
-     * of data to be compressed, and slide the excess down in uncompressedBuffer so it can be picked
-     * up in the next deflate event.
      * @return size of gzip block that was written.
      */
     private int deflateBlock() throws IOException {
         if (numUncompressedBytes == 0) {
             return 0;
         }
-        final int bytesToCompress = numUncompressedBytes;
-        // Compress the input
-        deflater.reset();
-        deflater.setInput(uncompressedBuffer, 0, bytesToCompress);
-        deflater.finish();
-        int compressedSize = deflater.deflate(compressedBuffer, 0, compressedBuffer.length);
-
-        // If it didn't all fit in compressedBuffer.length, set compression level to NO_COMPRESSION
-        // and try again.  This should always fit.
-        if (!deflater.finished()) {
-            noCompressionDeflater.reset();
-            noCompressionDeflater.setInput(uncompressedBuffer, 0, bytesToCompress);
-            noCompressionDeflater.finish();
-            compressedSize = noCompressionDeflater.deflate(compressedBuffer, 0, compressedBuffer.length);
-            if (!noCompressionDeflater.finished()) {
-                throw new IllegalStateException("unpossible");
-            }
-        }
-        // Data compressed small enough, so write it out.
-        crc32.reset();
-        crc32.update(uncompressedBuffer, 0, bytesToCompress);
-
-        final int totalBlockSize = writeGzipBlock(compressedSize, bytesToCompress, crc32.getValue());
-
+        final int totalBlockSize = compressor.compressBlock(uncompressedBuffer, numUncompressedBytes, compressedBuffer);
+        codec.writeBytes(compressedBuffer, 0, totalBlockSize);
         // Clear out from uncompressedBuffer the data that was written
         numUncompressedBytes = 0;
         mBlockAddress += totalBlockSize;
         return totalBlockSize;
     }
-
-    /**
-     * Writes the entire gzip block, assuming the compressed data is stored in compressedBuffer
-     * @return  size of gzip block that was written.
-     */
-    private int writeGzipBlock(final int compressedSize, final int uncompressedSize, final long crc) throws IOException {
-        // Init gzip header
-        codec.writeByte(BGZFStreamConstants.GZIP_ID1);
-        codec.writeByte(BGZFStreamConstants.GZIP_ID2);
-        codec.writeByte(BGZFStreamConstants.GZIP_CM_DEFLATE);
-        codec.writeByte(BGZFStreamConstants.GZIP_FLG);
-        codec.writeInt(0); // Modification time
-        codec.writeByte(BGZFStreamConstants.GZIP_XFL);
-        codec.writeByte(BGZFStreamConstants.GZIP_OS_UNKNOWN);
-        codec.writeShort(BGZFStreamConstants.GZIP_XLEN);
-        codec.writeByte(BGZFStreamConstants.BGZF_ID1);
-        codec.writeByte(BGZFStreamConstants.BGZF_ID2);
-        codec.writeShort(BGZFStreamConstants.BGZF_LEN);
-        final int totalBlockSize = compressedSize + BGZFStreamConstants.BLOCK_HEADER_LENGTH +
-                BGZFStreamConstants.BLOCK_FOOTER_LENGTH;
-
-        // I don't know why we store block size - 1, but that is what the spec says
-        codec.writeShort((short)(totalBlockSize - 1));
-        codec.writeBytes(compressedBuffer, 0, compressedSize);
-        codec.writeInt((int)crc);
-        codec.writeInt(uncompressedSize);
-        return totalBlockSize;
-    }
 }
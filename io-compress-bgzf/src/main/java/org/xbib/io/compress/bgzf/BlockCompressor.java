@@ -0,0 +1,116 @@
+package org.xbib.io.compress.bgzf;
+
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses one block of uncompressed bytes into a complete BGZF gzip block (header, deflated data and footer).
+ * An instance holds native deflater state and is not thread safe, but it can be used over and over again
+ * for many blocks. {@link BlockCompressedOutputStream} owns one instance, {@link ParallelBlockCompressedOutputStream}
+ * keeps one per concurrently running worker.
+ */
+final class BlockCompressor {
+
+    private final DeflaterFactory deflaterFactory;
+
+    private final Deflater deflater;
+
+    // A second deflater is created for the very unlikely case where the regular deflation actually makes
+    // things bigger, and the compressed block is too big.  It should be possible to downshift the
+    // primary deflater to NO_COMPRESSION level, recompress, and then restore it to its original setting,
+    // but in practice that doesn't work.
+    // The motivation for deflating at NO_COMPRESSION level is that it will predictably produce compressed
+    // output that is 10 bytes larger than the input, and the threshold at which a block is generated is such that
+    // the size of tbe final gzip block will always be <= 64K.  This is preferred over the previous method,
+    // which would attempt to compress up to 64K bytes, and if the resulting compressed block was too large,
+    // try compressing fewer input bytes (aka "downshifting').  The problem with downshifting is that
+    // getFilePointer might return an inaccurate value.
+    // I assume (AW 29-Oct-2013) that there is no value in using hardware-assisted deflater for no-compression mode,
+    // so just use JDK standard.
+    private final Deflater noCompressionDeflater = new Deflater(Deflater.NO_COMPRESSION, true);
+
+    private final CRC32 crc32 = new CRC32();
+
+    private boolean ended = false;
+
+    BlockCompressor(final DeflaterFactory deflaterFactory, final int compressionLevel) {
+        this.deflaterFactory = deflaterFactory;
+        this.deflater = deflaterFactory.makeDeflater(compressionLevel, true);
+    }
+
+    /**
+     * Compresses the given bytes and writes the complete gzip block into the block buffer.
+     * @param uncompressed the uncompressed data, starting at offset 0
+     * @param uncompressedSize number of bytes to compress, at most
+     *                         {@link BGZFStreamConstants#DEFAULT_UNCOMPRESSED_BLOCK_SIZE}
+     * @param block destination buffer of at least {@link BGZFStreamConstants#MAX_COMPRESSED_BLOCK_SIZE} bytes
+     * @return size of the gzip block that was written into the block buffer
+     */
+    int compressBlock(final byte[] uncompressed, final int uncompressedSize, final byte[] block) {
+        final int maxCompressedSize = BGZFStreamConstants.MAX_COMPRESSED_BLOCK_SIZE -
+                BGZFStreamConstants.BLOCK_HEADER_LENGTH;
+        // Compress the input
+        deflater.reset();
+        deflater.setInput(uncompressed, 0, uncompressedSize);
+        deflater.finish();
+        int compressedSize = deflater.deflate(block, BGZFStreamConstants.BLOCK_HEADER_LENGTH, maxCompressedSize);
+
+        // If it didn't all fit in the block, set compression level to NO_COMPRESSION
+        // and try again.  This should always fit.
+        if (!deflater.finished()) {
+            noCompressionDeflater.reset();
+            noCompressionDeflater.setInput(uncompressed, 0, uncompressedSize);
+            noCompressionDeflater.finish();
+            compressedSize = noCompressionDeflater.deflate(block, BGZFStreamConstants.BLOCK_HEADER_LENGTH,
+                    maxCompressedSize);
+            if (!noCompressionDeflater.finished()) {
+                throw new IllegalStateException("unpossible");
+            }
+        }
+        crc32.reset();
+        crc32.update(uncompressed, 0, uncompressedSize);
+        return writeGzipBlock(block, compressedSize, uncompressedSize, crc32.getValue());
+    }
+
+    /**
+     * Hands the deflater back to its factory and releases the native state of the no-compression deflater.
+     * The compressor must not be used afterwards.
+     */
+    void end() {
+        if (!ended) {
+            ended = true;
+            deflaterFactory.releaseDeflater(deflater);
+            noCompressionDeflater.end();
+        }
+    }
+
+    /**
+     * Writes gzip header and footer around the compressed data that is already stored in the block buffer.
+     * @return size of gzip block
+     */
+    private static int writeGzipBlock(final byte[] block, final int compressedSize, final int uncompressedSize,
+                                      final long crc) {
+        final int totalBlockSize = compressedSize + BGZFStreamConstants.BLOCK_HEADER_LENGTH +
+                BGZFStreamConstants.BLOCK_FOOTER_LENGTH;
+        System.arraycopy(BGZFStreamConstants.GZIP_BLOCK_PREAMBLE, 0, block, 0,
+                BGZFStreamConstants.GZIP_BLOCK_PREAMBLE.length);
+        // I don't know why we store block size - 1, but that is what the spec says
+        packInt16(block, BGZFStreamConstants.BLOCK_LENGTH_OFFSET, totalBlockSize - 1);
+        final int footerOffset = BGZFStreamConstants.BLOCK_HEADER_LENGTH + compressedSize;
+        packInt32(block, footerOffset, (int) crc);
+        packInt32(block, footerOffset + 4, uncompressedSize);
+        return totalBlockSize;
+    }
+
+    private static void packInt16(final byte[] buffer, final int offset, final int value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >> 8);
+    }
+
+    private static void packInt32(final byte[] buffer, final int offset, final int value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >> 8);
+        buffer[offset + 2] = (byte) (value >> 16);
+        buffer[offset + 3] = (byte) (value >> 24);
+    }
+}
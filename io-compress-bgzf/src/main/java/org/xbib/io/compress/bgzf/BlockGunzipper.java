@@ -17,11 +17,13 @@ import java.util.zip.Inflater;
  */
 public class BlockGunzipper {
     private static InflaterFactory defaultInflaterFactory = new InflaterFactory();
+    private final InflaterFactory inflaterFactory;
     private final Inflater inflater;
     private final CRC32 crc32 = new CRC32();
     private boolean checkCrcs = false;
+    private boolean ended = false;
     BlockGunzipper() {
-        inflater = defaultInflaterFactory.makeInflater(true); // GZIP mode
+        this(defaultInflaterFactory);
     }
 
     /**
@@ -29,9 +31,20 @@ public class BlockGunzipper {
      * @param inflaterFactory
      */
     BlockGunzipper(InflaterFactory inflaterFactory) {
+        this.inflaterFactory = inflaterFactory;
         inflater = inflaterFactory.makeInflater(true); // GZIP mode
     }
 
+    /**
+     * Hands the inflater back to its factory. The gunzipper must not be used afterwards.
+     */
+    void end() {
+        if (!ended) {
+            ended = true;
+            inflaterFactory.releaseInflater(inflater);
+        }
+    }
+
     /**
      * Sets the default {@link InflaterFactory} that will be used for all instances unless specified otherwise in the constructor.
      * If this method is not called the default is a factory that will create the JDK {@link Inflater}.
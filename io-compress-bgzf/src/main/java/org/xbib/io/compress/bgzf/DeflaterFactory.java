@@ -21,4 +21,14 @@ public class DeflaterFactory {
     public Deflater makeDeflater(final int compressionLevel, final boolean gzipCompatible) {
         return new Deflater(compressionLevel, gzipCompatible);
     }
+
+    /**
+     * Releases a deflater that was made by this factory and is no longer used.
+     * Subclasses that pool deflaters may override to take the deflater back.
+     * The default implementation ends the deflater.
+     * @param deflater the deflater
+     */
+    public void releaseDeflater(final Deflater deflater) {
+        deflater.end();
+    }
 }
@@ -17,4 +17,14 @@ public class InflaterFactory {
     public Inflater makeInflater(final boolean gzipCompatible) {
         return new Inflater(gzipCompatible);
     }
+
+    /**
+     * Releases an inflater that was made by this factory and is no longer used.
+     * Subclasses that pool inflaters may override to take the inflater back.
+     * The default implementation ends the inflater.
+     * @param inflater the inflater
+     */
+    public void releaseInflater(final Inflater inflater) {
+        inflater.end();
+    }
 }
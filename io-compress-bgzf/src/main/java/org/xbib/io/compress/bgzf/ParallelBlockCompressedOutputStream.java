@@ -0,0 +1,396 @@
+package org.xbib.io.compress.bgzf;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stream class for a file that is a series of gzip blocks (BGZF format), like {@link BlockCompressedOutputStream},
+ * but the blocks are compressed in parallel.
+ *
+ * Filled blocks of uncompressed bytes are handed to a pool of workers. Each running worker uses its own
+ * {@link java.util.zip.Deflater} and {@link java.util.zip.CRC32}, created by the {@link DeflaterFactory}.
+ * The compressed blocks are written to the underlying stream strictly in the order in which they were filled,
+ * so the output is identical to the output of {@link BlockCompressedOutputStream} with the same deflater settings.
+ *
+ * At most <code>maxBlocksInFlight</code> blocks are waiting for compression or for being written. If this limit
+ * is reached, writing blocks the caller until the oldest block is compressed and written. This bounds the
+ * memory to about <code>2 * 64 KiB * maxBlocksInFlight</code>.
+ *
+ * The compressed address of a block is only known after all preceding blocks are compressed. Therefore
+ * {@link #getFilePointer()} waits for all blocks in flight. Calling it often, e.g. for every record
+ * while building an index, reduces the parallelism.
+ *
+ * Like {@link BlockCompressedOutputStream}, this class is not thread safe, and close() must be called
+ * when done writing in order to force the last gzip block to be written.
+ *
+ * @see <a href="http://samtools.sourceforge.net/SAM1.pdf">http://samtools.sourceforge.net/SAM1.pdf</a> for details of BGZF file format.
+ */
+public class ParallelBlockCompressedOutputStream extends OutputStream {
+
+    private static final AtomicInteger poolCounter = new AtomicInteger();
+
+    private final BinaryCodec codec;
+    private final Path file;
+    private final int compressionLevel;
+    private final DeflaterFactory deflaterFactory;
+    private final ExecutorService executor;
+    private final boolean shutdownExecutor;
+    private final int maxBlocksInFlight;
+    private final ArrayDeque<Future<CompressedBlock>> blocksInFlight;
+    private final ArrayDeque<byte[]> uncompressedBuffers;
+    private final ArrayDeque<byte[]> compressedBuffers;
+    private final Queue<BlockCompressor> compressors;
+    private byte[] uncompressedBuffer;
+    private int numUncompressedBytes = 0;
+    private long mBlockAddress = 0;
+    private volatile boolean closed = false;
+
+    /**
+     * Uses the default compression level and the default {@link DeflaterFactory} of
+     * {@link BlockCompressedOutputStream}, and one worker per available processor.
+     * @param file the file to write to
+     * @throws FileNotFoundException if the file can not be opened for writing
+     */
+    public ParallelBlockCompressedOutputStream(final File file) throws FileNotFoundException {
+        this(file, BlockCompressedOutputStream.getDefaultCompressionLevel(),
+                BlockCompressedOutputStream.getDefaultDeflaterFactory(),
+                Runtime.getRuntime().availableProcessors(), 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates the output stream for a file.
+     * @param file the file to write to
+     * @param compressionLevel the compression level (0-9)
+     * @param deflaterFactory factory to create the deflaters of the workers
+     * @param threads number of worker threads
+     * @param maxBlocksInFlight maximum number of filled blocks that are compressed or waiting to be written
+     * @throws FileNotFoundException if the file can not be opened for writing
+     */
+    public ParallelBlockCompressedOutputStream(final File file, final int compressionLevel,
+                                               final DeflaterFactory deflaterFactory,
+                                               final int threads, final int maxBlocksInFlight)
+            throws FileNotFoundException {
+        this(new BinaryCodec(file, true), file.toPath(), compressionLevel, deflaterFactory,
+                createExecutor(threads), true, maxBlocksInFlight);
+    }
+
+    /**
+     * Uses the default compression level and the default {@link DeflaterFactory} of
+     * {@link BlockCompressedOutputStream}, and one worker per available processor.
+     * @param os output stream to write the compressed blocks to
+     */
+    public ParallelBlockCompressedOutputStream(final OutputStream os) {
+        this(os, null, BlockCompressedOutputStream.getDefaultCompressionLevel(),
+                BlockCompressedOutputStream.getDefaultDeflaterFactory(),
+                Runtime.getRuntime().availableProcessors(), 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates the output stream with its own pool of worker threads.
+     * @param os output stream to write the compressed blocks to
+     * @param file file to which to write the output or null if not available
+     * @param compressionLevel the compression level (0-9)
+     * @param deflaterFactory factory to create the deflaters of the workers
+     * @param threads number of worker threads
+     * @param maxBlocksInFlight maximum number of filled blocks that are compressed or waiting to be written
+     */
+    public ParallelBlockCompressedOutputStream(final OutputStream os, final Path file, final int compressionLevel,
+                                               final DeflaterFactory deflaterFactory,
+                                               final int threads, final int maxBlocksInFlight) {
+        this(new BinaryCodec(os), file, compressionLevel, deflaterFactory,
+                createExecutor(threads), true, maxBlocksInFlight);
+    }
+
+    /**
+     * Creates the output stream with workers from a shared executor. The executor is not shut down on close.
+     * @param os output stream to write the compressed blocks to
+     * @param file file to which to write the output or null if not available
+     * @param compressionLevel the compression level (0-9)
+     * @param deflaterFactory factory to create the deflaters of the workers
+     * @param executor the executor for compressing the blocks
+     * @param maxBlocksInFlight maximum number of filled blocks that are compressed or waiting to be written
+     */
+    public ParallelBlockCompressedOutputStream(final OutputStream os, final Path file, final int compressionLevel,
+                                               final DeflaterFactory deflaterFactory,
+                                               final ExecutorService executor, final int maxBlocksInFlight) {
+        this(new BinaryCodec(os), file, compressionLevel, deflaterFactory, executor, false, maxBlocksInFlight);
+    }
+
+    private ParallelBlockCompressedOutputStream(final BinaryCodec codec, final Path file, final int compressionLevel,
+                                                final DeflaterFactory deflaterFactory,
+                                                final ExecutorService executor, final boolean shutdownExecutor,
+                                                final int maxBlocksInFlight) {
+        if (maxBlocksInFlight < 1) {
+            throw new IllegalArgumentException("maxBlocksInFlight must be positive: " + maxBlocksInFlight);
+        }
+        if (deflaterFactory == null) {
+            throw new IllegalArgumentException("null deflaterFactory");
+        }
+        this.codec = codec;
+        this.file = file;
+        if (file != null && codec.getOutputFileName() == null) {
+            codec.setOutputFileName(file.toAbsolutePath().toUri().toString());
+        }
+        this.compressionLevel = compressionLevel;
+        this.deflaterFactory = deflaterFactory;
+        this.executor = executor;
+        this.shutdownExecutor = shutdownExecutor;
+        this.maxBlocksInFlight = maxBlocksInFlight;
+        this.blocksInFlight = new ArrayDeque<>(maxBlocksInFlight);
+        this.uncompressedBuffers = new ArrayDeque<>(maxBlocksInFlight);
+        this.compressedBuffers = new ArrayDeque<>(maxBlocksInFlight);
+        this.compressors = new ConcurrentLinkedQueue<>();
+        this.uncompressedBuffer = new byte[BGZFStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE];
+    }
+
+    @Override
+    public void write(final byte[] bytes) throws IOException {
+        write(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void write(final byte[] bytes, int startIndex, int numBytes) throws IOException {
+        while (numBytes > 0) {
+            final int bytesToWrite = Math.min(uncompressedBuffer.length - numUncompressedBytes, numBytes);
+            System.arraycopy(bytes, startIndex, uncompressedBuffer, numUncompressedBytes, bytesToWrite);
+            numUncompressedBytes += bytesToWrite;
+            startIndex += bytesToWrite;
+            numBytes -= bytesToWrite;
+            if (numUncompressedBytes == uncompressedBuffer.length) {
+                submitBlock();
+            }
+        }
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        uncompressedBuffer[numUncompressedBytes++] = (byte) b;
+        if (numUncompressedBytes == uncompressedBuffer.length) {
+            submitBlock();
+        }
+    }
+
+    /**
+     * Like {@link BlockCompressedOutputStream#flush()}, this affects the output format, because it causes
+     * the current contents of the uncompressed buffer to be compressed and written, even if it isn't full.
+     * All blocks in flight are written before the underlying stream is flushed.
+     */
+    @Override
+    public void flush() throws IOException {
+        submitBlock();
+        while (!blocksInFlight.isEmpty()) {
+            writeNextBlock();
+        }
+        codec.getOutputStream().flush();
+    }
+
+    /**
+     * close() must be called in order to flush any remaining buffered bytes.  An unclosed file will likely be
+     * defective.
+     */
+    @Override
+    public void close() throws IOException {
+        close(true);
+    }
+
+    public void close(final boolean writeTerminatorBlock) throws IOException {
+        if (closed) {
+            return;
+        }
+        Throwable failure = null;
+        try {
+            flush();
+            if (writeTerminatorBlock) {
+                codec.writeBytes(BGZFStreamConstants.EMPTY_GZIP_BLOCK);
+            }
+        } catch (Throwable t) {
+            failure = t;
+            throw t;
+        } finally {
+            closed = true;
+            release();
+            if (failure == null) {
+                codec.close();
+            } else {
+                try {
+                    codec.close();
+                } catch (IOException e) {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        // If a terminator block was written, ensure that it's there and valid
+        if (writeTerminatorBlock) {
+            // Can't re-open something that is not a regular file, e.g. a named pipe or an output stream
+            if (this.file == null || !Files.isRegularFile(this.file)) return;
+            if (BlockCompressedInputStream.checkTermination(this.file) !=
+                    BlockCompressedInputStream.FileTermination.HAS_TERMINATOR_BLOCK) {
+                throw new IOException("Terminator block not found after closing BGZF file " + this.file);
+            }
+        }
+    }
+
+    /**
+     * Encode virtual file pointer.
+     * Upper 48 bits is the byte offset into the compressed stream of a block.
+     * Lower 16 bits is the byte offset into the uncompressed stream inside the block.
+     * This waits until all blocks in flight are compressed and written.
+     * @return the virtual file pointer
+     * @throws IOException if a block in flight could not be compressed or written
+     */
+    public long getFilePointer() throws IOException {
+        while (!blocksInFlight.isEmpty()) {
+            writeNextBlock();
+        }
+        return BGZFFilePointerUtil.makeFilePointer(mBlockAddress, numUncompressedBytes);
+    }
+
+    public long getPosition() throws IOException {
+        return getFilePointer();
+    }
+
+    /**
+     * Hands the uncompressed buffer to a worker, and writes the blocks that are already compressed.
+     * If too many blocks are in flight, wait for the oldest block.
+     */
+    private void submitBlock() throws IOException {
+        if (numUncompressedBytes == 0) {
+            return;
+        }
+        if (closed) {
+            throw new IOException("stream is closed");
+        }
+        while (blocksInFlight.size() >= maxBlocksInFlight) {
+            writeNextBlock();
+        }
+        final byte[] compressedBuffer = compressedBuffers.isEmpty() ?
+                new byte[BGZFStreamConstants.MAX_COMPRESSED_BLOCK_SIZE] : compressedBuffers.pop();
+        blocksInFlight.add(executor.submit(new CompressTask(uncompressedBuffer, numUncompressedBytes, compressedBuffer)));
+        uncompressedBuffer = uncompressedBuffers.isEmpty() ?
+                new byte[BGZFStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE] : uncompressedBuffers.pop();
+        numUncompressedBytes = 0;
+        while (!blocksInFlight.isEmpty() && blocksInFlight.peek().isDone()) {
+            writeNextBlock();
+        }
+    }
+
+    /**
+     * Waits for the oldest block in flight, writes it and recycles its buffers.
+     */
+    private void writeNextBlock() throws IOException {
+        final CompressedBlock block;
+        try {
+            block = blocksInFlight.peek().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while compressing BGZF block");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        blocksInFlight.remove();
+        codec.writeBytes(block.compressed, 0, block.size);
+        mBlockAddress += block.size;
+        uncompressedBuffers.push(block.uncompressed);
+        compressedBuffers.push(block.compressed);
+    }
+
+    private void release() {
+        for (Future<CompressedBlock> future : blocksInFlight) {
+            future.cancel(false);
+        }
+        blocksInFlight.clear();
+        if (shutdownExecutor) {
+            executor.shutdown();
+        }
+        endCompressors();
+    }
+
+    private void endCompressors() {
+        BlockCompressor compressor;
+        while ((compressor = compressors.poll()) != null) {
+            compressor.end();
+        }
+    }
+
+    private static ExecutorService createExecutor(final int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        final int pool = poolCounter.incrementAndGet();
+        final AtomicInteger threadCounter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "bgzf-deflate-" + pool + "-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static class CompressedBlock {
+
+        private final byte[] uncompressed;
+
+        private final byte[] compressed;
+
+        private final int size;
+
+        private CompressedBlock(final byte[] uncompressed, final byte[] compressed, final int size) {
+            this.uncompressed = uncompressed;
+            this.compressed = compressed;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Compresses one block with a compressor from the pool. There are never more compressors than
+     * concurrently running tasks.
+     */
+    private class CompressTask implements Callable<CompressedBlock> {
+
+        private final byte[] uncompressed;
+
+        private final int length;
+
+        private final byte[] compressed;
+
+        private CompressTask(final byte[] uncompressed, final int length, final byte[] compressed) {
+            this.uncompressed = uncompressed;
+            this.length = length;
+            this.compressed = compressed;
+        }
+
+        @Override
+        public CompressedBlock call() {
+            BlockCompressor compressor = compressors.poll();
+            if (compressor == null) {
+                compressor = new BlockCompressor(deflaterFactory, compressionLevel);
+            }
+            try {
+                return new CompressedBlock(uncompressed, compressed,
+                        compressor.compressBlock(uncompressed, length, compressed));
+            } finally {
+                compressors.add(compressor);
+                if (closed) {
+                    // a cancelled task that was already running returns its compressor after close
+                    endCompressors();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package org.xbib.io.compress.bgzf;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+public class BGZFTest {
+
+    @Test
+    public void testSeekToEndOfBlock() throws Exception {
+        File file = File.createTempFile("bgzf", ".gz");
+        try {
+            byte[] data = new byte[1000];
+            new Random(1L).nextBytes(data);
+            long block1;
+            long block2;
+            try (BlockCompressedOutputStream out = new BlockCompressedOutputStream(file)) {
+                out.write(data);
+                out.flush();
+                block1 = BGZFFilePointerUtil.getBlockAddress(out.getFilePointer());
+                out.write(data);
+                out.flush();
+                block2 = BGZFFilePointerUtil.getBlockAddress(out.getFilePointer());
+            }
+            BlockCompressedInputStream[] streams = {
+                    new BlockCompressedInputStream(file),
+                    new AsyncBlockCompressedInputStream(file, BlockGunzipper.getDefaultInflaterFactory(), 8)
+            };
+            for (BlockCompressedInputStream in : streams) {
+                try {
+                    // the end of the first block is not the end of the file
+                    long endOfBlock0 = BGZFFilePointerUtil.makeFilePointer(0, data.length);
+                    assertThrows(IOException.class, () -> in.seek(endOfBlock0));
+                    // only the terminator block follows the second block
+                    in.seek(BGZFFilePointerUtil.makeFilePointer(block1, data.length));
+                    assertEquals(-1, in.read());
+                    in.seek(BGZFFilePointerUtil.makeFilePointer(block1, 10));
+                    byte[] b = new byte[data.length - 10];
+                    assertEquals(b.length, in.read(b));
+                    assertArrayEquals(Arrays.copyOfRange(data, 10, data.length), b);
+                    in.seek(BGZFFilePointerUtil.makeFilePointer(0, 500));
+                    assertEquals(data[500] & 0xff, in.read());
+                    // the terminator block itself
+                    in.seek(BGZFFilePointerUtil.makeFilePointer(block2, 0));
+                    assertEquals(-1, in.read());
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testParallelOutputIsIdentical() throws Exception {
+        byte[] data = new byte[1000000];
+        Random random = new Random(2L);
+        for (int i = 0; i < data.length; i++) {
+            // compressible, but not trivially
+            data[i] = (byte) ('a' + random.nextInt(8));
+        }
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        try (BlockCompressedOutputStream out = new BlockCompressedOutputStream(expected);
+             ParallelBlockCompressedOutputStream parallel = new ParallelBlockCompressedOutputStream(actual, null,
+                     BlockCompressedOutputStream.getDefaultCompressionLevel(),
+                     BlockCompressedOutputStream.getDefaultDeflaterFactory(), 4, 8)) {
+            int pos = 0;
+            int len = 1;
+            while (pos < data.length) {
+                int n = Math.min(len, data.length - pos);
+                out.write(data, pos, n);
+                parallel.write(data, pos, n);
+                pos += n;
+                len = len * 3 + 1;
+                if (len > 300000) {
+                    // a flush ends the current block early
+                    out.flush();
+                    parallel.flush();
+                    assertEquals(out.getFilePointer(), parallel.getFilePointer());
+                    len = 7;
+                }
+            }
+        }
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+        try (BlockCompressedInputStream in =
+                     new BlockCompressedInputStream(new ByteArrayInputStream(actual.toByteArray()))) {
+            assertArrayEquals(data, in.readAllBytes());
+        }
+    }
+
+    @Test
+    public void testParallelOutputEndsDeflatersOfRunningBlocks() throws Exception {
+        // the first block is compressed when close() waits for it, and can not be written,
+        // the second block is still being compressed when close() gives up
+        CountDownLatch first = new CountDownLatch(1);
+        CountDownLatch second = new CountDownLatch(1);
+        AtomicInteger made = new AtomicInteger();
+        AtomicInteger released = new AtomicInteger();
+        DeflaterFactory factory = new DeflaterFactory() {
+            @Override
+            public Deflater makeDeflater(int compressionLevel, boolean gzipCompatible) {
+                made.incrementAndGet();
+                return new Deflater(compressionLevel, gzipCompatible) {
+                    @Override
+                    public void setInput(byte[] input, int off, int len) {
+                        try {
+                            (input[off] == 0 ? first : second).await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        super.setInput(input, off, len);
+                    }
+                };
+            }
+
+            @Override
+            public void releaseDeflater(Deflater deflater) {
+                released.incrementAndGet();
+                super.releaseDeflater(deflater);
+            }
+        };
+        OutputStream failing = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("disk full");
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            ParallelBlockCompressedOutputStream out =
+                    new ParallelBlockCompressedOutputStream(failing, null, 5, factory, executor, 8);
+            byte[] block = new byte[BGZFStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE];
+            out.write(block);
+            Arrays.fill(block, (byte) 1);
+            out.write(block);
+            Thread caller = Thread.currentThread();
+            Thread releaser = new Thread(() -> {
+                while (caller.getState() != Thread.State.WAITING) {
+                    Thread.yield();
+                }
+                first.countDown();
+            });
+            releaser.start();
+            assertThrows(IOException.class, out::close);
+            releaser.join();
+            second.countDown();
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        assertEquals(2, made.get());
+        assertEquals(made.get(), released.get());
+    }
+
+    @Test
+    public void testParallelOutputClosesStreamOnFailure() throws Exception {
+        boolean[] closed = new boolean[1];
+        OutputStream failing = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("disk full");
+            }
+
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        ParallelBlockCompressedOutputStream out = new ParallelBlockCompressedOutputStream(failing, null, 5,
+                BlockCompressedOutputStream.getDefaultDeflaterFactory(), 2, 4);
+        out.write(new byte[1000]);
+        assertThrows(IOException.class, out::close);
+        assertTrue(closed[0]);
+    }
+}
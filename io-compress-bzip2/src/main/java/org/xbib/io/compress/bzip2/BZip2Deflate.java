@@ -32,8 +32,20 @@ public class BZip2Deflate implements Bzip2Constants {
 
     private boolean wroteHeader = false;
 
+    private final boolean writeBZHeader;
+
     private int bufferSize;
 
+    /**
+     * If true, only the compressed blocks are written, without the stream header
+     * and the end of stream marker. Used by {@link ParallelBzip2OutputStream}.
+     */
+    private final boolean rawBlocks;
+
+    private int blockCount;
+
+    private long bitCount;
+
     /*
     If you are ever unlucky/improbable enough
     to get a stack overflow whilst sorting,
@@ -135,7 +147,21 @@ public class BZip2Deflate implements Bzip2Constants {
      * @throws java.io.IOException
      */
     public BZip2Deflate(int inBlockSize, int bufferSize, boolean writeBZHeader) throws IOException {
-        this.wroteHeader = !writeBZHeader;
+        this(inBlockSize, bufferSize, writeBZHeader, false);
+    }
+
+    /**
+     *
+     * @param inBlockSize   input blocksize
+     * @param writeBZHeader true is you want to automatically add the BZ header.
+     * @param rawBlocks     true if only the compressed blocks are written, without the
+     *                      'h' header and the end of stream marker. The output then ends
+     *                      at an arbitrary bit, see {@link #getBitCount()}.
+     * @throws java.io.IOException
+     */
+    BZip2Deflate(int inBlockSize, int bufferSize, boolean writeBZHeader, boolean rawBlocks) throws IOException {
+        this.rawBlocks = rawBlocks;
+        this.writeBZHeader = writeBZHeader;
         this.bufferSize = bufferSize;
         if (inBlockSize > 9) {
             inBlockSize = 9;
@@ -302,14 +328,19 @@ public class BZip2Deflate implements Bzip2Constants {
 
     /**
      * Resets deflater so that a new set of input data can be processed.
+     * The buffers of the block sorting are kept.
      *
      * @throws java.io.IOException
      */
     public void reset() throws IOException {
-        block = null;
-        quadrant = null;
-        zptr = null;
-        ftab = null;
+        totalIn = 0;
+        totalOut = 0;
+        wroteHeader = !writeBZHeader;
+        closed = false;
+        currentChar = -1;
+        runLength = 0;
+        bitCount = 0;
+        outputBuffer = null;
 
         bsSetStream();
 
@@ -526,7 +557,12 @@ public class BZip2Deflate implements Bzip2Constants {
         }
         currentChar = -1;
         endBlock();
-        endCompression();
+        if (rawBlocks) {
+            bitCount = bytesOut * 8L + bsLive;
+            bsFinishedWithStream();
+        } else {
+            endCompression();
+        }
         closed = true;
     }
 
@@ -584,18 +620,49 @@ public class BZip2Deflate implements Bzip2Constants {
         return (this.inputBuffer.size() == 0 && !this.closed);
     }
 
+    /**
+     * Returns the CRC of the blocks compressed so far, combined like the stream CRC.
+     *
+     * @return the combined CRC
+     */
+    int getCombinedCRC() {
+        return combinedCRC;
+    }
+
+    /**
+     * Returns the number of blocks compressed so far.
+     *
+     * @return number of blocks
+     */
+    int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * Returns the exact number of bits of the compressed blocks after finishing in raw block mode.
+     * The last byte of the output is padded with zero bits.
+     *
+     * @return number of bits
+     */
+    long getBitCount() {
+        return bitCount;
+    }
+
     private int blockCRC, combinedCRC;
 
     private void initialize() throws IOException {
         bytesOut = 0;
+        combinedCRC = 0;
+        blockCount = 0;
+        if (rawBlocks) {
+            return;
+        }
 
         /* Write `magic' bytes h indicating file-format == huffmanised,
         followed by a digit indicating blockSize100k.
          */
         bsPutUChar('h');
         bsPutUChar('0' + blockSize100k);
-
-        combinedCRC = 0;
     }
 
     private int allowableBlockSize;
@@ -618,6 +685,7 @@ public class BZip2Deflate implements Bzip2Constants {
         blockCRC = mCrc.getFinalCRC();
         combinedCRC = (combinedCRC << 1) | (combinedCRC >>> 31);
         combinedCRC ^= blockCRC;
+        blockCount++;
 
         /* sort the block and establish posn of original string */
         doReversibleTransformation();
@@ -693,7 +761,11 @@ public class BZip2Deflate implements Bzip2Constants {
     }
 
     private void bsSetStream() {
-        inputBuffer = new ByteArrayOutputStream();
+        if (inputBuffer == null) {
+            inputBuffer = new ByteArrayOutputStream();
+        } else {
+            inputBuffer.reset();
+        }
         bsLive = 0;
         bsBuff = 0;
         bytesOut = 0;
@@ -1673,6 +1745,9 @@ public class BZip2Deflate implements Bzip2Constants {
 
     private void allocateCompressStructures() {
         int n = BASE_BLOCK_SIZE * blockSize100k;
+        if (zptr != null && zptr.length == n) {
+            return;
+        }
         block = new char[(n + 1 + NUM_OVERSHOOT_BYTES)];
         quadrant = new int[(n + NUM_OVERSHOOT_BYTES)];
         zptr = new int[n];
@@ -43,6 +43,10 @@ public class Bzip2InputStream extends InputStream implements Bzip2Constants {
     private final CRC crc = new CRC();
     private int nInUse;
     private InputStream in;
+    /**
+     * If true, only one block is decoded, see {@link #Bzip2InputStream(InputStream, int, int)}.
+     */
+    private final boolean singleBlock;
     private int currentChar = -1;
     private static final int EOF = 0;
     private static final int START_BLOCK_STATE = 1;
@@ -87,15 +91,58 @@ public class Bzip2InputStream extends InputStream implements Bzip2Constants {
     public Bzip2InputStream(final InputStream in) throws IOException {
         super();
         this.in = in;
+        this.singleBlock = false;
         init();
     }
 
     public Bzip2InputStream(final InputStream in, int bufsize) throws IOException {
         super();
         this.in = in;
+        this.singleBlock = false;
         init();
     }
 
+    /**
+     * Constructs a decoder for exactly one block, used by {@link ParallelBzip2InputStream}.
+     * The input starts with the byte that contains the first bit of the block header magic,
+     * and the stream ends after the block. The block CRC is verified at the end of the block.
+     *
+     * @param in            the input, positioned at the byte of the block header magic
+     * @param blockSize100k the block size of the stream
+     * @param bitOffset     the offset of the block header magic in the first byte (0-7)
+     * @throws java.io.IOException if the block header is malformed or an I/O error occurs.
+     */
+    Bzip2InputStream(final InputStream in, int blockSize100k, int bitOffset) throws IOException {
+        super();
+        this.in = in;
+        this.singleBlock = true;
+        this.blockSize100k = blockSize100k;
+        if (bitOffset > 0) {
+            int thech = in.read();
+            if (thech < 0) {
+                throw new IOException("unexpected end of stream");
+            }
+            this.bsBuff = thech;
+            this.bsLive = 8 - bitOffset;
+        }
+        initBlock();
+        setupBlock();
+    }
+
+    /**
+     * Returns the CRC stored in the header of the current block.
+     */
+    int getStoredBlockCRC() {
+        return storedBlockCRC;
+    }
+
+    /**
+     * Returns the number of bits that have been read from the input but not yet consumed.
+     */
+    int getBufferedBitCount() {
+        return bsLive;
+    }
+
     @Override
     public final int read() throws IOException {
         if (this.in != null) {
@@ -203,7 +250,8 @@ public class Bzip2InputStream extends InputStream implements Bzip2Constants {
         char magic4 = bsGetUByte();
         char magic5 = bsGetUByte();
 
-        if (magic0 == 0x17 &&
+        if (!singleBlock &&
+                magic0 == 0x17 &&
                 magic1 == 0x72 &&
                 magic2 == 0x45 &&
                 magic3 == 0x38 &&
@@ -256,6 +304,17 @@ public class Bzip2InputStream extends InputStream implements Bzip2Constants {
         this.computedCombinedCRC ^= this.computedBlockCRC;
     }
 
+    private void nextBlock() throws IOException {
+        endBlock();
+        if (singleBlock) {
+            this.currentState = EOF;
+            this.data = null;
+        } else {
+            initBlock();
+            setupBlock();
+        }
+    }
+
     private void complete() throws IOException {
         this.storedCombinedCRC = bsGetInt();
         this.currentState = EOF;
@@ -767,9 +826,7 @@ public class Bzip2InputStream extends InputStream implements Bzip2Constants {
             this.currentState = RAND_PART_B_STATE;
             this.crc.updateCRC(setupch2Shadow);
         } else {
-            endBlock();
-            initBlock();
-            setupBlock();
+            nextBlock();
         }
     }
 
@@ -785,9 +842,7 @@ public class Bzip2InputStream extends InputStream implements Bzip2Constants {
             this.crc.updateCRC(setupch2Shadow);
         } else {
             this.currentState = NO_RAND_PART_A_STATE;
-            endBlock();
-            initBlock();
-            setupBlock();
+            nextBlock();
         }
     }
 
@@ -0,0 +1,527 @@
+package org.xbib.io.compress.bzip2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelBzip2InputStream. Decodes a bzip2 stream with the blocks decompressed in parallel.
+ *
+ * Compressed bzip2 blocks are not byte aligned and there is no index, so the compressed input is
+ * scanned bit by bit for the 48 bit block header magic <code>0x314159265359</code> and the end of
+ * stream magic <code>0x177245385090</code>. Every candidate block is decoded by a worker with its
+ * own {@link Bzip2InputStream} in single block mode, which has its own decoding tables and verifies
+ * the block CRC. Because the magic may also occur inside compressed data, a block is only accepted
+ * if it starts exactly where the previous block ended; decoded candidates inside another block are
+ * discarded, and a block whose data was cut short by such a candidate is decoded again. The combined
+ * CRC of the blocks is verified against the end of stream marker, and the output is emitted in order.
+ * Concatenated streams, as written by pbzip2, are decoded one after the other.
+ *
+ * The compressed input is read on the calling thread. At most <code>maxBlocksInFlight</code>
+ * blocks are decoded or waiting to be read at the same time, which bounds the memory.
+ */
+public class ParallelBzip2InputStream extends InputStream {
+
+    private static final AtomicInteger poolCounter = new AtomicInteger();
+
+    private static final long BLOCK_MAGIC = 0x314159265359L;
+
+    private static final long END_OF_STREAM_MAGIC = 0x177245385090L;
+
+    private static final long MAGIC_MASK = 0xffffffffffffL;
+
+    private static final int READ_SIZE = 65536;
+
+    private InputStream in;
+    private final ExecutorService executor;
+    private final boolean shutdownExecutor;
+    private final int maxBlocksInFlight;
+    private final ArrayDeque<Candidate> candidates = new ArrayDeque<>();
+    private int blocksInFlight = 0;
+    private byte[] window = new byte[READ_SIZE];
+    private int windowLength = 0;
+    private long windowOffset = 0;
+    private boolean endOfInput = false;
+    private long register = 0;
+    private long scannedBits = 0;
+    private int scanBlockSize100k;
+    private Candidate waiting;
+    private long expectedBit;
+    private int combinedCRC = 0;
+    private byte[] block;
+    private int blockPos = 0;
+    private boolean finished = false;
+
+    /**
+     * Creates a new input stream that decompresses the bzip2 blocks with one worker per available
+     * processor.
+     *
+     * @param in the input stream with the bzip2 data
+     * @throws IOException if the stream header is not valid or an I/O error occurs
+     */
+    public ParallelBzip2InputStream(InputStream in) throws IOException {
+        this(in, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new input stream that decompresses the bzip2 blocks with its own pool of worker
+     * threads.
+     *
+     * @param in      the input stream with the bzip2 data
+     * @param threads number of worker threads
+     * @throws IOException if the stream header is not valid or an I/O error occurs
+     */
+    public ParallelBzip2InputStream(InputStream in, int threads) throws IOException {
+        this(in, createExecutor(threads), true, threads * 2);
+    }
+
+    /**
+     * Creates a new input stream that decompresses the bzip2 blocks with workers from a shared
+     * executor. The executor is not shut down on close.
+     *
+     * @param in                the input stream with the bzip2 data
+     * @param executor          the executor for decompressing the blocks
+     * @param maxBlocksInFlight maximum number of blocks that are decompressed or waiting to be read
+     * @throws IOException if the stream header is not valid or an I/O error occurs
+     */
+    public ParallelBzip2InputStream(InputStream in, ExecutorService executor, int maxBlocksInFlight)
+            throws IOException {
+        this(in, executor, false, maxBlocksInFlight);
+    }
+
+    private ParallelBzip2InputStream(InputStream in, ExecutorService executor, boolean shutdownExecutor,
+                                     int maxBlocksInFlight) throws IOException {
+        if (maxBlocksInFlight < 1) {
+            throw new IllegalArgumentException("maxBlocksInFlight must be positive: " + maxBlocksInFlight);
+        }
+        this.in = in;
+        this.executor = executor;
+        this.shutdownExecutor = shutdownExecutor;
+        this.maxBlocksInFlight = maxBlocksInFlight;
+        while (windowLength < 4) {
+            int n = in.read(window, windowLength, 4 - windowLength);
+            if (n < 0) {
+                throw new IOException("stream is not bzip2: unexpected end of stream");
+            }
+            windowLength += n;
+        }
+        int blockSize100k = readStreamHeader(0);
+        if (blockSize100k < 0) {
+            throw new IOException("stream is not bzip2: illegal stream header");
+        }
+        this.scanBlockSize100k = blockSize100k;
+        this.expectedBit = 32;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (in == null) {
+            throw new IOException("stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        while (block == null || blockPos == block.length) {
+            if (finished) {
+                return -1;
+            }
+            block = nextBlock();
+            blockPos = 0;
+            if (block == null) {
+                finished = true;
+                return -1;
+            }
+        }
+        int n = Math.min(len, block.length - blockPos);
+        System.arraycopy(block, blockPos, b, off, n);
+        blockPos += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (in == null) {
+            throw new IOException("stream closed");
+        }
+        return block == null ? 0 : block.length - blockPos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in == null) {
+            return;
+        }
+        try {
+            in.close();
+        } finally {
+            in = null;
+            for (Candidate candidate : candidates) {
+                if (candidate.future != null) {
+                    candidate.future.cancel(true);
+                }
+            }
+            candidates.clear();
+            block = null;
+            window = null;
+            if (shutdownExecutor) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Returns the decoded data of the next block, or null at the end of the last stream.
+     */
+    private byte[] nextBlock() throws IOException {
+        while (true) {
+            fill();
+            Candidate candidate = candidates.peek();
+            if (candidate == null) {
+                throw new IOException("unexpected end of stream");
+            }
+            if (candidate.bit < expectedBit) {
+                // the magic occurred inside the compressed data of the previous block
+                discard();
+                continue;
+            }
+            if (candidate.bit > expectedBit) {
+                throw new IOException("bad block header");
+            }
+            if (candidate.endOfStream) {
+                candidates.remove();
+                if (!ensureAvailable((candidate.bit + 80 + 7) >>> 3)) {
+                    throw new IOException("unexpected end of stream");
+                }
+                if (readInt(candidate.bit + 48) != combinedCRC) {
+                    throw new IOException("CRC error");
+                }
+                long next = (candidate.bit + 80 + 7) >>> 3;
+                if (!ensureAvailable(next + 4) || readStreamHeader(next) < 0) {
+                    // like bzip2, trailing garbage after the last stream is ignored
+                    return null;
+                }
+                expectedBit = (next + 4) << 3;
+                combinedCRC = 0;
+                continue;
+            }
+            DecodedBlock decoded = take(candidate);
+            combinedCRC = ((combinedCRC << 1) | (combinedCRC >>> 31)) ^ decoded.storedCRC;
+            expectedBit = decoded.endBit;
+            compact(expectedBit >>> 3);
+            return decoded.data;
+        }
+    }
+
+    /**
+     * Reads and scans input and submits candidate blocks until enough blocks are in flight or the
+     * input is exhausted.
+     */
+    private void fill() throws IOException {
+        submit();
+        while (blocksInFlight < maxBlocksInFlight && !endOfInput) {
+            readMore();
+            submit();
+        }
+    }
+
+    /**
+     * Submits the candidate blocks with known end, in stream order.
+     */
+    private void submit() {
+        for (Candidate candidate : candidates) {
+            if (blocksInFlight >= maxBlocksInFlight) {
+                return;
+            }
+            if (!candidate.endOfStream && candidate.future == null && candidate.endBit >= 0) {
+                candidate.future = executor.submit(new DecodeTask(slice(candidate.bit, candidate.endBit),
+                        candidate.bit, candidate.blockSize100k));
+                blocksInFlight++;
+            }
+        }
+    }
+
+    /**
+     * Waits for the decoded head candidate. If the decoding failed because the compressed data was cut
+     * short by a false magic, the block is decoded again on the calling thread up to the next candidate.
+     */
+    private DecodedBlock take(Candidate candidate) throws IOException {
+        DecodedBlock decoded;
+        if (candidate.future != null) {
+            try {
+                decoded = candidate.future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while decompressing bzip2 block");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        } else {
+            long endBit = candidate.endBit >= 0 ? candidate.endBit : nextCandidateBit(candidate.bit);
+            if (endBit < 0) {
+                throw new IOException("unexpected end of stream");
+            }
+            candidate.endBit = endBit;
+            decoded = new DecodeTask(slice(candidate.bit, endBit), candidate.bit, candidate.blockSize100k).call();
+        }
+        candidates.remove();
+        if (candidate.future != null) {
+            blocksInFlight--;
+        }
+        long endBit = candidate.endBit;
+        while (decoded.failure != null) {
+            long next = nextCandidateBit(endBit);
+            if (next < 0) {
+                throw decoded.failure;
+            }
+            endBit = next;
+            decoded = new DecodeTask(slice(candidate.bit, endBit), candidate.bit, candidate.blockSize100k).call();
+        }
+        return decoded;
+    }
+
+    /**
+     * Returns the bit position of the first candidate after the given bit, or the end of input, or -1
+     * if there is no more data.
+     */
+    private long nextCandidateBit(long bit) throws IOException {
+        while (true) {
+            for (Candidate candidate : candidates) {
+                if (candidate.bit > bit) {
+                    return candidate.bit;
+                }
+            }
+            if (endOfInput) {
+                long end = (windowOffset + windowLength) << 3;
+                return end > bit ? end : -1;
+            }
+            readMore();
+        }
+    }
+
+    private void discard() {
+        Candidate candidate = candidates.remove();
+        if (candidate.future != null) {
+            candidate.future.cancel(true);
+            blocksInFlight--;
+        }
+    }
+
+    /**
+     * Reads more input into the window and scans it for magics.
+     */
+    private void readMore() throws IOException {
+        if (windowLength + READ_SIZE > window.length) {
+            window = Arrays.copyOf(window, Math.max(window.length * 2, windowLength + READ_SIZE));
+        }
+        int n = in.read(window, windowLength, READ_SIZE);
+        if (n < 0) {
+            endOfInput = true;
+            if (waiting != null) {
+                waiting.endBit = (windowOffset + windowLength) << 3;
+                waiting = null;
+            }
+            return;
+        }
+        int start = windowLength;
+        windowLength += n;
+        for (int i = start; i < windowLength; i++) {
+            register = (register << 8) | (window[i] & 0xff);
+            scannedBits += 8;
+            long end = (windowOffset + i + 1) << 3;
+            for (int k = 7; k >= 0; k--) {
+                if (scannedBits < 48 + k) {
+                    continue;
+                }
+                long magic = (register >>> k) & MAGIC_MASK;
+                if (magic == BLOCK_MAGIC) {
+                    addCandidate(end - k - 48, false);
+                } else if (magic == END_OF_STREAM_MAGIC) {
+                    addCandidate(end - k - 48, true);
+                }
+            }
+        }
+    }
+
+    private void addCandidate(long bit, boolean endOfStream) {
+        if (waiting != null) {
+            waiting.endBit = bit;
+            waiting = null;
+        }
+        Candidate candidate = new Candidate(bit, endOfStream, scanBlockSize100k);
+        candidates.add(candidate);
+        if (endOfStream) {
+            // the block size of a following stream is not known yet, 9 is the upper bound
+            scanBlockSize100k = 9;
+        } else {
+            waiting = candidate;
+        }
+    }
+
+    /**
+     * Reads input until the window contains the data up to the given byte position.
+     */
+    private boolean ensureAvailable(long end) throws IOException {
+        while (windowOffset + windowLength < end) {
+            if (endOfInput) {
+                return false;
+            }
+            readMore();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the block size of the stream header at the given byte position, or -1 if there is none.
+     */
+    private int readStreamHeader(long pos) {
+        int i = (int) (pos - windowOffset);
+        if (window[i] != 'B' || window[i + 1] != 'Z' || window[i + 2] != 'h'
+                || window[i + 3] < '1' || window[i + 3] > '9') {
+            return -1;
+        }
+        return window[i + 3] - '0';
+    }
+
+    private int readInt(long bit) {
+        int i = (int) ((bit >>> 3) - windowOffset);
+        long v = 0;
+        for (int j = 0; j < 5; j++) {
+            v = (v << 8) | (i + j < windowLength ? window[i + j] & 0xff : 0);
+        }
+        return (int) (v >>> (8 - (bit & 7)));
+    }
+
+    private byte[] slice(long startBit, long endBit) {
+        int from = (int) ((startBit >>> 3) - windowOffset);
+        int to = (int) (((endBit + 7) >>> 3) - windowOffset);
+        return Arrays.copyOfRange(window, from, Math.min(to, windowLength));
+    }
+
+    /**
+     * Discards the input before the given byte position if that frees at least half of the window.
+     */
+    private void compact(long pos) {
+        int n = (int) (pos - windowOffset);
+        if (n > window.length / 2) {
+            System.arraycopy(window, n, window, 0, windowLength - n);
+            windowLength -= n;
+            windowOffset = pos;
+        }
+    }
+
+    private static ExecutorService createExecutor(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        int pool = poolCounter.incrementAndGet();
+        AtomicInteger threadCounter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "bzip2-inflate-" + pool + "-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * A position of a block header magic or end of stream magic in the compressed input.
+     */
+    private static class Candidate {
+
+        private final long bit;
+
+        private final boolean endOfStream;
+
+        private final int blockSize100k;
+
+        private long endBit = -1;
+
+        private Future<DecodedBlock> future;
+
+        private Candidate(long bit, boolean endOfStream, int blockSize100k) {
+            this.bit = bit;
+            this.endOfStream = endOfStream;
+            this.blockSize100k = blockSize100k;
+        }
+    }
+
+    private static class DecodedBlock {
+
+        private final byte[] data;
+
+        private final int storedCRC;
+
+        private final long endBit;
+
+        private final IOException failure;
+
+        private DecodedBlock(byte[] data, int storedCRC, long endBit, IOException failure) {
+            this.data = data;
+            this.storedCRC = storedCRC;
+            this.endBit = endBit;
+            this.failure = failure;
+        }
+    }
+
+    /**
+     * Decodes one candidate block. Failures are returned, not thrown, because most of them belong
+     * to candidates that turn out to be false.
+     */
+    private static class DecodeTask implements Callable<DecodedBlock> {
+
+        private final byte[] compressed;
+
+        private final long startBit;
+
+        private final int blockSize100k;
+
+        private DecodeTask(byte[] compressed, long startBit, int blockSize100k) {
+            this.compressed = compressed;
+            this.startBit = startBit;
+            this.blockSize100k = blockSize100k;
+        }
+
+        @Override
+        public DecodedBlock call() {
+            ByteArrayInputStream in = new ByteArrayInputStream(compressed);
+            try {
+                Bzip2InputStream decoder = new Bzip2InputStream(in, blockSize100k, (int) (startBit & 7));
+                ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 4);
+                byte[] b = new byte[8192];
+                int n;
+                while ((n = decoder.read(b, 0, b.length)) != -1) {
+                    out.write(b, 0, n);
+                }
+                long endBit = (((startBit >>> 3) + compressed.length - in.available()) << 3)
+                        - decoder.getBufferedBitCount();
+                return new DecodedBlock(out.toByteArray(), decoder.getStoredBlockCRC(), endBit, null);
+            } catch (IOException e) {
+                return new DecodedBlock(null, 0, -1, e);
+            } catch (RuntimeException e) {
+                // garbage from a false magic may break the decoding tables
+                return new DecodedBlock(null, 0, -1, new IOException(e));
+            }
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package org.xbib.io.compress.bzip2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelBzip2OutputStream. Encapsulates any OutputStream to write a bzip2-ed stream to it,
+ * compressing the blocks in parallel, like pbzip2 does.
+ *
+ * The input is cut into chunks of the block size. Each chunk is compressed by a worker with a
+ * {@link BZip2Deflate} (run length encoding, Burrows-Wheeler transform, MTF and Huffman coding) into
+ * one block, or into more blocks if the run length encoding makes the chunk grow. The deflaters and
+ * their sorting buffers are pooled, there are never more of them than concurrently running workers. Compressed blocks
+ * are not byte aligned, so the writer splices the bits of the blocks together in input order and
+ * computes the combined stream CRC from the block CRCs. The result is one standard bzip2 stream.
+ *
+ * At most <code>maxBlocksInFlight</code> chunks are compressed or waiting to be written at the same
+ * time, which bounds the memory.
+ */
+public class ParallelBzip2OutputStream extends OutputStream {
+
+    private static final AtomicInteger poolCounter = new AtomicInteger();
+
+    private static final int[] END_OF_STREAM_MAGIC = {0x17, 0x72, 0x45, 0x38, 0x50, 0x90};
+
+    private OutputStream os;
+    private final int blockSize100k;
+    private final int chunkSize;
+    private final ExecutorService executor;
+    private final boolean shutdownExecutor;
+    private final int maxBlocksInFlight;
+    private final ArrayDeque<Future<CompressedChunk>> blocksInFlight;
+    private final ArrayDeque<byte[]> buffers;
+    private final Queue<Compressor> compressors = new ConcurrentLinkedQueue<>();
+    private final ByteArrayOutputStream spliced = new ByteArrayOutputStream();
+    private byte[] buffer;
+    private int bufferLength = 0;
+    private int pendingBits = 0;
+    private int pendingBitCount = 0;
+    private int combinedCRC = 0;
+
+    /**
+     * Wraps an OutputStream in a ParallelBzip2OutputStream with block size 900k and one worker
+     * per available processor.
+     *
+     * @param os OutputStream to encapsulate
+     * @throws IOException if the stream header can not be written
+     */
+    public ParallelBzip2OutputStream(OutputStream os) throws IOException {
+        this(os, 9, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Wraps an OutputStream in a ParallelBzip2OutputStream with its own pool of worker threads.
+     *
+     * @param os            OutputStream to encapsulate
+     * @param blockSize100k block size in units of 100k (1-9)
+     * @param threads       number of worker threads
+     * @throws IOException if the stream header can not be written
+     */
+    public ParallelBzip2OutputStream(OutputStream os, int blockSize100k, int threads) throws IOException {
+        this(os, blockSize100k, createExecutor(threads), true, threads);
+    }
+
+    /**
+     * Wraps an OutputStream in a ParallelBzip2OutputStream with workers from a shared executor.
+     * The executor is not shut down on close.
+     *
+     * @param os                OutputStream to encapsulate
+     * @param blockSize100k     block size in units of 100k (1-9)
+     * @param executor          the executor for compressing the blocks
+     * @param maxBlocksInFlight maximum number of blocks that are compressed or waiting to be written
+     * @throws IOException if the stream header can not be written
+     */
+    public ParallelBzip2OutputStream(OutputStream os, int blockSize100k, ExecutorService executor,
+                                     int maxBlocksInFlight) throws IOException {
+        this(os, blockSize100k, executor, false, maxBlocksInFlight);
+    }
+
+    private ParallelBzip2OutputStream(OutputStream os, int blockSize100k, ExecutorService executor,
+                                      boolean shutdownExecutor, int maxBlocksInFlight) throws IOException {
+        if (maxBlocksInFlight < 1) {
+            throw new IllegalArgumentException("maxBlocksInFlight must be positive: " + maxBlocksInFlight);
+        }
+        this.os = os;
+        this.blockSize100k = Math.max(1, Math.min(9, blockSize100k));
+        // like the allowable block size of BZip2Deflate, leaves room for a trailing run
+        this.chunkSize = Bzip2Constants.BASE_BLOCK_SIZE * this.blockSize100k - 20;
+        this.executor = executor;
+        this.shutdownExecutor = shutdownExecutor;
+        this.maxBlocksInFlight = maxBlocksInFlight;
+        this.blocksInFlight = new ArrayDeque<>(maxBlocksInFlight);
+        this.buffers = new ArrayDeque<>(maxBlocksInFlight);
+        this.buffer = new byte[chunkSize];
+        writeBits(8, 'B');
+        writeBits(8, 'Z');
+        writeBits(8, 'h');
+        writeBits(8, '0' + this.blockSize100k);
+    }
+
+    /**
+     * Write integer to OutputStream
+     *
+     * @param b integer to write to stream
+     */
+    @Override
+    public void write(int b) throws IOException {
+        buffer[bufferLength++] = (byte) b;
+        if (bufferLength == chunkSize) {
+            submitChunk();
+        }
+    }
+
+    /**
+     * Write byte array OutputStream
+     *
+     * @param b byte array to write
+     */
+    @Override
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    /**
+     * Write part of a byte array OutputStream
+     *
+     * @param b   byte array to write
+     * @param off index in byte array to start output at
+     * @param len number of bytes to write
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(chunkSize - bufferLength, len);
+            System.arraycopy(b, off, buffer, bufferLength, n);
+            bufferLength += n;
+            off += n;
+            len -= n;
+            if (bufferLength == chunkSize) {
+                submitChunk();
+            }
+        }
+    }
+
+    /**
+     * Flush OutputStream. This writes the blocks that are already compressed, the buffered
+     * input is not compressed before it fills a block or the stream is closed.
+     */
+    @Override
+    public void flush() throws IOException {
+        while (!blocksInFlight.isEmpty() && blocksInFlight.peek().isDone()) {
+            writeNextChunk();
+        }
+        writeSpliced();
+        os.flush();
+    }
+
+    /**
+     * Close OutputStream. Compresses the remaining input, writes all blocks and the end of stream
+     * marker with the combined CRC.
+     */
+    @Override
+    public void close() throws IOException {
+        if (os == null) {
+            return;
+        }
+        OutputStream out = os;
+        Throwable failure = null;
+        try {
+            submitChunk();
+            while (!blocksInFlight.isEmpty()) {
+                writeNextChunk();
+            }
+            for (int b : END_OF_STREAM_MAGIC) {
+                writeBits(8, b);
+            }
+            writeBits(16, (combinedCRC >>> 16) & 0xffff);
+            writeBits(16, combinedCRC & 0xffff);
+            if (pendingBitCount > 0) {
+                spliced.write(pendingBits << (8 - pendingBitCount));
+                pendingBitCount = 0;
+            }
+            writeSpliced();
+        } catch (Throwable t) {
+            failure = t;
+            throw t;
+        } finally {
+            os = null;
+            for (Future<CompressedChunk> future : blocksInFlight) {
+                future.cancel(false);
+            }
+            blocksInFlight.clear();
+            if (shutdownExecutor) {
+                executor.shutdown();
+            }
+            compressors.clear();
+            if (failure == null) {
+                out.close();
+            } else {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands the buffered input to a worker and writes the chunks that are already compressed.
+     * If too many chunks are in flight, waits for the oldest one.
+     */
+    private void submitChunk() throws IOException {
+        if (bufferLength == 0) {
+            return;
+        }
+        if (os == null) {
+            throw new IOException("stream is closed");
+        }
+        while (blocksInFlight.size() >= maxBlocksInFlight) {
+            writeNextChunk();
+        }
+        blocksInFlight.add(executor.submit(new CompressTask(buffer, bufferLength)));
+        buffer = buffers.isEmpty() ? new byte[chunkSize] : buffers.pop();
+        bufferLength = 0;
+        while (!blocksInFlight.isEmpty() && blocksInFlight.peek().isDone()) {
+            writeNextChunk();
+        }
+    }
+
+    /**
+     * Waits for the oldest chunk in flight, splices its bits into the output and updates the
+     * combined CRC.
+     */
+    private void writeNextChunk() throws IOException {
+        CompressedChunk chunk;
+        try {
+            chunk = blocksInFlight.peek().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while compressing bzip2 block");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        blocksInFlight.remove();
+        buffers.push(chunk.uncompressed);
+        // the combined CRC is rotated left by one bit for every block
+        combinedCRC = Integer.rotateLeft(combinedCRC, chunk.blockCount) ^ chunk.combinedCRC;
+        writeBits(chunk.compressed, chunk.bitCount);
+        writeSpliced();
+    }
+
+    /**
+     * Appends the given number of bits from the start of the data to the output.
+     */
+    private void writeBits(byte[] data, long bitCount) {
+        int fullBytes = (int) (bitCount >>> 3);
+        int restBits = (int) (bitCount & 7);
+        if (pendingBitCount == 0) {
+            spliced.write(data, 0, fullBytes);
+        } else {
+            // shift every byte by the pending bits
+            byte[] shifted = new byte[fullBytes];
+            int bits = pendingBits;
+            int shift = pendingBitCount;
+            int mask = (1 << shift) - 1;
+            for (int i = 0; i < fullBytes; i++) {
+                int combined = (bits << 8) | (data[i] & 0xff);
+                shifted[i] = (byte) (combined >>> shift);
+                bits = combined & mask;
+            }
+            pendingBits = bits;
+            spliced.write(shifted, 0, fullBytes);
+        }
+        if (restBits > 0) {
+            writeBits(restBits, (data[fullBytes] & 0xff) >>> (8 - restBits));
+        }
+    }
+
+    /**
+     * Appends the lowest n bits of v to the output, n is at most 16.
+     */
+    private void writeBits(int n, int v) {
+        pendingBits = (pendingBits << n) | (v & ((1 << n) - 1));
+        pendingBitCount += n;
+        while (pendingBitCount >= 8) {
+            pendingBitCount -= 8;
+            spliced.write(pendingBits >>> pendingBitCount);
+        }
+        pendingBits &= (1 << pendingBitCount) - 1;
+    }
+
+    private void writeSpliced() throws IOException {
+        if (spliced.size() > 0) {
+            spliced.writeTo(os);
+            spliced.reset();
+        }
+    }
+
+    private static ExecutorService createExecutor(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        int pool = poolCounter.incrementAndGet();
+        AtomicInteger threadCounter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "bzip2-deflate-" + pool + "-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static class CompressedChunk {
+
+        private final byte[] uncompressed;
+
+        private final byte[] compressed;
+
+        private final long bitCount;
+
+        private final int blockCount;
+
+        private final int combinedCRC;
+
+        private CompressedChunk(byte[] uncompressed, byte[] compressed, long bitCount,
+                                int blockCount, int combinedCRC) {
+            this.uncompressed = uncompressed;
+            this.compressed = compressed;
+            this.bitCount = bitCount;
+            this.blockCount = blockCount;
+            this.combinedCRC = combinedCRC;
+        }
+    }
+
+    /**
+     * A deflater with the buffers for draining its output, used by one worker at a time.
+     */
+    private class Compressor {
+
+        private final BZip2Deflate deflater;
+
+        private final byte[] buffer = new byte[8192];
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        private Compressor() throws IOException {
+            this.deflater = new BZip2Deflate(blockSize100k, Integer.MAX_VALUE, false, true);
+        }
+    }
+
+    /**
+     * Compresses one chunk into raw blocks, without stream header and end of stream marker,
+     * with a compressor from the pool.
+     */
+    private class CompressTask implements Callable<CompressedChunk> {
+
+        private final byte[] uncompressed;
+
+        private final int length;
+
+        private CompressTask(byte[] uncompressed, int length) {
+            this.uncompressed = uncompressed;
+            this.length = length;
+        }
+
+        @Override
+        public CompressedChunk call() throws IOException {
+            Compressor compressor = compressors.poll();
+            if (compressor == null) {
+                compressor = new Compressor();
+            } else {
+                compressor.deflater.reset();
+            }
+            try {
+                BZip2Deflate deflater = compressor.deflater;
+                deflater.setInput(uncompressed, 0, length);
+                deflater.finish();
+                compressor.out.reset();
+                int n;
+                while ((n = deflater.deflate(compressor.buffer)) > 0) {
+                    compressor.out.write(compressor.buffer, 0, n);
+                }
+                return new CompressedChunk(uncompressed, compressor.out.toByteArray(), deflater.getBitCount(),
+                        deflater.getBlockCount(), deflater.getCombinedCRC());
+            } finally {
+                compressors.add(compressor);
+            }
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package org.xbib.io.compress.bzip2;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.Test;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -8,6 +11,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.Random;
 
 public class BZip2Test {
 
@@ -37,4 +42,83 @@ public class BZip2Test {
         }
         assertEquals(10240, outputStream.toByteArray().length);
     }
+
+    @Test
+    public void testParallelBZip2() throws Exception {
+        byte[] data = new byte[1000000];
+        Random random = new Random(42L);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 1000 < 300 ? 'x' : 'a' + random.nextInt(20));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ParallelBzip2OutputStream zOut = new ParallelBzip2OutputStream(out, 1, 4);
+        zOut.write(data);
+        zOut.close();
+        Bzip2InputStream zIn = new Bzip2InputStream(new ByteArrayInputStream(out.toByteArray()));
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = zIn.read(buf)) != -1) {
+            result.write(buf, 0, n);
+        }
+        assertArrayEquals(data, result.toByteArray());
+    }
+
+    @Test
+    public void testParallelBZip2CloseFailure() throws Exception {
+        boolean[] closed = new boolean[1];
+        OutputStream failing = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("write failed");
+            }
+
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+                throw new IOException("close failed");
+            }
+        };
+        ParallelBzip2OutputStream zOut = new ParallelBzip2OutputStream(failing, 1, 2);
+        zOut.write("Hello World!".getBytes());
+        IOException e = assertThrows(IOException.class, zOut::close);
+        assertEquals("write failed", e.getMessage());
+        assertEquals("close failed", e.getSuppressed()[0].getMessage());
+        assertTrue(closed[0]);
+    }
+
+    @Test
+    public void testParallelBZip2Input() throws Exception {
+        InputStream inputStream = getClass().getResourceAsStream("test.tar.bz2");
+        ParallelBzip2InputStream bzip2InputStream = new ParallelBzip2InputStream(inputStream, 2);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int n;
+        while ((n = bzip2InputStream.read(buf, 0, buf.length)) != -1) {
+            outputStream.write(buf, 0, n);
+        }
+        bzip2InputStream.close();
+        assertEquals(10240, outputStream.toByteArray().length);
+        byte[] data = new byte[1000000];
+        Random random = new Random(42L);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 1000 < 300 ? 'x' : 'a' + random.nextInt(20));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ParallelBzip2OutputStream zOut = new ParallelBzip2OutputStream(out, 1, 4);
+        zOut.write(data);
+        zOut.close();
+        // two concatenated streams
+        out.write(out.toByteArray());
+        ParallelBzip2InputStream zIn = new ParallelBzip2InputStream(new ByteArrayInputStream(out.toByteArray()), 4);
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        while ((n = zIn.read(buf)) != -1) {
+            result.write(buf, 0, n);
+        }
+        zIn.close();
+        byte[] expected = new byte[data.length * 2];
+        System.arraycopy(data, 0, expected, 0, data.length);
+        System.arraycopy(data, 0, expected, data.length, data.length);
+        assertArrayEquals(expected, result.toByteArray());
+    }
 }
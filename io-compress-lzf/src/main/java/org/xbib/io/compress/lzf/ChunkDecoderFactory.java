@@ -1,17 +1,31 @@
 package org.xbib.io.compress.lzf;
 
+import java.io.IOException;
+import java.util.Arrays;
+
 /**
  * Simple helper class used for loading {@link ChunkDecoder} implementations,
  * based on criteria such as "fastest available". <p> Yes, it looks butt-ugly,
  * but does the job. Nonetheless, if anyone has lipstick for this pig, let me
  * know.
+ * <p> The optimal instance is a {@link VarHandleChunkDecoder} if it decodes a
+ * sample exactly like the {@link VanillaChunkDecoder} when this class is loaded,
+ * otherwise the vanilla decoder.
  */
 public class ChunkDecoderFactory {
 
     private static final ChunkDecoderFactory INSTANCE;
 
     static {
-        INSTANCE = new ChunkDecoderFactory( VanillaChunkDecoder.class);
+        Class<?> impl = VanillaChunkDecoder.class;
+        try {
+            if (selfCheck(new VarHandleChunkDecoder())) {
+                impl = VarHandleChunkDecoder.class;
+            }
+        } catch (Throwable t) {
+            // fall back to the vanilla decoder
+        }
+        INSTANCE = new ChunkDecoderFactory(impl);
     }
 
     private final Class<? extends ChunkDecoder> implClass;
@@ -46,4 +60,39 @@ public class ChunkDecoderFactory {
         // this will always succeed loading; no need to use dynamic class loading or instantiation
         return new VanillaChunkDecoder();
     }
+
+    /**
+     * Decodes a sample with the given decoder and with the vanilla decoder, and
+     * compares the results. The sample has literal runs and back references of
+     * all lengths, with offsets below and above the word size, up to the end of
+     * the chunk.
+     */
+    private static boolean selfCheck(ChunkDecoder decoder) throws IOException {
+        byte[] data = new byte[LZFChunk.MAX_CHUNK_LEN];
+        int seed = 1;
+        int pos = 0;
+        while (pos < data.length) {
+            seed = seed * 1103515245 + 12345;
+            int len = Math.min(data.length - pos, 1 + ((seed >>> 16) & 0x1ff));
+            int offset = 1 + ((seed >>> 8) & 0x7f);
+            if (pos < offset || (seed & 3) == 0) {
+                for (int i = 0; i < len; i++) {
+                    seed = seed * 1103515245 + 12345;
+                    data[pos++] = (byte) (seed >>> 24);
+                }
+            } else {
+                for (int i = 0; i < len; i++, pos++) {
+                    data[pos] = data[pos - offset];
+                }
+            }
+        }
+        byte[] encoded = LZFEncoder.encode(data);
+        byte[] expected = new byte[data.length + 16];
+        byte[] actual = new byte[data.length + 16];
+        Arrays.fill(expected, (byte) 0x5a);
+        Arrays.fill(actual, (byte) 0x5a);
+        new VanillaChunkDecoder().decode(encoded, expected);
+        decoder.decode(encoded, actual);
+        return Arrays.equals(data, Arrays.copyOf(actual, data.length)) && Arrays.equals(expected, actual);
+    }
 }
@@ -3,11 +3,18 @@ package org.xbib.io.compress.lzf;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
 
 /**
  * Class that handles actual encoding of individual chunks. Resulting chunks can
  * be compressed or non-compressed; compression is only used if it actually
  * reduces chunk size (including overhead of additional header bytes)
+ * <p> Input is read 4 bytes at a time for hashing, and matches are extended by
+ * comparing 8 bytes at a time. The {@link LZFEncodingMode} selects between one
+ * candidate per hash bucket and a chain of candidates. The hash table size can be
+ * chosen to trade memory and cache footprint against ratio.
  */
 public final class ChunkEncoder {
     // Beyond certain point we won't be able to compress; let's use 16 bytes as cut-off
@@ -16,8 +23,16 @@ public final class ChunkEncoder {
     private static final int MIN_HASH_SIZE = 256;
     // Not much point in bigger tables, with 8k window
     private static final int MAX_HASH_SIZE = 16384;
+    // Largest configurable table, one bucket per position of the largest chunk
+    private static final int MAX_CONFIGURED_HASH_SIZE = 1 << 16;
     private static final int MAX_OFF = 1 << 13; // 8k
     private static final int MAX_REF = (1 << 8) + (1 << 3); // 264
+    // Candidates tried per position in HIGH_COMPRESSION mode
+    private static final int MAX_CHAIN = 16;
+    private static final VarHandle INT_LE =
+            MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle LONG_LE =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
     // // Encoding tables etc
     private final BufferRecycler bufferRecycler;
     /**
@@ -25,7 +40,13 @@ public final class ChunkEncoder {
      * triplet, value is offset in buffer.
      */
     private int[] hashTable;
-    private final int hashModulo;
+    private final int hashShift;
+    /**
+     * In HIGH_COMPRESSION mode, the previous position with the same hash, for each
+     * position of the window, indexed by position modulo the window size. Null in
+     * FAST mode.
+     */
+    private final int[] chainTable;
     /**
      * Buffer in which encoded content is stored during processing
      */
@@ -40,12 +61,32 @@ public final class ChunkEncoder {
      *                    hash table to use
      */
     public ChunkEncoder(int totalLength) {
-        int largestChunkLen = Math.max(totalLength, LZFChunk.MAX_CHUNK_LEN);
+        this(totalLength, LZFEncodingMode.FAST);
+    }
 
-        int suggestedHashLen = calcHashLen(largestChunkLen);
+    /**
+     * @param totalLength Total encoded length; used for calculating size of
+     *                    hash table to use
+     * @param mode        how hard to search for matches
+     */
+    public ChunkEncoder(int totalLength, LZFEncodingMode mode) {
+        this(totalLength, mode, calcHashLen(Math.max(totalLength, LZFChunk.MAX_CHUNK_LEN)));
+    }
+
+    /**
+     * @param totalLength Total encoded length
+     * @param mode        how hard to search for matches
+     * @param hashSize    number of hash table entries, rounded up to a power of two
+     *                    between 256 and 65536
+     */
+    public ChunkEncoder(int totalLength, LZFEncodingMode mode, int hashSize) {
+        int largestChunkLen = Math.max(totalLength, LZFChunk.MAX_CHUNK_LEN);
         bufferRecycler = BufferRecycler.instance();
-        hashTable = bufferRecycler.allocEncodingHash(suggestedHashLen);
-        hashModulo = hashTable.length - 1;
+        int hashLen = checkHashLen(hashSize);
+        // a larger recycled table is used, but the hashes only reach its first hashLen entries
+        hashTable = bufferRecycler.allocEncodingHash(hashLen);
+        hashShift = Integer.numberOfLeadingZeros(hashLen) + 1;
+        chainTable = mode == LZFEncodingMode.HIGH_COMPRESSION ? new int[MAX_OFF] : null;
         // Ok, then, what's the worst case output buffer length?
         // length indicator for each 32 literals, so:
         int bufferLen = largestChunkLen + ((largestChunkLen + 31) >> 5);
@@ -56,17 +97,22 @@ public final class ChunkEncoder {
      * Alternate constructor used when we want to avoid allocation encoding
      * buffer, in cases where caller wants full control over allocations.
      */
-    private ChunkEncoder(int totalLength, boolean bogus) {
+    private ChunkEncoder(int totalLength, LZFEncodingMode mode, boolean bogus) {
         int largestChunkLen = Math.max(totalLength, LZFChunk.MAX_CHUNK_LEN);
         int suggestedHashLen = calcHashLen(largestChunkLen);
         bufferRecycler = BufferRecycler.instance();
         hashTable = bufferRecycler.allocEncodingHash(suggestedHashLen);
-        hashModulo = hashTable.length - 1;
+        hashShift = Integer.numberOfLeadingZeros(hashTable.length) + 1;
+        chainTable = mode == LZFEncodingMode.HIGH_COMPRESSION ? new int[MAX_OFF] : null;
         encodeBuffer = null;
     }
 
     public static ChunkEncoder nonAllocatingEncoder(int totalLength) {
-        return new ChunkEncoder(totalLength, true);
+        return nonAllocatingEncoder(totalLength, LZFEncodingMode.FAST);
+    }
+
+    public static ChunkEncoder nonAllocatingEncoder(int totalLength, LZFEncodingMode mode) {
+        return new ChunkEncoder(totalLength, mode, true);
     }
 
     /**
@@ -128,22 +174,47 @@ public final class ChunkEncoder {
         out.write(data, offset, len);
     }
 
+    /**
+     * Method for encoding individual chunk, header included, into given buffer, which
+     * must have room for <code>len + ((len + 31) >> 5) + 7</code> bytes after
+     * <code>outPos</code>. Chooses compressed or uncompressed like
+     * {@link #encodeAndWriteChunk}.
+     *
+     * @return end position of the chunk in the buffer
+     */
+    public int appendEncodedChunk(byte[] data, int offset, int len, byte[] outputBuffer, int outPos)
+            throws IOException {
+        if (len >= MIN_BLOCK_TO_COMPRESS) {
+            // offset of 7 so we can prepend header as necessary
+            int encodeEnd = tryCompress(data, offset, offset + len, outputBuffer, outPos + 7);
+            int compLen = encodeEnd - outPos - 7;
+            if (compLen < (len - 2)) {
+                LZFChunk.appendCompressedHeader(len, compLen, outputBuffer, outPos);
+                return encodeEnd;
+            }
+        }
+        int ptr = LZFChunk.appendNonCompressedHeader(len, outputBuffer, outPos);
+        System.arraycopy(data, offset, outputBuffer, ptr, len);
+        return ptr + len;
+    }
+
     /**
      * Main workhorse method that will try to compress given chunk, and return
      * end position (offset to byte after last included byte)
      */
     protected int tryCompress(byte[] in, int inPos, int inEnd, byte[] out, int outPos) {
+        if (chainTable != null) {
+            return tryCompressChained(in, inPos, inEnd, out, outPos);
+        }
         final int[] hashTable = this.hashTable;
         ++outPos;
-        int seen = first(in, inPos); // past 4 bytes we have seen... (last one is LSB)
         int literals = 0;
+        final int chunkEnd = inEnd;
         inEnd -= 4;
         final int firstPos = inPos; // so that we won't have back references across block boundary
 
         while (inPos < inEnd) {
-            byte p2 = in[inPos + 2];
-            // next
-            seen = (seen << 8) + (p2 & 255);
+            int seen = (int) INT_LE.get(in, inPos); // next 4 bytes, first one is LSB
             int off = hash(seen);
             int ref = hashTable[off];
             hashTable[off] = inPos;
@@ -151,10 +222,8 @@ public final class ChunkEncoder {
             // First expected common case: no back-ref (for whatever reason)
             if (ref >= inPos // can't refer forward (i.e. leftovers)
                     || ref < firstPos // or to previous block
-                    || (off = inPos - ref) > MAX_OFF
-                    || in[ref + 2] != p2 // must match hash
-                    || in[ref + 1] != (byte) (seen >> 8)
-                    || in[ref] != (byte) (seen >> 16)) {
+                    || inPos - ref > MAX_OFF
+                    || (((int) INT_LE.get(in, ref) ^ seen) & 0xFFFFFF) != 0) { // must match 3 bytes
                 out[outPos++] = in[inPos++];
                 literals++;
                 if (literals == LZFChunk.MAX_LITERAL) {
@@ -165,41 +234,113 @@ public final class ChunkEncoder {
                 continue;
             }
             // match
-            int maxLen = inEnd - inPos + 2;
-            if (maxLen > MAX_REF) {
-                maxLen = MAX_REF;
-            }
             if (literals == 0) {
                 outPos--;
             } else {
                 out[outPos - literals - 1] = (byte) (literals - 1);
                 literals = 0;
             }
-            int len = 3;
-            while (len < maxLen && in[ref + len] == in[inPos + len]) {
-                len++;
+            int len = matchLength(in, ref, inPos, Math.min(chunkEnd - inPos, MAX_REF));
+            outPos = writeBackReference(out, outPos, inPos - ref, len);
+            inPos += len;
+            // insert the last two strings of the match
+            if (inPos < inEnd) {
+                hashTable[hash((int) INT_LE.get(in, inPos - 2))] = inPos - 2;
+                hashTable[hash((int) INT_LE.get(in, inPos - 1))] = inPos - 1;
+            }
+        }
+        // try offlining the tail
+        return handleTail(in, inPos, chunkEnd, out, outPos, literals);
+    }
+
+    /**
+     * Same as above, but tries up to {@link #MAX_CHAIN} earlier strings with the same
+     * hash, and takes the longest match. All strings are inserted in the hash chains.
+     */
+    private int tryCompressChained(byte[] in, int inPos, int inEnd, byte[] out, int outPos) {
+        final int[] hashTable = this.hashTable;
+        final int[] chainTable = this.chainTable;
+        ++outPos;
+        int literals = 0;
+        final int chunkEnd = inEnd;
+        inEnd -= 4;
+        final int firstPos = inPos;
+
+        while (inPos < inEnd) {
+            int seen = (int) INT_LE.get(in, inPos);
+            int off = hash(seen);
+            int ref = hashTable[off];
+            hashTable[off] = inPos;
+            chainTable[inPos & (MAX_OFF - 1)] = ref;
+
+            int maxLen = Math.min(chunkEnd - inPos, MAX_REF);
+            int limit = Math.max(firstPos, inPos - MAX_OFF);
+            int bestLen = 0;
+            int bestRef = 0;
+            // links are not cleared between chunks, so a chain ends at the first
+            // position that is out of range or does not decrease
+            for (int chain = MAX_CHAIN; chain > 0 && ref >= limit && ref < inPos; chain--) {
+                if ((((int) INT_LE.get(in, ref) ^ seen) & 0xFFFFFF) == 0
+                        && in[ref + bestLen] == in[inPos + bestLen]) {
+                    int len = matchLength(in, ref, inPos, maxLen);
+                    if (len > bestLen) {
+                        bestLen = len;
+                        bestRef = ref;
+                        if (len == maxLen) {
+                            break;
+                        }
+                    }
+                }
+                int next = chainTable[ref & (MAX_OFF - 1)];
+                if (next >= ref) {
+                    break;
+                }
+                ref = next;
+            }
+            if (bestLen == 0) {
+                out[outPos++] = in[inPos++];
+                literals++;
+                if (literals == LZFChunk.MAX_LITERAL) {
+                    out[outPos - 33] = (byte) 31;
+                    literals = 0;
+                    outPos++;
+                }
+                continue;
             }
-            len -= 2;
-            --off; // was off by one earlier
-            if (len < 7) {
-                out[outPos++] = (byte) ((off >> 8) + (len << 5));
+            if (literals == 0) {
+                outPos--;
             } else {
-                out[outPos++] = (byte) ((off >> 8) + (7 << 5));
-                out[outPos++] = (byte) (len - 7);
+                out[outPos - literals - 1] = (byte) (literals - 1);
+                literals = 0;
+            }
+            outPos = writeBackReference(out, outPos, inPos - bestRef, bestLen);
+            int end = inPos + bestLen;
+            while (++inPos < end) {
+                if (inPos < inEnd) {
+                    off = hash((int) INT_LE.get(in, inPos));
+                    chainTable[inPos & (MAX_OFF - 1)] = hashTable[off];
+                    hashTable[off] = inPos;
+                }
             }
-            out[outPos++] = (byte) off;
-            outPos++;
-            inPos += len;
-            seen = first(in, inPos);
-            seen = (seen << 8) + (in[inPos + 2] & 255);
-            hashTable[hash(seen)] = inPos;
-            ++inPos;
-            seen = (seen << 8) + (in[inPos + 2] & 255); // hash = next(hash, in, inPos);
-            hashTable[hash(seen)] = inPos;
-            ++inPos;
         }
-        // try offlining the tail
-        return handleTail(in, inPos, inEnd + 4, out, outPos, literals);
+        return handleTail(in, inPos, chunkEnd, out, outPos, literals);
+    }
+
+    /**
+     * Writes a back reference of 3 to 264 bytes at a distance of 1 to 8192 bytes,
+     * and reserves the length byte of the literal run that follows.
+     */
+    private static int writeBackReference(byte[] out, int outPos, int distance, int len) {
+        int off = distance - 1;
+        len -= 2;
+        if (len < 7) {
+            out[outPos++] = (byte) ((off >> 8) + (len << 5));
+        } else {
+            out[outPos++] = (byte) ((off >> 8) + (7 << 5));
+            out[outPos++] = (byte) (len - 7);
+        }
+        out[outPos++] = (byte) off;
+        return outPos + 1;
     }
 
     private int handleTail(byte[] in, int inPos, int inEnd, byte[] out, int outPos,
@@ -235,11 +376,41 @@ public final class ChunkEncoder {
         return hashLen;
     }
 
-    private int first(byte[] in, int inPos) {
-        return (in[inPos] << 8) + (in[inPos + 1] & 0xFF);
+    private static int checkHashLen(int hashSize) {
+        if (hashSize <= 0) {
+            throw new IllegalArgumentException("hashSize must be positive: " + hashSize);
+        }
+        int hashLen = MIN_HASH_SIZE;
+        while (hashLen < hashSize && hashLen < MAX_CONFIGURED_HASH_SIZE) {
+            hashLen += hashLen;
+        }
+        return hashLen;
+    }
+
+    /**
+     * Hash of the first three bytes of the little endian word, the fourth byte
+     * is shifted out.
+     */
+    private int hash(int word) {
+        return ((word << 8) * 0x9e3779b1) >>> hashShift;
     }
 
-    private int hash(int h) {
-        return ((h * 57321) >> 9) & hashModulo;
+    /**
+     * Length of the match at ref and pos, at most maxLen. The first 3 bytes are
+     * known to match.
+     */
+    private static int matchLength(byte[] in, int ref, int pos, int maxLen) {
+        int len = 3;
+        while (len + 8 <= maxLen) {
+            long diff = (long) LONG_LE.get(in, ref + len) ^ (long) LONG_LE.get(in, pos + len);
+            if (diff != 0) {
+                return len + (Long.numberOfTrailingZeros(diff) >>> 3);
+            }
+            len += 8;
+        }
+        while (len < maxLen && in[ref + len] == in[pos + len]) {
+            len++;
+        }
+        return len;
     }
 }
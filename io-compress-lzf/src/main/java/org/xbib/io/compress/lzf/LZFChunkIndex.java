@@ -0,0 +1,201 @@
+package org.xbib.io.compress.lzf;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Table of the chunks of an LZF file, which maps the compressed offset of each chunk
+ * to its uncompressed offset. It is built by {@link #scan(SeekableByteChannel)}, which
+ * reads only the chunk headers and skips the chunk data, or read from a sidecar file
+ * written by {@link #write(OutputStream)}.
+ */
+public final class LZFChunkIndex {
+
+    /**
+     * "LZFI", the first four bytes of a sidecar file.
+     */
+    private static final int MAGIC = 0x4c5a4649;
+
+    /**
+     * Offsets of the chunks, followed by the total sizes.
+     */
+    private final long[] compressedOffsets;
+
+    private final long[] uncompressedOffsets;
+
+    private final int chunkCount;
+
+    private LZFChunkIndex(long[] compressedOffsets, long[] uncompressedOffsets, int chunkCount) {
+        this.compressedOffsets = compressedOffsets;
+        this.uncompressedOffsets = uncompressedOffsets;
+        this.chunkCount = chunkCount;
+    }
+
+    /**
+     * Builds the table from the chunk headers, from the beginning of the channel to its end.
+     * The position of the channel is changed.
+     */
+    public static LZFChunkIndex scan(SeekableByteChannel channel) throws IOException {
+        long[] compressed = new long[16];
+        long[] uncompressed = new long[16];
+        int count = 0;
+        long compressedPos = 0L;
+        long uncompressedPos = 0L;
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(LZFChunk.MAX_HEADER_LEN);
+        while (compressedPos < size) {
+            header.clear();
+            if (size - compressedPos < header.capacity()) {
+                header.limit((int) (size - compressedPos));
+            }
+            channel.position(compressedPos);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // loop until the header is read
+            }
+            byte[] buf = header.array();
+            if (header.position() < ChunkDecoder.HEADER_BYTES
+                    || buf[0] != LZFChunk.BYTE_Z || buf[1] != LZFChunk.BYTE_V) {
+                throw new IOException("Corrupt input data at offset " + compressedPos
+                        + ", block did not start with 2 byte signature ('ZV') followed by type byte, 2-byte length)");
+            }
+            int compLen = ((buf[3] & 0xFF) << 8) + (buf[4] & 0xFF);
+            int chunkLen;
+            int uncompLen;
+            if (buf[2] == LZFChunk.BLOCK_TYPE_NON_COMPRESSED) {
+                chunkLen = ChunkDecoder.HEADER_BYTES + compLen;
+                uncompLen = compLen;
+            } else if (buf[2] == LZFChunk.BLOCK_TYPE_COMPRESSED && header.position() == LZFChunk.MAX_HEADER_LEN) {
+                chunkLen = LZFChunk.MAX_HEADER_LEN + compLen;
+                uncompLen = ((buf[5] & 0xFF) << 8) + (buf[6] & 0xFF);
+            } else {
+                throw new IOException("Corrupt input data at offset " + compressedPos
+                        + ", unknown block type " + buf[2] + " or truncated header");
+            }
+            if (compressedPos + chunkLen > size) {
+                throw new IOException("EOF in block at offset " + compressedPos + ": "
+                        + (size - compressedPos) + " of " + chunkLen + " bytes");
+            }
+            if (count + 1 >= compressed.length) {
+                compressed = Arrays.copyOf(compressed, 2 * compressed.length);
+                uncompressed = Arrays.copyOf(uncompressed, 2 * uncompressed.length);
+            }
+            compressed[count] = compressedPos;
+            uncompressed[count] = uncompressedPos;
+            count++;
+            compressedPos += chunkLen;
+            uncompressedPos += uncompLen;
+        }
+        compressed[count] = compressedPos;
+        uncompressed[count] = uncompressedPos;
+        return new LZFChunkIndex(compressed, uncompressed, count);
+    }
+
+    /**
+     * Reads a table written by {@link #write(OutputStream)}.
+     */
+    public static LZFChunkIndex read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("not an LZF chunk index");
+        }
+        int count = data.readInt();
+        if (count < 0) {
+            throw new IOException("invalid chunk count in LZF chunk index: " + count);
+        }
+        long[] compressed = new long[count + 1];
+        long[] uncompressed = new long[count + 1];
+        for (int i = 0; i <= count; i++) {
+            compressed[i] = data.readLong();
+            uncompressed[i] = data.readLong();
+            if (i > 0 && (compressed[i] <= compressed[i - 1] || uncompressed[i] < uncompressed[i - 1])) {
+                throw new IOException("offsets in LZF chunk index are not ascending at chunk " + i);
+            }
+        }
+        return new LZFChunkIndex(compressed, uncompressed, count);
+    }
+
+    /**
+     * Writes the table, for reading it back with {@link #read(InputStream)} instead
+     * of scanning the file again. The stream is not closed.
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(chunkCount);
+        for (int i = 0; i <= chunkCount; i++) {
+            data.writeLong(compressedOffsets[i]);
+            data.writeLong(uncompressedOffsets[i]);
+        }
+        data.flush();
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    public long getCompressedSize() {
+        return compressedOffsets[chunkCount];
+    }
+
+    public long getUncompressedSize() {
+        return uncompressedOffsets[chunkCount];
+    }
+
+    /**
+     * @return offset of the chunk header in the LZF file
+     */
+    public long getCompressedOffset(int chunk) {
+        return compressedOffsets[checkChunk(chunk)];
+    }
+
+    public int getCompressedLength(int chunk) {
+        return (int) (compressedOffsets[checkChunk(chunk) + 1] - compressedOffsets[chunk]);
+    }
+
+    /**
+     * @return offset of the first byte of the chunk in the uncompressed data
+     */
+    public long getUncompressedOffset(int chunk) {
+        return uncompressedOffsets[checkChunk(chunk)];
+    }
+
+    public int getUncompressedLength(int chunk) {
+        return (int) (uncompressedOffsets[checkChunk(chunk) + 1] - uncompressedOffsets[chunk]);
+    }
+
+    /**
+     * Finds the chunk that holds the byte at an uncompressed position.
+     *
+     * @return the chunk, or the chunk count if the position is at or past the end
+     */
+    public int findChunk(long uncompressedPos) {
+        if (uncompressedPos < 0) {
+            throw new IllegalArgumentException("negative position: " + uncompressedPos);
+        }
+        if (uncompressedPos >= getUncompressedSize()) {
+            return chunkCount;
+        }
+        int i = Arrays.binarySearch(uncompressedOffsets, 0, chunkCount + 1, uncompressedPos);
+        if (i < 0) {
+            return -i - 2;
+        }
+        // skip empty chunks that start at the same position
+        while (uncompressedOffsets[i + 1] == uncompressedPos) {
+            i++;
+        }
+        return i;
+    }
+
+    private int checkChunk(int chunk) {
+        if (chunk < 0 || chunk >= chunkCount) {
+            throw new IndexOutOfBoundsException("chunk " + chunk + " of " + chunkCount);
+        }
+        return chunk;
+    }
+}
@@ -38,6 +38,18 @@ public class LZFEncoder {
         return result;
     }
 
+    /**
+     * Method for compressing given input data using LZF encoding and block
+     * structure (compatible with lzf command line utility), with the given
+     * encoding mode. Result consists of a sequence of chunks.
+     */
+    public static byte[] encode(byte[] data, int offset, int length, LZFEncodingMode mode) throws IOException {
+        ChunkEncoder enc = new ChunkEncoder(length, mode);
+        byte[] result = encode(enc, data, offset, length);
+        enc.close();
+        return result;
+    }
+
     public static byte[] encode(ChunkEncoder enc, byte[] data, int length)
             throws IOException {
         return encode(enc, data, 0, length);
@@ -0,0 +1,21 @@
+package org.xbib.io.compress.lzf;
+
+/**
+ * How hard a {@link ChunkEncoder} searches for matches. Both modes write the same
+ * LZF format, any {@link ChunkDecoder} reads the output of either.
+ */
+public enum LZFEncodingMode {
+
+    /**
+     * One candidate per hash bucket, the most recent string with the same hash.
+     * Only the last two strings of a match are inserted in the hash table.
+     */
+    FAST,
+
+    /**
+     * A chain of candidates per hash bucket, all strings of the 8 KiB window with
+     * the same hash, of which the longest match is taken. All strings are inserted.
+     * Compresses better, at a fraction of the speed of {@link #FAST}.
+     */
+    HIGH_COMPRESSION
+}
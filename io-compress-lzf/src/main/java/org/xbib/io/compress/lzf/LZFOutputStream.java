@@ -34,8 +34,16 @@ public class LZFOutputStream extends OutputStream {
         this(outputStream, LZFChunk.MAX_CHUNK_LEN);
     }
 
+    public LZFOutputStream(final OutputStream outputStream, LZFEncodingMode mode) {
+        this(outputStream, LZFChunk.MAX_CHUNK_LEN, mode);
+    }
+
     public LZFOutputStream(final OutputStream outputStream, int bufsize) {
-        _encoder = new ChunkEncoder(bufsize);
+        this(outputStream, bufsize, LZFEncodingMode.FAST);
+    }
+
+    public LZFOutputStream(final OutputStream outputStream, int bufsize, LZFEncodingMode mode) {
+        _encoder = new ChunkEncoder(bufsize, mode);
         _recycler = BufferRecycler.instance();
         _outputStream = outputStream;
         _outputBuffer = _recycler.allocOutputBuffer(bufsize);
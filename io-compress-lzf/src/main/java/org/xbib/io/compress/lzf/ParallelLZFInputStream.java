@@ -0,0 +1,299 @@
+package org.xbib.io.compress.lzf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decorator {@link java.io.InputStream} like {@link LZFInputStream}, but the chunks
+ * are decoded in parallel.
+ *
+ * The chunks are read ahead from the underlying stream. The chunk headers give the length
+ * of each chunk, so a chunk is found without decoding the chunks before it. Compressed chunks
+ * are handed to a pool of workers, uncompressed chunks are used as they are. The decoded
+ * bytes are returned strictly in the order of the chunks in the stream.
+ *
+ * At most <code>maxChunksInFlight</code> chunks are read ahead. This bounds the memory
+ * to about <code>2 * 64 KiB * maxChunksInFlight</code>.
+ *
+ * Like {@link LZFInputStream}, this class is not thread safe.
+ */
+public class ParallelLZFInputStream extends InputStream {
+
+    private static final AtomicInteger poolCounter = new AtomicInteger();
+
+    private static final int INPUT_BUFFER_LEN = LZFChunk.MAX_CHUNK_LEN + LZFChunk.MAX_HEADER_LEN;
+
+    private final InputStream inputStream;
+    private final ChunkDecoder decoder;
+    private final ExecutorService executor;
+    private final boolean shutdownExecutor;
+    private final int maxChunksInFlight;
+    private final ArrayDeque<Future<DecodedChunk>> chunksInFlight;
+    private final ArrayDeque<byte[]> inputBuffers;
+    private final ArrayDeque<byte[]> decodedBuffers;
+    private DecodedChunk current;
+    private int bufferPosition = 0;
+    private boolean endReached = false;
+    private boolean closed = false;
+
+    /**
+     * Uses one worker per available processor.
+     * @param inputStream input stream with the LZF chunks
+     */
+    public ParallelLZFInputStream(final InputStream inputStream) {
+        this(inputStream, Runtime.getRuntime().availableProcessors(), 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates the input stream with its own pool of worker threads.
+     * @param inputStream input stream with the LZF chunks
+     * @param threads number of worker threads
+     * @param maxChunksInFlight maximum number of chunks that are read ahead
+     */
+    public ParallelLZFInputStream(final InputStream inputStream, final int threads, final int maxChunksInFlight) {
+        this(inputStream, createExecutor(threads), true, maxChunksInFlight);
+    }
+
+    /**
+     * Creates the input stream with workers from a shared executor. The executor is not shut down on close.
+     * @param inputStream input stream with the LZF chunks
+     * @param executor the executor for decoding the chunks
+     * @param maxChunksInFlight maximum number of chunks that are read ahead
+     */
+    public ParallelLZFInputStream(final InputStream inputStream, final ExecutorService executor,
+                                  final int maxChunksInFlight) {
+        this(inputStream, executor, false, maxChunksInFlight);
+    }
+
+    private ParallelLZFInputStream(final InputStream inputStream, final ExecutorService executor,
+                                   final boolean shutdownExecutor, final int maxChunksInFlight) {
+        if (maxChunksInFlight < 1) {
+            throw new IllegalArgumentException("maxChunksInFlight must be positive: " + maxChunksInFlight);
+        }
+        this.inputStream = inputStream;
+        this.decoder = ChunkDecoderFactory.optimalInstance();
+        this.executor = executor;
+        this.shutdownExecutor = shutdownExecutor;
+        this.maxChunksInFlight = maxChunksInFlight;
+        this.chunksInFlight = new ArrayDeque<>(maxChunksInFlight);
+        this.inputBuffers = new ArrayDeque<>(maxChunksInFlight);
+        this.decodedBuffers = new ArrayDeque<>(maxChunksInFlight);
+    }
+
+    /**
+     * Returns the number of decoded bytes that can be read without waiting for
+     * the next chunk.
+     */
+    @Override
+    public int available() {
+        if (closed || current == null) {
+            return 0;
+        }
+        return current.length - bufferPosition;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!readyChunk()) {
+            return -1;
+        }
+        return current.data[current.offset + bufferPosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!readyChunk()) {
+            return -1;
+        }
+        int n = Math.min(length, current.length - bufferPosition);
+        System.arraycopy(current.data, current.offset + bufferPosition, buffer, offset, n);
+        bufferPosition += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            release();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    public InputStream getUnderlyingInputStream() {
+        return inputStream;
+    }
+
+    /**
+     * Makes sure that the current chunk has bytes left, by taking the next decoded chunk,
+     * after reading ahead as many chunks as allowed.
+     *
+     * @return false at the end of the stream
+     */
+    private boolean readyChunk() throws IOException {
+        if (closed) {
+            throw new IOException(getClass().getName() + " already closed");
+        }
+        while (current == null || bufferPosition >= current.length) {
+            if (current != null) {
+                inputBuffers.push(current.input);
+                if (current.decoded != null) {
+                    decodedBuffers.push(current.decoded);
+                }
+                current = null;
+            }
+            while (!endReached && chunksInFlight.size() < maxChunksInFlight) {
+                endReached = !submitChunk();
+            }
+            if (chunksInFlight.isEmpty()) {
+                return false;
+            }
+            current = takeNextChunk();
+            bufferPosition = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the next chunk from the underlying stream, and hands it to a worker if it is compressed.
+     *
+     * @return false at the end of the underlying stream
+     */
+    private boolean submitChunk() throws IOException {
+        byte[] input = inputBuffers.isEmpty() ? new byte[INPUT_BUFFER_LEN] : inputBuffers.pop();
+        int bytesRead = ChunkDecoder.readHeader(inputStream, input);
+        if (bytesRead < ChunkDecoder.HEADER_BYTES
+                || input[0] != LZFChunk.BYTE_Z || input[1] != LZFChunk.BYTE_V) {
+            inputBuffers.push(input);
+            if (bytesRead == 0) { // probably fine, clean EOF
+                return false;
+            }
+            throw new IOException("Corrupt input data, block did not start with 2 byte signature ('ZV') followed by type byte, 2-byte length)");
+        }
+        int type = input[2];
+        int compLen = ChunkDecoder.uint16(input, 3);
+        if (type == LZFChunk.BLOCK_TYPE_NON_COMPRESSED) {
+            ChunkDecoder.readFully(inputStream, false, input, ChunkDecoder.HEADER_BYTES, compLen);
+            chunksInFlight.add(CompletableFuture.completedFuture(
+                    new DecodedChunk(input, null, input, ChunkDecoder.HEADER_BYTES, compLen)));
+        } else {
+            // first 2 bytes are uncompressed length
+            ChunkDecoder.readFully(inputStream, true, input, ChunkDecoder.HEADER_BYTES, 2 + compLen);
+            int uncompLen = ChunkDecoder.uint16(input, ChunkDecoder.HEADER_BYTES);
+            byte[] decoded = decodedBuffers.isEmpty() ? new byte[LZFChunk.MAX_CHUNK_LEN] : decodedBuffers.pop();
+            chunksInFlight.add(executor.submit(new DecodeTask(input, decoded, uncompLen)));
+        }
+        return true;
+    }
+
+    /**
+     * Waits for the oldest chunk in flight.
+     */
+    private DecodedChunk takeNextChunk() throws IOException {
+        final DecodedChunk chunk;
+        try {
+            chunk = chunksInFlight.peek().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while decoding LZF chunk");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        chunksInFlight.remove();
+        return chunk;
+    }
+
+    private void release() {
+        for (Future<DecodedChunk> future : chunksInFlight) {
+            future.cancel(false);
+        }
+        chunksInFlight.clear();
+        if (shutdownExecutor) {
+            executor.shutdown();
+        }
+        current = null;
+        inputBuffers.clear();
+        decodedBuffers.clear();
+    }
+
+    private static ExecutorService createExecutor(final int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        final int pool = poolCounter.incrementAndGet();
+        final AtomicInteger threadCounter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "lzf-decode-" + pool + "-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static class DecodedChunk {
+
+        private final byte[] input;
+
+        private final byte[] decoded;
+
+        private final byte[] data;
+
+        private final int offset;
+
+        private final int length;
+
+        private DecodedChunk(final byte[] input, final byte[] decoded, final byte[] data,
+                             final int offset, final int length) {
+            this.input = input;
+            this.decoded = decoded;
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Decodes one compressed chunk. The decoder has no state, all workers share it.
+     */
+    private class DecodeTask implements Callable<DecodedChunk> {
+
+        private final byte[] input;
+
+        private final byte[] decoded;
+
+        private final int length;
+
+        private DecodeTask(final byte[] input, final byte[] decoded, final int length) {
+            this.input = input;
+            this.decoded = decoded;
+            this.length = length;
+        }
+
+        @Override
+        public DecodedChunk call() throws IOException {
+            decoder.decodeChunk(input, LZFChunk.MAX_HEADER_LEN, decoded, 0, length);
+            return new DecodedChunk(input, decoded, decoded, 0, length);
+        }
+    }
+}
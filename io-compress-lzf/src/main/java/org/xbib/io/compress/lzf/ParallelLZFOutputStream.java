@@ -0,0 +1,359 @@
+package org.xbib.io.compress.lzf;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decorator {@link java.io.OutputStream} like {@link LZFOutputStream}, but the chunks
+ * are encoded in parallel.
+ *
+ * Filled chunks of 64 KiB are handed to a pool of workers. Each running worker takes a
+ * {@link ChunkEncoder} from a pool of this stream, so there are never more encoders than
+ * concurrently running workers. The encoders move between the worker threads, so they keep
+ * their hash tables until the stream is closed and do not return them to the thread local
+ * {@link BufferRecycler}, which belongs to the thread that created the encoder. The chunk
+ * buffers are only used by the writing thread and the worker of a chunk; the first ones come
+ * from the recycler of the writing thread, and the ones not in flight go back to it on close.
+ *
+ * The encoded chunks are written to the underlying stream strictly in the order in which they
+ * were filled, so the chunk boundaries are the same as those of {@link LZFOutputStream}, and any
+ * {@link LZFInputStream} or {@link LZFDecoder} reads the output.
+ *
+ * At most <code>maxChunksInFlight</code> chunks are waiting for encoding or for being written.
+ * If this limit is reached, writing blocks the caller until the oldest chunk is encoded and
+ * written. This bounds the memory to about <code>2 * 64 KiB * maxChunksInFlight</code>.
+ *
+ * Like {@link LZFOutputStream}, this class is not thread safe, and close() must be called
+ * when done writing in order to force the last chunk to be written.
+ */
+public class ParallelLZFOutputStream extends OutputStream {
+
+    private static final AtomicInteger poolCounter = new AtomicInteger();
+
+    private static final int CHUNK_LEN = LZFChunk.MAX_CHUNK_LEN;
+
+    /**
+     * Worst case length of an encoded chunk: a length indicator for each 32 literals,
+     * and the header.
+     */
+    private static final int ENCODED_CHUNK_LEN = CHUNK_LEN + ((CHUNK_LEN + 31) >> 5) + LZFChunk.MAX_HEADER_LEN;
+
+    private final OutputStream outputStream;
+    private final LZFEncodingMode mode;
+    private final ExecutorService executor;
+    private final boolean shutdownExecutor;
+    private final int maxChunksInFlight;
+    private final ArrayDeque<Future<EncodedChunk>> chunksInFlight;
+    private final ArrayDeque<byte[]> uncompressedBuffers;
+    private final ArrayDeque<byte[]> encodedBuffers;
+    private final Queue<ChunkEncoder> encoders;
+    private final BufferRecycler recycler;
+    private byte[] uncompressedBuffer;
+    private int position = 0;
+    private boolean finishBlockOnFlush = true;
+    private boolean closed = false;
+
+    /**
+     * Uses {@link LZFEncodingMode#FAST}, and one worker per available processor.
+     * @param outputStream output stream to write the encoded chunks to
+     */
+    public ParallelLZFOutputStream(final OutputStream outputStream) {
+        this(outputStream, LZFEncodingMode.FAST,
+                Runtime.getRuntime().availableProcessors(), 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates the output stream with its own pool of worker threads.
+     * @param outputStream output stream to write the encoded chunks to
+     * @param mode how hard the encoders search for matches
+     * @param threads number of worker threads
+     * @param maxChunksInFlight maximum number of filled chunks that are encoded or waiting to be written
+     */
+    public ParallelLZFOutputStream(final OutputStream outputStream, final LZFEncodingMode mode,
+                                   final int threads, final int maxChunksInFlight) {
+        this(outputStream, mode, createExecutor(threads), true, maxChunksInFlight);
+    }
+
+    /**
+     * Creates the output stream with workers from a shared executor. The executor is not shut down on close.
+     * @param outputStream output stream to write the encoded chunks to
+     * @param mode how hard the encoders search for matches
+     * @param executor the executor for encoding the chunks
+     * @param maxChunksInFlight maximum number of filled chunks that are encoded or waiting to be written
+     */
+    public ParallelLZFOutputStream(final OutputStream outputStream, final LZFEncodingMode mode,
+                                   final ExecutorService executor, final int maxChunksInFlight) {
+        this(outputStream, mode, executor, false, maxChunksInFlight);
+    }
+
+    private ParallelLZFOutputStream(final OutputStream outputStream, final LZFEncodingMode mode,
+                                    final ExecutorService executor, final boolean shutdownExecutor,
+                                    final int maxChunksInFlight) {
+        if (maxChunksInFlight < 1) {
+            throw new IllegalArgumentException("maxChunksInFlight must be positive: " + maxChunksInFlight);
+        }
+        this.outputStream = outputStream;
+        this.mode = mode;
+        this.executor = executor;
+        this.shutdownExecutor = shutdownExecutor;
+        this.maxChunksInFlight = maxChunksInFlight;
+        this.chunksInFlight = new ArrayDeque<>(maxChunksInFlight);
+        this.uncompressedBuffers = new ArrayDeque<>(maxChunksInFlight);
+        this.encodedBuffers = new ArrayDeque<>(maxChunksInFlight);
+        this.encoders = new ConcurrentLinkedQueue<>();
+        this.recycler = BufferRecycler.instance();
+        this.uncompressedBuffer = recycler.allocInputBuffer(CHUNK_LEN);
+    }
+
+    /**
+     * Method for defining whether call to {@link #flush} will also complete
+     * current block (similar to calling {@link #finishBlock()}) or not.
+     */
+    public ParallelLZFOutputStream setFinishBlockOnFlush(boolean b) {
+        finishBlockOnFlush = b;
+        return this;
+    }
+
+    /**
+     * Accessor for checking whether call to "flush()" will first finish the
+     * current block or not
+     */
+    public boolean getFinishBlockOnFlush() {
+        return finishBlockOnFlush;
+    }
+
+    /**
+     * Method that can be used to find underlying {@link java.io.OutputStream} that we
+     * write encoded LZF encoded data into.
+     */
+    public OutputStream getUnderlyingOutputStream() {
+        return outputStream;
+    }
+
+    @Override
+    public void write(final int singleByte) throws IOException {
+        checkNotClosed();
+        uncompressedBuffer[position++] = (byte) singleByte;
+        if (position == CHUNK_LEN) {
+            submitChunk();
+        }
+    }
+
+    @Override
+    public void write(final byte[] buffer, int offset, int length) throws IOException {
+        checkNotClosed();
+        while (length > 0) {
+            final int bytesToWrite = Math.min(CHUNK_LEN - position, length);
+            System.arraycopy(buffer, offset, uncompressedBuffer, position, bytesToWrite);
+            position += bytesToWrite;
+            offset += bytesToWrite;
+            length -= bytesToWrite;
+            if (position == CHUNK_LEN) {
+                submitChunk();
+            }
+        }
+    }
+
+    /**
+     * Writes all chunks in flight, after the current block if {@link #getFinishBlockOnFlush()}
+     * is set, and flushes the underlying stream.
+     */
+    @Override
+    public void flush() throws IOException {
+        checkNotClosed();
+        if (finishBlockOnFlush) {
+            submitChunk();
+        }
+        writeAllChunks();
+        outputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        Throwable failure = null;
+        try {
+            submitChunk();
+            writeAllChunks();
+            outputStream.flush();
+        } catch (Throwable t) {
+            failure = t;
+            throw t;
+        } finally {
+            closed = true;
+            release();
+            if (failure == null) {
+                outputStream.close();
+            } else {
+                try {
+                    outputStream.close();
+                } catch (IOException e) {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Method that can be used to force completion of the current block, which
+     * means that all buffered data will be compressed into an LZF block. When
+     * it returns, the block and all blocks before are written to the underlying stream.
+     */
+    public ParallelLZFOutputStream finishBlock() throws IOException {
+        checkNotClosed();
+        submitChunk();
+        writeAllChunks();
+        return this;
+    }
+
+    /**
+     * Hands the uncompressed buffer to a worker, and writes the chunks that are already encoded.
+     * If too many chunks are in flight, wait for the oldest chunk.
+     */
+    private void submitChunk() throws IOException {
+        if (position == 0) {
+            return;
+        }
+        while (chunksInFlight.size() >= maxChunksInFlight) {
+            writeNextChunk();
+        }
+        final byte[] encodedBuffer = encodedBuffers.isEmpty() ?
+                recycler.allocOutputBuffer(ENCODED_CHUNK_LEN) : encodedBuffers.pop();
+        chunksInFlight.add(executor.submit(new EncodeTask(uncompressedBuffer, position, encodedBuffer)));
+        uncompressedBuffer = uncompressedBuffers.isEmpty() ?
+                recycler.allocInputBuffer(CHUNK_LEN) : uncompressedBuffers.pop();
+        position = 0;
+        while (!chunksInFlight.isEmpty() && chunksInFlight.peek().isDone()) {
+            writeNextChunk();
+        }
+    }
+
+    private void writeAllChunks() throws IOException {
+        while (!chunksInFlight.isEmpty()) {
+            writeNextChunk();
+        }
+    }
+
+    /**
+     * Waits for the oldest chunk in flight, writes it and recycles its buffers.
+     */
+    private void writeNextChunk() throws IOException {
+        final EncodedChunk chunk;
+        try {
+            chunk = chunksInFlight.peek().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while encoding LZF chunk");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        chunksInFlight.remove();
+        outputStream.write(chunk.encoded, 0, chunk.size);
+        uncompressedBuffers.push(chunk.uncompressed);
+        encodedBuffers.push(chunk.encoded);
+    }
+
+    private void release() {
+        for (Future<EncodedChunk> future : chunksInFlight) {
+            future.cancel(false);
+        }
+        chunksInFlight.clear();
+        if (shutdownExecutor) {
+            executor.shutdown();
+        }
+        // the encoders are not closed here: closing would put their hash tables into the
+        // thread local recycler of this thread, not of the worker that took them
+        encoders.clear();
+        // cancelled chunks may still be encoded, so only the buffers that are not in flight
+        // are recycled
+        recycler.releaseInputBuffer(uncompressedBuffer);
+        recycler.releaseOutputBuffer(encodedBuffers.peek());
+        uncompressedBuffers.clear();
+        encodedBuffers.clear();
+    }
+
+    private void checkNotClosed() throws IOException {
+        if (closed) {
+            throw new IOException(getClass().getName() + " already closed");
+        }
+    }
+
+    private static ExecutorService createExecutor(final int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        final int pool = poolCounter.incrementAndGet();
+        final AtomicInteger threadCounter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "lzf-encode-" + pool + "-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static class EncodedChunk {
+
+        private final byte[] uncompressed;
+
+        private final byte[] encoded;
+
+        private final int size;
+
+        private EncodedChunk(final byte[] uncompressed, final byte[] encoded, final int size) {
+            this.uncompressed = uncompressed;
+            this.encoded = encoded;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Encodes one chunk with an encoder from the pool. There are never more encoders than
+     * concurrently running tasks.
+     */
+    private class EncodeTask implements Callable<EncodedChunk> {
+
+        private final byte[] uncompressed;
+
+        private final int length;
+
+        private final byte[] encoded;
+
+        private EncodeTask(final byte[] uncompressed, final int length, final byte[] encoded) {
+            this.uncompressed = uncompressed;
+            this.length = length;
+            this.encoded = encoded;
+        }
+
+        @Override
+        public EncodedChunk call() throws IOException {
+            ChunkEncoder encoder = encoders.poll();
+            if (encoder == null) {
+                encoder = ChunkEncoder.nonAllocatingEncoder(CHUNK_LEN, mode);
+            }
+            try {
+                return new EncodedChunk(uncompressed, encoded,
+                        encoder.appendEncodedChunk(uncompressed, 0, length, encoded, 0));
+            } finally {
+                encoders.add(encoder);
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package org.xbib.io.compress.lzf;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Decompresses an LZF file in random access mode. The chunks are located with a
+ * {@link LZFChunkIndex}, which is built from the chunk headers when the stream is
+ * created, or read from a sidecar file. A {@link #seek(long)} only locates the chunk
+ * that contains the target position, and decoding starts from the beginning of that
+ * chunk, which is at most 64 KiB before the target.
+ * <pre>
+ * SeekableByteChannel channel = Files.newByteChannel(path);
+ * SeekableLZFInputStream in = new SeekableLZFInputStream(channel);
+ * in.seek(123456789);
+ * </pre>
+ * Like {@link LZFInputStream}, this class is not thread safe.
+ */
+public class SeekableLZFInputStream extends InputStream {
+
+    private final SeekableByteChannel channel;
+
+    private final LZFChunkIndex index;
+
+    private final ChunkDecoder decoder;
+
+    private final BufferRecycler recycler;
+
+    private byte[] inputBuffer;
+
+    private byte[] decodedBytes;
+
+    /**
+     * The chunk in the decoded buffer, or -1.
+     */
+    private int chunk = -1;
+
+    private long position = 0L;
+
+    private boolean closed;
+
+    /**
+     * Scans the chunk headers of the channel to build the chunk index.
+     *
+     * @param channel channel with the LZF file
+     */
+    public SeekableLZFInputStream(SeekableByteChannel channel) throws IOException {
+        this(channel, LZFChunkIndex.scan(channel));
+    }
+
+    /**
+     * @param channel channel with the LZF file
+     * @param index   chunk index of the file, e.g. read from a sidecar file
+     */
+    public SeekableLZFInputStream(SeekableByteChannel channel, LZFChunkIndex index) {
+        this(channel, index, ChunkDecoderFactory.optimalInstance());
+    }
+
+    public SeekableLZFInputStream(SeekableByteChannel channel, LZFChunkIndex index, ChunkDecoder decoder) {
+        this.channel = channel;
+        this.index = index;
+        this.decoder = decoder;
+        this.recycler = BufferRecycler.instance();
+        this.inputBuffer = recycler.allocInputBuffer(LZFChunk.MAX_CHUNK_LEN + LZFChunk.MAX_HEADER_LEN);
+        this.decodedBytes = recycler.allocDecodeBuffer(LZFChunk.MAX_CHUNK_LEN);
+    }
+
+    public LZFChunkIndex getChunkIndex() {
+        return index;
+    }
+
+    /**
+     * @return the uncompressed size
+     */
+    public long length() {
+        return index.getUncompressedSize();
+    }
+
+    /**
+     * @return the uncompressed position
+     */
+    public long position() {
+        return position;
+    }
+
+    /**
+     * Seeks to an uncompressed position. Seeking past the end is allowed, reading
+     * there returns -1.
+     *
+     * @param pos new uncompressed position
+     * @throws IOException if the position is negative or the stream is closed
+     */
+    public void seek(long pos) throws IOException {
+        checkNotClosed();
+        if (pos < 0) {
+            throw new IOException("negative seek position: " + pos);
+        }
+        position = pos;
+    }
+
+    @Override
+    public int available() {
+        if (closed || chunk < 0) {
+            return 0;
+        }
+        long start = index.getUncompressedOffset(chunk);
+        long end = start + index.getUncompressedLength(chunk);
+        return position >= start && position < end ? (int) (end - position) : 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int offset = readyChunk();
+        if (offset < 0) {
+            return -1;
+        }
+        position++;
+        return decodedBytes[offset] & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        int total = 0;
+        while (length > 0) {
+            int chunkOffset = readyChunk();
+            if (chunkOffset < 0) {
+                break;
+            }
+            int n = Math.min(length, index.getUncompressedLength(chunk) - chunkOffset);
+            System.arraycopy(decodedBytes, chunkOffset, buffer, offset, n);
+            offset += n;
+            length -= n;
+            total += n;
+            position += n;
+        }
+        return total == 0 ? -1 : total;
+    }
+
+    /**
+     * Skips forward without decoding the skipped chunks. Never skips past the end.
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        checkNotClosed();
+        if (n <= 0 || position >= length()) {
+            return 0L;
+        }
+        n = Math.min(n, length() - position);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            byte[] buf = inputBuffer;
+            if (buf != null) {
+                inputBuffer = null;
+                recycler.releaseInputBuffer(buf);
+            }
+            buf = decodedBytes;
+            if (buf != null) {
+                decodedBytes = null;
+                recycler.releaseDecodeBuffer(buf);
+            }
+            channel.close();
+        }
+    }
+
+    /**
+     * Decodes the chunk at the current position, unless it is already decoded.
+     *
+     * @return offset of the current position in the decoded buffer, or -1 at the end
+     */
+    private int readyChunk() throws IOException {
+        checkNotClosed();
+        if (position >= length()) {
+            return -1;
+        }
+        if (chunk < 0 || position < index.getUncompressedOffset(chunk)
+                || position >= index.getUncompressedOffset(chunk) + index.getUncompressedLength(chunk)) {
+            chunk = -1;
+            int c = index.findChunk(position);
+            decodeChunk(c);
+            chunk = c;
+        }
+        return (int) (position - index.getUncompressedOffset(chunk));
+    }
+
+    private void decodeChunk(int c) throws IOException {
+        int len = index.getCompressedLength(c);
+        if (len > inputBuffer.length) {
+            throw new IOException("Corrupt input data, chunk " + c + " is " + len + " bytes long");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(inputBuffer, 0, len);
+        channel.position(index.getCompressedOffset(c));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("EOF in chunk " + c + ": could only read " + buffer.position()
+                        + " of " + len + " bytes");
+            }
+        }
+        if (inputBuffer[0] != LZFChunk.BYTE_Z || inputBuffer[1] != LZFChunk.BYTE_V) {
+            throw new IOException("Corrupt input data, block did not start with 2 byte signature ('ZV') followed by type byte, 2-byte length)");
+        }
+        int uncompLen = index.getUncompressedLength(c);
+        if (inputBuffer[2] == LZFChunk.BLOCK_TYPE_NON_COMPRESSED) {
+            System.arraycopy(inputBuffer, ChunkDecoder.HEADER_BYTES, decodedBytes, 0, uncompLen);
+        } else {
+            decoder.decodeChunk(inputBuffer, LZFChunk.MAX_HEADER_LEN, decodedBytes, 0, uncompLen);
+        }
+    }
+
+    private void checkNotClosed() throws IOException {
+        if (closed) {
+            throw new IOException(getClass().getName() + " already closed");
+        }
+    }
+}
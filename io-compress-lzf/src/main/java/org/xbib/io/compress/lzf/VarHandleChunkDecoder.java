@@ -0,0 +1,117 @@
+package org.xbib.io.compress.lzf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * {@link ChunkDecoder} implementation that copies literal runs and back references
+ * 8 bytes at a time, through byte array view {@link VarHandle}s. The JIT compiles
+ * these accesses to single loads and stores.
+ *
+ * Copies are rounded up to whole words, so they may write up to 7 bytes past
+ * their end. This is only done where those bytes lie before the end of the chunk,
+ * where later copies overwrite them. Near the end of a chunk, bytes are copied one
+ * at a time. A back reference with an offset below 8 repeats a short pattern, and
+ * a word copy at that offset would read bytes that are not written yet. Its first
+ * bytes are copied one at a time, until the pattern also repeats at a multiple of
+ * the offset of at least 8, and the rest is copied in words from there.
+ */
+public class VarHandleChunkDecoder extends ChunkDecoder {
+
+    private static final VarHandle LONG_LE =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    public VarHandleChunkDecoder() {
+    }
+
+    @Override
+    public final int decodeChunk(final InputStream is, final byte[] inputBuffer, final byte[] outputBuffer)
+            throws IOException {
+        int bytesInOutput;
+        int bytesRead = readHeader(is, inputBuffer);
+        if ((bytesRead < HEADER_BYTES)
+                || inputBuffer[0] != LZFChunk.BYTE_Z || inputBuffer[1] != LZFChunk.BYTE_V) {
+            if (bytesRead == 0) { // probably fine, clean EOF
+                return -1;
+            }
+            throw new IOException("Corrupt input data, block did not start with 2 byte signature ('ZV') followed by type byte, 2-byte length)");
+        }
+        int type = inputBuffer[2];
+        int compLen = uint16(inputBuffer, 3);
+        if (type == LZFChunk.BLOCK_TYPE_NON_COMPRESSED) { // uncompressed
+            readFully(is, false, outputBuffer, 0, compLen);
+            bytesInOutput = compLen;
+        } else { // compressed
+            readFully(is, true, inputBuffer, 0, 2 + compLen); // first 2 bytes are uncompressed length
+            int uncompLen = uint16(inputBuffer, 0);
+            decodeChunk(inputBuffer, 2, outputBuffer, 0, uncompLen);
+            bytesInOutput = uncompLen;
+        }
+        return bytesInOutput;
+    }
+
+    @Override
+    public final void decodeChunk(byte[] in, int inPos, byte[] out, int outPos, int outEnd)
+            throws IOException {
+        final int inEnd = in.length;
+        do {
+            int ctrl = in[inPos++] & 255;
+            if (ctrl < LZFChunk.MAX_LITERAL) { // literal run of ctrl + 1 bytes
+                int len = ctrl + 1;
+                if (outPos + len + 7 <= outEnd && inPos + len + 7 <= inEnd) {
+                    for (int i = 0; i < len; i += 8) {
+                        LONG_LE.set(out, outPos + i, (long) LONG_LE.get(in, inPos + i));
+                    }
+                } else {
+                    System.arraycopy(in, inPos, out, outPos, len);
+                }
+                inPos += len;
+                outPos += len;
+                continue;
+            }
+            // back reference
+            int len = ctrl >> 5;
+            int offset = ((ctrl & 0x1f) << 8) + 1;
+            if (len < 7) { // 2 bytes; length of 3 - 8 bytes
+                len += 2;
+            } else { // long version (3 bytes, length of up to 264 bytes)
+                len = (in[inPos++] & 255) + 9;
+            }
+            offset += in[inPos++] & 255;
+            int src = outPos - offset;
+            final int end = outPos + len;
+            if (end + 7 <= outEnd) {
+                if (offset < 8) {
+                    int distance = offset;
+                    while (distance < 8) {
+                        distance += offset;
+                    }
+                    int stop = Math.min(end, outPos + distance - offset);
+                    while (outPos < stop) {
+                        out[outPos++] = out[src++];
+                    }
+                    src = outPos - distance;
+                }
+                // each word is read from bytes written before, even if source and target overlap
+                while (outPos < end) {
+                    LONG_LE.set(out, outPos, (long) LONG_LE.get(out, src));
+                    outPos += 8;
+                    src += 8;
+                }
+                outPos = end;
+            } else {
+                while (outPos < end) {
+                    out[outPos++] = out[src++];
+                }
+            }
+        } while (outPos < outEnd);
+
+        // sanity check to guard against corrupt data:
+        if (outPos != outEnd) {
+            throw new IOException("Corrupt data: overrun in decompress, input offset " + inPos + ", output offset " + outPos);
+        }
+    }
+}
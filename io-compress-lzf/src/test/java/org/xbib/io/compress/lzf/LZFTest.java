@@ -1,11 +1,21 @@
 package org.xbib.io.compress.lzf;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.Test;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
 
 public class LZFTest {
 
@@ -22,4 +32,205 @@ public class LZFTest {
         ObjectInputStream objIn = new ObjectInputStream(zIn);
         assertEquals("Hello World!", objIn.readObject());
     }
+
+    @Test
+    public void testVarHandleChunkDecoder() throws Exception {
+        // periodic data with all offsets from 1 to 16, and a random literal now and then
+        Random random = new Random(1);
+        byte[] data = new byte[300000];
+        int pos = 0;
+        while (pos < data.length) {
+            int offset = 1 + random.nextInt(16);
+            int end = Math.min(data.length, pos + random.nextInt(600));
+            for (; pos < end; pos++) {
+                data[pos] = pos < offset || random.nextInt(40) == 0 ?
+                        (byte) random.nextInt() : data[pos - offset];
+            }
+        }
+        byte[] encoded = LZFEncoder.encode(data);
+        byte[] expected = new byte[data.length + 8];
+        byte[] actual = new byte[data.length + 8];
+        Arrays.fill(expected, (byte) -1);
+        Arrays.fill(actual, (byte) -1);
+        assertEquals(data.length, new VanillaChunkDecoder().decode(encoded, expected));
+        assertEquals(data.length, new VarHandleChunkDecoder().decode(encoded, actual));
+        assertArrayEquals(expected, actual);
+        assertArrayEquals(data, Arrays.copyOf(actual, data.length));
+        assertTrue(ChunkDecoderFactory.optimalInstance() instanceof VarHandleChunkDecoder);
+    }
+
+    @Test
+    public void testEncodingModes() throws Exception {
+        // words with repetitions at distances up to the 8k window, and beyond
+        Random random = new Random(1);
+        String[] words = {"chunk", "encoder", "decoder", "literal", "reference", "window", "hash"};
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        while (text.size() < 200000) {
+            text.write(words[random.nextInt(words.length)].getBytes());
+            text.write(random.nextInt(10) == 0 ? '\n' : ' ');
+        }
+        byte[] data = text.toByteArray();
+        byte[] fast = LZFEncoder.encode(data, 0, data.length, LZFEncodingMode.FAST);
+        byte[] high = LZFEncoder.encode(data, 0, data.length, LZFEncodingMode.HIGH_COMPRESSION);
+        assertArrayEquals(data, new VanillaChunkDecoder().decode(fast));
+        assertArrayEquals(data, new VanillaChunkDecoder().decode(high));
+        assertTrue(high.length < fast.length);
+        for (int hashSize : new int[]{1, 4096, 1 << 20}) {
+            ChunkEncoder encoder = new ChunkEncoder(data.length, LZFEncodingMode.HIGH_COMPRESSION, hashSize);
+            byte[] encoded = LZFEncoder.encode(encoder, data, data.length);
+            encoder.close();
+            assertArrayEquals(data, new VanillaChunkDecoder().decode(encoded));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (LZFOutputStream zOut = new LZFOutputStream(out, LZFEncodingMode.HIGH_COMPRESSION)) {
+            zOut.write(data);
+        }
+        assertArrayEquals(data, LZFDecoder.decode(out.toByteArray()));
+    }
+
+    @Test
+    public void testConfiguredHashSizeWithRecycledTable() throws Exception {
+        byte[] data = new byte[50000];
+        Random random = new Random(3);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + random.nextInt(4));
+        }
+        BufferRecycler recycler = BufferRecycler.instance();
+        recycler.allocEncodingHash(1);
+        ChunkEncoder encoder = new ChunkEncoder(data.length, LZFEncodingMode.FAST, 256);
+        byte[] expected = LZFEncoder.encode(encoder, data, data.length);
+        encoder.close();
+        // a larger table in the recycler is taken, and encodes like a table of the configured size
+        recycler.allocEncodingHash(1);
+        recycler.releaseEncodingHash(new int[1 << 16]);
+        encoder = new ChunkEncoder(data.length, LZFEncodingMode.FAST, 256);
+        assertEquals(1, recycler.allocEncodingHash(1).length);
+        assertArrayEquals(expected, LZFEncoder.encode(encoder, data, data.length));
+        encoder.close();
+        assertEquals(1 << 16, recycler.allocEncodingHash(1).length);
+        assertArrayEquals(data, LZFDecoder.decode(expected));
+    }
+
+    @Test
+    public void testParallelOutputStream() throws Exception {
+        Random random = new Random(1);
+        String[] words = {"chunk", "encoder", "decoder", "literal", "reference", "window", "hash"};
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        while (text.size() < 1000000) {
+            text.write(words[random.nextInt(words.length)].getBytes());
+            text.write(random.nextInt(10) == 0 ? '\n' : ' ');
+        }
+        byte[] data = text.toByteArray();
+        for (LZFEncodingMode mode : LZFEncodingMode.values()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (ParallelLZFOutputStream zOut = new ParallelLZFOutputStream(out, mode, 3, 4)) {
+                int pos = 0;
+                while (pos < data.length) {
+                    int len = Math.min(data.length - pos, random.nextInt(100000));
+                    zOut.write(data, pos, len);
+                    pos += len;
+                    if (random.nextInt(4) == 0) {
+                        // the partial chunk and all chunks before are written
+                        zOut.finishBlock();
+                        assertArrayEquals(Arrays.copyOf(data, pos), LZFDecoder.decode(out.toByteArray()));
+                    }
+                    if (pos < data.length) {
+                        zOut.write(data[pos++]);
+                    }
+                }
+            }
+            assertArrayEquals(data, LZFDecoder.decode(out.toByteArray()));
+            try (LZFInputStream zIn = new LZFInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+                ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+                zIn.transferTo(decoded);
+                assertArrayEquals(data, decoded.toByteArray());
+            }
+        }
+    }
+
+    @Test
+    public void testParallelOutputStreamClosesFailingStream() throws Exception {
+        boolean[] closed = new boolean[1];
+        OutputStream failing = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("disk full");
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                throw new IOException("disk full");
+            }
+
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+                throw new IOException("close failed");
+            }
+        };
+        ParallelLZFOutputStream out = new ParallelLZFOutputStream(failing, LZFEncodingMode.FAST, 2, 4);
+        out.write(new byte[1000]);
+        // the last chunk is written on close
+        IOException e = assertThrows(IOException.class, out::close);
+        assertEquals("disk full", e.getMessage());
+        assertEquals("close failed", e.getSuppressed()[0].getMessage());
+        assertTrue(closed[0]);
+    }
+
+    @Test
+    public void testSeekableAndParallelInputStream() throws Exception {
+        Random random = new Random(1);
+        byte[] data = new byte[1000000];
+        for (int i = 0; i < data.length; i++) {
+            // compressible runs and incompressible runs, for both chunk types
+            data[i] = (i / 100000) % 2 == 0 ? (byte) ('a' + random.nextInt(4)) : (byte) random.nextInt();
+        }
+        Path file = Files.createTempFile("lzf", ".lzf");
+        try {
+            try (LZFOutputStream out = new LZFOutputStream(Files.newOutputStream(file))) {
+                out.write(data, 0, 300000);
+                out.finishBlock();
+                out.write(data, 300000, data.length - 300000);
+            }
+            LZFChunkIndex index;
+            try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+                index = LZFChunkIndex.scan(channel);
+            }
+            assertEquals(data.length, index.getUncompressedSize());
+            assertEquals(Files.size(file), index.getCompressedSize());
+            assertEquals(16, index.getChunkCount());
+            ByteArrayOutputStream sidecar = new ByteArrayOutputStream();
+            index.write(sidecar);
+            index = LZFChunkIndex.read(new ByteArrayInputStream(sidecar.toByteArray()));
+            try (SeekableLZFInputStream in = new SeekableLZFInputStream(Files.newByteChannel(file), index)) {
+                assertEquals(data.length, in.length());
+                byte[] buf = new byte[70000];
+                for (int i = 0; i < 100; i++) {
+                    int pos = random.nextInt(data.length + 10);
+                    in.seek(pos);
+                    int n = in.read(buf, 0, random.nextInt(buf.length) + 1);
+                    if (pos >= data.length) {
+                        assertEquals(-1, n);
+                        continue;
+                    }
+                    assertEquals(Math.min(data.length - pos, n), n);
+                    assertArrayEquals(Arrays.copyOfRange(data, pos, pos + n), Arrays.copyOf(buf, n));
+                    assertEquals(pos + n, in.position());
+                    if (pos + n < data.length) {
+                        assertEquals(data[pos + n] & 0xFF, in.read());
+                    }
+                }
+            }
+            byte[] compressed = Files.readAllBytes(file);
+            try (ParallelLZFInputStream in = new ParallelLZFInputStream(new ByteArrayInputStream(compressed), 3, 4)) {
+                ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+                decoded.write(in.read());
+                in.transferTo(decoded);
+                assertEquals(-1, in.read());
+                assertArrayEquals(data, decoded.toByteArray());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
 }
@@ -0,0 +1,364 @@
+package org.xbib.io.compress.xz;
+
+import org.xbib.io.compress.xz.check.Check;
+import org.xbib.io.compress.xz.index.BlockInfo;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decompresses a .xz file with several Blocks using several threads.
+ * The Indexes of all Streams are read first, like
+ * {@link SeekableXZInputStream} does. The compressed Blocks are then read
+ * from the input on the calling thread, and each Block is decompressed
+ * by a worker thread with its own filter chain and dictionary. The
+ * uncompressed Blocks are returned strictly in file order.
+ * This only helps with files that have been compressed into several
+ * Blocks, for example by {@link ParallelXZOutputStream} or by
+ * <code>xz --threads</code>. A file with a single Block is decompressed
+ * by a single worker.
+ * At most <code>maxBlocksInFlight</code> Blocks are decompressed ahead of
+ * the reader. Every Block in flight holds its compressed and uncompressed
+ * data in memory, so the memory usage is bounded by about
+ * <code>maxBlocksInFlight</code> times the largest Block size
+ * (see {@link SeekableXZInputStream#getLargestBlockSize()}) plus the
+ * decoder memory usage of the workers.
+ * Example:
+ * <blockquote><pre>
+ * SeekableInputStream file = new SeekableFileInputStream("foo.xz");
+ * ParallelXZInputStream inxz = new ParallelXZInputStream(file, -1, 4);
+ * </pre></blockquote>
+ *
+ * @see XZInputStream
+ * @see SeekableXZInputStream
+ */
+public class ParallelXZInputStream extends InputStream {
+
+    private static final AtomicInteger poolCounter = new AtomicInteger();
+
+    private SeekableInputStream in;
+
+    private final DataInputStream inData;
+
+    private final List<BlockInfo> blocks;
+
+    private final int memoryLimit;
+
+    private final ExecutorService executor;
+
+    private final boolean shutdownExecutor;
+
+    private final int maxBlocksInFlight;
+
+    private final ArrayDeque<Future<byte[]>> blocksInFlight;
+
+    private int nextBlock = 0;
+
+    private byte[] currentBlock = null;
+
+    private int currentPos = 0;
+
+    private IOException exception = null;
+
+    /**
+     * Creates a new parallel XZ decompressor without a memory usage limit
+     * and with one worker thread per available processor.
+     *
+     * @param in seekable input stream containing one or more XZ Streams
+     * @throws XZFormatException           input is not in the XZ format
+     * @throws CorruptedInputException     XZ data is corrupt or truncated
+     * @throws UnsupportedOptionsException XZ headers seem valid but they specify
+     *                                     options not supported by this implementation
+     * @throws java.io.IOException         may be thrown by <code>in</code>
+     */
+    public ParallelXZInputStream(SeekableInputStream in) throws IOException {
+        this(in, -1, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new parallel XZ decompressor with its own pool of worker threads.
+     *
+     * @param in          seekable input stream containing one or more XZ Streams
+     * @param memoryLimit memory usage limit in kibibytes (KiB) for the Indexes
+     *                    and for each Block decoder, or <code>-1</code> to impose no
+     *                    memory usage limit
+     * @param threads     number of worker threads
+     * @throws XZFormatException           input is not in the XZ format
+     * @throws CorruptedInputException     XZ data is corrupt or truncated
+     * @throws UnsupportedOptionsException XZ headers seem valid but they specify
+     *                                     options not supported by this implementation
+     * @throws MemoryLimitException        the Indexes need more memory than the limit
+     * @throws java.io.IOException         may be thrown by <code>in</code>
+     */
+    public ParallelXZInputStream(SeekableInputStream in, int memoryLimit, int threads)
+            throws IOException {
+        this(in, memoryLimit, createExecutor(threads), true, threads);
+    }
+
+    /**
+     * Creates a new parallel XZ decompressor with workers from a shared executor.
+     * The executor is not shut down when the stream is closed.
+     *
+     * @param in                seekable input stream containing one or more XZ Streams
+     * @param memoryLimit       memory usage limit in kibibytes (KiB) for the Indexes
+     *                          and for each Block decoder, or <code>-1</code> to impose no
+     *                          memory usage limit
+     * @param executor          the executor for decompressing the Blocks
+     * @param maxBlocksInFlight maximum number of Blocks that are decompressed ahead
+     *                          of the reader
+     * @throws XZFormatException           input is not in the XZ format
+     * @throws CorruptedInputException     XZ data is corrupt or truncated
+     * @throws UnsupportedOptionsException XZ headers seem valid but they specify
+     *                                     options not supported by this implementation
+     * @throws MemoryLimitException        the Indexes need more memory than the limit
+     * @throws java.io.IOException         may be thrown by <code>in</code>
+     */
+    public ParallelXZInputStream(SeekableInputStream in, int memoryLimit,
+                                 ExecutorService executor, int maxBlocksInFlight)
+            throws IOException {
+        this(in, memoryLimit, executor, false, maxBlocksInFlight);
+    }
+
+    private ParallelXZInputStream(SeekableInputStream in, int memoryLimit,
+                                  ExecutorService executor, boolean shutdownExecutor,
+                                  int maxBlocksInFlight)
+            throws IOException {
+        if (maxBlocksInFlight < 1) {
+            throw new IllegalArgumentException("maxBlocksInFlight must be positive: "
+                    + maxBlocksInFlight);
+        }
+        // the seekable decoder only serves for reading the Indexes here
+        SeekableXZInputStream indexReader = new SeekableXZInputStream(in, memoryLimit);
+        if (indexReader.getLargestBlockSize() > Integer.MAX_VALUE - 8) {
+            throw new UnsupportedOptionsException("XZ Block is too big for parallel decompression: "
+                    + indexReader.getLargestBlockSize());
+        }
+        this.in = in;
+        this.inData = new DataInputStream(in);
+        this.blocks = indexReader.getBlockInfos();
+        this.memoryLimit = indexReader.getBlockMemoryLimit();
+        this.executor = executor;
+        this.shutdownExecutor = shutdownExecutor;
+        this.maxBlocksInFlight = maxBlocksInFlight;
+        this.blocksInFlight = new ArrayDeque<>(maxBlocksInFlight);
+    }
+
+    /**
+     * Gets the number of Blocks in all Streams of the file.
+     *
+     * @return number of Blocks
+     */
+    public int getBlockCount() {
+        return blocks.size();
+    }
+
+    public int read() throws IOException {
+        byte[] buf = new byte[1];
+        return read(buf, 0, 1) == -1 ? -1 : (buf[0] & 0xFF);
+    }
+
+    /**
+     * Decompresses into an array of bytes.
+     * If <code>len</code> is zero, no bytes are read and <code>0</code>
+     * is returned. Otherwise this will try to decompress <code>len</code>
+     * bytes of uncompressed data. Less than <code>len</code> bytes may
+     * be read only at the end of the file or if an error is detected
+     * after some bytes have already been decompressed. The next call
+     * will then throw the pending exception.
+     *
+     * @param buf target buffer for uncompressed data
+     * @param off start offset in <code>buf</code>
+     * @param len maximum number of uncompressed bytes to read
+     * @return number of bytes read, or <code>-1</code> to indicate
+     * the end of the compressed stream
+     * @throws CorruptedInputException
+     * @throws UnsupportedOptionsException
+     * @throws MemoryLimitException
+     * @throws XZIOException               if the stream has been closed
+     * @throws java.io.IOException         may be thrown by <code>in</code>
+     */
+    public int read(byte[] buf, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len < 0 || off + len > buf.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (in == null) {
+            throw new XZIOException("Stream closed");
+        }
+        if (exception != null) {
+            throw exception;
+        }
+        int size = 0;
+        try {
+            while (len > 0) {
+                if (currentBlock == null || currentPos == currentBlock.length) {
+                    currentBlock = nextBlock();
+                    currentPos = 0;
+                    if (currentBlock == null) {
+                        break;
+                    }
+                }
+                int n = Math.min(currentBlock.length - currentPos, len);
+                System.arraycopy(currentBlock, currentPos, buf, off, n);
+                currentPos += n;
+                size += n;
+                off += n;
+                len -= n;
+            }
+        } catch (IOException e) {
+            if (e instanceof EOFException) {
+                e = new CorruptedInputException();
+            }
+            exception = e;
+            if (size == 0) {
+                throw e;
+            }
+        }
+        return size > 0 ? size : -1;
+    }
+
+    /**
+     * Returns the number of uncompressed bytes of the current Block that
+     * can be read without blocking.
+     */
+    public int available() throws IOException {
+        if (in == null) {
+            throw new XZIOException("Stream closed");
+        }
+        if (exception != null) {
+            throw exception;
+        }
+        return currentBlock == null ? 0 : currentBlock.length - currentPos;
+    }
+
+    /**
+     * Closes the stream and calls <code>in.close()</code>. Blocks that are
+     * decompressed ahead are discarded.
+     * If the stream was already closed, this does nothing.
+     *
+     * @throws java.io.IOException if thrown by <code>in.close()</code>
+     */
+    public void close() throws IOException {
+        if (in != null) {
+            for (Future<byte[]> future : blocksInFlight) {
+                future.cancel(true);
+            }
+            blocksInFlight.clear();
+            currentBlock = null;
+            if (shutdownExecutor) {
+                executor.shutdown();
+            }
+            try {
+                in.close();
+            } finally {
+                in = null;
+            }
+        }
+    }
+
+    /**
+     * Reads compressed Blocks until enough Blocks are in flight, and returns
+     * the oldest decompressed Block, or null at the end of the file.
+     */
+    private byte[] nextBlock() throws IOException {
+        while (blocksInFlight.size() < maxBlocksInFlight && nextBlock < blocks.size()) {
+            BlockInfo info = blocks.get(nextBlock++);
+            byte[] compressed = new byte[(int) ((info.unpaddedSize + 3) & ~3)];
+            in.seek(info.compressedOffset);
+            inData.readFully(compressed);
+            blocksInFlight.add(executor.submit(new DecodeTask(info, compressed)));
+        }
+        if (blocksInFlight.isEmpty()) {
+            return null;
+        }
+        try {
+            return blocksInFlight.remove().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while decompressing XZ Block");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new XZIOException(String.valueOf(e.getCause()));
+        }
+    }
+
+    private static ExecutorService createExecutor(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        int pool = poolCounter.incrementAndGet();
+        AtomicInteger threadCounter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "xz-decode-" + pool + "-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Decompresses one complete Block, including the validation of the
+     * Block Header against the Index and of the integrity check.
+     */
+    private class DecodeTask implements Callable<byte[]> {
+
+        private final long unpaddedSize;
+
+        private final long uncompressedSize;
+
+        private final int checkType;
+
+        private final byte[] compressed;
+
+        private DecodeTask(BlockInfo info, byte[] compressed) {
+            this.unpaddedSize = info.unpaddedSize;
+            this.uncompressedSize = info.uncompressedSize;
+            this.checkType = info.streamFlags.checkType;
+            this.compressed = compressed;
+        }
+
+        @Override
+        public byte[] call() throws IOException {
+            BlockInputStream blockDecoder;
+            try {
+                blockDecoder = new BlockInputStream(new ByteArrayInputStream(compressed),
+                        Check.getInstance(checkType), memoryLimit, unpaddedSize, uncompressedSize);
+            } catch (IndexIndicatorException e) {
+                // The Index says there is a Block here.
+                throw new CorruptedInputException();
+            }
+            byte[] uncompressed = new byte[(int) uncompressedSize];
+            int n = 0;
+            while (n < uncompressed.length) {
+                int ret = blockDecoder.read(uncompressed, n, uncompressed.length - n);
+                if (ret == -1) {
+                    throw new CorruptedInputException();
+                }
+                n += ret;
+            }
+            // verify the end of the Block and the integrity check
+            if (blockDecoder.read() != -1) {
+                throw new CorruptedInputException();
+            }
+            return uncompressed;
+        }
+    }
+}
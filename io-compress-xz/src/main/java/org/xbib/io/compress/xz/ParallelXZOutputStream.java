@@ -0,0 +1,456 @@
+package org.xbib.io.compress.xz;
+
+import org.xbib.io.compress.xz.check.Check;
+import org.xbib.io.compress.xz.common.StreamFlags;
+import org.xbib.io.compress.xz.index.IndexEncoder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compresses into the .xz file format using several threads.
+ * The input is split into Blocks of a fixed uncompressed size, and the
+ * Blocks are compressed independently of each other on a pool of worker
+ * threads, each with its own filter chain. The compressed Blocks are
+ * written in input order, followed by the Index and the Stream Footer, so
+ * the output is a regular single-Stream .xz file that every XZ decoder
+ * can read, and it can be read in random access mode with
+ * {@link SeekableXZInputStream}.
+ * The default Block size is three times the LZMA2 dictionary size, but
+ * at least 1&nbsp;MiB, like <code>xz --threads</code> does.
+ * At most <code>maxBlocksInFlight</code> Blocks are compressed or waiting
+ * to be written at the same time. When the limit is reached, writing
+ * waits for the oldest Block. The memory usage is therefore bounded by
+ * about <code>maxBlocksInFlight</code> times the encoder memory usage and
+ * twice the Block size.
+ * Example with four threads:
+ * <blockquote><pre>
+ * FileOutputStream outfile = new FileOutputStream("foo.xz");
+ * ParallelXZOutputStream outxz = new ParallelXZOutputStream(outfile, new LZMA2Options(), 4);
+ * </pre></blockquote>
+ *
+ * @see XZOutputStream
+ */
+public class ParallelXZOutputStream extends FinishableOutputStream {
+
+    private static final AtomicInteger poolCounter = new AtomicInteger();
+
+    private static final int BLOCK_SIZE_MIN = 1 << 20;
+
+    private OutputStream out;
+
+    private final StreamFlags streamFlags = new StreamFlags();
+
+    private final IndexEncoder index = new IndexEncoder();
+
+    private final FilterEncoder[] filters;
+
+    private final int blockSize;
+
+    private final ExecutorService executor;
+
+    private final boolean shutdownExecutor;
+
+    private final int maxBlocksInFlight;
+
+    private final ArrayDeque<Future<EncodedBlock>> blocksInFlight;
+
+    private final ArrayDeque<byte[]> uncompressedBuffers;
+
+    private final ArrayDeque<ByteArrayOutputStream> compressedBuffers;
+
+    private byte[] uncompressedBuffer;
+
+    private int uncompressedLength = 0;
+
+    private IOException exception = null;
+
+    private boolean finished = false;
+
+    /**
+     * Creates a new parallel XZ compressor using the default LZMA2 options,
+     * CRC64 integrity check and one worker thread per available processor.
+     *
+     * @param out output stream to which the compressed data will be written
+     * @throws java.io.IOException may be thrown from <code>out</code>
+     */
+    public ParallelXZOutputStream(OutputStream out) throws IOException {
+        this(out, new LZMA2Options(), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new parallel XZ compressor using the specified LZMA2 options,
+     * CRC64 integrity check and the given number of worker threads.
+     *
+     * @param out     output stream to which the compressed data will be written
+     * @param options LZMA2 options
+     * @param threads number of worker threads
+     * @throws java.io.IOException may be thrown from <code>out</code>
+     */
+    public ParallelXZOutputStream(OutputStream out, LZMA2Options options, int threads)
+            throws IOException {
+        this(out, new FilterOptions[]{options}, XZ.CHECK_CRC64,
+                getDefaultBlockSize(options), threads);
+    }
+
+    /**
+     * Creates a new parallel XZ compressor with its own pool of worker threads.
+     *
+     * @param out           output stream to which the compressed data will be written
+     * @param filterOptions filter options to use
+     * @param checkType     type of the integrity check, for example
+     *                      <code>XZ.CHECK_CRC64</code>
+     * @param blockSize     uncompressed size of the Blocks
+     * @param threads       number of worker threads
+     * @throws UnsupportedOptionsException invalid filter chain
+     * @throws java.io.IOException         may be thrown from <code>out</code>
+     */
+    public ParallelXZOutputStream(OutputStream out, FilterOptions[] filterOptions,
+                                  int checkType, int blockSize, int threads)
+            throws IOException {
+        this(out, filterOptions, checkType, blockSize, createExecutor(threads), true, threads);
+    }
+
+    /**
+     * Creates a new parallel XZ compressor with workers from a shared executor.
+     * The executor is not shut down when the stream is closed.
+     *
+     * @param out               output stream to which the compressed data will be written
+     * @param filterOptions     filter options to use
+     * @param checkType         type of the integrity check, for example
+     *                          <code>XZ.CHECK_CRC64</code>
+     * @param blockSize         uncompressed size of the Blocks
+     * @param executor          the executor for compressing the Blocks
+     * @param maxBlocksInFlight maximum number of Blocks that are compressed
+     *                          or waiting to be written
+     * @throws UnsupportedOptionsException invalid filter chain
+     * @throws java.io.IOException         may be thrown from <code>out</code>
+     */
+    public ParallelXZOutputStream(OutputStream out, FilterOptions[] filterOptions,
+                                  int checkType, int blockSize,
+                                  ExecutorService executor, int maxBlocksInFlight)
+            throws IOException {
+        this(out, filterOptions, checkType, blockSize, executor, false, maxBlocksInFlight);
+    }
+
+    private ParallelXZOutputStream(OutputStream out, FilterOptions[] filterOptions,
+                                   int checkType, int blockSize,
+                                   ExecutorService executor, boolean shutdownExecutor,
+                                   int maxBlocksInFlight)
+            throws IOException {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize must be positive: " + blockSize);
+        }
+        if (maxBlocksInFlight < 1) {
+            throw new IllegalArgumentException("maxBlocksInFlight must be positive: "
+                    + maxBlocksInFlight);
+        }
+        if (filterOptions.length < 1 || filterOptions.length > 4) {
+            throw new UnsupportedOptionsException(
+                    "XZ filter chain must be 1-4 filters");
+        }
+        FilterEncoder[] newFilters = new FilterEncoder[filterOptions.length];
+        for (int i = 0; i < filterOptions.length; ++i) {
+            newFilters[i] = filterOptions[i].getFilterEncoder();
+        }
+        RawCoder.validate(newFilters);
+        // fail early on an unsupported check type
+        Check.getInstance(checkType);
+        this.out = out;
+        this.filters = newFilters;
+        this.blockSize = blockSize;
+        this.executor = executor;
+        this.shutdownExecutor = shutdownExecutor;
+        this.maxBlocksInFlight = maxBlocksInFlight;
+        this.blocksInFlight = new ArrayDeque<>(maxBlocksInFlight);
+        this.uncompressedBuffers = new ArrayDeque<>(maxBlocksInFlight);
+        this.compressedBuffers = new ArrayDeque<>(maxBlocksInFlight);
+        streamFlags.checkType = checkType;
+        XZOutputStream.encodeStreamHeader(out, streamFlags);
+    }
+
+    /**
+     * Gets the default Block size for the given LZMA2 options, which is three
+     * times the dictionary size, but at least 1&nbsp;MiB.
+     *
+     * @param options LZMA2 options
+     * @return the default Block size
+     */
+    public static int getDefaultBlockSize(LZMA2Options options) {
+        return (int) Math.min(Integer.MAX_VALUE - 8,
+                Math.max(3L * options.getDictSize(), BLOCK_SIZE_MIN));
+    }
+
+    public void write(int b) throws IOException {
+        byte[] buf = new byte[]{(byte) b};
+        write(buf, 0, 1);
+    }
+
+    public void write(byte[] buf, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len < 0 || off + len > buf.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (exception != null) {
+            throw exception;
+        }
+        if (finished) {
+            throw new XZIOException("Stream finished or closed");
+        }
+        try {
+            while (len > 0) {
+                if (uncompressedBuffer == null) {
+                    uncompressedBuffer = uncompressedBuffers.isEmpty()
+                            ? new byte[blockSize] : uncompressedBuffers.pop();
+                }
+                int n = Math.min(blockSize - uncompressedLength, len);
+                System.arraycopy(buf, off, uncompressedBuffer, uncompressedLength, n);
+                uncompressedLength += n;
+                off += n;
+                len -= n;
+                if (uncompressedLength == blockSize) {
+                    submitBlock();
+                }
+            }
+        } catch (IOException e) {
+            exception = e;
+            throw e;
+        }
+    }
+
+    /**
+     * Ends the current Block before it is full and hands it to a worker.
+     * This does not wait for the Block to be compressed.
+     *
+     * @throws XZIOException       XZ Stream has grown too big, or the stream
+     *                             is finished or closed
+     * @throws java.io.IOException may be thrown from <code>out</code>
+     */
+    public void endBlock() throws IOException {
+        if (exception != null) {
+            throw exception;
+        }
+        if (finished) {
+            throw new XZIOException("Stream finished or closed");
+        }
+        try {
+            submitBlock();
+        } catch (IOException e) {
+            exception = e;
+            throw e;
+        }
+    }
+
+    /**
+     * Ends the current Block, waits until all Blocks are compressed and
+     * written, and flushes <code>out</code>. Calling this often creates
+     * small Blocks and reduces the parallelism.
+     *
+     * @throws XZIOException       XZ Stream has grown too big, or the stream
+     *                             is finished or closed
+     * @throws java.io.IOException may be thrown from <code>out</code>
+     */
+    public void flush() throws IOException {
+        endBlock();
+        try {
+            while (!blocksInFlight.isEmpty()) {
+                writeNextBlock();
+            }
+            out.flush();
+        } catch (IOException e) {
+            exception = e;
+            throw e;
+        }
+    }
+
+    /**
+     * Finishes compression without closing the underlying stream.
+     * All Blocks are compressed and written, followed by the Index and
+     * the Stream Footer. No more data can be written to this stream
+     * after finishing.
+     *
+     * @throws XZIOException       XZ Stream has grown too big
+     * @throws java.io.IOException may be thrown from <code>out</code>
+     */
+    public void finish() throws IOException {
+        if (!finished) {
+            endBlock();
+            try {
+                while (!blocksInFlight.isEmpty()) {
+                    writeNextBlock();
+                }
+                index.encode(out);
+                XZOutputStream.encodeStreamFooter(out, streamFlags, index);
+            } catch (IOException e) {
+                exception = e;
+                throw e;
+            }
+            finished = true;
+            release();
+        }
+    }
+
+    /**
+     * Finishes compression and closes the underlying stream.
+     * The underlying stream <code>out</code> is closed even if finishing
+     * fails. If both finishing and closing fail, the exception thrown
+     * by <code>finish()</code> is thrown and the exception from the failed
+     * <code>out.close()</code> is lost.
+     *
+     * @throws XZIOException       XZ Stream has grown too big
+     * @throws java.io.IOException may be thrown from <code>out</code>
+     */
+    public void close() throws IOException {
+        if (out != null) {
+            try {
+                finish();
+            } catch (IOException e) {
+                // the exception is remembered in the variable "exception"
+            }
+            release();
+            try {
+                out.close();
+            } catch (IOException e) {
+                if (exception == null) {
+                    exception = e;
+                }
+            }
+            out = null;
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    /**
+     * Hands the current Block to a worker and writes the Blocks that are
+     * already compressed. If too many Blocks are in flight, wait for the
+     * oldest Block.
+     */
+    private void submitBlock() throws IOException {
+        if (uncompressedLength == 0) {
+            return;
+        }
+        while (blocksInFlight.size() >= maxBlocksInFlight) {
+            writeNextBlock();
+        }
+        ByteArrayOutputStream compressed = compressedBuffers.isEmpty()
+                ? new ByteArrayOutputStream() : compressedBuffers.pop();
+        blocksInFlight.add(executor.submit(
+                new EncodeTask(uncompressedBuffer, uncompressedLength, compressed)));
+        uncompressedBuffer = null;
+        uncompressedLength = 0;
+        while (!blocksInFlight.isEmpty() && blocksInFlight.peek().isDone()) {
+            writeNextBlock();
+        }
+    }
+
+    /**
+     * Waits for the oldest Block in flight, writes it, adds it to the Index
+     * and recycles its buffers.
+     */
+    private void writeNextBlock() throws IOException {
+        EncodedBlock block;
+        try {
+            block = blocksInFlight.peek().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while compressing XZ Block");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new XZIOException(String.valueOf(e.getCause()));
+        }
+        blocksInFlight.remove();
+        block.compressed.writeTo(out);
+        index.add(block.unpaddedSize, block.uncompressedSize);
+        block.compressed.reset();
+        compressedBuffers.push(block.compressed);
+        uncompressedBuffers.push(block.uncompressed);
+    }
+
+    private void release() {
+        for (Future<EncodedBlock> future : blocksInFlight) {
+            future.cancel(false);
+        }
+        blocksInFlight.clear();
+        uncompressedBuffers.clear();
+        compressedBuffers.clear();
+        uncompressedBuffer = null;
+        if (shutdownExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    private static ExecutorService createExecutor(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        int pool = poolCounter.incrementAndGet();
+        AtomicInteger threadCounter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "xz-encode-" + pool + "-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static class EncodedBlock {
+
+        private final byte[] uncompressed;
+
+        private final ByteArrayOutputStream compressed;
+
+        private final long unpaddedSize;
+
+        private final long uncompressedSize;
+
+        private EncodedBlock(byte[] uncompressed, ByteArrayOutputStream compressed,
+                             long unpaddedSize, long uncompressedSize) {
+            this.uncompressed = uncompressed;
+            this.compressed = compressed;
+            this.unpaddedSize = unpaddedSize;
+            this.uncompressedSize = uncompressedSize;
+        }
+    }
+
+    /**
+     * Compresses one complete Block with a new filter chain and integrity check.
+     */
+    private class EncodeTask implements Callable<EncodedBlock> {
+
+        private final byte[] uncompressed;
+
+        private final int length;
+
+        private final ByteArrayOutputStream compressed;
+
+        private EncodeTask(byte[] uncompressed, int length, ByteArrayOutputStream compressed) {
+            this.uncompressed = uncompressed;
+            this.length = length;
+            this.compressed = compressed;
+        }
+
+        @Override
+        public EncodedBlock call() throws IOException {
+            BlockOutputStream blockEncoder = new BlockOutputStream(compressed, filters,
+                    Check.getInstance(streamFlags.checkType));
+            blockEncoder.write(uncompressed, 0, length);
+            blockEncoder.finish();
+            return new EncodedBlock(uncompressed, compressed,
+                    blockEncoder.getUnpaddedSize(), blockEncoder.getUncompressedSize());
+        }
+    }
+}
@@ -0,0 +1,492 @@
+package org.xbib.io.compress.xz;
+
+import org.xbib.io.compress.xz.check.Check;
+import org.xbib.io.compress.xz.common.DecoderUtil;
+import org.xbib.io.compress.xz.common.StreamFlags;
+import org.xbib.io.compress.xz.index.BlockInfo;
+import org.xbib.io.compress.xz.index.IndexDecoder;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decompresses a .xz file in random access mode.
+ * This supports decompressing concatenated .xz files.
+ * The Stream Footers and Indexes of all Streams are read when the stream
+ * is created. A {@link #seek(long)} only locates the Block that contains
+ * the target position, and decompression starts from the beginning of that
+ * Block. This is efficient only if the file has been compressed into
+ * several Blocks, because a file with only one Block must be decompressed
+ * from the start to reach any position. Use
+ * {@link XZOutputStream#endBlock()} to create Blocks when compressing.
+ * Getting an input stream for random access to a .xz file:
+ * <p><blockquote><pre>
+ * SeekableInputStream file = new SeekableFileInputStream("foo.xz");
+ * SeekableXZInputStream inxz = new SeekableXZInputStream(file);
+ * inxz.seek(123456789);
+ * </pre></blockquote>
+ * The memory usage limit applies to the Indexes and to the decoder
+ * of the current Block.
+ *
+ * @see XZInputStream
+ */
+public class SeekableXZInputStream extends SeekableInputStream {
+    private SeekableInputStream in;
+    private final int memoryLimit;
+    private int indexMemoryUsage = 0;
+
+    /**
+     * The Indexes of the Streams, the last Stream of the file first.
+     */
+    private final List<IndexDecoder> streams = new ArrayList<>();
+    private int checkTypes = 0;
+    private long uncompressedSize = 0;
+    private long largestBlockSize = 0;
+    private int blockCount = 0;
+    private BlockInputStream blockDecoder = null;
+    private long blockEndPos = 0;
+    private long curPos = 0;
+    private long seekPos = 0;
+    private boolean seekNeeded = true;
+    private boolean endReached = false;
+    private IOException exception = null;
+
+    /**
+     * Creates a new seekable XZ decompressor without a memory usage limit.
+     *
+     * @param in seekable input stream containing one or more XZ Streams
+     * @throws XZFormatException           input is not in the XZ format
+     * @throws CorruptedInputException     XZ data is corrupt or truncated
+     * @throws UnsupportedOptionsException XZ headers seem valid but they specify
+     *                                     options not supported by this implementation
+     * @throws java.io.EOFException        less than 6 bytes of input was available
+     *                                     from <code>in</code>
+     * @throws java.io.IOException         may be thrown by <code>in</code>
+     */
+    public SeekableXZInputStream(SeekableInputStream in) throws IOException {
+        this(in, -1);
+    }
+
+    /**
+     * Creates a new seekable XZ decompressor with an optional memory usage limit.
+     *
+     * @param in          seekable input stream containing one or more XZ Streams
+     * @param memoryLimit memory usage limit in kibibytes (KiB)
+     *                    or <code>-1</code> to impose no
+     *                    memory usage limit
+     * @throws XZFormatException           input is not in the XZ format
+     * @throws CorruptedInputException     XZ data is corrupt or truncated
+     * @throws UnsupportedOptionsException XZ headers seem valid but they specify
+     *                                     options not supported by this implementation
+     * @throws MemoryLimitException        the Indexes need more memory than the limit
+     * @throws java.io.EOFException        less than 6 bytes of input was available
+     *                                     from <code>in</code>
+     * @throws java.io.IOException         may be thrown by <code>in</code>
+     */
+    public SeekableXZInputStream(SeekableInputStream in, int memoryLimit)
+            throws IOException {
+        this.in = in;
+        DataInputStream inData = new DataInputStream(in);
+
+        // Check the magic bytes in the beginning of the file.
+        in.seek(0);
+        byte[] magic = new byte[XZ.HEADER_MAGIC.length];
+        inData.readFully(magic);
+        if (!Arrays.equals(magic, XZ.HEADER_MAGIC)) {
+            throw new XZFormatException();
+        }
+
+        // Read the Streams from the end of the file to the beginning.
+        // The size of a valid file is a multiple of four bytes.
+        long pos = in.length();
+        if ((pos & 3) != 0) {
+            throw new CorruptedInputException("XZ file size is not a multiple of 4 bytes");
+        }
+
+        byte[] buf = new byte[DecoderUtil.STREAM_HEADER_SIZE];
+        long streamPadding = 0;
+
+        while (pos > 0) {
+            if (pos < DecoderUtil.STREAM_HEADER_SIZE) {
+                throw new CorruptedInputException();
+            }
+
+            // Read the potential Stream Footer.
+            in.seek(pos - DecoderUtil.STREAM_HEADER_SIZE);
+            inData.readFully(buf);
+
+            // Skip Stream Padding four bytes at a time.
+            if (buf[8] == 0x00 && buf[9] == 0x00 && buf[10] == 0x00
+                    && buf[11] == 0x00) {
+                streamPadding += 4;
+                pos -= 4;
+                continue;
+            }
+
+            pos -= DecoderUtil.STREAM_HEADER_SIZE;
+            StreamFlags streamFooter = DecoderUtil.decodeStreamFooter(buf);
+            if (streamFooter.backwardSize >= pos) {
+                throw new CorruptedInputException(
+                        "Backward Size in XZ Stream Footer is too big");
+            }
+
+            checkTypes |= 1 << streamFooter.checkType;
+
+            // Decode the Index of this Stream.
+            in.seek(pos - streamFooter.backwardSize);
+            IndexDecoder index;
+            try {
+                index = new IndexDecoder(in, streamFooter, streamPadding, memoryLimit);
+            } catch (MemoryLimitException e) {
+                throw new MemoryLimitException(e.getMemoryNeeded() + indexMemoryUsage,
+                        memoryLimit + indexMemoryUsage);
+            }
+            indexMemoryUsage += index.getMemoryUsage();
+            if (memoryLimit >= 0) {
+                memoryLimit -= index.getMemoryUsage();
+            }
+            if (largestBlockSize < index.getLargestBlockSize()) {
+                largestBlockSize = index.getLargestBlockSize();
+            }
+
+            // The Index tells the size of the Stream, which gives the
+            // position of the Stream Header.
+            long off = index.getStreamSize() - DecoderUtil.STREAM_HEADER_SIZE;
+            if (pos < off) {
+                throw new CorruptedInputException(
+                        "XZ Index indicates too big compressed size for the XZ Stream");
+            }
+            pos -= off;
+            in.seek(pos);
+            inData.readFully(buf);
+            StreamFlags streamHeader = DecoderUtil.decodeStreamHeader(buf);
+            if (!DecoderUtil.areStreamFlagsEqual(streamHeader, streamFooter)) {
+                throw new CorruptedInputException(
+                        "XZ Stream Footer does not match Stream Header");
+            }
+
+            uncompressedSize += index.getUncompressedSize();
+            if (uncompressedSize < 0) {
+                throw new UnsupportedOptionsException("XZ file is too big");
+            }
+            if (blockCount + index.getRecordCount() > Integer.MAX_VALUE) {
+                throw new UnsupportedOptionsException("XZ file has over "
+                        + Integer.MAX_VALUE + " Blocks");
+            }
+            blockCount += (int) index.getRecordCount();
+
+            streams.add(index);
+            streamPadding = 0;
+        }
+
+        this.memoryLimit = memoryLimit;
+    }
+
+    /**
+     * Gets the types of integrity checks used in the .xz file.
+     * The bit <code>1 &lt;&lt; checkType</code> is set for every
+     * Check ID that is used, e.g. <code>1 &lt;&lt; XZ.CHECK_CRC64</code>.
+     *
+     * @return bitmask of the Check IDs used in the file
+     */
+    public int getCheckTypes() {
+        return checkTypes;
+    }
+
+    /**
+     * Gets the amount of memory in kibibytes (KiB) used by the Indexes.
+     *
+     * @return memory usage of the Indexes
+     */
+    public int getIndexMemoryUsage() {
+        return indexMemoryUsage;
+    }
+
+    /**
+     * Gets the uncompressed size of the largest Block in the file.
+     *
+     * @return largest uncompressed Block size
+     */
+    public long getLargestBlockSize() {
+        return largestBlockSize;
+    }
+
+    /**
+     * Gets the number of Blocks in all Streams of the file.
+     *
+     * @return number of Blocks
+     */
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * Gets the Blocks of all Streams in file order, with offsets relative
+     * to the beginning of the file.
+     */
+    List<BlockInfo> getBlockInfos() {
+        List<BlockInfo> blocks = new ArrayList<>(blockCount);
+        long uncompressedOffset = 0;
+        long compressedOffset = 0;
+        for (int i = streams.size() - 1; i >= 0; i--) {
+            IndexDecoder index = streams.get(i);
+            for (int j = 0; j < index.getRecordCount(); j++) {
+                BlockInfo info = new BlockInfo();
+                index.setBlockInfo(info, j);
+                info.compressedOffset += compressedOffset;
+                info.uncompressedOffset += uncompressedOffset;
+                blocks.add(info);
+            }
+            uncompressedOffset += index.getUncompressedSize();
+            compressedOffset += index.getStreamAndPaddingSize();
+        }
+        return blocks;
+    }
+
+    /**
+     * Gets the memory usage limit that is left for the Block decoders
+     * after reading the Indexes.
+     */
+    int getBlockMemoryLimit() {
+        return memoryLimit;
+    }
+
+    /**
+     * Decompresses the next byte from this input stream.
+     *
+     * @return the next decompressed byte, or <code>-1</code>
+     * to indicate the end of the compressed stream
+     * @throws CorruptedInputException
+     * @throws UnsupportedOptionsException
+     * @throws MemoryLimitException
+     * @throws XZIOException               if the stream has been closed
+     * @throws java.io.IOException         may be thrown by <code>in</code>
+     */
+    public int read() throws IOException {
+        byte[] buf = new byte[1];
+        return read(buf, 0, 1) == -1 ? -1 : (buf[0] & 0xFF);
+    }
+
+    /**
+     * Decompresses into an array of bytes.
+     * If <code>len</code> is zero, no bytes are read and <code>0</code>
+     * is returned. Otherwise this will try to decompress <code>len</code>
+     * bytes of uncompressed data. Less than <code>len</code> bytes may
+     * be read only at the end of the file or if an error is detected
+     * after some bytes have already been decompressed. The next call
+     * will then throw the pending exception.
+     *
+     * @param buf target buffer for uncompressed data
+     * @param off start offset in <code>buf</code>
+     * @param len maximum number of uncompressed bytes to read
+     * @return number of bytes read, or <code>-1</code> to indicate
+     * the end of the compressed stream
+     * @throws CorruptedInputException
+     * @throws UnsupportedOptionsException
+     * @throws MemoryLimitException
+     * @throws XZIOException               if the stream has been closed
+     * @throws java.io.IOException         may be thrown by <code>in</code>
+     */
+    public int read(byte[] buf, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len < 0 || off + len > buf.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (in == null) {
+            throw new XZIOException("Stream closed");
+        }
+        if (exception != null) {
+            throw exception;
+        }
+        int size = 0;
+        try {
+            if (seekNeeded) {
+                seek();
+            }
+            if (endReached) {
+                return -1;
+            }
+            while (len > 0) {
+                if (blockDecoder == null) {
+                    // continue with the next Block, which may be in the next Stream
+                    seekPos = curPos;
+                    seek();
+                    if (endReached) {
+                        break;
+                    }
+                }
+                int ret = blockDecoder.read(buf, off, len);
+                if (ret > 0) {
+                    curPos += ret;
+                    size += ret;
+                    off += ret;
+                    len -= ret;
+                } else if (ret == -1) {
+                    blockDecoder = null;
+                }
+            }
+        } catch (IOException e) {
+            // An end of file is caught in the middle of a Block, so it
+            // is reported as a truncated file.
+            if (e instanceof EOFException) {
+                e = new CorruptedInputException();
+            }
+            exception = e;
+            if (size == 0) {
+                throw e;
+            }
+        }
+        return size > 0 ? size : -1;
+    }
+
+    /**
+     * Returns the number of uncompressed bytes that can be read
+     * without blocking from the current Block.
+     *
+     * @return the number of uncompressed bytes that can be read
+     * without blocking
+     */
+    public int available() throws IOException {
+        if (in == null) {
+            throw new XZIOException("Stream closed");
+        }
+        if (exception != null) {
+            throw exception;
+        }
+        if (endReached || seekNeeded || blockDecoder == null) {
+            return 0;
+        }
+        return blockDecoder.available();
+    }
+
+    /**
+     * Closes the stream and calls <code>in.close()</code>.
+     * If the stream was already closed, this does nothing.
+     *
+     * @throws java.io.IOException if thrown by <code>in.close()</code>
+     */
+    public void close() throws IOException {
+        if (in != null) {
+            try {
+                in.close();
+            } finally {
+                in = null;
+            }
+        }
+    }
+
+    /**
+     * Gets the uncompressed size of this input stream.
+     */
+    public long length() {
+        return uncompressedSize;
+    }
+
+    /**
+     * Gets the current uncompressed position in this input stream.
+     *
+     * @throws XZIOException if the stream has been closed
+     */
+    public long position() throws IOException {
+        if (in == null) {
+            throw new XZIOException("Stream closed");
+        }
+        return seekNeeded ? seekPos : curPos;
+    }
+
+    /**
+     * Seeks to the specified absolute uncompressed position in the stream.
+     * The seek is done lazily: the Block containing the position is
+     * located and decoded when the next read happens. Seeking past the
+     * end of the stream is possible, <code>read</code> then returns
+     * <code>-1</code>.
+     *
+     * @param pos new uncompressed read position
+     * @throws XZIOException if <code>pos</code> is negative, or
+     *                       if the stream has been closed
+     */
+    public void seek(long pos) throws IOException {
+        if (in == null) {
+            throw new XZIOException("Stream closed");
+        }
+        if (pos < 0) {
+            throw new XZIOException("Negative seek position: " + pos);
+        }
+        seekPos = pos;
+        seekNeeded = true;
+    }
+
+    /**
+     * Locates the Block that contains <code>seekPos</code>, starts decoding
+     * it and skips the uncompressed bytes up to <code>seekPos</code>.
+     */
+    private void seek() throws IOException {
+        seekNeeded = false;
+        // Continue in the current Block if the target is ahead in it.
+        if (blockDecoder != null && seekPos >= curPos && seekPos < blockEndPos) {
+            skipInBlock(seekPos - curPos);
+            return;
+        }
+        blockDecoder = null;
+        if (seekPos >= uncompressedSize) {
+            curPos = seekPos;
+            endReached = true;
+            return;
+        }
+        endReached = false;
+
+        // Locate the Stream that contains the target position. The Streams
+        // are stored from the last to the first, skip empty Streams.
+        IndexDecoder index;
+        int i = streams.size();
+        long uncompressedOffset = 0;
+        long compressedOffset = 0;
+        while (true) {
+            index = streams.get(--i);
+            if (uncompressedOffset + index.getUncompressedSize() > seekPos) {
+                break;
+            }
+            uncompressedOffset += index.getUncompressedSize();
+            compressedOffset += index.getStreamAndPaddingSize();
+        }
+
+        // Locate the Block in the Stream and decode it from the start.
+        BlockInfo info = index.locate(seekPos - uncompressedOffset);
+        in.seek(compressedOffset + info.compressedOffset);
+        Check check = Check.getInstance(info.streamFlags.checkType);
+        try {
+            blockDecoder = new BlockInputStream(in, check, memoryLimit,
+                    info.unpaddedSize, info.uncompressedSize);
+        } catch (MemoryLimitException e) {
+            throw new MemoryLimitException(e.getMemoryNeeded() + indexMemoryUsage,
+                    memoryLimit + indexMemoryUsage);
+        } catch (IndexIndicatorException e) {
+            // The Index says there is a Block here.
+            throw new CorruptedInputException();
+        }
+        curPos = uncompressedOffset + info.uncompressedOffset;
+        blockEndPos = curPos + info.uncompressedSize;
+        skipInBlock(seekPos - curPos);
+    }
+
+    private void skipInBlock(long n) throws IOException {
+        if (n <= 0) {
+            return;
+        }
+        byte[] buf = new byte[(int) Math.min(n, 8192)];
+        while (n > 0) {
+            int ret = blockDecoder.read(buf, 0, (int) Math.min(n, buf.length));
+            if (ret == -1) {
+                throw new CorruptedInputException();
+            }
+            curPos += ret;
+            n -= ret;
+        }
+    }
+}
@@ -138,7 +138,7 @@ public class XZOutputStream extends FinishableOutputStream {
         updateFilters(filterOptions);
         streamFlags.checkType = checkType;
         check = Check.getInstance(checkType);
-        encodeStreamHeader();
+        encodeStreamHeader(out, streamFlags);
     }
 
     /**
@@ -357,7 +357,7 @@ public class XZOutputStream extends FinishableOutputStream {
 
             try {
                 index.encode(out);
-                encodeStreamFooter();
+                encodeStreamFooter(out, streamFlags, index);
             } catch (IOException e) {
                 exception = e;
                 throw e;
@@ -408,29 +408,30 @@ public class XZOutputStream extends FinishableOutputStream {
         }
     }
 
-    private void encodeStreamFlags(byte[] buf, int off) {
+    private static void encodeStreamFlags(StreamFlags streamFlags, byte[] buf, int off) {
         buf[off] = 0x00;
         buf[off + 1] = (byte) streamFlags.checkType;
     }
 
-    private void encodeStreamHeader() throws IOException {
+    static void encodeStreamHeader(OutputStream out, StreamFlags streamFlags) throws IOException {
         out.write(XZ.HEADER_MAGIC);
 
         byte[] buf = new byte[2];
-        encodeStreamFlags(buf, 0);
+        encodeStreamFlags(streamFlags, buf, 0);
         out.write(buf);
 
         EncoderUtil.writeCRC32(out, buf);
     }
 
-    private void encodeStreamFooter() throws IOException {
+    static void encodeStreamFooter(OutputStream out, StreamFlags streamFlags, IndexEncoder index)
+            throws IOException {
         byte[] buf = new byte[6];
         long backwardSize = index.getIndexSize() / 4 - 1;
         for (int i = 0; i < 4; ++i) {
             buf[i] = (byte) (backwardSize >>> (i * 8));
         }
 
-        encodeStreamFlags(buf, 4);
+        encodeStreamFlags(streamFlags, buf, 4);
 
         EncoderUtil.writeCRC32(out, buf);
         out.write(buf);
@@ -29,6 +29,10 @@ abstract class IndexBase {
                 + Util.STREAM_HEADER_SIZE;
     }
 
+    public long getRecordCount() {
+        return recordCount;
+    }
+
     int getIndexPaddingSize() {
         return (int) ((4 - getUnpaddedIndexSize()) & 3);
     }
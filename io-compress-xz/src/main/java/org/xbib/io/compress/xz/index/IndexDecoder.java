@@ -177,19 +177,32 @@ public class IndexDecoder extends IndexBase {
         return getInfo();
     }
 
-    private BlockInfo getInfo() {
-        if (pos == 0) {
+    /**
+     * Stores the information of the given Block into <code>info</code>.
+     * The offsets are relative to the beginning of this Stream.
+     * This doesn't change the current position of the decoder.
+     *
+     * @param info        the BlockInfo to fill in
+     * @param blockNumber number of the Block in this Stream, starting from zero
+     */
+    public void setBlockInfo(BlockInfo info, int blockNumber) {
+        info.streamFlags = this.info.streamFlags;
+        if (blockNumber == 0) {
             info.compressedOffset = 0;
             info.uncompressedOffset = 0;
         } else {
-            info.compressedOffset = (unpadded[pos - 1] + 3) & ~3;
-            info.uncompressedOffset = uncompressed[pos - 1];
+            info.compressedOffset = (unpadded[blockNumber - 1] + 3) & ~3;
+            info.uncompressedOffset = uncompressed[blockNumber - 1];
         }
 
-        info.unpaddedSize = unpadded[pos] - info.compressedOffset;
-        info.uncompressedSize = uncompressed[pos] - info.uncompressedOffset;
+        info.unpaddedSize = unpadded[blockNumber] - info.compressedOffset;
+        info.uncompressedSize = uncompressed[blockNumber] - info.uncompressedOffset;
 
         info.compressedOffset += DecoderUtil.STREAM_HEADER_SIZE;
+    }
+
+    private BlockInfo getInfo() {
+        setBlockInfo(info, pos);
         return info;
     }
 }
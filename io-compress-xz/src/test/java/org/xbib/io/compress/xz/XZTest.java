@@ -1,13 +1,18 @@
 package org.xbib.io.compress.xz;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import org.junit.jupiter.api.Test;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
 
 public class XZTest {
 
@@ -37,4 +42,89 @@ public class XZTest {
         }
         assertEquals("Hello world\n", new String(outputStream.toByteArray()));
     }
+
+    @Test
+    public void testSeekableXZ() throws Exception {
+        byte[] data = new byte[300000];
+        Random random = new Random(42L);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + random.nextInt(8));
+        }
+        // two concatenated Streams with several Blocks each
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int stream = 0; stream < 2; stream++) {
+            XZOutputStream zOut = new XZOutputStream(out, new LZMA2Options());
+            for (int i = 0; i < 3; i++) {
+                zOut.write(data, (stream * 3 + i) * 50000, 50000);
+                zOut.endBlock();
+            }
+            zOut.finish();
+        }
+        File file = File.createTempFile("seekable", ".xz");
+        file.deleteOnExit();
+        Files.write(file.toPath(), out.toByteArray());
+        try (SeekableXZInputStream in = new SeekableXZInputStream(new SeekableFileInputStream(file))) {
+            assertEquals(data.length, in.length());
+            assertEquals(6, in.getBlockCount());
+            long[] positions = {260000L, 10L, 149990L, 50000L, 0L, 299000L};
+            for (long pos : positions) {
+                in.seek(pos);
+                byte[] buf = new byte[1000];
+                int n = 0;
+                while (n < buf.length) {
+                    n += in.read(buf, n, buf.length - n);
+                }
+                assertArrayEquals(Arrays.copyOfRange(data, (int) pos, (int) pos + 1000), buf);
+                assertEquals(pos + 1000, in.position());
+            }
+            assertEquals(-1, in.read());
+            in.seek(0L);
+            ByteArrayOutputStream all = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                all.write(buf, 0, n);
+            }
+            assertArrayEquals(data, all.toByteArray());
+        }
+    }
+
+    @Test
+    public void testParallelXZ() throws Exception {
+        byte[] data = new byte[5 * 1024 * 1024 + 12345];
+        Random random = new Random(42L);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + random.nextInt(16));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LZMA2Options options = new LZMA2Options(1);
+        try (ParallelXZOutputStream zOut = new ParallelXZOutputStream(out,
+                new FilterOptions[]{options}, XZ.CHECK_CRC64, 1 << 20, 4)) {
+            for (int off = 0; off < data.length; off += 100000) {
+                zOut.write(data, off, Math.min(100000, data.length - off));
+            }
+        }
+        XZInputStream zIn = new XZInputStream(new ByteArrayInputStream(out.toByteArray()));
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = zIn.read(buf)) != -1) {
+            result.write(buf, 0, n);
+        }
+        assertArrayEquals(data, result.toByteArray());
+        File file = File.createTempFile("parallel", ".xz");
+        file.deleteOnExit();
+        Files.write(file.toPath(), out.toByteArray());
+        try (SeekableXZInputStream in = new SeekableXZInputStream(new SeekableFileInputStream(file))) {
+            assertEquals(6, in.getBlockCount());
+        }
+        try (ParallelXZInputStream in = new ParallelXZInputStream(new SeekableFileInputStream(file), -1, 3)) {
+            assertEquals(6, in.getBlockCount());
+            result.reset();
+            while ((n = in.read(buf)) != -1) {
+                result.write(buf, 0, n);
+            }
+            assertArrayEquals(data, result.toByteArray());
+        }
+    }
 }
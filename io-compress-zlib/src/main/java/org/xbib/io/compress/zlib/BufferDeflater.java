@@ -1,6 +1,5 @@
 package org.xbib.io.compress.zlib;
 
-import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 import java.util.zip.CRC32;
 import java.util.zip.Deflater;
@@ -26,14 +25,9 @@ public class BufferDeflater {
             true);
 
     /**
-     * Output buffer building area
+     * Output buffer building area, the deflater writes into it directly
      */
-    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-
-    /**
-     * Internal transfer space
-     */
-    private final byte[] transfer = new byte[1000];
+    private ByteBuffer buffer = ByteBuffer.allocate(4096);
 
     /**
      * The flush mode to use at the end of each buffer
@@ -49,36 +43,25 @@ public class BufferDeflater {
      */
     public BufferDeflater(boolean syncFlush) {
         flushMode = syncFlush ? Deflater.SYNC_FLUSH : Deflater.NO_FLUSH;
-        buffer.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+        buffer.put(GZIP_HEADER);
     }
 
 
     /**
-     * Deflate the buffer
+     * Deflate the buffer. The deflater reads heap and direct buffers in place,
+     * the buffer is consumed.
      *
      * @param in the buffer to deflate
      * @return deflated representation of the buffer
      */
     public ByteBuffer deflate(ByteBuffer in) {
-        byte[] inBytes;
-        int off = in.position();
-        int len = in.remaining();
-        if (in.hasArray()) {
-            inBytes = in.array();
-        } else {
-            off = 0;
-            inBytes = new byte[len];
-            in.get(inBytes);
-        }
-        crc.update(inBytes, off, len);
-        deflater.setInput(inBytes, off, len);
-        while (!deflater.needsInput()) {
-            int r = deflater.deflate(transfer, 0, transfer.length, flushMode);
-            buffer.write(transfer, 0, r);
-        }
-        byte[] outBytes = buffer.toByteArray();
-        buffer.reset();
-        return ByteBuffer.wrap(outBytes);
+        crc.update(in.duplicate());
+        deflater.setInput(in);
+        do {
+            ensureRemaining(1024);
+            deflater.deflate(buffer, flushMode);
+        } while (!deflater.needsInput() || !buffer.hasRemaining());
+        return takeBuffer();
     }
 
     /**
@@ -88,17 +71,42 @@ public class BufferDeflater {
      */
     public ByteBuffer doFinal() {
         deflater.finish();
-        int r;
         do {
-            r = deflater.deflate(transfer, 0, transfer.length, Deflater.FULL_FLUSH);
-            buffer.write(transfer, 0, r);
-        } while (r == transfer.length);
+            ensureRemaining(1024);
+            deflater.deflate(buffer, Deflater.FULL_FLUSH);
+        } while (!deflater.finished());
+        ensureRemaining(8);
         writeInt((int) crc.getValue());
         writeInt((int) deflater.getBytesRead());
         deflater.reset();
-        byte[] outBytes = buffer.toByteArray();
-        buffer.reset();
-        return ByteBuffer.wrap(outBytes);
+        return takeBuffer();
+    }
+
+    /**
+     * Grow the output buffer if less than the given number of bytes remain
+     *
+     * @param n the number of bytes
+     */
+    private void ensureRemaining(int n) {
+        if (buffer.remaining() < n) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * buffer.capacity(), buffer.position() + n));
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+    }
+
+    /**
+     * Copy the output built so far into a buffer of its exact size, and reset the building area
+     *
+     * @return the output
+     */
+    private ByteBuffer takeBuffer() {
+        buffer.flip();
+        ByteBuffer out = ByteBuffer.allocate(buffer.remaining());
+        out.put(buffer).flip();
+        buffer.clear();
+        return out;
     }
 
     /**
@@ -107,10 +115,10 @@ public class BufferDeflater {
      * @param v the value to write
      */
     private void writeInt(int v) {
-        buffer.write(v & 0xff);
-        buffer.write((v >> 8) & 0xff);
-        buffer.write((v >> 16) & 0xff);
-        buffer.write((v >> 24) & 0xff);
+        buffer.put((byte) (v & 0xff));
+        buffer.put((byte) ((v >> 8) & 0xff));
+        buffer.put((byte) ((v >> 16) & 0xff));
+        buffer.put((byte) ((v >> 24) & 0xff));
     }
 
     /**
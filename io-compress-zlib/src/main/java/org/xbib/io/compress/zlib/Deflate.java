@@ -1,6 +1,10 @@
 
 package org.xbib.io.compress.zlib;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
 public final class Deflate {
 
     private static final int MAX_MEM_LEVEL = 9;
@@ -33,11 +37,13 @@ public final class Deflate {
 
     static {
         CONFIG_TABLE = new Config[10];
+        // For the FAST levels, lazy limits the length of matches whose strings are
+        // inserted in the hash table. They probe the head of the chain only.
         //                         good  lazy  nice  chain
         CONFIG_TABLE[0] = new Config(0, 0, 0, 0, STORED);
-        CONFIG_TABLE[1] = new Config(4, 4, 8, 4, FAST);
-        CONFIG_TABLE[2] = new Config(4, 5, 16, 8, FAST);
-        CONFIG_TABLE[3] = new Config(4, 6, 32, 32, FAST);
+        CONFIG_TABLE[1] = new Config(4, 4, 8, 1, FAST);
+        CONFIG_TABLE[2] = new Config(4, 8, 16, 1, FAST);
+        CONFIG_TABLE[3] = new Config(4, 32, 32, 1, FAST);
 
         CONFIG_TABLE[4] = new Config(4, 4, 16, 16, SLOW);
         CONFIG_TABLE[5] = new Config(8, 16, 32, 32, SLOW);
@@ -94,7 +100,8 @@ public final class Deflate {
     private static final int Z_BINARY = 0;
     private static final int Z_ASCII = 1;
     private static final int Z_UNKNOWN = 2;
-    private static final int BUF_SIZE = 8 * 2;
+    // Number of bits in the bit buffer that are written at once.
+    private static final int BUF_SIZE = 8 * 4;
     // repeat previous bit length 3-6 times (2 bits of repeat count)
     private static final int REP_3_6 = 16;
     // repeat a zero length 3-10 times  (3 bits of repeat count)
@@ -112,6 +119,13 @@ public final class Deflate {
     private static final int L_CODES = (LITERALS + 1 + LENGTH_CODES);
     private static final int HEAP_SIZE = (2 * L_CODES + 1);
     private static final int END_BLOCK = 256;
+    // Reads of 4 and 8 window bytes at once, for hashing and for comparing strings
+    private static final VarHandle INT_LE =
+            MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle LONG_LE =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    // Knuth's multiplicative hash constant, the golden ratio in 32 bits
+    private static final int HASH_MULTIPLIER = 0x9e3779b1;
     private ZStream strm;         // pointer back to this zlib stream
     private int status;           // as the name implies
     private byte[] pendingBuf;   // output still pending
@@ -140,14 +154,13 @@ public final class Deflate {
     // array to 64K, this link is maintained only for the last 32K strings.
     // An index in this array is thus a window index modulo 32K.
     private short[] head; // Heads of the hash chains or NIL.
-    private int insh;          // hash index of string to be inserted
     private int hashSize;      // number of elements in hash table
     private int hashBits;      // log2(hash_size)
     private int hashMask;      // hash_size-1
-    // Number of bits by which ins_h must be shifted at each input
-    // step. It must be such that after MIN_MATCH steps, the oldest
-    // byte no longer takes part in the hash key, that is:
-    // hash_shift * MIN_MATCH >= hash_bits
+    // Number of bits by which the product of the four bytes at a string
+    // and the hash multiplier is shifted right to get the hash index:
+    // 32 - hash_bits. The hash is computed directly at every position,
+    // there is no rolling hash value to carry from one position to the next.
     private int hashShift;
     // Window position at the beginning of the current output block. Gets
     // negative when the window is moved backwards.
@@ -222,8 +235,8 @@ public final class Deflate {
     private int matches;        // number of string matches in current block
     private int lastEobLen;   // bit length of EOB code for last block
     // Output buffer. bits are inserted starting at the bottom (least
-    // significant bits).
-    private short biBuf;
+    // significant bits). It holds BUF_SIZE bits and the bits of one more code.
+    private long biBuf;
     // Number of valid bits in bi_buf.  All bits above the last valid bit
     // are always zero.
     private int biValid;
@@ -277,7 +290,6 @@ public final class Deflate {
         lookahead = 0;
         matchLength = prevLength = MIN_MATCH - 1;
         matchAvailable = 0;
-        insh = 0;
     }
 
     // Initialize the tree data structures for a new zlib stream.
@@ -531,19 +543,16 @@ public final class Deflate {
         sendBits((tree[c2] & 0xffff), (tree[c2 + 1] & 0xffff));
     }
 
+    // Append the bits of value to the bit buffer. Once the buffer holds
+    // BUF_SIZE bits, they are written as four bytes at once.
     private void sendBits(int value, int length) {
-        int len = length;
-        if (biValid > BUF_SIZE - len) {
-            int val = value;
-//      bi_buf |= (val << bi_valid);
-            biBuf |= ((val << biValid) & 0xffff);
-            putShort(biBuf);
-            biBuf = (short) (val >>> (BUF_SIZE - biValid));
-            biValid += len - BUF_SIZE;
-        } else {
-//      bi_buf |= (value) << bi_valid;
-            biBuf |= (((value) << biValid) & 0xffff);
-            biValid += len;
+        biBuf |= (long) value << biValid;
+        biValid += length;
+        if (biValid >= BUF_SIZE) {
+            INT_LE.set(pendingBuf, pending, (int) biBuf);
+            pending += 4;
+            biBuf >>>= BUF_SIZE;
+            biValid -= BUF_SIZE;
         }
     }
 
@@ -618,47 +627,70 @@ public final class Deflate {
         // 64K-1 bytes.
     }
 
-    // Send the block data compressed using the given Huffman trees
+    // Send the block data compressed using the given Huffman trees.
+    // The bit buffer is kept in local variables while the symbols are sent.
+    // After each symbol, at most 31 bits remain in it, a literal adds at most
+    // 15 bits, the length and the distance of a match at most 20 and 28 bits.
     private void compressBlock(short[] ltree, short[] dtree) {
+        byte[] buf = pendingBuf;
+        long bits = biBuf;
+        int valid = biValid;
+        int out = pending;
         int dist;      // distance of matched string
         int lc;         // match length or unmatched char (if dist == 0)
-        int lx = 0;     // running index in l_buf
         int code;       // the code to send
         int extra;      // number of extra bits to send
 
-        if (lastLit != 0) {
-            do {
-                dist = ((pendingBuf[dBuf + lx * 2] << 8) & 0xff00)
-                        | (pendingBuf[dBuf + lx * 2 + 1] & 0xff);
-                lc = (pendingBuf[lBuf + lx]) & 0xff;
-                lx++;
-
-                if (dist == 0) {
-                    sendCode(lc, ltree); // send a literal byte
-                } else {
-                    // Here, lc is the match length - MIN_MATCH
-                    code = Tree.LENGTH_CODE[lc];
-
-                    sendCode(code + LITERALS + 1, ltree); // send the length code
-                    extra = Tree.EXTRA_LBITS[code];
-                    if (extra != 0) {
-                        lc -= Tree.BASE_LENGTH[code];
-                        sendBits(lc, extra);       // send the extra length bits
-                    }
-                    dist--; // dist is now the match distance - 1
-                    code = Tree.distanceCode(dist);
-
-                    sendCode(code, dtree);       // send the distance code
-                    extra = Tree.EXTRA_DBITS[code];
-                    if (extra != 0) {
-                        dist -= Tree.BASE_DIST[code];
-                        sendBits(dist, extra);   // send the extra distance bits
-                    }
-                } // literal or match pair ?
+        for (int lx = 0; lx < lastLit; lx++) {
+            dist = ((buf[dBuf + lx * 2] << 8) & 0xff00)
+                    | (buf[dBuf + lx * 2 + 1] & 0xff);
+            lc = buf[lBuf + lx] & 0xff;
 
-                // Check that the overlay between pending_buf and d_buf+l_buf is ok:
-            } while (lx < lastLit);
+            if (dist == 0) {
+                // send a literal byte
+                bits |= (long) (ltree[lc * 2] & 0xffff) << valid;
+                valid += ltree[lc * 2 + 1];
+            } else {
+                // Here, lc is the match length - MIN_MATCH
+                code = Tree.LENGTH_CODE[lc];
+                // send the length code
+                bits |= (long) (ltree[(code + LITERALS + 1) * 2] & 0xffff) << valid;
+                valid += ltree[(code + LITERALS + 1) * 2 + 1];
+                extra = Tree.EXTRA_LBITS[code];
+                if (extra != 0) {
+                    // send the extra length bits
+                    bits |= (long) (lc - Tree.BASE_LENGTH[code]) << valid;
+                    valid += extra;
+                }
+                if (valid >= BUF_SIZE) {
+                    INT_LE.set(buf, out, (int) bits);
+                    out += 4;
+                    bits >>>= BUF_SIZE;
+                    valid -= BUF_SIZE;
+                }
+                dist--; // dist is now the match distance - 1
+                code = Tree.distanceCode(dist);
+                // send the distance code
+                bits |= (long) (dtree[code * 2] & 0xffff) << valid;
+                valid += dtree[code * 2 + 1];
+                extra = Tree.EXTRA_DBITS[code];
+                if (extra != 0) {
+                    // send the extra distance bits
+                    bits |= (long) (dist - Tree.BASE_DIST[code]) << valid;
+                    valid += extra;
+                }
+            }
+            if (valid >= BUF_SIZE) {
+                // The output never overtakes the symbols in d_buf and l_buf
+                INT_LE.set(buf, out, (int) bits);
+                out += 4;
+                bits >>>= BUF_SIZE;
+                valid -= BUF_SIZE;
+            }
         }
+        biBuf = bits;
+        biValid = valid;
+        pending = out;
 
         sendCode(END_BLOCK, ltree);
         lastEobLen = ltree[END_BLOCK * 2 + 1];
@@ -689,11 +721,7 @@ public final class Deflate {
 
     // Flush the bit buffer, keeping at most 7 bits in it.
     private void biFlush() {
-        if (biValid == 16) {
-            putShort(biBuf);
-            biBuf = 0;
-            biValid = 0;
-        } else if (biValid >= 8) {
+        while (biValid >= 8) {
             putByte((byte) biBuf);
             biBuf >>>= 8;
             biValid -= 8;
@@ -702,10 +730,10 @@ public final class Deflate {
 
     // Flush the bit buffer and align the output on a byte boundary
     private void biWindup() {
-        if (biValid > 8) {
-            putShort(biBuf);
-        } else if (biValid > 0) {
+        while (biValid > 0) {
             putByte((byte) biBuf);
+            biBuf >>>= 8;
+            biValid -= 8;
         }
         biBuf = 0;
         biValid = 0;
@@ -876,6 +904,24 @@ public final class Deflate {
         }
     }
 
+    // Move the positions in the first n entries of a hash table down by wSize,
+    // positions that leave the window become 0. With the default window of 32K,
+    // a position in the upper half has the sign bit set, and the loop without
+    // branches is compiled to vector instructions.
+    private void slide(short[] table, int n) {
+        if (wSize == 1 << 15) {
+            for (int i = 0; i < n; i++) {
+                short m = table[i];
+                table[i] = (short) (m & 0x7fff & (m >> 15));
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                int m = table[i] & 0xffff;
+                table[i] = (short) (m >= wSize ? m - wSize : 0);
+            }
+        }
+    }
+
     // Fill the window when the lookahead becomes insufficient.
     // Updates strstart and lookahead.
     //
@@ -885,8 +931,7 @@ public final class Deflate {
     //    performed for at least two bytes (required for the zip translate_eol
     //    option -- not supported here).
     private void fillWindow() {
-        int n, m;
-        int p;
+        int n;
         int more;    // Amount of free space at the end of the window.
 
         do {
@@ -914,21 +959,10 @@ public final class Deflate {
                 // later. (Using level 0 permanently is not an optimal usage of
                 // zlib, so we don't care about this pathological case.)
 
-                n = hashSize;
-                p = n;
-                do {
-                    m = (head[--p] & 0xffff);
-                    head[p] = (m >= wSize ? (short) (m - wSize) : 0);
-                } while (--n != 0);
-
-                n = wSize;
-                p = n;
-                do {
-                    m = (prev[--p] & 0xffff);
-                    prev[p] = (m >= wSize ? (short) (m - wSize) : 0);
-                    // If n is not on any hash chain, prev[n] is garbage but
-                    // its value will never be used.
-                } while (--n != 0);
+                slide(head, hashSize);
+                // If n is not on any hash chain, prev[n] is garbage but
+                // its value will never be used.
+                slide(prev, wSize);
                 more += wSize;
             }
 
@@ -949,14 +983,6 @@ public final class Deflate {
 
             n = strm.readBuf(window, strstart + lookahead, more);
             lookahead += n;
-
-            // Initialize the hash value now that we have some input:
-            if (lookahead >= MIN_MATCH) {
-                insh = window[strstart] & 0xff;
-                insh = (((insh) << hashShift) ^ (window[strstart + 1] & 0xff)) & hashMask;
-            }
-            // If the whole input has less than MIN_MATCH bytes, ins_h is garbage,
-            // but this is not important since only literal bytes will be emitted.
         } while (lookahead < MIN_LOOKAHEAD && strm.availin != 0);
     }
 
@@ -964,9 +990,11 @@ public final class Deflate {
     // block state.
     // This function does not perform lazy evaluation of matches and inserts
     // new strings in the dictionary only for unmatched strings or for short
-    // matches. It is used only for the fast compression options.
+    // matches. It is used only for the fast compression options, levels 1 to 3.
+    // They try only the most recent string with the same hash, without
+    // searching the hash chain, and differ in the length of the matches whose
+    // strings are inserted.
     private int deflateFast(int flush) {
-//    short hash_head = 0; // head of the hash chain
         int hashhead = 0; // head of the hash chain
         boolean bflush;      // set if current block must be flushed
 
@@ -985,33 +1013,23 @@ public final class Deflate {
                 }
             }
 
-            // Insert the string window[strstart .. strstart+2] in the
+            // Insert the string window[strstart .. strstart+3] in the
             // dictionary, and set hash_head to the head of the hash chain:
             if (lookahead >= MIN_MATCH) {
-                insh = (((insh) << hashShift) ^ (window[(strstart) + (MIN_MATCH - 1)] & 0xff)) & hashMask;
-
-//	prev[strstart&w_mask]=hash_head=head[ins_h];
-                hashhead = (head[insh] & 0xffff);
-                prev[strstart & wMask] = head[insh];
-                head[insh] = (short) strstart;
+                hashhead = insertString(strstart);
             }
 
-            // Find the longest match, discarding those <= prev_length.
-            // At this point we have always match_length < MIN_MATCH
-
             // To simplify the code, we prevent matches with the string
             // of window index 0 (in particular we have to avoid a match
             // of the string with itself at the start of the input file).
-            if (hashhead != 0L
+            if (hashhead != 0
                     && ((strstart - hashhead) & 0xffff) <= wSize - MIN_LOOKAHEAD
                     && (strategy != Z_HUFFMAN_ONLY)) {
-                matchLength = longestMatch(hashhead);
+                matchLength = Math.min(compareStrings(strstart, hashhead), lookahead);
+                matchStart = hashhead;
             }
-            // longest_match() sets match_start
 
             if (matchLength >= MIN_MATCH) {
-                //        check_match(strstart, match_start, match_length);
-
                 bflush = trTally(strstart - matchStart, matchLength - MIN_MATCH);
 
                 lookahead -= matchLength;
@@ -1023,13 +1041,7 @@ public final class Deflate {
                     matchLength--; // string at strstart already in hash table
                     do {
                         strstart++;
-
-                        insh = ((insh << hashShift) ^ (window[(strstart) + (MIN_MATCH - 1)] & 0xff)) & hashMask;
-//	    prev[strstart&w_mask]=hash_head=head[ins_h];
-                        hashhead = (head[insh] & 0xffff);
-                        prev[strstart & wMask] = head[insh];
-                        head[insh] = (short) strstart;
-
+                        insertString(strstart);
                         // strstart never exceeds WSIZE-MAX_MATCH, so there are
                         // always MIN_MATCH bytes ahead.
                     } while (--matchLength != 0);
@@ -1037,15 +1049,10 @@ public final class Deflate {
                 } else {
                     strstart += matchLength;
                     matchLength = 0;
-                    insh = window[strstart] & 0xff;
-
-                    insh = (((insh) << hashShift) ^ (window[strstart + 1] & 0xff)) & hashMask;
-                    // If lookahead < MIN_MATCH, ins_h is garbage, but it does not
-                    // matter since it will be recomputed at next deflate call.
                 }
             } else {
                 // No match, output a literal byte
-
+                matchLength = 0;
                 bflush = trTally(0, window[strstart] & 0xff);
                 lookahead--;
                 strstart++;
@@ -1095,15 +1102,11 @@ public final class Deflate {
                 }
             }
 
-            // Insert the string window[strstart .. strstart+2] in the
+            // Insert the string window[strstart .. strstart+3] in the
             // dictionary, and set hash_head to the head of the hash chain:
 
             if (lookahead >= MIN_MATCH) {
-                insh = (((insh) << hashShift) ^ (window[(strstart) + (MIN_MATCH - 1)] & 0xff)) & hashMask;
-//	prev[strstart&w_mask]=hash_head=head[ins_h];
-                hashhead = (head[insh] & 0xffff);
-                prev[strstart & wMask] = head[insh];
-                head[insh] = (short) strstart;
+                hashhead = insertString(strstart);
             }
 
             // Find the longest match, discarding those <= prev_length.
@@ -1150,11 +1153,7 @@ public final class Deflate {
                 prevLength -= 2;
                 do {
                     if (++strstart <= max_insert) {
-                        insh = (((insh) << hashShift) ^ (window[(strstart) + (MIN_MATCH - 1)] & 0xff)) & hashMask;
-                        //prev[strstart&w_mask]=hash_head=head[ins_h];
-                        hashhead = (head[insh] & 0xffff);
-                        prev[strstart & wMask] = head[insh];
-                        head[insh] = (short) strstart;
+                        insertString(strstart);
                     }
                 } while (--prevLength != 0);
                 matchAvailable = 0;
@@ -1210,6 +1209,37 @@ public final class Deflate {
         return flush == Z_FINISH ? FINISH_DONE : BLOCK_DONE;
     }
 
+    // Insert the string at pos in the dictionary and return the previous
+    // head of its hash chain. The hash covers the four bytes at pos, which
+    // are read at once.
+    private int insertString(int pos) {
+        int h = ((int) INT_LE.get(window, pos) * HASH_MULTIPLIER) >>> hashShift;
+        int hashhead = head[h] & 0xffff;
+        prev[pos & wMask] = head[h];
+        head[h] = (short) pos;
+        return hashhead;
+    }
+
+    // Return the number of equal bytes at scan and match, at most MAX_MATCH.
+    // Eight bytes are compared at once, the first difference is located by
+    // the lowest set bit of their exclusive or. The window always has
+    // MAX_MATCH bytes after strstart, they may be stale beyond lookahead.
+    private int compareStrings(int scan, int match) {
+        byte[] w = window;
+        int len = 0;
+        while (len <= MAX_MATCH - 8) {
+            long diff = (long) LONG_LE.get(w, scan + len) ^ (long) LONG_LE.get(w, match + len);
+            if (diff != 0) {
+                return len + (Long.numberOfTrailingZeros(diff) >>> 3);
+            }
+            len += 8;
+        }
+        while (len < MAX_MATCH && w[scan + len] == w[match + len]) {
+            len++;
+        }
+        return len;
+    }
+
     private int longestMatch(int cmatch) {
         int curmatch = cmatch;
         int chainlength = maxChainLength; // max hash chain length
@@ -1224,13 +1254,14 @@ public final class Deflate {
         // we prevent matches with the string of window index 0.
 
         int wmask = wMask;
+        byte[] w = window;
 
-        int strend = strstart + MAX_MATCH;
-        byte scanend1 = window[scan + bestlen - 1];
-        byte scanend = window[scan + bestlen];
-
-        // The code is optimized for HASH_BITS >= 8 and MAX_MATCH-2 multiple of 16.
-        // It is easy to get rid of this optimization if necessary.
+        // A candidate is longer than the best match only if it repeats the first
+        // three bytes of the string and the four bytes that end at best_len.
+        // Both are compared as one int. Equal hashes do not imply equal bytes,
+        // so the start of the string is always checked.
+        int scanstart = (int) INT_LE.get(w, scan) & 0xffffff;
+        int scanend = bestlen >= MIN_MATCH ? (int) INT_LE.get(w, scan + bestlen - 3) : 0;
 
         // Do not waste too much time if we already have a good match:
         if (prevLength >= goodMatch) {
@@ -1246,38 +1277,13 @@ public final class Deflate {
         do {
             match = curmatch;
 
-            // Skip to next match if the match length cannot increase
-            // or if the match length is less than 2:
-            if (window[match + bestlen] != scanend
-                    || window[match + bestlen - 1] != scanend1
-                    || window[match] != window[scan]
-                    || window[++match] != window[scan + 1]) {
+            // Skip to next match if the match length cannot increase:
+            if ((bestlen >= MIN_MATCH && (int) INT_LE.get(w, match + bestlen - 3) != scanend)
+                    || ((int) INT_LE.get(w, match) & 0xffffff) != scanstart) {
                 continue;
             }
 
-            // The check at best_len-1 can be removed because it will be made
-            // again later. (This heuristic is not always a win.)
-            // It is not necessary to compare scan[2] and match[2] since they
-            // are always equal when the other bytes match, given that
-            // the hash keys are equal and that HASH_BITS >= 8.
-            scan += 2;
-            match++;
-
-            // We check for insufficient lookahead only every 8th comparison;
-            // the 256th check will be made at strstart+258.
-            do {
-            } while (window[++scan] == window[++match]
-                    && window[++scan] == window[++match]
-                    && window[++scan] == window[++match]
-                    && window[++scan] == window[++match]
-                    && window[++scan] == window[++match]
-                    && window[++scan] == window[++match]
-                    && window[++scan] == window[++match]
-                    && window[++scan] == window[++match]
-                    && scan < strend);
-
-            len = MAX_MATCH - (strend - scan);
-            scan = strend - MAX_MATCH;
+            len = compareStrings(scan, match);
 
             if (len > bestlen) {
                 matchStart = curmatch;
@@ -1285,8 +1291,7 @@ public final class Deflate {
                 if (len >= nmatch) {
                     break;
                 }
-                scanend1 = window[scan + bestlen - 1];
-                scanend = window[scan + bestlen];
+                scanend = (int) INT_LE.get(w, scan + bestlen - 3);
             }
 
         } while ((curmatch = (prev[curmatch & wmask] & 0xffff)) > limit && --chainlength != 0);
@@ -1338,7 +1343,7 @@ public final class Deflate {
         hashBits = memLevel + 7;
         hashSize = 1 << hashBits;
         hashMask = hashSize - 1;
-        hashShift = ((hashBits + MIN_MATCH - 1) / MIN_MATCH);
+        hashShift = 32 - hashBits;
 
         window = new byte[wSize * 2];
         prev = new short[wSize];
@@ -1445,16 +1450,9 @@ public final class Deflate {
         blockStart = length;
 
         // Insert all strings in the hash table (except for the last two bytes).
-        // s->lookahead stays null, so s->ins_h will be recomputed at the next
-        // call of fill_window.
-
-        insh = window[0] & 0xff;
-        insh = (((insh) << hashShift) ^ (window[1] & 0xff)) & hashMask;
 
         for (int n = 0; n <= length - MIN_MATCH; n++) {
-            insh = (((insh) << hashShift) ^ (window[(n) + (MIN_MATCH - 1)] & 0xff)) & hashMask;
-            prev[n & wMask] = head[insh];
-            head[insh] = (short) n;
+            insertString(n);
         }
         return Z_OK;
     }
@@ -1467,7 +1465,7 @@ public final class Deflate {
         }
 
         if (strm.nextout == null
-                || (strm.nextin == null && strm.availin != 0)
+                || (strm.nextin == null && strm.inbuffer == null && strm.availin != 0)
                 || (status == FINISH_STATE && flush != Z_FINISH)) {
             strm.msg = zerrmsg[Z_NEED_DICT - (Z_STREAM_ERROR)];
             return Z_STREAM_ERROR;
@@ -535,11 +535,9 @@ final class InfBlocks {
     // copy as much as possible from the sliding window to the output area
     protected int inflateFlush(ZStream z, int r) {
         int n;
-        int p;
         int q;
 
-        // local copies of source and destination pointers
-        p = z.nextoutindex;
+        // local copy of source pointer
         q = read;
 
         // compute number of bytes to copy as far as end of window
@@ -561,8 +559,7 @@ final class InfBlocks {
         }
 
         // copy as far as end of window
-        System.arraycopy(window, q, z.nextout, p, n);
-        p += n;
+        z.writeOutput(window, q, n);
         q += n;
 
         // see if more to copy at beginning of window
@@ -592,13 +589,11 @@ final class InfBlocks {
             }
 
             // copy
-            System.arraycopy(window, q, z.nextout, p, n);
-            p += n;
+            z.writeOutput(window, q, n);
             q += n;
         }
 
-        // update pointers
-        z.nextoutindex = p;
+        // update pointer
         read = q;
 
         // done
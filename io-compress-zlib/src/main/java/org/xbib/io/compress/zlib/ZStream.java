@@ -1,11 +1,16 @@
 
 package org.xbib.io.compress.zlib;
 
+import java.nio.ByteBuffer;
+
 public class ZStream {
 
     private final static int MAX_WBITS = 15;        // 32K LZ77 window
     private final static int DEF_WBITS = MAX_WBITS;
+    private final static int Z_OK = 0;
     private final static int Z_STREAM_ERROR = -2;
+    private final static int STAGE_SIZE = 8192;
+    private final static byte[] EMPTY = new byte[0];
     protected byte[] nextin;     // next input byte
     protected int nextinindex;
     protected int availin;       // number of bytes available at next_in
@@ -19,6 +24,9 @@ public class ZStream {
     protected Inflate istate;
     protected int dataType; // best guess about the data type: ascii or binary
     protected long adler;
+    protected ByteBuffer inbuffer;  // input set by setInput(ByteBuffer), or null
+    protected ByteBuffer outbuffer; // output of the current deflate/inflate(ByteBuffer) call, or null
+    private byte[] stage;           // input of inflate, staged from a direct buffer
 
     final public int inflateInit() {
         return inflateInit(DEF_WBITS);
@@ -44,6 +52,56 @@ public class ZStream {
         return istate.inflate(this, f);
     }
 
+    /**
+     * Inflates from the buffer set by {@link #setInput(ByteBuffer)} into the remaining space
+     * of the output buffer, whose position is advanced past the inflated bytes. The input
+     * buffer is advanced past the consumed bytes, it is kept for the next call if it still
+     * has bytes remaining. Heap buffers are used in place, a direct input buffer is read in
+     * slices into a small array of this stream, because the decoder reads its input
+     * byte by byte.
+     *
+     * @param output the buffer to inflate into, heap or direct
+     * @param f the flush mode
+     * @return the return code of {@link #inflate(int)}
+     */
+    final public int inflate(ByteBuffer output, int f) {
+        if (istate == null) {
+            return Z_STREAM_ERROR;
+        }
+        setOutput(output);
+        try {
+            ByteBuffer input = inbuffer;
+            if (input == null || input.hasArray()) {
+                setHeapInput(input);
+                try {
+                    return istate.inflate(this, f);
+                } finally {
+                    releaseHeapInput(input);
+                }
+            }
+            if (stage == null) {
+                stage = new byte[STAGE_SIZE];
+            }
+            int ret;
+            do {
+                int pos = input.position();
+                int len = Math.min(input.remaining(), stage.length);
+                input.get(stage, 0, len);
+                nextin = stage;
+                nextinindex = 0;
+                availin = len;
+                ret = istate.inflate(this, f);
+                input.position(pos + nextinindex);
+            } while (ret == Z_OK && availin == 0 && availout > 0 && input.hasRemaining());
+            availin = input.remaining();
+            nextin = null;
+            return ret;
+        } finally {
+            outbuffer = null;
+            availout = 0;
+        }
+    }
+
     final public int inflateEnd() {
         if (istate == null) {
             return Z_STREAM_ERROR;
@@ -91,6 +149,34 @@ public class ZStream {
         return dstate.deflate(this, flush);
     }
 
+    /**
+     * Deflates from the buffer set by {@link #setInput(ByteBuffer)} into the remaining space
+     * of the output buffer, whose position is advanced past the deflated bytes. Input bytes
+     * are copied from the input buffer straight into the sliding window, and output bytes
+     * from the pending buffer straight into the output buffer, whether the buffers are heap
+     * or direct buffers. The input buffer is advanced past the consumed bytes, it is kept
+     * for the next call if it still has bytes remaining.
+     *
+     * @param output the buffer to deflate into, heap or direct
+     * @param flush the flush mode
+     * @return the return code of {@link #deflate(int)}
+     */
+    final public int deflate(ByteBuffer output, int flush) {
+        if (dstate == null) {
+            return Z_STREAM_ERROR;
+        }
+        setOutput(output);
+        nextin = null;
+        nextinindex = 0;
+        availin = inbuffer == null ? 0 : inbuffer.remaining();
+        try {
+            return dstate.deflate(this, flush);
+        } finally {
+            outbuffer = null;
+            availout = 0;
+        }
+    }
+
     final public int deflateEnd() {
         if (dstate == null) {
             return Z_STREAM_ERROR;
@@ -114,6 +200,72 @@ public class ZStream {
         return dstate.deflateSetDictionary(this, dictionary, dictLength);
     }
 
+    /**
+     * Sets the input of {@link #deflate(ByteBuffer, int)} and {@link #inflate(ByteBuffer, int)},
+     * from the position to the limit of a heap or direct buffer. The buffer must not be
+     * modified until it is consumed, or the input is set again.
+     *
+     * @param input the input buffer
+     */
+    public void setInput(ByteBuffer input) {
+        inbuffer = input;
+        nextin = null;
+        nextinindex = 0;
+        availin = input.remaining();
+    }
+
+    /**
+     * @return true if the input set by {@link #setInput(ByteBuffer)} is consumed
+     */
+    public boolean needsInput() {
+        return inbuffer == null || !inbuffer.hasRemaining();
+    }
+
+    public long getTotalIn() {
+        return totalin;
+    }
+
+    public long getTotalOut() {
+        return totalout;
+    }
+
+    private void setOutput(ByteBuffer output) {
+        outbuffer = output;
+        nextout = EMPTY;
+        nextoutindex = 0;
+        availout = output.remaining();
+    }
+
+    private void setHeapInput(ByteBuffer input) {
+        if (input == null) {
+            nextin = EMPTY;
+            nextinindex = 0;
+            availin = 0;
+        } else {
+            nextin = input.array();
+            nextinindex = input.arrayOffset() + input.position();
+            availin = input.remaining();
+        }
+    }
+
+    private void releaseHeapInput(ByteBuffer input) {
+        if (input != null) {
+            input.position(nextinindex - input.arrayOffset());
+        }
+        nextin = null;
+    }
+
+    // Copy output bytes to next_out, or to the output buffer of
+    // deflate(ByteBuffer, int) and inflate(ByteBuffer, int).
+    protected void writeOutput(byte[] buf, int start, int len) {
+        if (outbuffer != null) {
+            outbuffer.put(buf, start, len);
+        } else {
+            System.arraycopy(buf, start, nextout, nextoutindex, len);
+        }
+        nextoutindex += len;
+    }
+
     // Flush as much pending output as possible. All deflate() output goes
     // through this function so some applications may wish to modify it
     // to avoid allocating a large strm->next_out buffer and copying into it.
@@ -128,10 +280,8 @@ public class ZStream {
             return;
         }
 
-        System.arraycopy(dstate.getPendingBuf(), dstate.getPendingOut(),
-                nextout, nextoutindex, len);
+        writeOutput(dstate.getPendingBuf(), dstate.getPendingOut(), len);
 
-        nextoutindex += len;
         dstate.setPendingOut(dstate.getPendingOut() + len);
         totalout += len;
         availout -= len;
@@ -158,11 +308,15 @@ public class ZStream {
 
         availin -= len;
 
+        if (inbuffer != null && nextin == null) {
+            inbuffer.get(buf, start, len);
+        } else {
+            System.arraycopy(nextin, nextinindex, buf, start, len);
+            nextinindex += len;
+        }
         if (dstate.getNoHeader() == 0) {
-            adler = Adler32.adler32(adler, nextin, nextinindex, len);
+            adler = Adler32.adler32(adler, buf, start, len);
         }
-        System.arraycopy(nextin, nextinindex, buf, start, len);
-        nextinindex += len;
         totalin += len;
         return len;
     }
@@ -170,6 +324,9 @@ public class ZStream {
     public void free() {
         nextin = null;
         nextout = null;
+        inbuffer = null;
+        outbuffer = null;
+        stage = null;
         msg = null;
     }
 }
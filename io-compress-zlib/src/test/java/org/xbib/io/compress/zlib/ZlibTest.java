@@ -1,11 +1,19 @@
 package org.xbib.io.compress.zlib;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.Test;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
 
 public class ZlibTest {
 
@@ -347,4 +355,197 @@ public class ZlibTest {
             throw new RuntimeException("bad large inflate: " + d_stream.totalout);
         }
     }
+
+    @Test
+    public void testAllLevels() throws Exception {
+        // text with repetitions at all distances, runs, and a few random bytes,
+        // so each level takes matches of all lengths
+        Random random = new Random(1);
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        String[] words = {"deflate", "inflate", "window", "match", "literal", "hash", "chain", "zlib"};
+        while (data.size() < 300000) {
+            switch (random.nextInt(10)) {
+                case 0:
+                    byte[] run = new byte[random.nextInt(300)];
+                    Arrays.fill(run, (byte) random.nextInt(256));
+                    data.write(run);
+                    break;
+                case 1:
+                    data.write(random.nextInt(256));
+                    break;
+                default:
+                    data.write(words[random.nextInt(words.length)].getBytes());
+                    data.write(' ');
+                    break;
+            }
+        }
+        byte[] uncompr = data.toByteArray();
+        for (int level = ZConstants.Z_NO_COMPRESSION; level <= ZConstants.Z_BEST_COMPRESSION; level++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (ZOutputStream zOut = new ZOutputStream(out, level, false)) {
+                zOut.write(uncompr);
+            }
+            byte[] compr = out.toByteArray();
+            Inflater inflater = new Inflater();
+            inflater.setInput(compr);
+            byte[] result = new byte[uncompr.length + 1];
+            int len = inflater.inflate(result);
+            assertTrue(inflater.finished());
+            assertEquals(uncompr.length, len, "level " + level);
+            assertArrayEquals(uncompr, Arrays.copyOf(result, len), "level " + level);
+            inflater.end();
+        }
+    }
+
+    @Test
+    public void testWindowBitsAndFlushes() throws Exception {
+        // small windows slide often, and flushes empty the bit buffer in the middle of the stream
+        Random random = new Random(2);
+        byte[] uncompr = new byte[200000];
+        for (int i = 0; i < uncompr.length; i++) {
+            uncompr[i] = (byte) ('a' + random.nextInt(6));
+        }
+        int[] flushes = {ZConstants.Z_NO_FLUSH, ZConstants.Z_PARTIAL_FLUSH, ZConstants.Z_SYNC_FLUSH,
+                ZConstants.Z_FULL_FLUSH};
+        for (int bits : new int[]{9, 12, 15}) {
+            for (int level : new int[]{1, 3, 6}) {
+                ZStream stream = new ZStream();
+                checkError(stream, stream.deflateInit(level, bits), "deflateInit");
+                byte[] compr = new byte[uncompr.length * 2];
+                stream.nextout = compr;
+                stream.nextoutindex = 0;
+                stream.availout = compr.length;
+                stream.nextin = uncompr;
+                stream.nextinindex = 0;
+                for (int pos = 0; pos < uncompr.length; pos += 7000) {
+                    stream.availin = Math.min(7000, uncompr.length - pos);
+                    checkError(stream, stream.deflate(flushes[(pos / 7000) % flushes.length]), "deflate");
+                }
+                assertEquals(ZConstants.Z_STREAM_END, stream.deflate(ZConstants.Z_FINISH));
+                checkError(stream, stream.deflateEnd(), "deflateEnd");
+                Inflater inflater = new Inflater();
+                inflater.setInput(compr, 0, (int) stream.totalout);
+                byte[] result = new byte[uncompr.length + 1];
+                int len = inflater.inflate(result);
+                assertTrue(inflater.finished());
+                assertArrayEquals(uncompr, Arrays.copyOf(result, len), "bits " + bits + " level " + level);
+                inflater.end();
+            }
+        }
+    }
+
+    @Test
+    public void testByteBuffers() throws Exception {
+        Random random = new Random(1);
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        String[] words = {"deflate", "inflate", "window", "buffer", "direct", "heap"};
+        while (data.size() < 200000) {
+            data.write(random.nextInt(20) == 0 ? random.nextInt(256) : ' ');
+            data.write(words[random.nextInt(words.length)].getBytes());
+        }
+        byte[] uncompr = data.toByteArray();
+        for (boolean direct : new boolean[]{false, true}) {
+            // deflate in slices of random size, into a small output buffer
+            ByteBuffer input = allocate(uncompr.length, direct);
+            input.put(uncompr).flip();
+            ByteBuffer output = allocate(1000, direct);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            ZStream deflater = new ZStream();
+            assertEquals(ZConstants.Z_OK, deflater.deflateInit(ZConstants.Z_DEFAULT_COMPRESSION));
+            while (input.hasRemaining()) {
+                ByteBuffer slice = input.duplicate();
+                slice.limit(Math.min(input.limit(), input.position() + random.nextInt(5000)));
+                deflater.setInput(slice);
+                while (!deflater.needsInput()) {
+                    output.clear();
+                    int err = deflater.deflate(output, ZConstants.Z_NO_FLUSH);
+                    assertTrue(err == ZConstants.Z_OK || err == ZConstants.Z_BUF_ERROR);
+                    compressed.write(drain(output));
+                }
+                input.position(slice.position());
+            }
+            int err;
+            do {
+                output.clear();
+                err = deflater.deflate(output, ZConstants.Z_FINISH);
+                compressed.write(drain(output));
+            } while (err == ZConstants.Z_OK);
+            assertEquals(ZConstants.Z_STREAM_END, err);
+            assertEquals(uncompr.length, deflater.getTotalIn());
+            assertEquals(compressed.size(), deflater.getTotalOut());
+            deflater.deflateEnd();
+            Inflater jdkInflater = new Inflater();
+            jdkInflater.setInput(compressed.toByteArray());
+            byte[] result = new byte[uncompr.length + 1];
+            assertEquals(uncompr.length, jdkInflater.inflate(result));
+            assertArrayEquals(uncompr, Arrays.copyOf(result, uncompr.length));
+            jdkInflater.end();
+
+            // inflate the output of the JDK deflater in slices of random size
+            Deflater jdkDeflater = new Deflater();
+            jdkDeflater.setInput(uncompr);
+            jdkDeflater.finish();
+            byte[] buf = new byte[uncompr.length];
+            int len = jdkDeflater.deflate(buf);
+            assertTrue(jdkDeflater.finished());
+            jdkDeflater.end();
+            input = allocate(len, direct);
+            input.put(buf, 0, len).flip();
+            ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+            ZStream inflater = new ZStream();
+            assertEquals(ZConstants.Z_OK, inflater.inflateInit());
+            err = ZConstants.Z_OK;
+            while (err == ZConstants.Z_OK || err == ZConstants.Z_BUF_ERROR) {
+                ByteBuffer slice = input.duplicate();
+                slice.limit(Math.min(input.limit(), input.position() + random.nextInt(3000)));
+                inflater.setInput(slice);
+                do {
+                    output.clear();
+                    err = inflater.inflate(output, ZConstants.Z_NO_FLUSH);
+                    inflated.write(drain(output));
+                } while (err == ZConstants.Z_OK && (!inflater.needsInput() || !output.hasRemaining()));
+                input.position(slice.position());
+                assertTrue(err != ZConstants.Z_BUF_ERROR || input.hasRemaining());
+            }
+            assertEquals(ZConstants.Z_STREAM_END, err);
+            assertEquals(len, inflater.getTotalIn());
+            inflater.inflateEnd();
+            assertArrayEquals(uncompr, inflated.toByteArray());
+
+            // gzip through the JDK deflater
+            BufferDeflater bufferDeflater = new BufferDeflater(true);
+            ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+            input = allocate(uncompr.length, direct);
+            input.put(uncompr).flip();
+            while (input.hasRemaining()) {
+                ByteBuffer slice = input.duplicate();
+                slice.limit(Math.min(input.limit(), input.position() + random.nextInt(50000)));
+                gzip.write(remaining(bufferDeflater.deflate(slice)));
+                assertTrue(!slice.hasRemaining());
+                input.position(slice.position());
+            }
+            gzip.write(remaining(bufferDeflater.doFinal()));
+            try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip.toByteArray()))) {
+                assertArrayEquals(uncompr, in.readAllBytes());
+            }
+        }
+    }
+
+    /**
+     * A direct buffer, or a heap buffer which does not start at the beginning of its array.
+     */
+    private static ByteBuffer allocate(int size, boolean direct) {
+        return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size + 7).position(7).slice();
+    }
+
+    private static byte[] drain(ByteBuffer buffer) {
+        buffer.flip();
+        return remaining(buffer);
+    }
+
+    private static byte[] remaining(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
 }